@@ -18,6 +18,8 @@ package org.cometd.bayeux;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>Reification of a {@link Channel#getId() channel id} with methods to test properties
@@ -27,11 +29,19 @@ import java.util.List;
  * <p>{@link ChannelId} can be wild, when they end with one or two wild characters {@code "*"};
  * a {@link ChannelId} is shallow wild if it ends with one wild character (for example {@code /foo/bar/*})
  * and deep wild if it ends with two wild characters (for example {@code /foo/bar/**}).</p>
+ * <p>{@link #from(String)} returns {@link ChannelId}s from a bounded cache, so that
+ * resolving the same channel id repeatedly does not split it every time.
+ * The cache capacity defaults to {@value #DEFAULT_CACHE_CAPACITY} entries and can be
+ * configured with the {@value #CACHE_CAPACITY_PROPERTY} system property or with
+ * {@link #setCacheCapacity(int)}.</p>
  */
 public class ChannelId
 {
     public final static String WILD = "*";
     public final static String DEEPWILD = "**";
+    public final static String CACHE_CAPACITY_PROPERTY = "org.cometd.bayeux.ChannelId.cacheCapacity";
+    public final static int DEFAULT_CACHE_CAPACITY = 8192;
+    private static volatile Cache _cache = new Cache(Integer.getInteger(CACHE_CAPACITY_PROPERTY, DEFAULT_CACHE_CAPACITY));
 
     private final String _id;
     private volatile String[] _segments;
@@ -56,8 +66,64 @@ public class ChannelId
         _id = id;
     }
 
+    /**
+     * <p>Returns a {@code ChannelId} for the given id, possibly shared with other callers.</p>
+     * <p>The returned {@code ChannelId} has its segments, wilds and hash code already computed,
+     * so that its methods can be called concurrently on the hot path without further work.</p>
+     *
+     * @param id the channel id in string form
+     * @return a {@code ChannelId} for the given id
+     */
+    public static ChannelId from(String id)
+    {
+        if (id == null)
+            throw new IllegalArgumentException("Invalid channel id: " + id);
+
+        Cache cache = _cache;
+        ChannelId result = cache.get(id);
+        if (result != null)
+            return result;
+
+        result = new ChannelId(id);
+        try
+        {
+            result.resolve();
+        }
+        catch (IllegalArgumentException x)
+        {
+            // Keep the failure lazy, as it is for constructed ChannelIds
+            return result;
+        }
+        result.hashCode();
+        return cache.put(id, result);
+    }
+
+    /**
+     * @return the max number of {@code ChannelId}s cached by {@link #from(String)}
+     */
+    public static int getCacheCapacity()
+    {
+        return _cache.capacity();
+    }
+
+    /**
+     * <p>Sets the max number of {@code ChannelId}s cached by {@link #from(String)},
+     * discarding the cached ones.</p>
+     *
+     * @param capacity the cache capacity, or zero to disable the cache
+     */
+    public static void setCacheCapacity(int capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+        _cache = new Cache(capacity);
+    }
+
     private void resolve()
     {
+        if (_segments != null)
+            return;
+
         synchronized (this)
         {
             if (_segments != null)
@@ -363,4 +429,88 @@ public class ChannelId
     {
         return !isMeta(channelId) && !isService(channelId);
     }
+
+    /**
+     * <p>A bounded cache with CLOCK eviction.</p>
+     * <p>Lookups do not lock and only mark the entry as referenced; insertions lock
+     * and, when the cache is full, sweep the entries in insertion order clearing
+     * their referenced mark until an entry that has not been referenced since the
+     * previous sweep is found and replaced, so that channels that are resolved often
+     * stay cached while channels resolved once are evicted first.</p>
+     */
+    private static class Cache
+    {
+        private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<>();
+        private final Entry[] _clock;
+        private int _size;
+        private int _hand;
+
+        private Cache(int capacity)
+        {
+            _clock = new Entry[Math.max(0, capacity)];
+        }
+
+        private int capacity()
+        {
+            return _clock.length;
+        }
+
+        private ChannelId get(String id)
+        {
+            Entry entry = _entries.get(id);
+            if (entry == null)
+                return null;
+            if (!entry._referenced)
+                entry._referenced = true;
+            return entry._channelId;
+        }
+
+        private synchronized ChannelId put(String id, ChannelId channelId)
+        {
+            if (_clock.length == 0)
+                return channelId;
+
+            Entry existing = _entries.get(id);
+            if (existing != null)
+                return existing._channelId;
+
+            int slot;
+            if (_size < _clock.length)
+            {
+                slot = _size++;
+            }
+            else
+            {
+                while (true)
+                {
+                    Entry entry = _clock[_hand];
+                    if (!entry._referenced)
+                        break;
+                    entry._referenced = false;
+                    _hand = (_hand + 1) % _clock.length;
+                }
+                slot = _hand;
+                _entries.remove(_clock[slot]._id);
+                _hand = (_hand + 1) % _clock.length;
+            }
+
+            Entry entry = new Entry(id, channelId);
+            _clock[slot] = entry;
+            _entries.put(id, entry);
+            return channelId;
+        }
+    }
+
+    private static class Entry
+    {
+        private final String _id;
+        private final ChannelId _channelId;
+        private volatile boolean _referenced;
+
+        private Entry(String id, ChannelId channelId)
+        {
+            _id = id;
+            _channelId = channelId;
+        }
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.bayeux;
+
+/**
+ * <p>A {@link DataCodec} converts the {@link Message#getData() data} of the messages
+ * published onto a channel from and to a known data class.</p>
+ * <p>Codecs are registered on {@link org.cometd.bayeux.server.ServerChannel server channels}
+ * and on {@link org.cometd.bayeux.client.ClientSessionChannel client channels}, and allow
+ * to encode typed data with hand written code rather than with the reflection-based
+ * conversion of the JSON library.</p>
+ * <p>The data is encoded to its JSON representation, that is then embedded verbatim
+ * in the JSON representation of the message.
+ * The data is decoded from the generic structure (maps, lists or arrays, strings,
+ * numbers and booleans) produced by the JSON library.</p>
+ *
+ * @param <T> the data class
+ */
+public interface DataCodec<T>
+{
+    /**
+     * @return the class of the data handled by this codec
+     */
+    public Class<T> getDataClass();
+
+    /**
+     * @param data the data to encode
+     * @return the JSON representation of the data
+     */
+    public String encode(T data);
+
+    /**
+     * @param data the generic representation of the data, as parsed from JSON
+     * @return the typed data
+     */
+    public T decode(Object data);
+}
@@ -19,6 +19,7 @@ import java.util.List;
 
 import org.cometd.bayeux.Bayeux;
 import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.DataCodec;
 import org.cometd.bayeux.Message;
 
 /**
@@ -167,6 +168,23 @@ public interface ClientSessionChannel extends Channel
      */
     public boolean isReleased();
 
+    /**
+     * <p>Sets the {@link DataCodec} that converts the data of the messages of this channel.</p>
+     * <p>Published data that is an instance of the codec's data class is encoded by the codec,
+     * and the data of the messages received on this channel is decoded to the codec's data
+     * class before the listeners are notified.</p>
+     *
+     * @param codec the codec to set, or null to remove the codec
+     * @see #getDataCodec()
+     */
+    public void setDataCodec(DataCodec<?> codec);
+
+    /**
+     * @return the {@link DataCodec} of this channel, or null if no codec has been set
+     * @see #setDataCodec(DataCodec)
+     */
+    public DataCodec<?> getDataCodec();
+
     /**
      * <p>Represents a listener on a {@link ClientSessionChannel}.</p>
      * <p>Sub-interfaces specify the exact semantic of the listener.</p>
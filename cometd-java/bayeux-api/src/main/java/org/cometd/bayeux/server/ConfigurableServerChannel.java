@@ -19,6 +19,7 @@ import java.util.List;
 
 import org.cometd.bayeux.Bayeux;
 import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.DataCodec;
 
 /**
  * <p>A {@link ConfigurableServerChannel} offers an API that can be used to
@@ -111,6 +112,24 @@ public interface ConfigurableServerChannel extends Channel
      */
     public List<Authorizer> getAuthorizers();
 
+    /**
+     * <p>Sets the {@link DataCodec} that converts the data of the messages published
+     * onto this channel.</p>
+     * <p>Message data that is an instance of the codec's data class is encoded by the codec,
+     * and data received by the server is decoded to the codec's data class before the
+     * channel listeners are notified.</p>
+     *
+     * @param codec the codec to set, or null to remove the codec
+     * @see #getDataCodec()
+     */
+    public void setDataCodec(DataCodec<?> codec);
+
+    /**
+     * @return the {@link DataCodec} of this channel, or null if no codec has been set
+     * @see #setDataCodec(DataCodec)
+     */
+    public DataCodec<?> getDataCodec();
+
     /**
      * A listener interface by means of which listeners can atomically
      * set the initial configuration of a channel.
@@ -16,12 +16,15 @@
 package org.cometd.benchmark.client;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,12 +48,17 @@ import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
 import org.cometd.benchmark.Atomics;
 import org.cometd.benchmark.BenchmarkHelper;
+import org.cometd.benchmark.BenchmarkResults;
 import org.cometd.benchmark.Config;
+import org.cometd.benchmark.LatencyHistogram;
 import org.cometd.benchmark.MonitoringQueuedThreadPool;
+import org.cometd.benchmark.Scenario;
 import org.cometd.benchmark.SystemTimer;
 import org.cometd.client.BayeuxClient;
 import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.client.transport.ServerSentEventsTransport;
+import org.cometd.client.transport.StreamingTransport;
 import org.cometd.common.Jackson1JSONContextClient;
 import org.cometd.websocket.client.JettyWebSocketTransport;
 import org.cometd.websocket.client.WebSocketTransport;
@@ -63,6 +71,7 @@ public class BayeuxLoadClient
 {
     private static final String ID_FIELD = "ID";
     private static final String START_FIELD = "start";
+    private static final String SCHEDULED_FIELD = "scheduled";
 
     private final SystemTimer systemTimer = SystemTimer.detect();
     private final Random random = new Random();
@@ -82,6 +91,10 @@ public class BayeuxLoadClient
     private final AtomicLong maxLatency = new AtomicLong();
     private final AtomicLong totLatency = new AtomicLong();
     private final ConcurrentMap<Long, AtomicLong> wallLatencies = new ConcurrentHashMap<>();
+    private final LatencyHistogram wallLatencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram networkLatencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram correctedWallLatencyHistogram = new LatencyHistogram();
+    private final AtomicLong maxSendLag = new AtomicLong();
     private final Map<String, AtomicStampedReference<Long>> sendTimes = new ConcurrentHashMap<>();
     private final Map<String, AtomicStampedReference<List<Long>>> arrivalTimes = new ConcurrentHashMap<>();
     private ScheduledExecutorService scheduler;
@@ -93,7 +106,7 @@ public class BayeuxLoadClient
     public static void main(String[] args) throws Exception
     {
         BayeuxLoadClient client = new BayeuxLoadClient();
-        client.run();
+        client.run(args.length > 0 ? Scenario.load(Paths.get(args[0])) : null);
     }
 
     public long getResponses()
@@ -107,6 +120,15 @@ public class BayeuxLoadClient
     }
 
     public void run() throws Exception
+    {
+        run(null);
+    }
+
+    /**
+     * @param scenario the scenario to run unattended, or null to read the configuration from the console
+     * @throws Exception if the benchmark fails
+     */
+    public void run(Scenario scenario) throws Exception
     {
         System.err.println("detecting timer resolution...");
         System.err.printf("native timer resolution: %d \u00B5s%n", systemTimer.getNativeResolution());
@@ -114,80 +136,39 @@ public class BayeuxLoadClient
         System.err.println();
 
         BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        Scenario.Section config = scenario == null ? null : scenario.getClient();
 
-        String host = System.getProperty("cometd.server", "localhost");
-        System.err.printf("server [%s]: ", host);
-        String value = console.readLine().trim();
-        if (value.length() == 0)
-            value = host;
-        host = value;
+        String host = prompt(console, config, "host", "server", System.getProperty("cometd.server", "localhost"));
 
-        int port = Integer.parseInt(System.getProperty("cometd.port", "8080"));
-        System.err.printf("port [%d]: ", port);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(port);
-        port = Integer.parseInt(value);
+        int port = Integer.parseInt(prompt(console, config, "port", "port", System.getProperty("cometd.port", "8080")));
 
         ClientTransportType clientTransportType = ClientTransportType.LONG_POLLING;
-        System.err.printf("transports:%n");
-        for (ClientTransportType type : ClientTransportType.values())
-            System.err.printf("  %d - %s%n", type.ordinal(), type.getName());
-        System.err.printf("transport [%d]: ", clientTransportType.ordinal());
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(clientTransportType.ordinal());
-        clientTransportType = ClientTransportType.values()[Integer.parseInt(value)];
-
-        boolean ssl = false;
-        System.err.printf("use ssl [%b]: ", ssl);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(ssl);
-        ssl = Boolean.parseBoolean(value);
-
-        int maxThreads = Integer.parseInt(System.getProperty("cometd.threads", "256"));
-        System.err.printf("max threads [%d]: ", maxThreads);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(maxThreads);
-        maxThreads = Integer.parseInt(value);
-
-        String contextPath = Config.CONTEXT_PATH;
-        System.err.printf("context [%s]: ", contextPath);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = contextPath;
-        String uri = value + Config.SERVLET_PATH;
+        if (config == null)
+        {
+            System.err.printf("transports:%n");
+            for (ClientTransportType type : ClientTransportType.values())
+                System.err.printf("  %d - %s%n", type.ordinal(), type.getName());
+        }
+        clientTransportType = ClientTransportType.from(prompt(console, config, "transport", "transport", String.valueOf(clientTransportType.ordinal())));
+
+        boolean ssl = Boolean.parseBoolean(prompt(console, config, "ssl", "use ssl", String.valueOf(false)));
+
+        int maxThreads = Integer.parseInt(prompt(console, config, "maxThreads", "max threads", System.getProperty("cometd.threads", "256")));
+
+        String uri = prompt(console, config, "context", "context", Config.CONTEXT_PATH) + Config.SERVLET_PATH;
         String url = (ssl ? "https" : "http") + "://" + host + ":" + port + uri;
 
-        String channel = System.getProperty("cometd.channel", "/chat/demo");
-        System.err.printf("channel [%s]: ", channel);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = channel;
-        channel = value;
-
-        int rooms = Integer.parseInt(System.getProperty("cometd.rooms", "100"));
-        System.err.printf("rooms [%d]: ", rooms);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(rooms);
-        rooms = Integer.parseInt(value);
-
-        int roomsPerClient = 10;
-        System.err.printf("rooms per client [%d]: ", roomsPerClient);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(roomsPerClient);
-        roomsPerClient = Integer.parseInt(value);
-
-        boolean recordLatencyDetails = true;
-        System.err.printf("record latency details [%b]: ", recordLatencyDetails);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(recordLatencyDetails);
-        recordLatencyDetails = Boolean.parseBoolean(value);
+        String channel = prompt(console, config, "channel", "channel", System.getProperty("cometd.channel", "/chat/demo"));
+
+        int rooms = Integer.parseInt(prompt(console, config, "rooms", "rooms", System.getProperty("cometd.rooms", "100")));
+
+        int roomsPerClient = Integer.parseInt(prompt(console, config, "roomsPerClient", "rooms per client", String.valueOf(10)));
+
+        boolean recordLatencyDetails = Boolean.parseBoolean(prompt(console, config, "recordLatencyDetails", "record latency details", String.valueOf(true)));
+
+        BenchmarkResults results = null;
+        if (config != null && config.has("results"))
+            results = new BenchmarkResults(Paths.get(config.getString("results", null)));
 
         scheduler = Executors.newScheduledThreadPool(8);
 
@@ -228,25 +209,37 @@ public class BayeuxLoadClient
         LoadBayeuxClient statsClient = new LoadBayeuxClient(url, scheduler, newClientTransport(clientTransportType), null);
         statsClient.handshake();
 
-        int clients = 100;
-        int batchCount = 1000;
-        int batchSize = 10;
-        long batchPause = 10000;
-        int messageSize = 50;
-        boolean randomize = false;
-
+        Iterator<Scenario.Phase> phases = scenario == null ? null : scenario.getPhases().iterator();
+        Scenario.Phase phase = null;
+        int phaseIndex = 0;
         while (true)
         {
             System.err.println("-----");
 
-            System.err.printf("clients [%d]: ", clients);
-            value = console.readLine();
-            if (value == null)
-                break;
-            value = value.trim();
-            if (value.length() == 0)
-                value = String.valueOf(clients);
-            clients = Integer.parseInt(value);
+            Map<String, Object> phaseConfig = new HashMap<>();
+            int clients;
+            long rampUp = 0;
+            if (phases == null)
+            {
+                clients = phase == null ? 100 : phase.getClients();
+                System.err.printf("clients [%d]: ", clients);
+                String value = console.readLine();
+                if (value == null)
+                    break;
+                value = value.trim();
+                if (value.length() > 0)
+                    clients = Integer.parseInt(value);
+                phaseConfig.put("clients", clients);
+            }
+            else
+            {
+                if (!phases.hasNext())
+                    break;
+                phase = phases.next();
+                clients = phase.getClients();
+                rampUp = phase.getRampUp();
+                System.err.printf("Phase %s: %s%n", phase.getName(), phase);
+            }
 
             System.err.println("Waiting for clients to be ready...");
 
@@ -254,17 +247,26 @@ public class BayeuxLoadClient
             int currentClients = bayeuxClients.size();
             if (currentClients < clients)
             {
-                for (int i = 0; i < clients - currentClients; ++i)
+                int newClients = clients - currentClients;
+                for (int i = 0; i < newClients; ++i)
                 {
                     LoadBayeuxClient client = new LoadBayeuxClient(url, scheduler, newClientTransport(clientTransportType), latencyListener);
                     client.getChannel(Channel.META_HANDSHAKE).addListener(handshakeListener);
                     client.getChannel(Channel.META_DISCONNECT).addListener(disconnectListener);
                     client.handshake();
 
-                    // Give some time to the server to accept connections and
-                    // reply to handshakes, connects and subscribes
-                    if (i % 10 == 0)
-                        Thread.sleep(50);
+                    if (rampUp > 0)
+                    {
+                        // Spread the new clients evenly during the ramp up
+                        TimeUnit.MICROSECONDS.sleep(TimeUnit.MILLISECONDS.toMicros(rampUp) / newClients);
+                    }
+                    else
+                    {
+                        // Give some time to the server to accept connections and
+                        // reply to handshakes, connects and subscribes
+                        if (i % 10 == 0)
+                            Thread.sleep(50);
+                    }
                 }
             }
             else if (currentClients > clients)
@@ -315,48 +317,37 @@ public class BayeuxLoadClient
 
             reset();
 
-            System.err.printf("batch count [%d]: ", batchCount);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(batchCount);
-            batchCount = Integer.parseInt(value);
-
-            System.err.printf("batch size [%d]: ", batchSize);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(batchSize);
-            batchSize = Integer.parseInt(value);
-
-            System.err.printf("batch pause (\u00B5s) [%d]: ", batchPause);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(batchPause);
-            batchPause = Long.parseLong(value);
-
-            System.err.printf("message size [%d]: ", messageSize);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(messageSize);
-            messageSize = Integer.parseInt(value);
+            if (phases == null)
+            {
+                Scenario.Phase defaults = phase == null ? new Scenario.Phase(0, phaseConfig, null) : phase;
+                phaseConfig.put("batches", Integer.parseInt(prompt(console, null, null, "batch count", String.valueOf(defaults.getBatches()))));
+                phaseConfig.put("batchSize", Integer.parseInt(prompt(console, null, null, "batch size", String.valueOf(defaults.getBatchSize()))));
+                phaseConfig.put("batchPause", Long.parseLong(prompt(console, null, null, "batch pause (\u00B5s)", String.valueOf(defaults.getBatchPause()))));
+                phaseConfig.put("messageSize", Integer.parseInt(prompt(console, null, null, "message size", String.valueOf(defaults.getMessageSize()))));
+                phaseConfig.put("randomize", Boolean.parseBoolean(prompt(console, null, null, "randomize sends", String.valueOf(defaults.isRandomize()))));
+                phaseConfig.put("openLoop", Boolean.parseBoolean(prompt(console, null, null, "open loop sends", String.valueOf(defaults.isOpenLoop()))));
+                phase = new Scenario.Phase(++phaseIndex, phaseConfig, phase);
+            }
+
+            int batchCount = phase.getBatches();
+            int batchSize = phase.getBatchSize();
+            long batchPause = phase.getBatchPause();
+            int messageSize = phase.getMessageSize();
+            boolean randomize = phase.isRandomize();
+            boolean openLoop = phase.isOpenLoop();
             String chat = "";
             for (int i = 0; i < messageSize; i++)
                 chat += "x";
 
-            System.err.printf("randomize sends [%b]: ", randomize);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(randomize);
-            randomize = Boolean.parseBoolean(value);
-
             // Send a message to the server to signal the start of the test
-            statsClient.begin();
+            statsClient.begin(phase.getName());
 
             helper.startStatistics();
             System.err.printf("Testing %d clients in %d rooms, %d rooms/client%n", bayeuxClients.size(), rooms, roomsPerClient);
-            System.err.printf("Sending %d batches of %dx%d bytes messages every %d \u00B5s%n", batchCount, batchSize, messageSize, batchPause);
+            System.err.printf("Sending %d batches of %dx%d bytes messages every %d \u00B5s (%s loop)%n", batchCount, batchSize, messageSize, batchPause, openLoop ? "open" : "closed");
 
             long start = System.nanoTime();
-            long expected = runBatches(batchCount, batchSize, batchPause, chat, randomize, channel);
+            long expected = runBatches(batchCount, batchSize, batchPause, chat, randomize, openLoop, channel);
             long end = System.nanoTime();
 
             helper.stopStatistics();
@@ -375,13 +366,19 @@ public class BayeuxLoadClient
             waitForMessages(expected);
 
             // Send a message to the server to signal the end of the test
-            statsClient.end();
+            statsClient.end(phase.getName());
+
+            if (results != null)
+                results.addPhase(phase.getName(), newPhaseResult(phase, elapsedNanos, expected), newPhaseHistograms(openLoop));
 
             printReport(expected, messageSize);
 
             reset();
         }
 
+        if (results != null)
+            System.err.printf("Results written to %s%n", results.getDirectory().toAbsolutePath());
+
         statsClient.disconnect(1000);
 
         webSocketClient.stop();
@@ -394,12 +391,77 @@ public class BayeuxLoadClient
         scheduler.awaitTermination(1000, TimeUnit.MILLISECONDS);
     }
 
-    private long runBatches(int batchCount, int batchSize, long batchPause, String chat, boolean randomize, String channel)
+    private String prompt(BufferedReader console, Scenario.Section config, String name, String message, String defaultValue) throws IOException
+    {
+        if (config != null)
+            return config.getString(name, defaultValue);
+        System.err.printf("%s [%s]: ", message, defaultValue);
+        String value = console.readLine();
+        if (value == null)
+            return defaultValue;
+        value = value.trim();
+        return value.length() == 0 ? defaultValue : value;
+    }
+
+    private Map<String, Object> newPhaseResult(Scenario.Phase phase, long outgoingNanos, long expected)
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : phase.toMap().entrySet())
+        {
+            if (!"name".equals(entry.getKey()))
+                result.put(entry.getKey(), entry.getValue());
+        }
+        long sent = (long)phase.getBatches() * phase.getBatchSize();
+        result.put("sent", sent);
+        result.put("sendRate", outgoingNanos > 0 ? sent * TimeUnit.SECONDS.toNanos(1) / outgoingNanos : 0);
+        long received = messages.get();
+        long incomingNanos = end.get() - start.get();
+        result.put("expected", expected);
+        result.put("received", received);
+        result.put("receiveRate", incomingNanos > 0 ? received * TimeUnit.SECONDS.toNanos(1) / incomingNanos : 0);
+        if (phase.isOpenLoop())
+            result.put("maxSendLag", BenchmarkResults.LATENCY_UNIT.convert(maxSendLag.get(), TimeUnit.NANOSECONDS));
+        return result;
+    }
+
+    private Map<String, LatencyHistogram> newPhaseHistograms(boolean openLoop)
+    {
+        Map<String, LatencyHistogram> result = new LinkedHashMap<>();
+        result.put("wallLatency", wallLatencyHistogram);
+        result.put("networkLatency", networkLatencyHistogram);
+        if (openLoop)
+            result.put("correctedWallLatency", correctedWallLatencyHistogram);
+        return result;
+    }
+
+    /**
+     * <p>Sends the batches of messages.</p>
+     * <p>In closed loop, every batch is followed by a pause, so that if sending a batch
+     * takes long, all the following batches are delayed.
+     * In open loop, the batches are scheduled on a fixed timeline, one every {@code batchPause}
+     * microseconds; batches that fall behind the timeline are sent without pausing, and their
+     * messages carry the time at which they were meant to be sent, so that the time spent
+     * behind the timeline is accounted for in the corrected latencies.</p>
+     */
+    private long runBatches(int batchCount, int batchSize, long batchPause, String chat, boolean randomize, boolean openLoop, String channel)
     {
         int clientIndex = -1;
         long expected = 0;
+        long begin = System.nanoTime();
+        long pauseNanos = TimeUnit.MICROSECONDS.toNanos(batchPause);
         for (int i = 0; i < batchCount; ++i)
         {
+            long scheduled = -1;
+            if (openLoop)
+            {
+                scheduled = begin + i * pauseNanos;
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0)
+                    systemTimer.sleep(TimeUnit.NANOSECONDS.toMicros(delay));
+                else
+                    Atomics.updateMax(maxSendLag, -delay);
+            }
+
             if (randomize)
             {
                 clientIndex = nextRandom(bayeuxClients.size());
@@ -411,12 +473,15 @@ public class BayeuxLoadClient
                     clientIndex = 0;
             }
             LoadBayeuxClient client = bayeuxClients.get(clientIndex);
-            expected += sendBatches(batchSize, batchPause, chat, channel, client);
+            expected += sendBatches(batchSize, chat, channel, client, scheduled);
+
+            if (!openLoop && batchPause > 0)
+                systemTimer.sleep(batchPause);
         }
         return expected;
     }
 
-    private long sendBatches(int batchSize, long batchPause, String chat, String channel, LoadBayeuxClient client)
+    private long sendBatches(int batchSize, String chat, String channel, LoadBayeuxClient client, long scheduled)
     {
         long expected = 0;
         client.startBatch();
@@ -436,6 +501,8 @@ public class BayeuxLoadClient
             message.put("chat", chat);
             // Mandatory fields to record latencies
             message.put(START_FIELD, System.nanoTime());
+            if (scheduled >= 0)
+                message.put(SCHEDULED_FIELD, scheduled);
             message.put(ID_FIELD, String.valueOf(ids.incrementAndGet()));
             ClientSessionChannel clientChannel = client.getChannel(getChannelId(channel + "/" + room));
             clientChannel.publish(message);
@@ -443,10 +510,6 @@ public class BayeuxLoadClient
             expected += clientsPerRoom.get();
         }
         client.endBatch();
-
-        if (batchPause > 0)
-            systemTimer.sleep(batchPause);
-
         return expected;
     }
 
@@ -481,6 +544,20 @@ public class BayeuxLoadClient
                 options.put(JettyWebSocketTransport.IDLE_TIMEOUT_OPTION, Config.META_CONNECT_TIMEOUT + httpClient.getIdleTimeout());
                 return new JettyWebSocketTransport(options, scheduler, webSocketClient);
             }
+            case STREAMING:
+            {
+                Map<String, Object> options = new HashMap<>();
+                options.put(ClientTransport.JSON_CONTEXT, new Jackson1JSONContextClient());
+                options.put(ClientTransport.MAX_NETWORK_DELAY_OPTION, Config.MAX_NETWORK_DELAY);
+                return new StreamingTransport(options, httpClient);
+            }
+            case SERVER_SENT_EVENTS:
+            {
+                Map<String, Object> options = new HashMap<>();
+                options.put(ClientTransport.JSON_CONTEXT, new Jackson1JSONContextClient());
+                options.put(ClientTransport.MAX_NETWORK_DELAY_OPTION, Config.MAX_NETWORK_DELAY);
+                return new ServerSentEventsTransport(options, httpClient);
+            }
             default:
             {
                 throw new IllegalArgumentException();
@@ -509,6 +586,8 @@ public class BayeuxLoadClient
         Atomics.updateMin(minLatency, latency);
         Atomics.updateMax(maxLatency, latency);
         totLatency.addAndGet(latency);
+        wallLatencyHistogram.record(endTime - startTime);
+        networkLatencyHistogram.record(arrivalTime - sendTime);
 
         if (recordDetails)
         {
@@ -659,6 +738,13 @@ public class BayeuxLoadClient
                 messageCount == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(totLatency.get() / messageCount),
                 TimeUnit.NANOSECONDS.toMillis(maxLatency.get()));
 
+        printPercentiles("Wall Latency", wallLatencyHistogram);
+        if (correctedWallLatencyHistogram.getCount() > 0)
+        {
+            printPercentiles("Corrected Wall Latency", correctedWallLatencyHistogram);
+            System.err.printf("Messages - Send Lag max = %d ms%n", TimeUnit.NANOSECONDS.toMillis(maxSendLag.get()));
+        }
+
         System.err.printf("Thread Pool - Tasks = %d | Concurrent Threads max = %d | Queue Size max = %d | Queue Latency avg/max = %d/%d ms%n",
                 threadPool.getTasks(),
                 threadPool.getMaxActiveThreads(),
@@ -667,6 +753,17 @@ public class BayeuxLoadClient
                 TimeUnit.NANOSECONDS.toMillis(threadPool.getMaxQueueLatency()));
     }
 
+    private void printPercentiles(String name, LatencyHistogram histogram)
+    {
+        System.err.printf("Messages - %s 50th%%/99th%%/99.9th%%/99.99th%%/max = %d/%d/%d/%d/%d ms%n",
+                name,
+                TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(99)),
+                TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(99.9)),
+                TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(99.99)),
+                TimeUnit.NANOSECONDS.toMillis(histogram.getMax()));
+    }
+
     private void reset()
     {
         threadPool.reset();
@@ -681,6 +778,10 @@ public class BayeuxLoadClient
         maxLatency.set(0L);
         totLatency.set(0L);
         wallLatencies.clear();
+        wallLatencyHistogram.reset();
+        networkLatencyHistogram.reset();
+        correctedWallLatencyHistogram.reset();
+        maxSendLag.set(0L);
         sendTimes.clear();
         arrivalTimes.clear();
     }
@@ -785,6 +886,11 @@ public class BayeuxLoadClient
                     arrivalTimes.remove(id);
 
                 updateLatencies(startTime, sendTime, arrivalTime, endTime, recordDetails);
+
+                // In open loop, latencies are also measured from the time the message was meant to be sent
+                Number scheduledTime = (Number)data.get(SCHEDULED_FIELD);
+                if (scheduledTime != null)
+                    correctedWallLatencyHistogram.record(endTime - scheduledTime.longValue());
             }
             else
             {
@@ -832,21 +938,23 @@ public class BayeuxLoadClient
             subscriptions.clear();
         }
 
-        public void begin() throws InterruptedException
+        public void begin(String phase) throws InterruptedException
         {
-            notifyServer("/service/statistics/start");
+            notifyServer("/service/statistics/start", phase);
         }
 
-        public void end() throws InterruptedException
+        public void end(String phase) throws InterruptedException
         {
-            notifyServer("/service/statistics/stop");
+            notifyServer("/service/statistics/stop", phase);
         }
 
-        private void notifyServer(String channelName) throws InterruptedException
+        private void notifyServer(String channelName, String phase) throws InterruptedException
         {
             final CountDownLatch latch = new CountDownLatch(1);
             ClientSessionChannel channel = getChannel(channelName);
-            channel.publish(new HashMap<String, Object>(1), new ClientSessionChannel.MessageListener()
+            Map<String, Object> data = new HashMap<>(1);
+            data.put("phase", phase);
+            channel.publish(data, new ClientSessionChannel.MessageListener()
             {
                 public void onMessage(ClientSessionChannel channel, Message message)
                 {
@@ -910,7 +1018,7 @@ public class BayeuxLoadClient
 
     private enum ClientTransportType
     {
-        LONG_POLLING("long-polling"), JSR_WEBSOCKET("jsr-websocket"), JETTY_WEBSOCKET("jetty-websocket");
+        LONG_POLLING("long-polling"), JSR_WEBSOCKET("jsr-websocket"), JETTY_WEBSOCKET("jetty-websocket"), STREAMING("streaming"), SERVER_SENT_EVENTS("server-sent-events");
 
         private final String name;
 
@@ -923,5 +1031,19 @@ public class BayeuxLoadClient
         {
             return name;
         }
+
+        /**
+         * @param value the ordinal or the name of a transport type
+         * @return the transport type with the given ordinal or name
+         */
+        public static ClientTransportType from(String value)
+        {
+            for (ClientTransportType type : values())
+            {
+                if (type.getName().equals(value) || String.valueOf(type.ordinal()).equals(value))
+                    return type;
+            }
+            throw new IllegalArgumentException("Invalid transport: " + value);
+        }
     }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Measures the bytes allocated by code sections on the hot path, using the
+ * per-thread allocation counters of the JVM.</p>
+ * <p>Code sections are delimited by calls to {@link #enter()} and {@link #exit(Section, long)}
+ * on the same thread; sections may be nested, and the bytes allocated by a nested section
+ * are only accounted to the nested section.
+ * Only one in {@code sampling} outermost sections is measured, together with the sections
+ * nested in it; the bytes of the sections that are not measured are estimated from the
+ * ones that are.</p>
+ */
+public class AllocationProfiler
+{
+    private static final int MAX_DEPTH = 16;
+
+    private final Section handle = new Section();
+    private final Section flush = new Section();
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final int sampling;
+    private final ThreadLocal<Frames> frames = new ThreadLocal<Frames>()
+    {
+        @Override
+        protected Frames initialValue()
+        {
+            return new Frames();
+        }
+    };
+
+    /**
+     * @param sampling measure one in {@code sampling} outermost sections
+     */
+    public AllocationProfiler(int sampling)
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+        {
+            threadMXBean = (com.sun.management.ThreadMXBean)bean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        else
+        {
+            threadMXBean = null;
+        }
+        this.sampling = Math.max(1, sampling);
+    }
+
+    /**
+     * @return whether this JVM supports the measurement of per-thread allocations
+     */
+    public boolean isSupported()
+    {
+        return threadMXBean != null;
+    }
+
+    /**
+     * @return the section for the handling of received messages
+     */
+    public Section getHandle()
+    {
+        return handle;
+    }
+
+    /**
+     * @return the section for the transport work that flushes messages to clients
+     */
+    public Section getFlush()
+    {
+        return flush;
+    }
+
+    public void reset()
+    {
+        handle.reset();
+        flush.reset();
+    }
+
+    /**
+     * <p>Marks the beginning of a code section on the current thread.</p>
+     */
+    public void enter()
+    {
+        Frames frames = this.frames.get();
+        int depth = frames.depth++;
+        if (depth == 0)
+            frames.sampled = threadMXBean != null && (sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0);
+        if (frames.sampled && depth < MAX_DEPTH)
+        {
+            frames.nested[depth] = 0;
+            frames.begin[depth] = allocatedBytes();
+        }
+    }
+
+    /**
+     * <p>Marks the end of a code section on the current thread.</p>
+     *
+     * @param section the section to account the allocated bytes to
+     * @param messages the number of messages processed by the code section
+     */
+    public void exit(Section section, long messages)
+    {
+        Frames frames = this.frames.get();
+        int depth = --frames.depth;
+        section.calls.incrementAndGet();
+        if (messages > 0)
+            section.messages.addAndGet(messages);
+        if (frames.sampled && depth < MAX_DEPTH)
+        {
+            long bytes = allocatedBytes() - frames.begin[depth];
+            section.samples.incrementAndGet();
+            section.bytes.addAndGet(bytes - frames.nested[depth]);
+            if (depth > 0)
+                frames.nested[depth - 1] += bytes;
+        }
+    }
+
+    private long allocatedBytes()
+    {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static class Section
+    {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong messages = new AtomicLong();
+
+        /**
+         * @param count the number of messages to add to this section,
+         * when they are not known at the time the section exits
+         */
+        public void addMessages(long count)
+        {
+            messages.addAndGet(count);
+        }
+
+        public long getMessages()
+        {
+            return messages.get();
+        }
+
+        /**
+         * @return the bytes allocated by this section, estimated from the samples
+         */
+        public long getBytes()
+        {
+            long samples = this.samples.get();
+            return samples == 0 ? 0 : (long)((double)bytes.get() * calls.get() / samples);
+        }
+
+        /**
+         * @return the bytes allocated by this section per message, or -1 if no message has been processed
+         */
+        public long getBytesPerMessage()
+        {
+            long messages = this.messages.get();
+            return messages == 0 ? -1 : getBytes() / messages;
+        }
+
+        private void reset()
+        {
+            calls.set(0);
+            samples.set(0);
+            bytes.set(0);
+            messages.set(0);
+        }
+    }
+
+    private static class Frames
+    {
+        private final long[] begin = new long[MAX_DEPTH];
+        private final long[] nested = new long[MAX_DEPTH];
+        private int depth;
+        private boolean sampled;
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>Compares the results of a candidate build against the results of a baseline build,
+ * as written by {@link BenchmarkResults}, and decides whether the candidate regressed.</p>
+ * <p>Each side may be made of the result directories of repeated runs of the same scenario;
+ * the values of a metric are averaged across runs, phase by phase.
+ * The metrics compared are:</p>
+ * <ul>
+ * <li>rates, such as {@code receiveRate}, where higher is better;</li>
+ * <li>the 50th, 99th and 99.9th latency percentiles, where lower is better;</li>
+ * <li>allocated bytes per message, where lower is better.</li>
+ * </ul>
+ * <p>A metric regresses when it gets worse by more than the threshold configured for its kind
+ * and, when both sides have at least two runs, when the difference is statistically significant
+ * according to a one-sided Welch's t-test at the configured significance level.</p>
+ * <p>From the command line:</p>
+ * <pre>
+ * java -cp ... org.cometd.benchmark.BenchmarkComparator --baseline dir1,dir2,dir3 --candidate dir4,dir5,dir6
+ *     [--rate-threshold 5] [--latency-threshold 10] [--allocation-threshold 5] [--alpha 0.05]
+ * </pre>
+ * <p>The process exits with status 0 if no metric regressed, 1 if some metric regressed
+ * and 2 if the arguments are invalid.</p>
+ */
+public class BenchmarkComparator
+{
+    private double rateThreshold = 5;
+    private double latencyThreshold = 10;
+    private double allocationThreshold = 5;
+    private double alpha = 0.05;
+
+    public static void main(String[] args) throws Exception
+    {
+        BenchmarkComparator comparator = new BenchmarkComparator();
+        List<Path> baseline = new ArrayList<>();
+        List<Path> candidate = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                String value = ++i < args.length ? args[i] : null;
+                if (value == null)
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                switch (arg)
+                {
+                    case "--baseline":
+                        baseline.addAll(paths(value));
+                        break;
+                    case "--candidate":
+                        candidate.addAll(paths(value));
+                        break;
+                    case "--rate-threshold":
+                        comparator.setRateThreshold(Double.parseDouble(value));
+                        break;
+                    case "--latency-threshold":
+                        comparator.setLatencyThreshold(Double.parseDouble(value));
+                        break;
+                    case "--allocation-threshold":
+                        comparator.setAllocationThreshold(Double.parseDouble(value));
+                        break;
+                    case "--alpha":
+                        comparator.setAlpha(Double.parseDouble(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid argument " + arg);
+                }
+            }
+            if (baseline.isEmpty() || candidate.isEmpty())
+                throw new IllegalArgumentException("Missing --baseline or --candidate");
+        }
+        catch (IllegalArgumentException x)
+        {
+            System.err.println(x.getMessage());
+            System.err.println("Usage: BenchmarkComparator --baseline <dir>[,<dir>...] --candidate <dir>[,<dir>...] " +
+                    "[--rate-threshold <%>] [--latency-threshold <%>] [--allocation-threshold <%>] [--alpha <level>]");
+            System.exit(2);
+            return;
+        }
+
+        List<Comparison> comparisons = comparator.compare(load(baseline), load(candidate));
+        System.out.printf("%-24s %-36s %14s %14s %9s %8s  %s%n", "phase", "metric", "baseline", "candidate", "change", "p", "verdict");
+        for (Comparison comparison : comparisons)
+            System.out.println(comparison);
+        boolean regressed = isRegressed(comparisons);
+        System.out.println(regressed ? "NO-GO" : "GO");
+        System.exit(regressed ? 1 : 0);
+    }
+
+    private static List<Path> paths(String value)
+    {
+        List<Path> result = new ArrayList<>();
+        for (String token : value.split(","))
+        {
+            if (token.trim().length() > 0)
+                result.add(Paths.get(token.trim()));
+        }
+        return result;
+    }
+
+    /**
+     * @param directories the result directories of repeated runs
+     * @return the phases of each run, as written by {@link BenchmarkResults}
+     * @throws IOException if the results cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static List<List<Map<String, Object>>> load(List<Path> directories) throws IOException
+    {
+        List<List<Map<String, Object>>> runs = new ArrayList<>();
+        for (Path directory : directories)
+        {
+            try (Reader reader = Files.newBufferedReader(directory.resolve("results.json"), StandardCharsets.UTF_8))
+            {
+                List<Map<String, Object>> phases = new ArrayList<>();
+                for (Object phase : (Object[])JSON.parse(reader))
+                    phases.add((Map<String, Object>)phase);
+                runs.add(phases);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @param comparisons the comparisons returned by {@link #compare(List, List)}
+     * @return whether some metric regressed, in which case the candidate is a NO-GO
+     */
+    public static boolean isRegressed(List<Comparison> comparisons)
+    {
+        for (Comparison comparison : comparisons)
+        {
+            if (comparison.getVerdict() == Verdict.REGRESSION)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param threshold the percentage by which a rate must decrease to regress
+     */
+    public void setRateThreshold(double threshold)
+    {
+        rateThreshold = threshold;
+    }
+
+    /**
+     * @param threshold the percentage by which a latency percentile must increase to regress
+     */
+    public void setLatencyThreshold(double threshold)
+    {
+        latencyThreshold = threshold;
+    }
+
+    /**
+     * @param threshold the percentage by which the allocated bytes per message must increase to regress
+     */
+    public void setAllocationThreshold(double threshold)
+    {
+        allocationThreshold = threshold;
+    }
+
+    /**
+     * @param alpha the significance level of the t-test
+     */
+    public void setAlpha(double alpha)
+    {
+        this.alpha = alpha;
+    }
+
+    /**
+     * @param baseline the phases of the baseline runs
+     * @param candidate the phases of the candidate runs
+     * @return the comparisons of the metrics of the phases present in both the baseline and the candidate
+     */
+    public List<Comparison> compare(List<List<Map<String, Object>>> baseline, List<List<Map<String, Object>>> candidate)
+    {
+        Map<String, Map<String, List<Double>>> baselineValues = collect(baseline);
+        Map<String, Map<String, List<Double>>> candidateValues = collect(candidate);
+        List<Comparison> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<Double>>> phase : baselineValues.entrySet())
+        {
+            Map<String, List<Double>> candidateMetrics = candidateValues.get(phase.getKey());
+            if (candidateMetrics == null)
+                continue;
+            for (Map.Entry<String, List<Double>> metric : phase.getValue().entrySet())
+            {
+                List<Double> candidateSamples = candidateMetrics.get(metric.getKey());
+                if (candidateSamples != null)
+                    result.add(compare(phase.getKey(), metric.getKey(), metric.getValue(), candidateSamples));
+            }
+        }
+        return result;
+    }
+
+    private Comparison compare(String phase, String metric, List<Double> baseline, List<Double> candidate)
+    {
+        boolean higherIsBetter = isRate(metric);
+        double threshold = higherIsBetter ? rateThreshold : isAllocation(metric) ? allocationThreshold : latencyThreshold;
+
+        double baselineMean = mean(baseline);
+        double candidateMean = mean(candidate);
+        double change = baselineMean == 0 ? 0 : 100 * (candidateMean - baselineMean) / baselineMean;
+        // Positive when the candidate is worse
+        double worsening = higherIsBetter ? -change : change;
+
+        // Test in the direction of the change, so that improvements can be significant too
+        double p = Double.NaN;
+        if (baseline.size() > 1 && candidate.size() > 1)
+            p = welchTest(baseline, candidate, candidateMean > baselineMean);
+
+        Verdict verdict = Verdict.SAME;
+        boolean significant = Double.isNaN(p) || p < alpha;
+        if (significant && worsening > threshold)
+            verdict = Verdict.REGRESSION;
+        else if (significant && -worsening > threshold)
+            verdict = Verdict.IMPROVEMENT;
+        return new Comparison(phase, metric, baselineMean, candidateMean, change, p, verdict);
+    }
+
+    private Map<String, Map<String, List<Double>>> collect(List<List<Map<String, Object>>> runs)
+    {
+        Map<String, Map<String, List<Double>>> result = new LinkedHashMap<>();
+        for (List<Map<String, Object>> run : runs)
+        {
+            for (Map<String, Object> phase : run)
+            {
+                Map<String, Object> values = new LinkedHashMap<>();
+                flatten("", phase, values);
+                String name = String.valueOf(phase.get("phase"));
+                Map<String, List<Double>> metrics = result.get(name);
+                if (metrics == null)
+                {
+                    metrics = new LinkedHashMap<>();
+                    result.put(name, metrics);
+                }
+                for (Map.Entry<String, Object> entry : values.entrySet())
+                {
+                    String metric = entry.getKey();
+                    Object value = entry.getValue();
+                    if (value instanceof Number && isCompared(metric))
+                    {
+                        List<Double> samples = metrics.get(metric);
+                        if (samples == null)
+                        {
+                            samples = new ArrayList<>();
+                            metrics.put(metric, samples);
+                        }
+                        samples.add(((Number)value).doubleValue());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flatten(String prefix, Map<String, Object> map, Map<String, Object> result)
+    {
+        for (Map.Entry<String, Object> entry : map.entrySet())
+        {
+            String key = prefix + entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof Map)
+                flatten(key + ".", (Map<String, Object>)value, result);
+            else
+                result.put(key, value);
+        }
+    }
+
+    private boolean isCompared(String metric)
+    {
+        return isRate(metric) || isAllocation(metric) ||
+                metric.endsWith(".p50") || metric.endsWith(".p99") || metric.endsWith(".p999");
+    }
+
+    private boolean isRate(String metric)
+    {
+        return metric.endsWith("Rate");
+    }
+
+    private boolean isAllocation(String metric)
+    {
+        return metric.startsWith("allocatedBytes");
+    }
+
+    private static double mean(List<Double> samples)
+    {
+        double sum = 0;
+        for (double sample : samples)
+            sum += sample;
+        return sum / samples.size();
+    }
+
+    private static double variance(List<Double> samples, double mean)
+    {
+        double sum = 0;
+        for (double sample : samples)
+            sum += (sample - mean) * (sample - mean);
+        return sum / (samples.size() - 1);
+    }
+
+    /**
+     * @param baseline the baseline samples
+     * @param candidate the candidate samples
+     * @param greater whether the alternative hypothesis is that the candidate mean is greater than the baseline mean,
+     * or that it is less
+     * @return the p-value of the one-sided Welch's t-test
+     */
+    private static double welchTest(List<Double> baseline, List<Double> candidate, boolean greater)
+    {
+        double baselineMean = mean(baseline);
+        double candidateMean = mean(candidate);
+        double baselineError = variance(baseline, baselineMean) / baseline.size();
+        double candidateError = variance(candidate, candidateMean) / candidate.size();
+        double error = baselineError + candidateError;
+        if (error == 0)
+        {
+            if (candidateMean == baselineMean)
+                return 1;
+            return (candidateMean > baselineMean) == greater ? 0 : 1;
+        }
+        double t = (candidateMean - baselineMean) / Math.sqrt(error);
+        double df = error * error / (baselineError * baselineError / (baseline.size() - 1) + candidateError * candidateError / (candidate.size() - 1));
+        // Probability that a Student's t variable with df degrees of freedom is greater than |t|
+        double tail = 0.5 * regularizedBeta(df / (df + t * t), df / 2, 0.5);
+        boolean towards = greater ? t > 0 : t < 0;
+        return towards ? tail : 1 - tail;
+    }
+
+    private static double regularizedBeta(double x, double a, double b)
+    {
+        if (x <= 0)
+            return 0;
+        if (x >= 1)
+            return 1;
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+        // The continued fraction converges quickly only on this side
+        if (x < (a + 1) / (a + b + 2))
+            return front * betaFraction(x, a, b) / a;
+        return 1 - front * betaFraction(1 - x, b, a) / b;
+    }
+
+    private static double betaFraction(double x, double a, double b)
+    {
+        // Lentz's method for the continued fraction of the incomplete beta function
+        double tiny = 1E-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double result = d;
+        for (int m = 1; m <= 200; ++m)
+        {
+            int m2 = 2 * m;
+            double numerator = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 + numerator * d;
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1 + numerator / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            result *= d * c;
+            numerator = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 + numerator * d;
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1 + numerator / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            double delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1) < 1E-12)
+                break;
+        }
+        return result;
+    }
+
+    private static double logGamma(double x)
+    {
+        // Lanczos approximation
+        double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179E-2, -0.5395239384953E-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients)
+            series += coefficient / ++y;
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    public enum Verdict
+    {
+        SAME, IMPROVEMENT, REGRESSION
+    }
+
+    public static class Comparison
+    {
+        private final String phase;
+        private final String metric;
+        private final double baseline;
+        private final double candidate;
+        private final double change;
+        private final double p;
+        private final Verdict verdict;
+
+        private Comparison(String phase, String metric, double baseline, double candidate, double change, double p, Verdict verdict)
+        {
+            this.phase = phase;
+            this.metric = metric;
+            this.baseline = baseline;
+            this.candidate = candidate;
+            this.change = change;
+            this.p = p;
+            this.verdict = verdict;
+        }
+
+        public String getPhase()
+        {
+            return phase;
+        }
+
+        public String getMetric()
+        {
+            return metric;
+        }
+
+        /**
+         * @return the mean of the baseline runs
+         */
+        public double getBaseline()
+        {
+            return baseline;
+        }
+
+        /**
+         * @return the mean of the candidate runs
+         */
+        public double getCandidate()
+        {
+            return candidate;
+        }
+
+        /**
+         * @return the relative change of the candidate with respect to the baseline, in percent
+         */
+        public double getChange()
+        {
+            return change;
+        }
+
+        /**
+         * @return the p-value of the t-test in the direction of the change, or NaN if there were not enough runs to test
+         */
+        public double getP()
+        {
+            return p;
+        }
+
+        public Verdict getVerdict()
+        {
+            return verdict;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ENGLISH, "%-24s %-36s %14.1f %14.1f %+8.1f%% %8s  %s",
+                    phase, metric, baseline, candidate, change, Double.isNaN(p) ? "-" : String.format(Locale.ENGLISH, "%.4f", p), verdict);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>Collects the results of the phases of a benchmark and writes them to a directory:</p>
+ * <ul>
+ * <li>{@code results.json}, with an object per phase;</li>
+ * <li>{@code results.csv}, with a line per phase and nested values flattened
+ * in columns such as {@code latency.p99};</li>
+ * <li>a {@code <phase>-<name>.hgrm} file per phase and histogram, with the
+ * percentile distribution in the HdrHistogram text format.</li>
+ * </ul>
+ * <p>Latencies are reported in microseconds.</p>
+ */
+public class BenchmarkResults
+{
+    public static final TimeUnit LATENCY_UNIT = TimeUnit.MICROSECONDS;
+
+    private final List<Map<String, Object>> phases = new ArrayList<>();
+    private final Path directory;
+
+    public BenchmarkResults(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @param phase the phase name
+     * @param result the result values of the phase
+     * @param histograms the latency histograms of the phase, by name
+     * @throws IOException if the results cannot be written
+     */
+    public void addPhase(String phase, Map<String, Object> result, Map<String, LatencyHistogram> histograms) throws IOException
+    {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("phase", phase);
+        row.putAll(result);
+        Files.createDirectories(directory);
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+        {
+            LatencyHistogram histogram = entry.getValue();
+            row.put(entry.getKey(), histogram.getPercentiles(LATENCY_UNIT));
+            Path file = directory.resolve(phase + "-" + entry.getKey() + ".hgrm");
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8)))
+            {
+                histogram.writePercentileDistribution(writer, LATENCY_UNIT);
+            }
+        }
+        synchronized (phases)
+        {
+            phases.add(row);
+        }
+        // Write the results after every phase, so that they are available even if a later phase fails
+        write();
+    }
+
+    public List<Map<String, Object>> getPhases()
+    {
+        synchronized (phases)
+        {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    private void write() throws IOException
+    {
+        List<Map<String, Object>> rows = getPhases();
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(directory.resolve("results.json"), StandardCharsets.UTF_8)))
+        {
+            writer.println(JSON.toString(rows.toArray()));
+        }
+
+        List<Map<String, Object>> flatRows = new ArrayList<>();
+        Set<String> columns = new LinkedHashSet<>();
+        for (Map<String, Object> row : rows)
+        {
+            Map<String, Object> flatRow = new LinkedHashMap<>();
+            flatten("", row, flatRow);
+            columns.addAll(flatRow.keySet());
+            flatRows.add(flatRow);
+        }
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(directory.resolve("results.csv"), StandardCharsets.UTF_8)))
+        {
+            writer.println(join(columns));
+            for (Map<String, Object> flatRow : flatRows)
+            {
+                List<Object> values = new ArrayList<>();
+                for (String column : columns)
+                {
+                    Object value = flatRow.get(column);
+                    values.add(value == null ? "" : value);
+                }
+                writer.println(join(values));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flatten(String prefix, Map<String, Object> map, Map<String, Object> result)
+    {
+        for (Map.Entry<String, Object> entry : map.entrySet())
+        {
+            String key = prefix + entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof Map)
+                flatten(key + ".", (Map<String, Object>)value, result);
+            else
+                result.put(key, value);
+        }
+    }
+
+    private String join(Iterable<?> values)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Object value : values)
+        {
+            if (builder.length() > 0)
+                builder.append(',');
+            String string = String.valueOf(value);
+            if (string.indexOf(',') >= 0 || string.indexOf('"') >= 0)
+                string = "\"" + string.replace("\"", "\"\"") + "\"";
+            builder.append(string);
+        }
+        return builder.toString();
+    }
+}
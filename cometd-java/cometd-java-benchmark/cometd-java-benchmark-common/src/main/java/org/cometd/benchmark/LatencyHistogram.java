@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A concurrent histogram of latencies, in nanoseconds, in the style of HDR histograms.</p>
+ * <p>Values up to {@code 2047} are recorded exactly; larger values are recorded in buckets
+ * that keep their 11 most significant bits, that is with 3 significant decimal digits.</p>
+ * <p>The percentile distribution can be written in the same text format produced by
+ * HdrHistogram, so that it can be plotted with the same tools.</p>
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 11;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        Atomics.updateMin(min, value);
+        Atomics.updateMax(max, value);
+    }
+
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            long value = other.counts.get(i);
+            if (value > 0)
+                counts.addAndGet(i, value);
+        }
+        count.addAndGet(other.count.get());
+        total.addAndGet(other.total.get());
+        Atomics.updateMin(min, other.min.get());
+        Atomics.updateMax(max, other.max.get());
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+            counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMin()
+    {
+        long result = min.get();
+        return result == Long.MAX_VALUE ? 0 : result;
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long count = getCount();
+        return count == 0 ? 0 : (double)total.get() / count;
+    }
+
+    /**
+     * @return the standard deviation of the recorded values, computed from the buckets
+     */
+    public double getStdDeviation()
+    {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        double mean = getMean();
+        double squares = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            long bucketCount = counts.get(i);
+            if (bucketCount > 0)
+            {
+                double deviation = Math.min(highestValueAt(i), getMax()) - mean;
+                squares += deviation * deviation * bucketCount;
+            }
+        }
+        return Math.sqrt(squares / count);
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value equivalent to the value at the given percentile
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            accumulated += counts.get(i);
+            if (accumulated >= target)
+                return Math.min(highestValueAt(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @param unit the unit of the values of the returned map
+     * @return the count, min, max, mean and the main percentiles of this histogram
+     */
+    public Map<String, Object> getPercentiles(TimeUnit unit)
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", getCount());
+        result.put("min", unit.convert(getMin(), TimeUnit.NANOSECONDS));
+        result.put("mean", unit.convert((long)getMean(), TimeUnit.NANOSECONDS));
+        result.put("p50", unit.convert(getValueAtPercentile(50), TimeUnit.NANOSECONDS));
+        result.put("p90", unit.convert(getValueAtPercentile(90), TimeUnit.NANOSECONDS));
+        result.put("p99", unit.convert(getValueAtPercentile(99), TimeUnit.NANOSECONDS));
+        result.put("p999", unit.convert(getValueAtPercentile(99.9), TimeUnit.NANOSECONDS));
+        result.put("p9999", unit.convert(getValueAtPercentile(99.99), TimeUnit.NANOSECONDS));
+        result.put("max", unit.convert(getMax(), TimeUnit.NANOSECONDS));
+        return result;
+    }
+
+    /**
+     * <p>Writes the percentile distribution of this histogram in the HdrHistogram text format,
+     * with percentiles halving the distance to 100% in 5 ticks each time.</p>
+     *
+     * @param writer the writer to write to
+     * @param unit the unit of the values written
+     */
+    public void writePercentileDistribution(PrintWriter writer, TimeUnit unit)
+    {
+        double scale = unit.toNanos(1);
+        writer.format("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        long count = getCount();
+        if (count > 0)
+        {
+            long accumulated = 0;
+            double nextPercentile = 0;
+            double halfDistance = 50;
+            int ticks = 0;
+            for (int i = 0; i < BUCKETS && accumulated < count; ++i)
+            {
+                long bucketCount = counts.get(i);
+                if (bucketCount == 0)
+                    continue;
+                accumulated += bucketCount;
+                double percentile = 100D * accumulated / count;
+                // The last line is written after the loop
+                while (accumulated < count && percentile >= nextPercentile)
+                {
+                    writePercentileLine(writer, Math.min(highestValueAt(i), getMax()) / scale, percentile / 100, accumulated);
+                    if (++ticks == 5)
+                    {
+                        ticks = 0;
+                        halfDistance /= 2;
+                    }
+                    double next = nextPercentile + halfDistance / 5;
+                    if (next == nextPercentile)
+                        break;
+                    nextPercentile = next;
+                }
+            }
+            writePercentileLine(writer, getMax() / scale, 1, count);
+        }
+        writer.format("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", getMean() / scale, getStdDeviation() / scale);
+        writer.format("#[Max     = %12.3f, Total count    = %12d]%n", getMax() / scale, count);
+        writer.format("#[Buckets = %12d, SubBuckets     = %12d]%n", BUCKETS, SUB_BUCKETS);
+        writer.flush();
+    }
+
+    private void writePercentileLine(PrintWriter writer, double value, double percentile, long totalCount)
+    {
+        if (percentile < 1)
+            writer.format("%12.3f %2.12f %10d %14.2f%n", value, percentile, totalCount, 1 / (1 - percentile));
+        else
+            writer.format("%12.3f %2.12f %10d%n", value, percentile, totalCount);
+    }
+
+    private static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket - HALF_SUB_BUCKETS;
+    }
+
+    private static long highestValueAt(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>A declarative benchmark scenario, read from a JSON file, that allows the load
+ * client and the load server to run unattended.</p>
+ * <p>The file has a {@code "server"} and a {@code "client"} object with the configuration
+ * of the load server and of the load client, and a {@code "phases"} array of {@link Phase}s
+ * that the load client runs in order, for example:</p>
+ * <pre>
+ * {
+ *     "server": { "port": 8080, "transports": "jsrws,http" },
+ *     "client": { "host": "localhost", "transport": "long-polling", "rooms": 100, "results": "target/results" },
+ *     "phases": [
+ *         { "name": "warmup", "clients": 100, "rampUp": 5000, "batches": 1000, "batchSize": 10, "batchPause": 10000 },
+ *         { "name": "load", "clients": 1000, "rampUp": 10000, "rate": 500, "duration": 60000 }
+ *     ]
+ * }
+ * </pre>
+ */
+public class Scenario
+{
+    private final Map<String, Object> config;
+    private final Section server;
+    private final Section client;
+    private final List<Phase> phases = new ArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    public Scenario(Map<String, Object> config)
+    {
+        this.config = config;
+        server = new Section((Map<String, Object>)config.get("server"));
+        client = new Section((Map<String, Object>)config.get("client"));
+        Object[] phaseConfigs = (Object[])config.get("phases");
+        if (phaseConfigs != null)
+        {
+            Phase previous = null;
+            for (Object phaseConfig : phaseConfigs)
+            {
+                previous = new Phase(phases.size() + 1, (Map<String, Object>)phaseConfig, previous);
+                phases.add(previous);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Scenario load(Path file) throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            return new Scenario((Map<String, Object>)JSON.parse(reader));
+        }
+    }
+
+    public Section getServer()
+    {
+        return server;
+    }
+
+    public Section getClient()
+    {
+        return client;
+    }
+
+    /**
+     * @param name the name of a configuration object of this scenario
+     * @return the configuration object with the given name, possibly empty
+     */
+    @SuppressWarnings("unchecked")
+    public Section getSection(String name)
+    {
+        return new Section((Map<String, Object>)config.get(name));
+    }
+
+    public List<Phase> getPhases()
+    {
+        return phases;
+    }
+
+    /**
+     * <p>A configuration object of a scenario, whose values have defaults.</p>
+     */
+    public static class Section
+    {
+        private final Map<String, Object> config;
+
+        public Section(Map<String, Object> config)
+        {
+            this.config = config == null ? Collections.<String, Object>emptyMap() : config;
+        }
+
+        public boolean has(String name)
+        {
+            return config.containsKey(name);
+        }
+
+        public String getString(String name, String defaultValue)
+        {
+            Object value = config.get(name);
+            return value == null ? defaultValue : String.valueOf(value);
+        }
+
+        public long getLong(String name, long defaultValue)
+        {
+            Object value = config.get(name);
+            if (value == null)
+                return defaultValue;
+            if (value instanceof Number)
+                return ((Number)value).longValue();
+            return Long.parseLong(String.valueOf(value));
+        }
+
+        public int getInt(String name, int defaultValue)
+        {
+            return (int)getLong(name, defaultValue);
+        }
+
+        public boolean getBoolean(String name, boolean defaultValue)
+        {
+            Object value = config.get(name);
+            if (value == null)
+                return defaultValue;
+            if (value instanceof Boolean)
+                return (Boolean)value;
+            return Boolean.parseBoolean(String.valueOf(value));
+        }
+    }
+
+    /**
+     * <p>A phase of a scenario, where a number of clients publish batches of messages.</p>
+     * <p>The values that are not specified are inherited from the previous phase.</p>
+     * <p>The pace of the batches can be specified either with {@code "batches"} and
+     * {@code "batchPause"} (in microseconds), or with a {@code "rate"} (in batches per
+     * second) and a {@code "duration"} (in milliseconds).
+     * When the number of clients grows, the new clients are created evenly during the
+     * {@code "rampUp"} time (in milliseconds).</p>
+     * <p>By default batches are sent in a closed loop, pausing after each batch, so that a
+     * slow server slows down the sends as well and its stalls are hidden from the latencies.
+     * When {@code "openLoop"} is true, batches are scheduled on a fixed timeline and the
+     * latencies are also measured from the time each batch was meant to be sent.</p>
+     */
+    public static class Phase
+    {
+        private static final Phase DEFAULTS = new Phase();
+
+        private final String name;
+        private final int clients;
+        private final long rampUp;
+        private final int batches;
+        private final int batchSize;
+        private final long batchPause;
+        private final int messageSize;
+        private final boolean randomize;
+        private final boolean openLoop;
+
+        /**
+         * @param index the index of this phase, used to name the phase if it has no name
+         * @param config the configuration of this phase
+         * @param previous the previous phase, or null if this is the first phase
+         */
+        public Phase(int index, Map<String, Object> config, Phase previous)
+        {
+            Section section = new Section(config);
+            if (previous == null)
+                previous = DEFAULTS;
+            name = section.getString("name", "phase-" + index);
+            clients = section.getInt("clients", previous.clients);
+            rampUp = section.getLong("rampUp", previous.rampUp);
+            batchSize = section.getInt("batchSize", previous.batchSize);
+            messageSize = section.getInt("messageSize", previous.messageSize);
+            randomize = section.getBoolean("randomize", previous.randomize);
+            openLoop = section.getBoolean("openLoop", previous.openLoop);
+            if (section.has("rate"))
+            {
+                long rate = section.getLong("rate", 0);
+                if (rate <= 0)
+                    throw new IllegalArgumentException("Invalid rate " + rate + " for phase " + name);
+                batchPause = 1000L * 1000 / rate;
+                batches = (int)(rate * section.getLong("duration", 60000) / 1000);
+            }
+            else
+            {
+                batchPause = section.getLong("batchPause", previous.batchPause);
+                batches = section.getInt("batches", previous.batches);
+            }
+        }
+
+        private Phase()
+        {
+            name = "defaults";
+            clients = 100;
+            rampUp = 0;
+            batches = 1000;
+            batchSize = 10;
+            batchPause = 10000;
+            messageSize = 50;
+            randomize = false;
+            openLoop = false;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public int getClients()
+        {
+            return clients;
+        }
+
+        public long getRampUp()
+        {
+            return rampUp;
+        }
+
+        public int getBatches()
+        {
+            return batches;
+        }
+
+        public int getBatchSize()
+        {
+            return batchSize;
+        }
+
+        public long getBatchPause()
+        {
+            return batchPause;
+        }
+
+        public int getMessageSize()
+        {
+            return messageSize;
+        }
+
+        public boolean isRandomize()
+        {
+            return randomize;
+        }
+
+        public boolean isOpenLoop()
+        {
+            return openLoop;
+        }
+
+        public Map<String, Object> toMap()
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("name", name);
+            result.put("clients", clients);
+            result.put("rampUp", rampUp);
+            result.put("batches", batches);
+            result.put("batchSize", batchSize);
+            result.put("batchPause", batchPause);
+            result.put("messageSize", messageSize);
+            result.put("randomize", randomize);
+            result.put("openLoop", openLoop);
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s[%s]", getClass().getSimpleName(), toMap());
+        }
+    }
+}
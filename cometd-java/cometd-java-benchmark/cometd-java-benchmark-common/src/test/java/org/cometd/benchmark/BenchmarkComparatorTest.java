@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BenchmarkComparatorTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final BenchmarkComparator comparator = new BenchmarkComparator();
+
+    @Test
+    public void testRegression() throws Exception
+    {
+        List<BenchmarkComparator.Comparison> comparisons = comparator.compare(runs("receiveRate", 1000, 1010, 990), runs("receiveRate", 800, 810, 790));
+
+        BenchmarkComparator.Comparison comparison = single(comparisons);
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION, comparison.getVerdict());
+        Assert.assertEquals(1000, comparison.getBaseline(), 0.001);
+        Assert.assertEquals(800, comparison.getCandidate(), 0.001);
+        Assert.assertEquals(-20, comparison.getChange(), 0.001);
+        Assert.assertTrue(comparison.getP() < 0.001);
+        Assert.assertTrue(BenchmarkComparator.isRegressed(comparisons));
+    }
+
+    @Test
+    public void testNoChange() throws Exception
+    {
+        List<BenchmarkComparator.Comparison> comparisons = comparator.compare(runs("receiveRate", 1000, 1010, 990), runs("receiveRate", 1005, 995, 1000));
+
+        BenchmarkComparator.Comparison comparison = single(comparisons);
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+        Assert.assertTrue(comparison.getP() > 0.05);
+        Assert.assertFalse(BenchmarkComparator.isRegressed(comparisons));
+    }
+
+    @Test
+    public void testImprovement() throws Exception
+    {
+        // Lower latencies are better
+        List<BenchmarkComparator.Comparison> comparisons = comparator.compare(runs("latency.p99", 10, 11, 10.5), runs("latency.p99", 5, 5.5, 5.2));
+
+        BenchmarkComparator.Comparison comparison = single(comparisons);
+        Assert.assertEquals(BenchmarkComparator.Verdict.IMPROVEMENT, comparison.getVerdict());
+        Assert.assertTrue(comparison.getChange() < 0);
+        Assert.assertFalse(BenchmarkComparator.isRegressed(comparisons));
+    }
+
+    @Test
+    public void testLatencyRegressionPValue() throws Exception
+    {
+        // t = 2 with 8 degrees of freedom, whose one-sided p-value is 0.0403
+        List<BenchmarkComparator.Comparison> comparisons = comparator.compare(runs("latency.p50", 1, 2, 3, 4, 5), runs("latency.p50", 3, 4, 5, 6, 7));
+
+        BenchmarkComparator.Comparison comparison = single(comparisons);
+        Assert.assertEquals(0.0403, comparison.getP(), 0.0001);
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION, comparison.getVerdict());
+
+        comparator.setAlpha(0.01);
+        comparison = single(comparator.compare(runs("latency.p50", 1, 2, 3, 4, 5), runs("latency.p50", 3, 4, 5, 6, 7)));
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+    }
+
+    @Test
+    public void testSignificantChangeWithinThreshold() throws Exception
+    {
+        List<List<Map<String, Object>>> baseline = runs("receiveRate", 1000, 1001, 999);
+        List<List<Map<String, Object>>> candidate = runs("receiveRate", 960, 961, 959);
+
+        BenchmarkComparator.Comparison comparison = single(comparator.compare(baseline, candidate));
+        Assert.assertTrue(comparison.getP() < 0.001);
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+
+        comparator.setRateThreshold(3);
+        comparison = single(comparator.compare(baseline, candidate));
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION, comparison.getVerdict());
+    }
+
+    @Test
+    public void testChangeAtThreshold() throws Exception
+    {
+        // With single runs there is no t-test, and a change equal to the threshold does not regress
+        BenchmarkComparator.Comparison comparison = single(comparator.compare(runs("receiveRate", 100), runs("receiveRate", 95)));
+        Assert.assertTrue(Double.isNaN(comparison.getP()));
+        Assert.assertEquals(-5, comparison.getChange(), 0);
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+
+        comparison = single(comparator.compare(runs("receiveRate", 100), runs("receiveRate", 94.9)));
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION, comparison.getVerdict());
+
+        comparison = single(comparator.compare(runs("receiveRate", 100), runs("receiveRate", 105.1)));
+        Assert.assertEquals(BenchmarkComparator.Verdict.IMPROVEMENT, comparison.getVerdict());
+    }
+
+    @Test
+    public void testLargeChangeNotSignificant() throws Exception
+    {
+        BenchmarkComparator.Comparison comparison = single(comparator.compare(runs("receiveRate", 1000, 500, 1500), runs("receiveRate", 800, 300, 1300)));
+        Assert.assertEquals(-20, comparison.getChange(), 0.001);
+        Assert.assertTrue(comparison.getP() > 0.05);
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+    }
+
+    @Test
+    public void testThresholdsByMetricKind() throws Exception
+    {
+        // A 6% increase regresses allocations (5%) but not latencies (10%)
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION,
+                single(comparator.compare(runs("allocatedBytesPerMessage", 1000), runs("allocatedBytesPerMessage", 1060))).getVerdict());
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME,
+                single(comparator.compare(runs("latency.p999", 1000), runs("latency.p999", 1060))).getVerdict());
+
+        comparator.setAllocationThreshold(10);
+        comparator.setLatencyThreshold(5);
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME,
+                single(comparator.compare(runs("allocatedBytesPerMessage", 1000), runs("allocatedBytesPerMessage", 1060))).getVerdict());
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION,
+                single(comparator.compare(runs("latency.p999", 1000), runs("latency.p999", 1060))).getVerdict());
+    }
+
+    @Test
+    public void testZeroVariance() throws Exception
+    {
+        BenchmarkComparator.Comparison comparison = single(comparator.compare(runs("receiveRate", 100, 100), runs("receiveRate", 100, 100)));
+        Assert.assertEquals(1, comparison.getP(), 0);
+        Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+
+        comparison = single(comparator.compare(runs("receiveRate", 100, 100), runs("receiveRate", 90, 90)));
+        Assert.assertEquals(0, comparison.getP(), 0);
+        Assert.assertEquals(BenchmarkComparator.Verdict.REGRESSION, comparison.getVerdict());
+    }
+
+    @Test
+    public void testOnlyCommonPhasesAndMetricsAreCompared() throws Exception
+    {
+        Map<String, Object> baseline = phase("broadcast", "receiveRate", 1000);
+        baseline.put("messages", 5000);
+        Map<String, Object> candidate = phase("broadcast", "receiveRate", 1000);
+        candidate.put("sendRate", 1000);
+
+        List<BenchmarkComparator.Comparison> comparisons = comparator.compare(
+                Collections.singletonList(Arrays.asList(baseline, phase("seti", "receiveRate", 1000))),
+                Collections.singletonList(Collections.singletonList(candidate)));
+
+        BenchmarkComparator.Comparison comparison = single(comparisons);
+        Assert.assertEquals("broadcast", comparison.getPhase());
+        Assert.assertEquals("receiveRate", comparison.getMetric());
+    }
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        List<Path> directories = new ArrayList<>();
+        for (int i = 0; i < 2; ++i)
+        {
+            File directory = folder.newFolder();
+            String json = "[{\"phase\":\"broadcast\",\"receiveRate\":" + (1000 + i) + ",\"latency\":{\"p50\":" + (10 + i) + "}}]";
+            Files.write(directory.toPath().resolve("results.json"), json.getBytes(StandardCharsets.UTF_8));
+            directories.add(directory.toPath());
+        }
+
+        List<List<Map<String, Object>>> runs = BenchmarkComparator.load(directories);
+        Assert.assertEquals(2, runs.size());
+
+        List<BenchmarkComparator.Comparison> comparisons = comparator.compare(runs, runs);
+        Assert.assertEquals(2, comparisons.size());
+        for (BenchmarkComparator.Comparison comparison : comparisons)
+            Assert.assertEquals(BenchmarkComparator.Verdict.SAME, comparison.getVerdict());
+    }
+
+    private List<List<Map<String, Object>>> runs(String metric, double... values)
+    {
+        List<List<Map<String, Object>>> result = new ArrayList<>();
+        for (double value : values)
+            result.add(Collections.singletonList(phase("broadcast", metric, value)));
+        return result;
+    }
+
+    private Map<String, Object> phase(String name, String metric, double value)
+    {
+        Map<String, Object> phase = new HashMap<>();
+        phase.put("phase", name);
+        int dot = metric.indexOf('.');
+        if (dot < 0)
+        {
+            phase.put(metric, value);
+        }
+        else
+        {
+            Map<String, Object> nested = new HashMap<>();
+            nested.put(metric.substring(dot + 1), value);
+            phase.put(metric.substring(0, dot), nested);
+        }
+        return phase;
+    }
+
+    private BenchmarkComparator.Comparison single(List<BenchmarkComparator.Comparison> comparisons)
+    {
+        Assert.assertEquals(1, comparisons.size());
+        return comparisons.get(0);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.Authorizer;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.cometd.server.authorizer.GrantAuthorizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the handling of a publish message that must be authorized by
+ * {@link Authorizer}s on the channel and on the wild channels matching it.</p>
+ * <p>The channel has no subscribers, so the cost of the authorization is
+ * compared with the cost of the handling of the message.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizerBenchmark
+{
+    private static final String CHANNEL = "/chat/room/42";
+
+    @Param({"none", "channel", "wild"})
+    public String authorizers;
+
+    private BayeuxServerImpl bayeux;
+    private ServerSessionImpl session;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+
+        ServerChannel channel = bayeux.createChannelIfAbsent(CHANNEL).getReference();
+        channel.setPersistent(true);
+        switch (authorizers)
+        {
+            case "none":
+                break;
+            case "channel":
+                channel.addAuthorizer(GrantAuthorizer.GRANT_PUBLISH);
+                break;
+            case "wild":
+                for (String name : new String[]{"/**", "/chat/**", "/chat/room/*"})
+                {
+                    ServerChannel wild = bayeux.createChannelIfAbsent(name).getReference();
+                    wild.setPersistent(true);
+                    wild.addAuthorizer(new Authorizer()
+                    {
+                        public Result authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message)
+                        {
+                            return session.isLocalSession() ? Result.ignore() : Result.deny("remote");
+                        }
+                    });
+                }
+                channel.addAuthorizer(GrantAuthorizer.GRANT_PUBLISH);
+                break;
+            default:
+                throw new IllegalArgumentException(authorizers);
+        }
+
+        LocalSession localSession = bayeux.newLocalSession("publisher");
+        localSession.handshake();
+        session = (ServerSessionImpl)localSession.getServerSession();
+    }
+
+    @TearDown
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public ServerMessage.Mutable handle()
+    {
+        ServerMessage.Mutable message = new ServerMessageImpl();
+        message.setChannel(CHANNEL);
+        message.setClientId(session.getId());
+        message.setData("data");
+        return bayeux.handle(session, message);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.ChannelId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the construction of {@link ChannelId}s, with and without the
+ * {@link ChannelId#from(String) cache}, and their matching against wild channels.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelIdBenchmark
+{
+    private final String[] names = {"/chat/room/42", "/chat/room/43", "/service/echo", "/a/b/c/d/e", "/stock/NASDAQ/GOOG"};
+    private final ChannelId[] ids = new ChannelId[names.length];
+    private final ChannelId[] wilds = {new ChannelId("/chat/*"), new ChannelId("/chat/**"), new ChannelId("/**"), new ChannelId("/a/b/c/d/*")};
+    private int index;
+
+    @Setup
+    public void prepare()
+    {
+        for (int i = 0; i < names.length; ++i)
+            ids[i] = new ChannelId(names[i]);
+        for (ChannelId wild : wilds)
+            wild.depth();
+    }
+
+    private int next()
+    {
+        int result = index;
+        index = (index + 1) % names.length;
+        return result;
+    }
+
+    @Benchmark
+    public int construct()
+    {
+        // The segments are parsed lazily, depth() forces the parsing
+        return new ChannelId(names[next()]).depth();
+    }
+
+    @Benchmark
+    public int constructCached()
+    {
+        return ChannelId.from(names[next()]).depth();
+    }
+
+    @Benchmark
+    public int match()
+    {
+        ChannelId id = ids[next()];
+        int result = 0;
+        for (ChannelId wild : wilds)
+        {
+            if (wild.matches(id))
+                ++result;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> wilds()
+    {
+        return ids[next()].getWilds();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.common.AbstractClientSession;
+import org.cometd.common.HashMapMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the dispatch of a received message by {@link AbstractClientSession#receive(Message.Mutable)}
+ * to the listeners of the channel and of the wild channels matching it.</p>
+ * <p>A {@link org.cometd.bayeux.server.LocalSession} is used as client session, so that no
+ * network is involved.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientReceiveBenchmark
+{
+    private static final String CHANNEL = "/chat/room/42";
+
+    @Param({"1", "10"})
+    public int listeners;
+    @Param({"false", "true"})
+    public boolean wild;
+
+    private BayeuxServerImpl bayeux;
+    private AbstractClientSession session;
+    private Message.Mutable message;
+    private long received;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+
+        session = (AbstractClientSession)bayeux.newLocalSession("receiver");
+        session.handshake();
+        ClientSessionChannel.MessageListener listener = new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                ++received;
+            }
+        };
+        for (int i = 0; i < listeners; ++i)
+        {
+            if (wild && i % 2 == 1)
+                session.getChannel("/chat/**").addListener(listener);
+            else
+                session.getChannel(CHANNEL).addListener(listener);
+        }
+
+        message = new HashMapMessage();
+        message.setChannel(CHANNEL);
+        message.setData("data");
+    }
+
+    @TearDown
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public long receive()
+    {
+        session.receive(message);
+        return received;
+    }
+}
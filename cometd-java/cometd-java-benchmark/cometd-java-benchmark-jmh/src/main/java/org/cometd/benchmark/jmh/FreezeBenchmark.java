@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.JSONContext;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.Jackson1JSONContextServer;
+import org.cometd.server.Jackson2JSONContextServer;
+import org.cometd.server.Jackson2StreamingJSONContextServer;
+import org.cometd.server.JettyJSONContextServer;
+import org.cometd.server.ServerMessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures {@link BayeuxServerImpl#freeze(ServerMessage.Mutable)} of a publish
+ * message and of a {@code /meta/connect} reply with each {@link JSONContext.Server}
+ * implementation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreezeBenchmark
+{
+    @Param({"jetty", "jackson1", "jackson2", "jackson2-streaming"})
+    public String jsonContext;
+
+    private BayeuxServerImpl bayeux;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        JSONContext.Server context;
+        switch (jsonContext)
+        {
+            case "jetty":
+                context = new JettyJSONContextServer();
+                break;
+            case "jackson1":
+                context = new Jackson1JSONContextServer();
+                break;
+            case "jackson2":
+                context = new Jackson2JSONContextServer();
+                break;
+            case "jackson2-streaming":
+                context = new Jackson2StreamingJSONContextServer();
+                break;
+            default:
+                throw new IllegalArgumentException(jsonContext);
+        }
+        bayeux = new BayeuxServerImpl();
+        bayeux.setOption(AbstractServerTransport.JSON_CONTEXT_OPTION, context);
+        bayeux.start();
+    }
+
+    @TearDown
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public String publish()
+    {
+        ServerMessage.Mutable message = new ServerMessageImpl();
+        message.setChannel("/chat/room/42");
+        message.setId("123");
+        Map<String, Object> data = message.getDataAsMap(true);
+        data.put("user", "cometd");
+        data.put("text", "Hello, the quick brown fox jumps over the lazy dog");
+        data.put("timestamp", 1389196800000L);
+        bayeux.freeze(message);
+        return message.getJSON();
+    }
+
+    @Benchmark
+    public String connectReply()
+    {
+        ServerMessage.Mutable reply = new ServerMessageImpl();
+        reply.setChannel(Channel.META_CONNECT);
+        reply.setId("42");
+        reply.setClientId("2fp3h3hn9ys0lgfhqvyrw6oe9a");
+        reply.setSuccessful(true);
+        bayeux.freeze(reply);
+        return reply.getJSON();
+    }
+}
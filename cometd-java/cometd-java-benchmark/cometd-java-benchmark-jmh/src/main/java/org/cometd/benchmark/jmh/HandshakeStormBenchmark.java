@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.DefaultSessionIdGenerator;
+import org.cometd.server.SessionIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Simulates a storm of handshakes, with many threads creating sessions concurrently.</p>
+ * <p>The {@code sharedSecureRandom} benchmark generates session ids from a single
+ * {@link SecureRandom}, as it was done before {@link SessionIdGenerator} was introduced,
+ * while the {@code defaultGenerator} benchmark uses {@link DefaultSessionIdGenerator};
+ * the {@code handshake} benchmark performs complete local handshakes and disconnects.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class HandshakeStormBenchmark
+{
+    private final SecureRandom random = new SecureRandom();
+    private final SessionIdGenerator generator = new DefaultSessionIdGenerator();
+    private BayeuxServerImpl bayeux;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+    }
+
+    @TearDown
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public String sharedSecureRandom()
+    {
+        StringBuilder id = new StringBuilder(30);
+        while (id.length() < 20)
+        {
+            long value = random.nextLong();
+            id.append(Long.toString(value < 0 ? -value : value, 36));
+        }
+        return id.toString();
+    }
+
+    @Benchmark
+    public String defaultGenerator()
+    {
+        return generator.newSessionId(null);
+    }
+
+    @Benchmark
+    public String handshake()
+    {
+        LocalSession session = bayeux.newLocalSession("storm");
+        session.handshake();
+        String id = session.getId();
+        session.disconnect();
+        return id;
+    }
+}
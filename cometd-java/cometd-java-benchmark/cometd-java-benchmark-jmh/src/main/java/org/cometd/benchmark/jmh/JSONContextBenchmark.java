@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.JSONContext;
+import org.cometd.server.Jackson1JSONContextServer;
+import org.cometd.server.Jackson2JSONContextServer;
+import org.cometd.server.Jackson2StreamingJSONContextServer;
+import org.cometd.server.JettyJSONContextServer;
+import org.cometd.server.ServerMessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares the {@link JSONContext.Server} implementations when parsing
+ * and generating a typical publish message.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONContextBenchmark
+{
+    @Param({"jetty", "jackson1", "jackson2", "jackson2-streaming"})
+    public String jsonContext;
+
+    private JSONContext.Server context;
+    private String json;
+    private ServerMessage.Mutable message;
+
+    @Setup
+    public void prepare()
+    {
+        switch (jsonContext)
+        {
+            case "jetty":
+                context = new JettyJSONContextServer();
+                break;
+            case "jackson1":
+                context = new Jackson1JSONContextServer();
+                break;
+            case "jackson2":
+                context = new Jackson2JSONContextServer();
+                break;
+            case "jackson2-streaming":
+                context = new Jackson2StreamingJSONContextServer();
+                break;
+            default:
+                throw new IllegalArgumentException(jsonContext);
+        }
+
+        message = new ServerMessageImpl();
+        message.setChannel("/chat/room/42");
+        message.setId("123");
+        message.setClientId("2fp3h3hn9ys0lgfhqvyrw6oe9a");
+        Map<String, Object> data = message.getDataAsMap(true);
+        data.put("user", "cometd");
+        data.put("text", "Hello, the quick brown fox jumps over the lazy dog");
+        data.put("timestamp", 1389196800000L);
+        data.put("room", 42);
+        Map<String, Object> ext = new HashMap<>();
+        ext.put("ack", true);
+        message.put(ServerMessage.EXT_FIELD, ext);
+        json = "[" + context.generate(message) + "]";
+    }
+
+    @Benchmark
+    public ServerMessage.Mutable[] parse() throws ParseException
+    {
+        return context.parse(json);
+    }
+
+    @Benchmark
+    public String generate()
+    {
+        return context.generate(message);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.LoopbackTransport;
+import org.cometd.common.LoopbackConnector;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the round trip of a message published by a {@link BayeuxClient} and
+ * received by the {@link BayeuxClient}s subscribed to its channel, through the
+ * loopback transports, so that the full client and server message processing is
+ * measured without the costs of the network stack.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark
+{
+    private static final String CHANNEL = "/chat/room/42";
+
+    @Param({"1", "10"})
+    public int subscribers;
+
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private final List<BayeuxClient> clients = new ArrayList<>();
+    private BayeuxServerImpl bayeux;
+    private ClientSessionChannel channel;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.addTransport(new org.cometd.server.transport.LoopbackTransport(bayeux));
+        bayeux.start();
+
+        ClientSessionChannel.MessageListener listener = new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                received.offer(message);
+            }
+        };
+        final CountDownLatch subscribed = new CountDownLatch(subscribers);
+        ClientSessionChannel.MessageListener subscribeListener = new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    subscribed.countDown();
+            }
+        };
+        for (int i = 0; i < subscribers; ++i)
+        {
+            BayeuxClient client = newBayeuxClient();
+            client.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeListener);
+            client.getChannel(CHANNEL).subscribe(listener);
+        }
+        if (!subscribed.await(10, TimeUnit.SECONDS))
+            throw new TimeoutException();
+
+        channel = newBayeuxClient().getChannel(CHANNEL);
+    }
+
+    private BayeuxClient newBayeuxClient()
+    {
+        LoopbackConnector connector = (LoopbackConnector)bayeux.getTransport(LoopbackTransport.NAME);
+        BayeuxClient client = new BayeuxClient("loopback://localhost/cometd", new LoopbackTransport(null, connector));
+        client.handshake();
+        if (!client.waitFor(10000, BayeuxClient.State.CONNECTED))
+            throw new IllegalStateException("Could not connect " + client);
+        clients.add(client);
+        return client;
+    }
+
+    @TearDown
+    public void dispose() throws Exception
+    {
+        for (BayeuxClient client : clients)
+            client.disconnect(1000);
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public Message roundTrip() throws Exception
+    {
+        channel.publish("data");
+        Message message = null;
+        for (int i = 0; i < subscribers; ++i)
+        {
+            message = received.poll(10, TimeUnit.SECONDS);
+            if (message == null)
+                throw new TimeoutException();
+        }
+        return message;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the fan-out of a message published to a channel, for different
+ * numbers of local subscribers to the channel and to a wild channel.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark
+{
+    @Param({"1", "10", "100", "1000"})
+    public int subscribers;
+    @Param({"false", "true"})
+    public boolean wild;
+
+    private BayeuxServerImpl bayeux;
+    private ServerChannel channel;
+
+    @Setup
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+
+        channel = bayeux.createChannelIfAbsent("/chat/room/42").getReference();
+        channel.setPersistent(true);
+        ServerChannel wildChannel = bayeux.createChannelIfAbsent("/chat/**").getReference();
+        wildChannel.setPersistent(true);
+        for (int i = 0; i < subscribers; ++i)
+        {
+            LocalSession session = bayeux.newLocalSession("subscriber");
+            session.handshake();
+            // Half of the subscribers are on the wild channel
+            if (wild && i % 2 == 1)
+                wildChannel.subscribe(session.getServerSession());
+            else
+                channel.subscribe(session.getServerSession());
+        }
+    }
+
+    @TearDown
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void publish()
+    {
+        channel.publish(null, "data");
+    }
+}
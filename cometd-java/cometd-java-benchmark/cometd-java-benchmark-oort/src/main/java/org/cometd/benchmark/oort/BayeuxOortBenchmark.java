@@ -0,0 +1,541 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.oort;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.benchmark.BenchmarkResults;
+import org.cometd.benchmark.Config;
+import org.cometd.benchmark.LatencyHistogram;
+import org.cometd.benchmark.Scenario;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.common.Jackson1JSONContextClient;
+import org.cometd.websocket.client.WebSocketTransport;
+import org.eclipse.jetty.util.component.LifeCycle;
+
+/**
+ * <p>Benchmarks a cloud of Oort nodes running on loopback ports, either embedded
+ * in this JVM or each in its own JVM.</p>
+ * <p>For each cloud size the benchmark measures:</p>
+ * <ul>
+ * <li>the time for the cloud to converge when a node joins it and when a node leaves it;</li>
+ * <li>the latency of messages broadcast on a channel observed by all the nodes,
+ * separately for clients connected to the publishing node and to the other nodes;</li>
+ * <li>the latency of {@link org.cometd.oort.Seti} messages sent to users connected to other nodes;</li>
+ * <li>the latency of the replication of an {@link org.cometd.oort.OortObject} to the other nodes.</li>
+ * </ul>
+ * <p>Clients run in this JVM so that latencies are measured against the same clock;
+ * results are reported in the same format of the load client.</p>
+ * <p>The configuration is read from the {@code oort} section of a {@link Scenario}, for example:</p>
+ * <pre>
+ * {
+ *     "oort": { "nodes": "2,5,10", "processes": true, "clientsPerNode": 10, "messages": 1000, "results": "target/oort" }
+ * }
+ * </pre>
+ */
+public class BayeuxOortBenchmark
+{
+    private static final String START_FIELD = OortBenchmarkNode.START_FIELD;
+
+    private final Random random = new Random();
+    private final List<BayeuxClient> clients = new ArrayList<>();
+    private volatile PhaseRecorder recorder = new PhaseRecorder();
+    private ScheduledExecutorService scheduler;
+    private WebSocketContainer webSocketContainer;
+    private BenchmarkResults results;
+
+    public static void main(String[] args) throws Exception
+    {
+        BayeuxOortBenchmark benchmark = new BayeuxOortBenchmark();
+        benchmark.run(args.length > 0 ? Scenario.load(Paths.get(args[0])) : null);
+    }
+
+    /**
+     * @param scenario the scenario to run unattended, or null to read the configuration from the console
+     * @throws Exception if the benchmark fails
+     */
+    public void run(Scenario scenario) throws Exception
+    {
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        Scenario.Section config = scenario == null ? null : scenario.getSection("oort");
+
+        String nodeCounts = prompt(console, config, "nodes", "nodes (comma separated cloud sizes)", "2,5");
+
+        boolean processes = Boolean.parseBoolean(prompt(console, config, "processes", "run nodes in separate processes", String.valueOf(false)));
+
+        int clientsPerNode = Integer.parseInt(prompt(console, config, "clientsPerNode", "clients per node", String.valueOf(10)));
+
+        int messages = Integer.parseInt(prompt(console, config, "messages", "messages per phase", String.valueOf(1000)));
+
+        long pause = Long.parseLong(prompt(console, config, "pause", "pause between messages (us)", String.valueOf(1000)));
+
+        int messageSize = Integer.parseInt(prompt(console, config, "messageSize", "message size", String.valueOf(50)));
+
+        String resultsDir = prompt(console, config, "results", "results directory (empty for none)", "");
+        if (resultsDir.length() > 0)
+            results = new BenchmarkResults(Paths.get(resultsDir));
+
+        scheduler = Executors.newScheduledThreadPool(8);
+        webSocketContainer = ContainerProvider.getWebSocketContainer();
+        if (webSocketContainer instanceof LifeCycle)
+            ((LifeCycle)webSocketContainer).start();
+
+        try
+        {
+            for (String token : nodeCounts.split(","))
+            {
+                int nodes = Integer.parseInt(token.trim());
+                if (nodes < 2)
+                    throw new IllegalArgumentException("Invalid cloud size: " + nodes);
+                runCloud(nodes, processes, clientsPerNode, messages, pause, messageSize);
+            }
+        }
+        finally
+        {
+            if (webSocketContainer instanceof LifeCycle)
+                ((LifeCycle)webSocketContainer).stop();
+            scheduler.shutdown();
+            scheduler.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runCloud(int count, boolean processes, int clientsPerNode, int messages, long pause, int messageSize) throws Exception
+    {
+        System.err.printf("Starting cloud of %d nodes%n", count);
+        String prefix = "n" + count + "-";
+        List<NodeHandle> nodes = new ArrayList<>();
+        List<Monitor> monitors = new ArrayList<>();
+        try
+        {
+            // Build a cloud of all the nodes but one
+            for (int i = 0; i < count - 1; ++i)
+            {
+                nodes.add(startNode(processes, i == 0 ? null : nodes.get(0).getURL()));
+                monitors.add(new Monitor(nodes.get(i).getURL()));
+            }
+            awaitComets(monitors, count - 2);
+
+            // Measure the join of the last node
+            long begin = System.nanoTime();
+            nodes.add(startNode(processes, nodes.get(0).getURL()));
+            monitors.add(new Monitor(nodes.get(count - 1).getURL()));
+            awaitComets(monitors, count - 1);
+            long joinNanos = System.nanoTime() - begin;
+
+            for (int i = 0; i < count; ++i)
+            {
+                for (int j = 0; j < clientsPerNode; ++j)
+                    startClient(nodes.get(i).getURL(), i, i + "-" + j);
+            }
+            BayeuxClient publisher = newClient(nodes.get(0).getURL());
+
+            String payload = newPayload(messageSize);
+
+            recorder = new PhaseRecorder();
+            long elapsed = send(publisher, OortBenchmarkNode.BROADCAST_CHANNEL, messages, pause, payload, null, 0);
+            awaitDeliveries((long)messages * count * clientsPerNode);
+            report(prefix + "broadcast", messages, elapsed, count);
+
+            recorder = new PhaseRecorder();
+            elapsed = send(publisher, OortBenchmarkNode.SETI_SERVICE_CHANNEL, messages, pause, payload, count, clientsPerNode);
+            awaitDeliveries(messages);
+            report(prefix + "seti", messages, elapsed, count);
+
+            recorder = new PhaseRecorder();
+            elapsed = send(publisher, OortBenchmarkNode.OBJECT_SERVICE_CHANNEL, messages, pause, payload, null, 0);
+            awaitDeliveries((long)messages * (count - 1) * clientsPerNode);
+            report(prefix + "object", messages, elapsed, count);
+
+            publisher.disconnect(1000);
+            stopClients();
+
+            // Measure the leave of the last node
+            begin = System.nanoTime();
+            nodes.remove(count - 1).stop();
+            monitors.remove(count - 1).disconnect();
+            awaitComets(monitors, count - 2);
+            long leaveNanos = System.nanoTime() - begin;
+
+            reportMembership(prefix + "membership", joinNanos, leaveNanos);
+        }
+        finally
+        {
+            stopClients();
+            for (Monitor monitor : monitors)
+                monitor.disconnect();
+            for (NodeHandle node : nodes)
+                node.stop();
+        }
+    }
+
+    private NodeHandle startNode(boolean process, String cloudURL) throws Exception
+    {
+        return process ? new ProcessNode(cloudURL) : new EmbeddedNode(cloudURL);
+    }
+
+    private BayeuxClient newClient(String url)
+    {
+        Map<String, Object> options = new HashMap<>();
+        options.put(ClientTransport.JSON_CONTEXT, new Jackson1JSONContextClient());
+        options.put(ClientTransport.MAX_NETWORK_DELAY_OPTION, Config.MAX_NETWORK_DELAY);
+        options.put(WebSocketTransport.IDLE_TIMEOUT_OPTION, Config.META_CONNECT_TIMEOUT + Config.MAX_NETWORK_DELAY);
+        BayeuxClient client = new BayeuxClient(url, scheduler, new WebSocketTransport(options, scheduler, webSocketContainer));
+        client.handshake();
+        if (!client.waitFor(Config.MAX_NETWORK_DELAY, BayeuxClient.State.CONNECTED))
+            throw new IllegalStateException("Could not handshake with " + url);
+        clients.add(client);
+        return client;
+    }
+
+    private void startClient(String url, final int node, String userId) throws InterruptedException
+    {
+        BayeuxClient client = newClient(url);
+        // Subscriptions, and the login reply, are acknowledged before the messages are sent
+        final CountDownLatch latch = new CountDownLatch(3);
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    latch.countDown();
+            }
+        });
+        client.getChannel(OortBenchmarkNode.LOGIN_SERVICE_CHANNEL).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                // Skip the publish reply, wait for the reply of the service
+                if (message.getData() != null)
+                    latch.countDown();
+            }
+        });
+
+        ClientSessionChannel.MessageListener latencyListener = new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                Map<String, Object> data = message.getDataAsMap();
+                if (data != null && data.containsKey(START_FIELD))
+                    recorder.record(node == 0, System.nanoTime() - ((Number)data.get(START_FIELD)).longValue());
+            }
+        };
+        client.getChannel(OortBenchmarkNode.BROADCAST_CHANNEL).subscribe(latencyListener);
+        client.getChannel(OortBenchmarkNode.OBJECT_CHANNEL).subscribe(latencyListener);
+        client.getChannel(OortBenchmarkNode.SETI_CHANNEL).addListener(latencyListener);
+
+        Map<String, Object> login = new HashMap<>();
+        login.put("userId", userId);
+        client.getChannel(OortBenchmarkNode.LOGIN_SERVICE_CHANNEL).publish(login);
+
+        if (!latch.await(Config.MAX_NETWORK_DELAY, TimeUnit.MILLISECONDS))
+            throw new IllegalStateException("Could not set up client " + userId);
+    }
+
+    private long send(BayeuxClient publisher, String channelName, int messages, long pause, String payload, Integer nodes, int clientsPerNode) throws InterruptedException
+    {
+        ClientSessionChannel channel = publisher.getChannel(channelName);
+        long begin = System.nanoTime();
+        for (int i = 0; i < messages; ++i)
+        {
+            Map<String, Object> data = new HashMap<>();
+            data.put("payload", payload);
+            if (nodes != null)
+            {
+                // Seti messages go to a random user connected to a node other than the publisher's
+                data.put("to", (1 + random.nextInt(nodes - 1)) + "-" + random.nextInt(clientsPerNode));
+            }
+            data.put(START_FIELD, System.nanoTime());
+            channel.publish(data);
+            if (pause > 0)
+                TimeUnit.MICROSECONDS.sleep(pause);
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private void awaitDeliveries(long expected) throws InterruptedException
+    {
+        // Wait until all the messages arrive, or until they stop arriving
+        long last = -1;
+        long idle = System.nanoTime();
+        while (true)
+        {
+            long delivered = recorder.getDelivered();
+            if (delivered >= expected)
+                return;
+            if (delivered != last)
+            {
+                last = delivered;
+                idle = System.nanoTime();
+            }
+            else if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idle) > Config.MAX_NETWORK_DELAY)
+            {
+                System.err.printf("Delivered %d messages, expected %d%n", delivered, expected);
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private void awaitComets(List<Monitor> monitors, int expected) throws InterruptedException
+    {
+        long begin = System.nanoTime();
+        while (true)
+        {
+            boolean converged = true;
+            for (Monitor monitor : monitors)
+                converged &= monitor.poll() == expected;
+            if (converged)
+                return;
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) > 6 * Config.MAX_NETWORK_DELAY)
+                throw new IllegalStateException("Cloud did not converge to " + expected + " comets per node");
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    private void report(String phase, int messages, long elapsedNanos, int nodes) throws IOException
+    {
+        PhaseRecorder phaseRecorder = recorder;
+        double elapsedSeconds = elapsedNanos / 1_000_000_000D;
+        long local = phaseRecorder.localLatencyHistogram.getCount();
+        long remote = phaseRecorder.remoteLatencyHistogram.getCount();
+
+        System.err.printf("%s - sent %d messages in %d ms (%d messages/s), delivered local/remote = %d/%d (%d/%d messages/s)%n",
+                phase, messages, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), Math.round(messages / elapsedSeconds),
+                local, remote, Math.round(local / elapsedSeconds), Math.round(remote / elapsedSeconds));
+        if (local > 0)
+            printPercentiles("Local Latency", phaseRecorder.localLatencyHistogram);
+        if (remote > 0)
+            printPercentiles("Remote Latency", phaseRecorder.remoteLatencyHistogram);
+
+        if (results != null)
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("nodes", nodes);
+            result.put("messages", messages);
+            result.put("elapsed", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            result.put("sendRate", Math.round(messages / elapsedSeconds));
+            result.put("localDelivered", local);
+            result.put("remoteDelivered", remote);
+            result.put("remoteDeliveryRate", Math.round(remote / elapsedSeconds));
+            Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+            if (local > 0)
+                histograms.put("localLatency", phaseRecorder.localLatencyHistogram);
+            if (remote > 0)
+                histograms.put("remoteLatency", phaseRecorder.remoteLatencyHistogram);
+            results.addPhase(phase, result, histograms);
+        }
+    }
+
+    private void reportMembership(String phase, long joinNanos, long leaveNanos) throws IOException
+    {
+        System.err.printf("%s - join/leave convergence = %d/%d ms%n", phase,
+                TimeUnit.NANOSECONDS.toMillis(joinNanos), TimeUnit.NANOSECONDS.toMillis(leaveNanos));
+        if (results != null)
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("joinConvergence", TimeUnit.NANOSECONDS.toMillis(joinNanos));
+            result.put("leaveConvergence", TimeUnit.NANOSECONDS.toMillis(leaveNanos));
+            results.addPhase(phase, result, new LinkedHashMap<String, LatencyHistogram>());
+        }
+    }
+
+    private void printPercentiles(String name, LatencyHistogram histogram)
+    {
+        System.err.printf("Messages - %s 50th%%/99th%%/99.9th%%/99.99th%%/max = %d/%d/%d/%d/%d us%n",
+                name,
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.9)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.99)),
+                TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+    }
+
+    private void stopClients()
+    {
+        for (BayeuxClient client : clients)
+            client.disconnect(1000);
+        clients.clear();
+    }
+
+    private String newPayload(int size)
+    {
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; ++i)
+            builder.append((char)('a' + random.nextInt('z' - 'a' + 1)));
+        return builder.toString();
+    }
+
+    private String prompt(BufferedReader console, Scenario.Section config, String name, String message, String defaultValue) throws IOException
+    {
+        if (config != null)
+            return config.getString(name, defaultValue);
+        System.err.printf("%s [%s]: ", message, defaultValue);
+        String value = console.readLine();
+        if (value == null)
+            return defaultValue;
+        value = value.trim();
+        return value.length() == 0 ? defaultValue : value;
+    }
+
+    private static class PhaseRecorder
+    {
+        private final LatencyHistogram localLatencyHistogram = new LatencyHistogram();
+        private final LatencyHistogram remoteLatencyHistogram = new LatencyHistogram();
+
+        private void record(boolean local, long latency)
+        {
+            if (local)
+                localLatencyHistogram.record(latency);
+            else
+                remoteLatencyHistogram.record(latency);
+        }
+
+        private long getDelivered()
+        {
+            return localLatencyHistogram.getCount() + remoteLatencyHistogram.getCount();
+        }
+    }
+
+    /**
+     * <p>Polls the number of comets known by a node.</p>
+     */
+    private class Monitor
+    {
+        private final AtomicInteger comets = new AtomicInteger(-1);
+        private final AtomicLong replies = new AtomicLong();
+        private final BayeuxClient client;
+
+        private Monitor(String url)
+        {
+            client = newClient(url);
+            clients.remove(client);
+            client.getChannel(OortBenchmarkNode.STATUS_SERVICE_CHANNEL).addListener(new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    Map<String, Object> data = message.getDataAsMap();
+                    if (data != null)
+                    {
+                        comets.set(((Number)data.get("comets")).intValue());
+                        replies.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        private int poll() throws InterruptedException
+        {
+            long reply = replies.get();
+            client.getChannel(OortBenchmarkNode.STATUS_SERVICE_CHANNEL).publish(new HashMap<String, Object>());
+            long begin = System.nanoTime();
+            while (replies.get() == reply && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < Config.MAX_NETWORK_DELAY)
+                TimeUnit.MILLISECONDS.sleep(1);
+            return comets.get();
+        }
+
+        private void disconnect()
+        {
+            client.disconnect(1000);
+        }
+    }
+
+    private interface NodeHandle
+    {
+        String getURL();
+
+        void stop() throws Exception;
+    }
+
+    private static class EmbeddedNode implements NodeHandle
+    {
+        private final OortBenchmarkNode node = new OortBenchmarkNode(0);
+
+        private EmbeddedNode(String cloudURL) throws Exception
+        {
+            node.start(cloudURL);
+        }
+
+        public String getURL()
+        {
+            return node.getURL();
+        }
+
+        public void stop() throws Exception
+        {
+            node.stop();
+        }
+    }
+
+    /**
+     * <p>A node running in a child JVM with the same class path of this JVM.</p>
+     */
+    private static class ProcessNode implements NodeHandle
+    {
+        private final Process process;
+        private final String url;
+
+        private ProcessNode(String cloudURL) throws IOException
+        {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(OortBenchmarkNode.class.getName());
+            command.add("0");
+            if (cloudURL != null)
+                command.add(cloudURL);
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            url = reader.readLine();
+            if (url == null)
+                throw new IOException("Could not start node process");
+        }
+
+        public String getURL()
+        {
+            return url;
+        }
+
+        public void stop() throws Exception
+        {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+}
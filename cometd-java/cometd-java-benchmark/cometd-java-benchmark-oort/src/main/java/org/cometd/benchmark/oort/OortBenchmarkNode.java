@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.oort;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.benchmark.Config;
+import org.cometd.oort.Oort;
+import org.cometd.oort.OortObject;
+import org.cometd.oort.OortObjectFactories;
+import org.cometd.oort.Seti;
+import org.cometd.server.AbstractService;
+import org.cometd.server.CometDServlet;
+import org.cometd.server.transport.JSONTransport;
+import org.cometd.websocket.server.WebSocketTransport;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
+
+/**
+ * <p>A node of the Oort cluster benchmark: a Jetty server listening on a loopback port,
+ * with CometD, {@link Oort}, {@link Seti} and an {@link OortObject} that the benchmark
+ * drives through the services of this node.</p>
+ * <p>A node can be embedded in the benchmark JVM, or run in its own JVM via {@link #main(String[])},
+ * in which case it prints its URL on the standard output once started.</p>
+ */
+public class OortBenchmarkNode
+{
+    public static final String BROADCAST_CHANNEL = "/benchmark/broadcast";
+    public static final String SETI_CHANNEL = "/benchmark/seti";
+    public static final String OBJECT_CHANNEL = "/benchmark/object";
+    public static final String LOGIN_SERVICE_CHANNEL = "/service/benchmark/login";
+    public static final String SETI_SERVICE_CHANNEL = "/service/benchmark/seti";
+    public static final String OBJECT_SERVICE_CHANNEL = "/service/benchmark/object";
+    public static final String STATUS_SERVICE_CHANNEL = "/service/benchmark/status";
+    public static final String START_FIELD = "start";
+
+    private final Server server;
+    private final ServerConnector connector;
+    private final ServletContextHandler context;
+    private final QueuedThreadPool oortThreadPool = new QueuedThreadPool();
+    private Oort oort;
+    private Seti seti;
+    private OortObject<Map<String, Object>> oortObject;
+
+    public OortBenchmarkNode(int port)
+    {
+        server = new Server();
+        connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        connector.setPort(port);
+        server.addConnector(connector);
+
+        context = new ServletContextHandler(server, Config.CONTEXT_PATH, ServletContextHandler.SESSIONS);
+
+        String cometdURLMapping = Config.SERVLET_PATH + "/*";
+        ServletHolder cometdServletHolder = new ServletHolder(CometDServlet.class);
+        cometdServletHolder.setInitParameter("timeout", String.valueOf(Config.META_CONNECT_TIMEOUT));
+        cometdServletHolder.setInitParameter("transports", WebSocketTransport.class.getName() + "," + JSONTransport.class.getName());
+        cometdServletHolder.setInitParameter("ws.cometdURLMapping", cometdURLMapping);
+        cometdServletHolder.setInitOrder(1);
+        context.addServlet(cometdServletHolder, cometdURLMapping);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        String cloudURL = args.length > 1 ? args[1] : null;
+        OortBenchmarkNode node = new OortBenchmarkNode(port);
+        node.start(cloudURL);
+        // The benchmark reads the URL of this node from the standard output
+        System.out.println(node.getURL());
+        System.out.flush();
+        node.server.join();
+    }
+
+    /**
+     * @return the URL of this node, valid after the node is started
+     */
+    public String getURL()
+    {
+        return "http://localhost:" + connector.getLocalPort() + Config.CONTEXT_PATH + Config.SERVLET_PATH;
+    }
+
+    /**
+     * @param cloudURL the URL of a node of the cloud to join, or null to start a new cloud
+     * @throws Exception if the node cannot be started
+     */
+    public void start(String cloudURL) throws Exception
+    {
+        WebSocketServerContainerInitializer.configureContext(context);
+        server.start();
+
+        BayeuxServer bayeuxServer = (BayeuxServer)context.getServletContext().getAttribute(BayeuxServer.ATTRIBUTE);
+        oort = new Oort(bayeuxServer, getURL());
+        // Oort starts the thread pool before managing it, so it does not stop it: the node does
+        oortThreadPool.setName("oort-" + connector.getLocalPort());
+        oort.setThreadPool(oortThreadPool);
+        oort.start();
+        oort.observeChannel(BROADCAST_CHANNEL);
+
+        seti = new Seti(oort);
+        seti.start();
+
+        oortObject = new OortObject<>(oort, "benchmark", OortObjectFactories.<String, Object>forMap());
+        oortObject.start();
+
+        new NodeService(bayeuxServer);
+
+        if (cloudURL != null)
+            oort.observeComet(cloudURL);
+    }
+
+    public void stop() throws Exception
+    {
+        if (oortObject != null)
+            oortObject.stop();
+        if (seti != null)
+            seti.stop();
+        if (oort != null)
+            oort.stop();
+        oortThreadPool.stop();
+        server.stop();
+    }
+
+    public class NodeService extends AbstractService
+    {
+        public NodeService(BayeuxServer bayeuxServer)
+        {
+            super(bayeuxServer, "benchmark-node");
+            addService(LOGIN_SERVICE_CHANNEL, "login");
+            addService(SETI_SERVICE_CHANNEL, "seti");
+            addService(OBJECT_SERVICE_CHANNEL, "object");
+            addService(STATUS_SERVICE_CHANNEL, "status");
+            oortObject.addListener(new OortObject.Listener.Adapter<Map<String, Object>>()
+            {
+                @Override
+                public void onUpdated(OortObject.Info<Map<String, Object>> oldInfo, OortObject.Info<Map<String, Object>> newInfo)
+                {
+                    // Only updates replicated from other nodes are interesting
+                    if (!newInfo.isLocal())
+                        getBayeux().createChannelIfAbsent(OBJECT_CHANNEL).getReference().publish(getServerSession(), new HashMap<>(newInfo.getObject()));
+                }
+            });
+        }
+
+        public Map<String, Object> login(ServerSession session, Message message)
+        {
+            Map<String, Object> data = message.getDataAsMap();
+            seti.associate((String)data.get("userId"), session);
+            return data;
+        }
+
+        public void seti(ServerSession session, Message message)
+        {
+            Map<String, Object> data = message.getDataAsMap();
+            seti.sendMessage((String)data.get("to"), SETI_CHANNEL, data);
+        }
+
+        public void object(ServerSession session, Message message)
+        {
+            Map<String, Object> data = message.getDataAsMap();
+            oortObject.setAndShare(new HashMap<>(data));
+        }
+
+        public Map<String, Object> status(ServerSession session, Message message)
+        {
+            Map<String, Object> status = new HashMap<>();
+            status.put("comets", oort.getKnownComets().size());
+            return status;
+        }
+    }
+}
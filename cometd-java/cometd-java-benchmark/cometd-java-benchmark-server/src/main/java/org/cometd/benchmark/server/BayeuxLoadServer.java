@@ -26,6 +26,7 @@ import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,19 +46,27 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.benchmark.AllocationProfiler;
 import org.cometd.benchmark.Atomics;
 import org.cometd.benchmark.BenchmarkHelper;
+import org.cometd.benchmark.BenchmarkResults;
 import org.cometd.benchmark.Config;
+import org.cometd.benchmark.LatencyHistogram;
 import org.cometd.benchmark.MonitoringQueuedThreadPool;
 import org.cometd.benchmark.MonitoringThreadPoolExecutor;
+import org.cometd.benchmark.Scenario;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.AbstractService;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.CometDServlet;
 import org.cometd.server.Jackson1JSONContextServer;
+import org.cometd.server.ServerSessionImpl;
 import org.cometd.server.transport.AsyncJSONTransport;
 import org.cometd.server.transport.JSONTransport;
+import org.cometd.server.transport.ServerSentEventsTransport;
+import org.cometd.server.transport.StreamingTransport;
 import org.cometd.websocket.server.JettyWebSocketTransport;
 import org.cometd.websocket.server.WebSocketTransport;
 import org.eclipse.jetty.jmx.MBeanContainer;
@@ -80,53 +89,53 @@ public class BayeuxLoadServer
     public static void main(String[] args) throws Exception
     {
         BayeuxLoadServer server = new BayeuxLoadServer();
-        server.run();
+        server.run(args.length > 0 ? Scenario.load(Paths.get(args[0])) : null);
     }
 
     public void run() throws Exception
+    {
+        run(null);
+    }
+
+    /**
+     * @param scenario the scenario to run unattended, or null to read the configuration from the console
+     * @throws Exception if the server cannot be started
+     */
+    public void run(Scenario scenario) throws Exception
     {
         BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        Scenario.Section config = scenario == null ? null : scenario.getServer();
+
+        int port = Integer.parseInt(prompt(console, config, "port", "listen port", String.valueOf(8080)));
 
-        int port = 8080;
-        System.err.printf("listen port [%d]: ", port);
-        String value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(port);
-        port = Integer.parseInt(value);
-
-        boolean ssl = false;
-        System.err.printf("use ssl [%b]: ", ssl);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(ssl);
-        ssl = Boolean.parseBoolean(value);
-
-        int selectors = Runtime.getRuntime().availableProcessors();
-        System.err.printf("selectors [%d]: ", selectors);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(selectors);
-        selectors = Integer.parseInt(value);
-
-        int maxThreads = Integer.parseInt(System.getProperty("cometd.threads", "256"));
-        System.err.printf("max threads [%d]: ", maxThreads);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(maxThreads);
-        maxThreads = Integer.parseInt(value);
-
-        BayeuxServerImpl bayeuxServer = new BayeuxServerImpl();
+        boolean ssl = Boolean.parseBoolean(prompt(console, config, "ssl", "use ssl", String.valueOf(false)));
+
+        int selectors = Integer.parseInt(prompt(console, config, "selectors", "selectors", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        int maxThreads = Integer.parseInt(prompt(console, config, "maxThreads", "max threads", System.getProperty("cometd.threads", "256")));
+
+        int allocationSampling = Integer.parseInt(prompt(console, config, "allocationSampling", "profile allocations of one in N messages (0 to disable)", String.valueOf(0)));
+        AllocationProfiler allocationProfiler = null;
+        if (allocationSampling > 0)
+        {
+            allocationProfiler = new AllocationProfiler(allocationSampling);
+            if (!allocationProfiler.isSupported())
+            {
+                System.err.println("Allocation profiling not supported by this JVM");
+                allocationProfiler = null;
+            }
+        }
+
+        BayeuxServerImpl bayeuxServer = allocationProfiler == null ? new BayeuxServerImpl() : new LoadBayeuxServer(allocationProfiler);
 
         MonitoringQueuedThreadPool jettyThreadPool = new MonitoringQueuedThreadPool(maxThreads);
-        MonitoringThreadPoolExecutor websocketThreadPool = new MonitoringThreadPoolExecutor(maxThreads, jettyThreadPool.getIdleTimeout(), TimeUnit.MILLISECONDS, new ThreadPoolExecutor.AbortPolicy());
+        MonitoringThreadPoolExecutor websocketThreadPool = allocationProfiler == null ?
+                new MonitoringThreadPoolExecutor(maxThreads, jettyThreadPool.getIdleTimeout(), TimeUnit.MILLISECONDS, new ThreadPoolExecutor.AbortPolicy()) :
+                new ProfilingThreadPoolExecutor(maxThreads, jettyThreadPool.getIdleTimeout(), TimeUnit.MILLISECONDS, allocationProfiler);
 
-        String availableTransports = "jsrws,jettyws,http,asynchttp";
-        String transports = "jsrws,http";
-        System.err.printf("transports (%s) [%s]: ", availableTransports, transports);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = transports;
-        for (String token : value.split(","))
+        String availableTransports = "jsrws,jettyws,http,asynchttp,streaming,sse";
+        String transports = prompt(console, config, "transports", "transports (" + availableTransports + ")", "jsrws,http");
+        for (String token : transports.split(","))
         {
             switch (token.trim())
             {
@@ -142,31 +151,26 @@ public class BayeuxLoadServer
                 case "asynchttp":
                     bayeuxServer.addTransport(new AsyncJSONTransport(bayeuxServer));
                     break;
+                case "streaming":
+                    bayeuxServer.addTransport(new StreamingTransport(bayeuxServer));
+                    break;
+                case "sse":
+                    bayeuxServer.addTransport(new ServerSentEventsTransport(bayeuxServer));
+                    break;
                 default:
                     throw new IllegalArgumentException("Invalid transport: " + token);
             }
         }
 
-        boolean stats = true;
-        System.err.printf("record statistics [%b]: ", stats);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(stats);
-        stats = Boolean.parseBoolean(value);
+        boolean stats = Boolean.parseBoolean(prompt(console, config, "statistics", "record statistics", String.valueOf(true)));
+
+        boolean reqs = Boolean.parseBoolean(prompt(console, config, "requestLatencies", "record latencies", String.valueOf(true)));
 
-        boolean reqs = true;
-        System.err.printf("record latencies [%b]: ", reqs);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(reqs);
-        reqs = Boolean.parseBoolean(value);
+        boolean qos = Boolean.parseBoolean(prompt(console, config, "detectLongRequests", "detect long requests", String.valueOf(false)));
 
-        boolean qos = false;
-        System.err.printf("detect long requests [%b]: ", qos);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(qos);
-        qos = Boolean.parseBoolean(value);
+        BenchmarkResults results = null;
+        if (config != null && config.has("results"))
+            results = new BenchmarkResults(Paths.get(config.getString("results", null)));
 
         Server server = new Server(jettyThreadPool);
 
@@ -221,6 +225,13 @@ public class BayeuxLoadServer
             handler = statisticsHandler;
         }
 
+        if (allocationProfiler != null)
+        {
+            AllocationHandler allocationHandler = new AllocationHandler(allocationProfiler);
+            handler.setHandler(allocationHandler);
+            handler = allocationHandler;
+        }
+
         // Add more handlers if needed
 
         ServletContextHandler context = new ServletContextHandler(handler, Config.CONTEXT_PATH, ServletContextHandler.SESSIONS);
@@ -252,7 +263,19 @@ public class BayeuxLoadServer
 
         server.start();
 
-        new StatisticsService(bayeuxServer, jettyThreadPool, websocketThreadPool, statisticsHandler, requestLatencyHandler);
+        new StatisticsService(bayeuxServer, jettyThreadPool, websocketThreadPool, statisticsHandler, requestLatencyHandler, allocationProfiler, results);
+    }
+
+    private String prompt(BufferedReader console, Scenario.Section config, String name, String message, String defaultValue) throws IOException
+    {
+        if (config != null)
+            return config.getString(name, defaultValue);
+        System.err.printf("%s [%s]: ", message, defaultValue);
+        String value = console.readLine();
+        if (value == null)
+            return defaultValue;
+        value = value.trim();
+        return value.length() == 0 ? defaultValue : value;
     }
 
     public static class StatisticsService extends AbstractService
@@ -262,14 +285,18 @@ public class BayeuxLoadServer
         private final MonitoringThreadPoolExecutor websocketThreadPool;
         private final StatisticsHandler statisticsHandler;
         private final RequestLatencyHandler requestLatencyHandler;
+        private final AllocationProfiler allocationProfiler;
+        private final BenchmarkResults results;
 
-        private StatisticsService(BayeuxServer bayeux, MonitoringQueuedThreadPool jettyThreadPool, MonitoringThreadPoolExecutor websocketThreadPool, StatisticsHandler statisticsHandler, RequestLatencyHandler requestLatencyHandler)
+        private StatisticsService(BayeuxServer bayeux, MonitoringQueuedThreadPool jettyThreadPool, MonitoringThreadPoolExecutor websocketThreadPool, StatisticsHandler statisticsHandler, RequestLatencyHandler requestLatencyHandler, AllocationProfiler allocationProfiler, BenchmarkResults results)
         {
             super(bayeux, "statistics-service");
             this.jettyThreadPool = jettyThreadPool;
             this.websocketThreadPool = websocketThreadPool;
             this.statisticsHandler = statisticsHandler;
             this.requestLatencyHandler = requestLatencyHandler;
+            this.allocationProfiler = allocationProfiler;
+            this.results = results;
             addService("/service/statistics/start", "startStatistics");
             addService("/service/statistics/stop", "stopStatistics");
         }
@@ -290,6 +317,9 @@ public class BayeuxLoadServer
                     if (statisticsHandler != null)
                         statisticsHandler.statsReset();
 
+                    if (allocationProfiler != null)
+                        allocationProfiler.reset();
+
                     if (requestLatencyHandler != null)
                     {
                         requestLatencyHandler.reset();
@@ -306,6 +336,9 @@ public class BayeuxLoadServer
                 boolean stopped = helper.stopStatistics();
                 if (stopped)
                 {
+                    if (results != null)
+                        writeResults(message);
+
                     if (requestLatencyHandler != null)
                     {
                         requestLatencyHandler.print();
@@ -344,9 +377,62 @@ public class BayeuxLoadServer
                                 TimeUnit.NANOSECONDS.toMillis(websocketThreadPool.getAverageQueueLatency()),
                                 TimeUnit.NANOSECONDS.toMillis(websocketThreadPool.getMaxQueueLatency()));
                     }
+                    if (allocationProfiler != null)
+                    {
+                        AllocationProfiler.Section handle = allocationProfiler.getHandle();
+                        AllocationProfiler.Section flush = allocationProfiler.getFlush();
+                        System.err.printf("Allocations - Received = %d messages, %d bytes/message | Delivered = %d messages, %d bytes/message%n",
+                                handle.getMessages(),
+                                handle.getBytesPerMessage(),
+                                flush.getMessages(),
+                                flush.getBytesPerMessage());
+                    }
                 }
             }
         }
+
+        private void writeResults(Message message)
+        {
+            Map<String, Object> data = message.getDataAsMap();
+            Object phase = data == null ? null : data.get("phase");
+            if (phase == null)
+                phase = "phase-" + (results.getPhases().size() + 1);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+            if (statisticsHandler != null)
+            {
+                result.put("requests", statisticsHandler.getDispatched());
+                result.put("failedRequests", statisticsHandler.getResponses4xx() + statisticsHandler.getResponses5xx());
+                result.put("maxActiveRequests", statisticsHandler.getDispatchedActiveMax());
+            }
+            if (jettyThreadPool != null)
+            {
+                result.put("jettyTasks", jettyThreadPool.getTasks());
+                result.put("jettyMaxQueueLatency", BenchmarkResults.LATENCY_UNIT.convert(jettyThreadPool.getMaxQueueLatency(), TimeUnit.NANOSECONDS));
+            }
+            if (websocketThreadPool != null)
+            {
+                result.put("websocketTasks", websocketThreadPool.getTasks());
+                result.put("websocketMaxQueueLatency", BenchmarkResults.LATENCY_UNIT.convert(websocketThreadPool.getMaxQueueLatency(), TimeUnit.NANOSECONDS));
+            }
+            if (allocationProfiler != null)
+            {
+                result.put("allocatedBytesPerReceivedMessage", allocationProfiler.getHandle().getBytesPerMessage());
+                result.put("allocatedBytesPerDeliveredMessage", allocationProfiler.getFlush().getBytesPerMessage());
+            }
+            if (requestLatencyHandler != null)
+                histograms.put("requestLatency", requestLatencyHandler.getHistogram());
+
+            try
+            {
+                results.addPhase(String.valueOf(phase), result, histograms);
+            }
+            catch (IOException x)
+            {
+                x.printStackTrace();
+            }
+        }
     }
 
     private static class RequestQoSHandler extends HandlerWrapper
@@ -448,6 +534,7 @@ public class BayeuxLoadServer
         private final AtomicLong maxLatency = new AtomicLong();
         private final AtomicLong totLatency = new AtomicLong();
         private final ConcurrentMap<Long, AtomicLong> latencies = new ConcurrentHashMap<>();
+        private final LatencyHistogram histogram = new LatencyHistogram();
         private final ThreadLocal<Boolean> currentEnabled = new ThreadLocal<Boolean>()
         {
             @Override
@@ -487,6 +574,12 @@ public class BayeuxLoadServer
             maxLatency.set(0);
             totLatency.set(0);
             latencies.clear();
+            histogram.reset();
+        }
+
+        private LatencyHistogram getHistogram()
+        {
+            return histogram;
         }
 
         private void updateLatencies(long begin, long end)
@@ -496,6 +589,7 @@ public class BayeuxLoadServer
             Atomics.updateMin(minLatency, latency);
             Atomics.updateMax(maxLatency, latency);
             totLatency.addAndGet(latency);
+            histogram.record(end - begin);
             AtomicLong count = latencies.get(latency);
             if (count == null)
             {
@@ -587,6 +681,109 @@ public class BayeuxLoadServer
         }
     }
 
+    /**
+     * <p>Accounts the bytes allocated by the HTTP transports outside of {@link BayeuxServerImpl#handle(ServerSessionImpl, ServerMessage.Mutable)},
+     * mostly parsing requests and writing responses, to the flush section of the {@link AllocationProfiler}.</p>
+     */
+    private static class AllocationHandler extends HandlerWrapper
+    {
+        private final AllocationProfiler profiler;
+
+        private AllocationHandler(AllocationProfiler profiler)
+        {
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void handle(String target, Request request, HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException, ServletException
+        {
+            profiler.enter();
+            try
+            {
+                super.handle(target, request, httpRequest, httpResponse);
+            }
+            finally
+            {
+                profiler.exit(profiler.getFlush(), 0);
+            }
+        }
+    }
+
+    /**
+     * <p>Accounts the bytes allocated by the WebSocket transports when flushing session queues
+     * to the flush section of the {@link AllocationProfiler}.</p>
+     */
+    private static class ProfilingThreadPoolExecutor extends MonitoringThreadPoolExecutor
+    {
+        private final AllocationProfiler profiler;
+
+        private ProfilingThreadPoolExecutor(int maximumPoolSize, long keepAliveTime, TimeUnit unit, AllocationProfiler profiler)
+        {
+            super(maximumPoolSize, keepAliveTime, unit, new AbortPolicy());
+            this.profiler = profiler;
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable task)
+        {
+            super.beforeExecute(thread, task);
+            profiler.enter();
+        }
+
+        @Override
+        protected void afterExecute(Runnable task, Throwable failure)
+        {
+            profiler.exit(profiler.getFlush(), 0);
+            super.afterExecute(task, failure);
+        }
+    }
+
+    /**
+     * <p>Accounts the bytes allocated handling messages to the handle section of the {@link AllocationProfiler},
+     * and counts the messages delivered to remote sessions for the flush section.</p>
+     */
+    public static class LoadBayeuxServer extends BayeuxServerImpl
+    {
+        private final AllocationProfiler profiler;
+
+        public LoadBayeuxServer(final AllocationProfiler profiler)
+        {
+            this.profiler = profiler;
+            addExtension(new Extension.Adapter()
+            {
+                @Override
+                public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message)
+                {
+                    if (!to.isLocalSession())
+                        profiler.getFlush().addMessages(1);
+                    return true;
+                }
+
+                @Override
+                public boolean sendMeta(ServerSession to, ServerMessage.Mutable message)
+                {
+                    if (to != null && !to.isLocalSession())
+                        profiler.getFlush().addMessages(1);
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public ServerMessage.Mutable handle(ServerSessionImpl session, ServerMessage.Mutable message)
+        {
+            profiler.enter();
+            try
+            {
+                return super.handle(session, message);
+            }
+            finally
+            {
+                profiler.exit(profiler.getHandle(), 1);
+            }
+        }
+    }
+
     public static class LoadJettyWebSocketTransport extends JettyWebSocketTransport
     {
         private final Executor executor;
@@ -49,7 +49,8 @@ import org.cometd.client.transport.MessageClientTransport;
 import org.cometd.client.transport.TransportListener;
 import org.cometd.client.transport.TransportRegistry;
 import org.cometd.common.AbstractClientSession;
-import org.cometd.common.HashMapMessage;
+import org.cometd.common.BinaryContext;
+import org.cometd.common.FixedFieldsMessage;
 import org.cometd.common.TransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -388,6 +389,12 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
                 transportNames.add(transport.getName());
             message.put(Message.SUPPORTED_CONNECTION_TYPES_FIELD, transportNames);
             message.put(Message.VERSION_FIELD, BayeuxClient.BAYEUX_VERSION);
+            // Handshakes are always sent as JSON, offering the binary encoding if available
+            ClientTransport transport = bayeuxClientState.transport;
+            transport.setEncoding(null);
+            BinaryContext.Client binaryContext = transport.getBinaryContext();
+            if (binaryContext != null)
+                message.put(BinaryContext.ENCODINGS_FIELD, Collections.singletonList(binaryContext.getEncoding()));
             if (bayeuxClientState.callback != null)
                 message.put(CALLBACK_KEY, bayeuxClientState.callback);
 
@@ -481,7 +488,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
     {
         // Save some parsing by checking if there is already one
         AbstractSessionChannel channel = getChannels().get(channelId);
-        return channel == null ? new ChannelId(channelId) : channel.getChannelId();
+        return channel == null ? ChannelId.from(channelId) : channel.getChannelId();
     }
 
     protected AbstractSessionChannel newChannel(ChannelId channelId)
@@ -669,6 +676,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
                     {
                         if (newTransport != oldState.transport)
                             prepareTransport(oldState.transport, newTransport);
+                        newTransport.setEncoding((String)handshake.get(BinaryContext.ENCODING_FIELD));
 
                         String action = getAdviceAction(handshake.getAdvice(), Message.RECONNECT_RETRY_VALUE);
                         if (Message.RECONNECT_RETRY_VALUE.equals(action))
@@ -914,7 +922,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
 
     protected Message.Mutable newMessage()
     {
-        return new HashMapMessage();
+        return new FixedFieldsMessage();
     }
 
     protected void enqueueSend(Message.Mutable message)
@@ -1286,7 +1294,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
             throwIfReleased();
             Message.Mutable message = newMessage();
             message.setChannel(getId());
-            message.setData(data);
+            message.setData(encodeData(data));
             if (callback != null)
                 message.put(CALLBACK_KEY, callback);
             enqueueSend(message);
@@ -23,6 +23,7 @@ import java.util.Map;
 
 import org.cometd.bayeux.Message;
 import org.cometd.common.AbstractTransport;
+import org.cometd.common.BinaryContext;
 import org.cometd.common.JSONContext;
 import org.cometd.common.JettyJSONContextClient;
 import org.slf4j.Logger;
@@ -37,9 +38,12 @@ public abstract class ClientTransport extends AbstractTransport
     public static final String INTERVAL_OPTION = "interval";
     public static final String MAX_NETWORK_DELAY_OPTION = "maxNetworkDelay";
     public static final String JSON_CONTEXT = "jsonContext";
+    public static final String BINARY_CONTEXT = "binaryContext";
 
     protected final Logger logger = LoggerFactory.getLogger(getClass().getName() + "." + System.identityHashCode(this));
     private JSONContext.Client jsonContext;
+    private BinaryContext.Client binaryContext;
+    private volatile String encoding;
 
     protected ClientTransport(String name, Map<String, Object> options)
     {
@@ -48,6 +52,7 @@ public abstract class ClientTransport extends AbstractTransport
 
     public void init()
     {
+        encoding = null;
         Object option = getOption(JSON_CONTEXT);
         if (option == null)
         {
@@ -84,6 +89,74 @@ public abstract class ClientTransport extends AbstractTransport
             }
         }
         setOption(JSON_CONTEXT, jsonContext);
+
+        option = getOption(BINARY_CONTEXT);
+        if (option instanceof String)
+        {
+            try
+            {
+                Class<?> binaryContextClass = Thread.currentThread().getContextClassLoader().loadClass((String)option);
+                if (BinaryContext.Client.class.isAssignableFrom(binaryContextClass))
+                {
+                    binaryContext = (BinaryContext.Client)binaryContextClass.newInstance();
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Invalid implementation of " + BinaryContext.Client.class.getName() + " provided: " + option);
+                }
+            }
+            catch (Exception x)
+            {
+                throw new IllegalArgumentException("Invalid implementation of " + BinaryContext.Client.class.getName() + " provided: " + option, x);
+            }
+            setOption(BINARY_CONTEXT, binaryContext);
+        }
+        else if (option == null || option instanceof BinaryContext.Client)
+        {
+            binaryContext = (BinaryContext.Client)option;
+        }
+        else
+        {
+            throw new IllegalArgumentException("Invalid implementation of " + BinaryContext.Client.class.getName() + " provided: " + option);
+        }
+    }
+
+    /**
+     * @return the binary context configured with the {@link #BINARY_CONTEXT} option,
+     * or null if it is not configured or if this transport cannot carry binary content
+     */
+    public BinaryContext.Client getBinaryContext()
+    {
+        return isBinarySupported() ? binaryContext : null;
+    }
+
+    /**
+     * @return whether this transport can carry messages encoded with a binary context
+     */
+    protected boolean isBinarySupported()
+    {
+        return false;
+    }
+
+    /**
+     * <p>Sets the encoding negotiated with the server during the handshake.</p>
+     *
+     * @param encoding the negotiated encoding, or null to send JSON
+     * @see #isBinary()
+     */
+    public void setEncoding(String encoding)
+    {
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return whether messages are sent with the binary context, because its
+     * encoding has been negotiated with the server
+     */
+    protected boolean isBinary()
+    {
+        BinaryContext.Client binaryContext = getBinaryContext();
+        return binaryContext != null && binaryContext.getEncoding().equals(encoding);
     }
 
     /**
@@ -116,4 +189,17 @@ public abstract class ClientTransport extends AbstractTransport
     {
         return jsonContext.generate(messages);
     }
+
+    protected List<Message.Mutable> parseMessages(byte[] bytes, int offset, int length) throws ParseException
+    {
+        BinaryContext.Client binaryContext = getBinaryContext();
+        if (binaryContext == null)
+            throw new ParseException("Binary messages not supported", 0);
+        return new ArrayList<>(Arrays.asList(binaryContext.parse(bytes, offset, length)));
+    }
+
+    protected byte[] generateBinary(List<Message.Mutable> messages)
+    {
+        return binaryContext.generate(messages);
+    }
 }
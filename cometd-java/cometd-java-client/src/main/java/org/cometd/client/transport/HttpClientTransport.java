@@ -15,13 +15,33 @@
  */
 package org.cometd.client.transport;
 
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
 import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
 
 public abstract class HttpClientTransport extends ClientTransport
 {
+    private static final Pattern URI_PATTERN = Pattern.compile("(^https?://(((\\[[^\\]]+\\])|([^:/\\?#]+))(:(\\d+))?))?([^\\?#]*)(.*)?");
+
     private volatile String url;
     private volatile CookieStore cookieStore;
+    private volatile boolean appendMessageType;
+    private volatile CookieManager cookieManager;
 
     protected HttpClientTransport(String name, String url, Map<String, Object> options)
     {
@@ -29,6 +49,19 @@ public abstract class HttpClientTransport extends ClientTransport
         this.url = url;
     }
 
+    @Override
+    public void init()
+    {
+        super.init();
+        Matcher uriMatcher = URI_PATTERN.matcher(getURL());
+        if (uriMatcher.matches())
+        {
+            String afterPath = uriMatcher.group(9);
+            appendMessageType = afterPath == null || afterPath.trim().length() == 0;
+        }
+        cookieManager = new CookieManager(getCookieStore(), CookiePolicy.ACCEPT_ALL);
+    }
+
     protected String getURL()
     {
         return url;
@@ -49,4 +82,76 @@ public abstract class HttpClientTransport extends ClientTransport
     {
         this.cookieStore = cookieStore;
     }
+
+    /**
+     * <p>Returns the URL to send the given messages to.</p>
+     * <p>A single meta message is sent to the transport URL with the message type
+     * appended (for example {@code /cometd/connect}), unless the transport URL
+     * has a query string or a fragment.</p>
+     *
+     * @param messages the messages to send
+     * @return the request URL
+     */
+    protected String newRequestURL(List<Message.Mutable> messages)
+    {
+        String url = getURL();
+        if (appendMessageType && messages.size() == 1)
+        {
+            Message.Mutable message = messages.get(0);
+            if (message.isMeta())
+            {
+                String type = message.getChannel().substring(Channel.META.length());
+                if (url.endsWith("/"))
+                    url = url.substring(0, url.length() - 1);
+                url += type;
+            }
+        }
+        return url;
+    }
+
+    /**
+     * <p>Adds to the request the {@code Cookie} headers for the cookies stored for the given URI.</p>
+     *
+     * @param uri the URI the cookies are stored for
+     * @param request the request to add the cookies to
+     */
+    protected void addCookies(URI uri, Request request)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (HttpCookie cookie : getCookieStore().get(uri))
+        {
+            builder.setLength(0);
+            builder.append(cookie.getName()).append("=").append(cookie.getValue());
+            request.header(HttpHeader.COOKIE.asString(), builder.toString());
+        }
+    }
+
+    /**
+     * <p>Stores the cookie carried by a {@code Set-Cookie} response header.</p>
+     * <p>We do not allow cookies to be handled by HttpClient, since one
+     * HttpClient instance is shared by multiple BayeuxClient instances.
+     * Instead, we store the cookies in the BayeuxClient instance.</p>
+     *
+     * @param uri the URI of the request
+     * @param field the response header
+     * @return whether the header was a cookie header, and has been consumed
+     */
+    protected boolean storeCookie(URI uri, HttpField field)
+    {
+        HttpHeader header = field.getHeader();
+        if (header != HttpHeader.SET_COOKIE && header != HttpHeader.SET_COOKIE2)
+            return false;
+
+        Map<String, List<String>> cookies = new HashMap<>(1);
+        cookies.put(field.getName(), Collections.singletonList(field.getValue()));
+        try
+        {
+            cookieManager.put(uri, cookies);
+        }
+        catch (IOException x)
+        {
+            logger.debug("", x);
+        }
+        return true;
+    }
 }
@@ -15,20 +15,13 @@
  */
 package org.cometd.client.transport;
 
-import java.io.IOException;
-import java.net.CookieManager;
-import java.net.CookiePolicy;
-import java.net.HttpCookie;
 import java.net.URI;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
@@ -38,6 +31,7 @@ import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
@@ -53,8 +47,6 @@ public class LongPollingTransport extends HttpClientTransport
     private final List<Request> _requests = new ArrayList<>();
     private volatile boolean _aborted;
     private volatile long _maxNetworkDelay;
-    private volatile boolean _appendMessageType;
-    private volatile CookieManager _cookieManager;
     private volatile Map<String, Object> _advice;
 
     public LongPollingTransport(Map<String, Object> options, HttpClient httpClient)
@@ -74,6 +66,12 @@ public class LongPollingTransport extends HttpClientTransport
         return true;
     }
 
+    @Override
+    protected boolean isBinarySupported()
+    {
+        return true;
+    }
+
     @Override
     public void init()
     {
@@ -83,14 +81,6 @@ public class LongPollingTransport extends HttpClientTransport
         if (defaultMaxNetworkDelay <= 0)
             defaultMaxNetworkDelay = 10000;
         _maxNetworkDelay = getOption(MAX_NETWORK_DELAY_OPTION, defaultMaxNetworkDelay);
-        Pattern uriRegexp = Pattern.compile("(^https?://(((\\[[^\\]]+\\])|([^:/\\?#]+))(:(\\d+))?))?([^\\?#]*)(.*)?");
-        Matcher uriMatcher = uriRegexp.matcher(getURL());
-        if (uriMatcher.matches())
-        {
-            String afterPath = uriMatcher.group(9);
-            _appendMessageType = afterPath == null || afterPath.trim().length() == 0;
-        }
-        _cookieManager = new CookieManager(getCookieStore(), CookiePolicy.ACCEPT_ALL);
     }
 
     @Override
@@ -112,32 +102,20 @@ public class LongPollingTransport extends HttpClientTransport
     @Override
     public void send(final TransportListener listener, final List<Message.Mutable> messages)
     {
-        String url = getURL();
-        final URI uri = URI.create(url);
-        if (_appendMessageType && messages.size() == 1)
-        {
-            Message.Mutable message = messages.get(0);
-            if (message.isMeta())
-            {
-                String type = message.getChannel().substring(Channel.META.length());
-                if (url.endsWith("/"))
-                    url = url.substring(0, url.length() - 1);
-                url += type;
-            }
-        }
+        final URI uri = URI.create(getURL());
+        final Request request = _httpClient.newRequest(newRequestURL(messages)).method(HttpMethod.POST);
+        boolean binary = isBinary();
+        if (binary)
+            request.header(HttpHeader.CONTENT_TYPE.asString(), getBinaryContext().getContentType());
+        else
+            request.header(HttpHeader.CONTENT_TYPE.asString(), "application/json;charset=UTF-8");
 
-        final Request request = _httpClient.newRequest(url).method(HttpMethod.POST);
-        request.header(HttpHeader.CONTENT_TYPE.asString(), "application/json;charset=UTF-8");
+        addCookies(uri, request);
 
-        StringBuilder builder = new StringBuilder();
-        for (HttpCookie cookie : getCookieStore().get(uri))
-        {
-            builder.setLength(0);
-            builder.append(cookie.getName()).append("=").append(cookie.getValue());
-            request.header(HttpHeader.COOKIE.asString(), builder.toString());
-        }
-
-        request.content(new StringContentProvider(generateJSON(messages)));
+        if (binary)
+            request.content(new BytesContentProvider(generateBinary(messages)));
+        else
+            request.content(new StringContentProvider(generateJSON(messages)));
 
         customize(request);
 
@@ -185,32 +163,7 @@ public class LongPollingTransport extends HttpClientTransport
             @Override
             public boolean onHeader(Response response, HttpField field)
             {
-                // We do not allow cookies to be handled by HttpClient, since one
-                // HttpClient instance is shared by multiple BayeuxClient instances.
-                // Instead, we store the cookies in the BayeuxClient instance.
-                switch (field.getHeader())
-                {
-                    case SET_COOKIE:
-                    case SET_COOKIE2:
-                        Map<String, List<String>> cookies = new HashMap<>(1);
-                        cookies.put(field.getName(), Collections.singletonList(field.getValue()));
-                        storeCookies(uri, cookies);
-                        return false;
-                    default:
-                        return true;
-                }
-            }
-
-            private void storeCookies(URI uri, Map<String, List<String>> cookies)
-            {
-                try
-                {
-                    _cookieManager.put(uri, cookies);
-                }
-                catch (IOException x)
-                {
-                    logger.debug("", x);
-                }
+                return !storeCookie(uri, field);
             }
 
             @Override
@@ -231,12 +184,12 @@ public class LongPollingTransport extends HttpClientTransport
                 int status = response.getStatus();
                 if (status == HttpStatus.OK_200)
                 {
-                    String content = getContentAsString();
-                    if (content != null && content.length() > 0)
+                    byte[] content = getContent();
+                    if (content != null && content.length > 0)
                     {
                         try
                         {
-                            List<Message.Mutable> messages = parseMessages(content);
+                            List<Message.Mutable> messages = isBinary(response) ? parseMessages(content, 0, content.length) : parseMessages(getContentAsString());
                             logger.debug("Received messages {}", messages);
                             for (Message.Mutable message : messages)
                             {
@@ -274,6 +227,18 @@ public class LongPollingTransport extends HttpClientTransport
         });
     }
 
+    /**
+     * @param response the response to inspect
+     * @return whether the response content is encoded with the binary context
+     */
+    protected boolean isBinary(Response response)
+    {
+        if (getBinaryContext() == null)
+            return false;
+        String contentType = response.getHeaders().get(HttpHeader.CONTENT_TYPE);
+        return contentType != null && contentType.startsWith(getBinaryContext().getContentType());
+    }
+
     protected void customize(Request request)
     {
     }
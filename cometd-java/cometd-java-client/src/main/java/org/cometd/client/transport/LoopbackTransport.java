@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.io.EOFException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.common.LoopbackConnector;
+
+/**
+ * <p>A client transport that connects to a server transport living in the same JVM,
+ * typically {@code org.cometd.server.transport.LoopbackTransport}, through a
+ * {@link LoopbackConnector}.</p>
+ * <p>Messages are exchanged in their JSON form through in-memory queues, with no sockets
+ * involved, while the Bayeux protocol is otherwise the same as with the WebSocket transport.</p>
+ */
+public class LoopbackTransport extends ClientTransport implements MessageClientTransport
+{
+    public static final String PREFIX = "loopback";
+    public static final String NAME = "loopback";
+
+    private final Map<String, Exchange> _exchanges = new ConcurrentHashMap<>();
+    private final LoopbackConnector _connector;
+    private volatile ScheduledExecutorService _scheduler;
+    private volatile boolean _shutdownScheduler;
+    private volatile long _maxNetworkDelay;
+    private volatile boolean _connected;
+    private volatile boolean _disconnected;
+    private volatile boolean _aborted;
+    private volatile TransportListener _listener;
+    private volatile Map<String, Object> _advice;
+    private ClientEndpoint _client;
+    private LoopbackConnector.Endpoint _server;
+
+    public LoopbackTransport(Map<String, Object> options, LoopbackConnector connector)
+    {
+        this(options, connector, null);
+    }
+
+    public LoopbackTransport(Map<String, Object> options, LoopbackConnector connector, ScheduledExecutorService scheduler)
+    {
+        super(NAME, options);
+        _connector = connector;
+        _scheduler = scheduler;
+        setOptionPrefix(PREFIX);
+    }
+
+    public void setMessageTransportListener(TransportListener listener)
+    {
+        _listener = listener;
+    }
+
+    @Override
+    public boolean accept(String version)
+    {
+        return true;
+    }
+
+    @Override
+    public void init()
+    {
+        super.init();
+        _exchanges.clear();
+        _aborted = false;
+        _connected = false;
+        _disconnected = false;
+
+        if (_scheduler == null)
+        {
+            _shutdownScheduler = true;
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads);
+            scheduler.setRemoveOnCancelPolicy(true);
+            _scheduler = scheduler;
+        }
+
+        _maxNetworkDelay = getOption(MAX_NETWORK_DELAY_OPTION, 15000L);
+    }
+
+    public long getMaxNetworkDelay()
+    {
+        return _maxNetworkDelay;
+    }
+
+    @Override
+    public void abort()
+    {
+        _aborted = true;
+        disconnect("Aborted");
+        shutdownScheduler();
+    }
+
+    @Override
+    public void terminate()
+    {
+        disconnect("Terminated");
+        shutdownScheduler();
+        super.terminate();
+    }
+
+    private void shutdownScheduler()
+    {
+        if (_shutdownScheduler)
+        {
+            _shutdownScheduler = false;
+            _scheduler.shutdownNow();
+            _scheduler = null;
+        }
+    }
+
+    @Override
+    public void send(TransportListener listener, List<Message.Mutable> messages)
+    {
+        if (_aborted)
+            throw new IllegalStateException("Aborted");
+
+        // Register the messages before connecting, so that
+        // they are failed if the connection is closed meanwhile
+        for (Message.Mutable message : messages)
+            registerMessage(message, listener);
+
+        LoopbackConnector.Endpoint server;
+        try
+        {
+            server = connect();
+        }
+        catch (RuntimeException x)
+        {
+            failMessages(x);
+            return;
+        }
+
+        String content = generateJSON(messages);
+
+        // The onSending() callback must be invoked before the actual send
+        // otherwise the response may arrive before onSending() is called
+        logger.debug("Sending messages {}", content);
+        listener.onSending(messages);
+
+        server.receive(content);
+    }
+
+    private LoopbackConnector.Endpoint connect()
+    {
+        synchronized (this)
+        {
+            if (_server == null)
+            {
+                _client = new ClientEndpoint();
+                _server = _connector.connect(_client);
+            }
+            return _server;
+        }
+    }
+
+    private void disconnect(String reason)
+    {
+        LoopbackConnector.Endpoint server;
+        synchronized (this)
+        {
+            server = _server;
+            _server = null;
+            _client = null;
+        }
+        if (server != null)
+        {
+            logger.debug("Closing loopback connection, reason: {}", reason);
+            server.close(reason);
+        }
+    }
+
+    private void registerMessage(final Message.Mutable message, final TransportListener listener)
+    {
+        // Calculate max network delay
+        long maxNetworkDelay = getMaxNetworkDelay();
+        if (Channel.META_CONNECT.equals(message.getChannel()))
+        {
+            Map<String, Object> advice = message.getAdvice();
+            if (advice == null)
+                advice = _advice;
+            if (advice != null)
+            {
+                Object timeout = advice.get(Message.TIMEOUT_FIELD);
+                if (timeout instanceof Number)
+                    maxNetworkDelay += ((Number)timeout).longValue();
+                else if (timeout != null)
+                    maxNetworkDelay += Long.parseLong(timeout.toString());
+            }
+            _connected = true;
+        }
+
+        // Schedule a task to expire if the maxNetworkDelay elapses
+        ScheduledFuture<?> task = _scheduler.schedule(new Runnable()
+        {
+            public void run()
+            {
+                // Notify only if we won the race to deregister the message
+                Exchange exchange = deregisterMessage(message);
+                if (exchange != null)
+                {
+                    List<Message.Mutable> messages = new ArrayList<>(1);
+                    messages.add(message);
+                    listener.onFailure(new TimeoutException("Exchange expired"), messages);
+                }
+            }
+        }, maxNetworkDelay, TimeUnit.MILLISECONDS);
+
+        // Message responses must have the same messageId as the requests
+        Exchange exchange = new Exchange(message, listener, task);
+        logger.debug("Registering {}", exchange);
+        Object existing = _exchanges.put(message.getId(), exchange);
+        // Paranoid check
+        if (existing != null)
+            throw new IllegalStateException();
+    }
+
+    private Exchange deregisterMessage(Message message)
+    {
+        Exchange exchange = _exchanges.remove(message.getId());
+        if (Channel.META_CONNECT.equals(message.getChannel()))
+            _connected = false;
+        else if (Channel.META_DISCONNECT.equals(message.getChannel()))
+            _disconnected = true;
+
+        logger.debug("Deregistering {} for message {}", exchange, message);
+
+        if (exchange != null)
+            exchange.task.cancel(false);
+
+        return exchange;
+    }
+
+    private void failMessages(Throwable cause)
+    {
+        List<Exchange> exchanges = new ArrayList<>(_exchanges.values());
+        for (Exchange exchange : exchanges)
+        {
+            deregisterMessage(exchange.message);
+            List<Message.Mutable> messages = new ArrayList<>(1);
+            messages.add(exchange.message);
+            exchange.listener.onFailure(cause, messages);
+        }
+    }
+
+    private void onMessages(List<Message.Mutable> messages)
+    {
+        for (Message.Mutable message : messages)
+        {
+            if (message.isMeta() || message.isPublishReply())
+            {
+                // Remember the advice before notifying listeners, so that the next
+                // meta connect takes the timeout into account for the maxNetworkDelay
+                if (Channel.META_CONNECT.equals(message.getChannel()) && message.isSuccessful())
+                {
+                    Map<String, Object> advice = message.getAdvice();
+                    if (advice != null && advice.get(Message.TIMEOUT_FIELD) != null)
+                        _advice = advice;
+                }
+
+                Exchange exchange = deregisterMessage(message);
+                if (exchange != null)
+                    exchange.listener.onMessages(Collections.singletonList(message));
+                else
+                    logger.debug("Could not find request for reply {}", message);
+
+                if (_disconnected && !_connected)
+                    disconnect("Disconnect");
+            }
+            else
+            {
+                _listener.onMessages(Collections.singletonList(message));
+            }
+        }
+    }
+
+    private class ClientEndpoint extends LoopbackConnector.QueuedEndpoint
+    {
+        private ClientEndpoint()
+        {
+            super(_scheduler);
+        }
+
+        @Override
+        protected void onContent(String content)
+        {
+            try
+            {
+                logger.debug("Received messages {}", content);
+                onMessages(parseMessages(content));
+            }
+            catch (ParseException x)
+            {
+                failMessages(x);
+                disconnect("Exception");
+            }
+        }
+
+        @Override
+        protected void onClose(String reason)
+        {
+            synchronized (LoopbackTransport.this)
+            {
+                if (_client == this)
+                {
+                    _client = null;
+                    _server = null;
+                }
+            }
+            failMessages(new EOFException("Connection closed " + reason));
+        }
+    }
+
+    private static class Exchange
+    {
+        private final Message.Mutable message;
+        private final TransportListener listener;
+        private final ScheduledFuture<?> task;
+
+        private Exchange(Message.Mutable message, TransportListener listener, ScheduledFuture<?> task)
+        {
+            this.message = message;
+            this.listener = listener;
+            this.task = task;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " " + message;
+        }
+    }
+}
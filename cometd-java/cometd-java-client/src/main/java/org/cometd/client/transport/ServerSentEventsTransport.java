@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.net.URI;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+
+/**
+ * <p>Server-Sent Events transport, the client counterpart of the server-side
+ * {@code org.cometd.server.transport.ServerSentEventsTransport}.</p>
+ * <p>Messages are sent with POST requests, and messages are received as
+ * {@code text/event-stream} events. The id of the last event received from
+ * the stream is sent in the {@code Last-Event-ID} header when the stream is
+ * reopened, so that the server can write again the events that were missed.</p>
+ */
+public class ServerSentEventsTransport extends StreamingTransport
+{
+    public static final String NAME = "server-sent-events";
+    public static final String PREFIX = "sse";
+    public static final String MIME_TYPE = "text/event-stream";
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private volatile String _lastEventId;
+
+    public ServerSentEventsTransport(Map<String, Object> options, HttpClient httpClient)
+    {
+        this(null, options, httpClient);
+    }
+
+    public ServerSentEventsTransport(String url, Map<String, Object> options, HttpClient httpClient)
+    {
+        super(NAME, url, options, httpClient);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    public void init()
+    {
+        super.init();
+        _lastEventId = null;
+    }
+
+    public String getLastEventId()
+    {
+        return _lastEventId;
+    }
+
+    @Override
+    public void send(TransportListener listener, List<Message.Mutable> messages)
+    {
+        for (Message.Mutable message : messages)
+        {
+            // Event ids are only valid within a session
+            if (Channel.META_HANDSHAKE.equals(message.getChannel()))
+                _lastEventId = null;
+        }
+        super.send(listener, messages);
+    }
+
+    @Override
+    protected String getMediaType()
+    {
+        return MIME_TYPE;
+    }
+
+    @Override
+    protected void customizeStream(Request request)
+    {
+        String lastEventId = _lastEventId;
+        if (lastEventId != null)
+            request.header(LAST_EVENT_ID_HEADER, lastEventId);
+    }
+
+    @Override
+    protected FrameListener newFrameListener(URI uri, Request request, List<Message.Mutable> messages)
+    {
+        return new EventListener(uri, request, messages);
+    }
+
+    /**
+     * <p>Parses {@code text/event-stream} content, where every event
+     * carries in its data a JSON array of messages.</p>
+     */
+    protected class EventListener extends FrameListener
+    {
+        private final StringBuilder _data = new StringBuilder();
+        private String _id;
+
+        protected EventListener(URI uri, Request request, List<Message.Mutable> messages)
+        {
+            super(uri, request, messages);
+        }
+
+        @Override
+        protected void onLine(String line) throws ParseException
+        {
+            if (line.endsWith("\r"))
+                line = line.substring(0, line.length() - 1);
+
+            if (line.length() == 0)
+            {
+                // Dispatch the event
+                String id = _id;
+                _id = null;
+                if (_data.length() > 0)
+                {
+                    String data = _data.toString();
+                    _data.setLength(0);
+                    // Remember the id before notifying, since listeners may reopen the stream
+                    if (id != null)
+                        _lastEventId = id;
+                    onMessages(parseMessages(data));
+                }
+                return;
+            }
+
+            if (line.startsWith(":"))
+                return;
+
+            String field = line;
+            String value = "";
+            int colon = line.indexOf(':');
+            if (colon > 0)
+            {
+                field = line.substring(0, colon);
+                value = line.substring(colon + 1);
+                if (value.startsWith(" "))
+                    value = value.substring(1);
+            }
+
+            switch (field)
+            {
+                case "data":
+                    if (_data.length() > 0)
+                        _data.append("\n");
+                    _data.append(value);
+                    break;
+                case "id":
+                    _id = value;
+                    break;
+                default:
+                    // Ignore unsupported fields such as "event" and "retry"
+                    break;
+            }
+        }
+    }
+}
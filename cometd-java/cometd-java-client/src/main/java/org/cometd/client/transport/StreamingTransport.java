@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.common.TransportException;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.Utf8StringBuilder;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>HTTP streaming transport, the client counterpart of the server-side
+ * {@code org.cometd.server.transport.StreamingTransport}.</p>
+ * <p>Messages are sent with POST requests; the request carrying the first
+ * {@code /meta/connect} becomes the stream, whose response stays open and
+ * delivers newline-terminated frames of messages as soon as the server has them.
+ * Replies are matched to requests by message id, as for WebSocket, while
+ * unsolicited messages are delivered to the {@link MessageClientTransport}
+ * listener.</p>
+ */
+public class StreamingTransport extends HttpClientTransport implements MessageClientTransport
+{
+    public static final String NAME = "streaming";
+    public static final String PREFIX = "streaming";
+    public static final String MIME_TYPE = "application/x-ndjson";
+    public static final String STREAM_HEADER = "X-Stream";
+
+    private final Map<String, Exchange> _exchanges = new ConcurrentHashMap<>();
+    private final HttpClient _httpClient;
+    private final List<Request> _requests = new ArrayList<>();
+    private volatile boolean _aborted;
+    private volatile long _maxNetworkDelay;
+    private volatile Map<String, Object> _advice;
+    private volatile TransportListener _listener;
+    private Request _stream;
+
+    public StreamingTransport(Map<String, Object> options, HttpClient httpClient)
+    {
+        this(null, options, httpClient);
+    }
+
+    public StreamingTransport(String url, Map<String, Object> options, HttpClient httpClient)
+    {
+        this(NAME, url, options, httpClient);
+        setOptionPrefix(PREFIX);
+    }
+
+    protected StreamingTransport(String name, String url, Map<String, Object> options, HttpClient httpClient)
+    {
+        super(name, url, options);
+        _httpClient = httpClient;
+    }
+
+    public boolean accept(String bayeuxVersion)
+    {
+        return true;
+    }
+
+    public void setMessageTransportListener(TransportListener listener)
+    {
+        _listener = listener;
+    }
+
+    @Override
+    public void init()
+    {
+        super.init();
+        _aborted = false;
+        _exchanges.clear();
+        long defaultMaxNetworkDelay = _httpClient.getIdleTimeout();
+        if (defaultMaxNetworkDelay <= 0)
+            defaultMaxNetworkDelay = 10000;
+        _maxNetworkDelay = getOption(MAX_NETWORK_DELAY_OPTION, defaultMaxNetworkDelay);
+    }
+
+    @Override
+    public void abort()
+    {
+        List<Request> requests = new ArrayList<>();
+        synchronized (this)
+        {
+            _aborted = true;
+            requests.addAll(_requests);
+            _requests.clear();
+        }
+        for (Request request : requests)
+        {
+            request.abort(new Exception("Transport " + this + " aborted"));
+        }
+    }
+
+    @Override
+    public void terminate()
+    {
+        Request stream;
+        synchronized (this)
+        {
+            stream = _stream;
+            _stream = null;
+        }
+        if (stream != null)
+            stream.abort(new Exception("Transport " + this + " terminated"));
+        super.terminate();
+    }
+
+    @Override
+    public void send(final TransportListener listener, final List<Message.Mutable> messages)
+    {
+        final URI uri = URI.create(getURL());
+        final Request request = _httpClient.newRequest(newRequestURL(messages)).method(HttpMethod.POST);
+        request.header(HttpHeader.CONTENT_TYPE.asString(), "application/json;charset=UTF-8");
+        request.header(HttpHeader.ACCEPT.asString(), getMediaType());
+
+        addCookies(uri, request);
+
+        request.content(new StringContentProvider(generateJSON(messages)));
+
+        customize(request);
+
+        boolean stream = false;
+        synchronized (this)
+        {
+            if (_aborted)
+                throw new IllegalStateException("Aborted");
+            _requests.add(request);
+            if (_stream == null)
+            {
+                for (Message.Mutable message : messages)
+                {
+                    if (Channel.META_CONNECT.equals(message.getChannel()))
+                    {
+                        // This request opens the stream
+                        _stream = request;
+                        stream = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Message.Mutable message : messages)
+            registerMessage(message, listener);
+
+        request.listener(new Request.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Request request)
+            {
+                listener.onSending(messages);
+            }
+        });
+
+        if (stream)
+        {
+            request.header(STREAM_HEADER, "open");
+            customizeStream(request);
+            // The stream has no total timeout, the idle timeout must
+            // be larger than the interval between heartbeat replies
+            long idleTimeout = _maxNetworkDelay + connectTimeout(null);
+            request.idleTimeout(idleTimeout * 2, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            // Set the idle timeout for this request larger than the total timeout
+            // so there are no races between the two timeouts
+            request.idleTimeout(_maxNetworkDelay * 2, TimeUnit.MILLISECONDS);
+            request.timeout(_maxNetworkDelay, TimeUnit.MILLISECONDS);
+        }
+
+        request.send(newFrameListener(uri, request, messages));
+    }
+
+    protected void customize(Request request)
+    {
+    }
+
+    /**
+     * <p>Customizes the request that opens the stream.</p>
+     *
+     * @param request the request that opens the stream
+     */
+    protected void customizeStream(Request request)
+    {
+    }
+
+    /**
+     * @return the media type of the responses accepted by this transport
+     */
+    protected String getMediaType()
+    {
+        return MIME_TYPE;
+    }
+
+    protected FrameListener newFrameListener(URI uri, Request request, List<Message.Mutable> messages)
+    {
+        return new FrameListener(uri, request, messages);
+    }
+
+    private long connectTimeout(Message message)
+    {
+        Map<String, Object> advice = message == null ? null : message.getAdvice();
+        if (advice == null)
+            advice = _advice;
+        if (advice != null)
+        {
+            Object timeout = advice.get("timeout");
+            if (timeout instanceof Number)
+                return ((Number)timeout).longValue();
+            else if (timeout != null)
+                return Long.parseLong(timeout.toString());
+        }
+        return 0;
+    }
+
+    private void registerMessage(final Message.Mutable message, final TransportListener listener)
+    {
+        long maxNetworkDelay = _maxNetworkDelay;
+        if (Channel.META_CONNECT.equals(message.getChannel()))
+            maxNetworkDelay += connectTimeout(message);
+
+        // Schedule a task to expire if the maxNetworkDelay elapses
+        Scheduler.Task task = _httpClient.getScheduler().schedule(new Runnable()
+        {
+            public void run()
+            {
+                // Notify only if we won the race to deregister the message
+                Exchange exchange = deregisterMessage(message);
+                if (exchange != null)
+                    exchange.listener.onFailure(new TimeoutException("Exchange expired"), Collections.singletonList(message));
+            }
+        }, maxNetworkDelay, TimeUnit.MILLISECONDS);
+
+        Exchange exchange = new Exchange(message, listener, task);
+        logger.debug("Registering {}", exchange);
+        _exchanges.put(message.getId(), exchange);
+    }
+
+    private Exchange deregisterMessage(Message message)
+    {
+        Exchange exchange = _exchanges.remove(message.getId());
+        logger.debug("Deregistering {} for message {}", exchange, message);
+        if (exchange != null)
+            exchange.task.cancel();
+        return exchange;
+    }
+
+    private void failMessages(Throwable failure, List<? extends Message> messages, boolean includeConnect)
+    {
+        for (Message message : messages)
+        {
+            if (!includeConnect && Channel.META_CONNECT.equals(message.getChannel()))
+                continue;
+            Exchange exchange = deregisterMessage(message);
+            if (exchange != null)
+                exchange.listener.onFailure(failure, Collections.singletonList(message));
+        }
+    }
+
+    private void failExchanges(Throwable failure)
+    {
+        failMessages(failure, messagesOf(_exchanges.values()), true);
+    }
+
+    private List<Message> messagesOf(Iterable<Exchange> exchanges)
+    {
+        List<Message> result = new ArrayList<>();
+        for (Exchange exchange : exchanges)
+            result.add(exchange.message);
+        return result;
+    }
+
+    private boolean isReply(Message message)
+    {
+        return message.isMeta() || message.isPublishReply();
+    }
+
+    protected void onMessages(List<Message.Mutable> messages)
+    {
+        logger.debug("Received messages {}", messages);
+        for (Message.Mutable message : messages)
+        {
+            if (isReply(message))
+            {
+                // Remember the advice before notifying listeners, since they
+                // may send a /meta/connect whose delay depends on the timeout
+                if (Channel.META_CONNECT.equals(message.getChannel()) && message.isSuccessful())
+                {
+                    Map<String, Object> advice = message.getAdvice();
+                    if (advice != null && advice.get(Message.TIMEOUT_FIELD) != null)
+                        _advice = advice;
+                }
+
+                Exchange exchange = deregisterMessage(message);
+                if (exchange != null)
+                    exchange.listener.onMessages(Collections.singletonList(message));
+                else
+                    logger.debug("Could not find request for reply {}", message);
+            }
+            else
+            {
+                TransportListener listener = _listener;
+                if (listener != null)
+                    listener.onMessages(Collections.singletonList(message));
+            }
+        }
+    }
+
+    /**
+     * <p>Splits the response content into lines, each line being a frame
+     * containing a JSON array of messages.</p>
+     */
+    protected class FrameListener extends Response.Listener.Adapter
+    {
+        private final Utf8StringBuilder _line = new Utf8StringBuilder(512);
+        private final URI _uri;
+        private final Request _request;
+        private final List<Message.Mutable> _messages;
+        private boolean _parseFailed;
+
+        protected FrameListener(URI uri, Request request, List<Message.Mutable> messages)
+        {
+            _uri = uri;
+            _request = request;
+            _messages = messages;
+        }
+
+        @Override
+        public boolean onHeader(Response response, HttpField field)
+        {
+            return !storeCookie(_uri, field);
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content)
+        {
+            if (response.getStatus() != HttpStatus.OK_200 || _parseFailed)
+                return;
+
+            while (content.hasRemaining())
+            {
+                byte b = content.get();
+                if (b == '\n')
+                {
+                    String line = _line.toString();
+                    _line.reset();
+                    try
+                    {
+                        onLine(line);
+                    }
+                    catch (ParseException x)
+                    {
+                        _parseFailed = true;
+                        response.abort(x);
+                        return;
+                    }
+                }
+                else
+                {
+                    _line.append(b);
+                }
+            }
+        }
+
+        /**
+         * @param line a line of the response content, without the line terminator
+         * @throws ParseException if the line cannot be parsed
+         */
+        protected void onLine(String line) throws ParseException
+        {
+            if (line.length() > 0)
+                onMessages(parseMessages(line));
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            boolean stream;
+            synchronized (StreamingTransport.this)
+            {
+                _requests.remove(_request);
+                stream = _stream == _request;
+                if (stream)
+                    _stream = null;
+            }
+
+            Throwable failure = result.getFailure();
+            if (failure == null)
+            {
+                int status = result.getResponse().getStatus();
+                if (status == HttpStatus.OK_200)
+                {
+                    if (!stream)
+                    {
+                        // Replies to /meta/connect are delivered on the stream,
+                        // all other replies should have been in the response
+                        Map<String, Object> fields = new HashMap<>(2);
+                        // Convert the 200 into 204 (no content)
+                        fields.put("httpCode", 204);
+                        failMessages(new TransportException(fields), _messages, false);
+                        return;
+                    }
+                    failure = new TransportException(Collections.<String, Object>singletonMap("reason", "stream closed"));
+                }
+                else
+                {
+                    Map<String, Object> fields = new HashMap<>(2);
+                    fields.put("httpCode", status);
+                    failure = new TransportException(fields);
+                }
+            }
+
+            failMessages(failure, _messages, true);
+            if (stream)
+            {
+                // Messages pending on the stream will not be replied
+                failExchanges(failure);
+            }
+        }
+    }
+
+    private static class Exchange
+    {
+        private final Message.Mutable message;
+        private final TransportListener listener;
+        private final Scheduler.Task task;
+
+        private Exchange(Message.Mutable message, TransportListener listener, Scheduler.Task task)
+        {
+            this.message = message;
+            this.listener = listener;
+            this.task = task;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " " + message;
+        }
+    }
+}
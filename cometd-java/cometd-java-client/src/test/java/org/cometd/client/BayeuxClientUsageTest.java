@@ -31,10 +31,12 @@ import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.LongPollingTransport;
 import org.cometd.common.Jackson1JSONContextClient;
 import org.cometd.common.Jackson2JSONContextClient;
+import org.cometd.common.Jackson2StreamingJSONContextClient;
 import org.cometd.common.JettyJSONContextClient;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.Jackson1JSONContextServer;
 import org.cometd.server.Jackson2JSONContextServer;
+import org.cometd.server.Jackson2StreamingJSONContextServer;
 import org.cometd.server.JettyJSONContextServer;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpProxy;
@@ -61,6 +63,7 @@ public class BayeuxClientUsageTest extends ClientServerTest
                  {
                          {Jackson2JSONContextServer.class, Jackson2JSONContextClient.class},
                          {Jackson1JSONContextServer.class, Jackson1JSONContextClient.class},
+                         {Jackson2StreamingJSONContextServer.class, Jackson2StreamingJSONContextClient.class},
                          {JettyJSONContextServer.class, JettyJSONContextClient.class}
                  }
          );
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.common.BinaryContext;
+import org.cometd.common.CBORContext;
+import org.cometd.common.CBORContextClient;
+import org.cometd.server.CBORContextServer;
+import org.cometd.server.transport.AsyncJSONTransport;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryEncodingTest extends ClientServerTest
+{
+    private final List<String> contentTypes = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testBinaryEncodingNegotiated() throws Exception
+    {
+        startServer(true);
+
+        BayeuxClient client = newBinaryBayeuxClient();
+        final AtomicReference<Object> encoding = new AtomicReference<>();
+        client.getChannel(Channel.META_HANDSHAKE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                encoding.set(message.get(BinaryContext.ENCODING_FIELD));
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertEquals(CBORContext.ENCODING, encoding.get());
+
+        assertPublishSubscribe(client);
+
+        // The handshake is always JSON, then messages are binary
+        Assert.assertFalse(contentTypes.get(0).startsWith(CBORContext.CONTENT_TYPE));
+        Assert.assertTrue(contentTypes.get(contentTypes.size() - 1).startsWith(CBORContext.CONTENT_TYPE));
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testServerWithoutBinaryContextFallsBackToJSON() throws Exception
+    {
+        startServer(false);
+
+        BayeuxClient client = newBinaryBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        assertPublishSubscribe(client);
+
+        for (String contentType : contentTypes)
+            Assert.assertFalse(contentType.startsWith(CBORContext.CONTENT_TYPE));
+
+        disconnectBayeuxClient(client);
+    }
+
+    private void startServer(boolean binary) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("transports", AsyncJSONTransport.class.getName());
+        if (binary)
+            options.put("binaryContext", CBORContextServer.class.getName());
+        startServer(options);
+    }
+
+    private BayeuxClient newBinaryBayeuxClient()
+    {
+        Map<String, Object> options = new HashMap<>();
+        options.put(ClientTransport.BINARY_CONTEXT, CBORContextClient.class.getName());
+        return new BayeuxClient(cometdURL, new LongPollingTransport(options, httpClient)
+        {
+            @Override
+            protected void customize(Request request)
+            {
+                contentTypes.add(request.getHeaders().get(HttpHeader.CONTENT_TYPE));
+            }
+        });
+    }
+
+    private void assertPublishSubscribe(BayeuxClient client) throws Exception
+    {
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                subscribeLatch.countDown();
+            }
+        });
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Object> received = new AtomicReference<>();
+        ClientSessionChannel channel = client.getChannel("/foo");
+        channel.subscribe(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                received.set(message.getData());
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("text", "hello");
+        data.put("number", 42L);
+        channel.publish(data);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(data, received.get());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.DataCodec;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.common.Jackson1JSONContextClient;
+import org.cometd.common.Jackson2JSONContextClient;
+import org.cometd.common.Jackson2StreamingJSONContextClient;
+import org.cometd.common.JettyJSONContextClient;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.Jackson1JSONContextServer;
+import org.cometd.server.Jackson2JSONContextServer;
+import org.cometd.server.Jackson2StreamingJSONContextServer;
+import org.cometd.server.JettyJSONContextServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class DataCodecTest extends ClientServerTest
+{
+    @Parameters(name= "{index}: JSON Context Server: {0} JSON Context Client: {1}")
+    public static Iterable<Object[]> data()
+    {
+        return Arrays.asList(new Object[][]
+                {
+                        {JettyJSONContextServer.class, JettyJSONContextClient.class},
+                        {Jackson1JSONContextServer.class, Jackson1JSONContextClient.class},
+                        {Jackson2JSONContextServer.class, Jackson2JSONContextClient.class},
+                        {Jackson2StreamingJSONContextServer.class, Jackson2StreamingJSONContextClient.class},
+                }
+        );
+    }
+
+    private final String jsonContextServerClassName;
+    private final String jsonContextClientClassName;
+
+    public DataCodecTest(Class<?> jsonContextServerClass, Class<?> jsonContextClientClass)
+    {
+        this.jsonContextServerClassName = jsonContextServerClass.getName();
+        this.jsonContextClientClassName = jsonContextClientClass.getName();
+    }
+
+    @Test
+    public void testTypedDataRoundTrip() throws Exception
+    {
+        Map<String, String> serverOptions = new HashMap<>();
+        serverOptions.put(AbstractServerTransport.JSON_CONTEXT_OPTION, jsonContextServerClassName);
+        startServer(serverOptions);
+
+        final String channelName = "/point";
+        ServerChannel serverChannel = bayeux.createChannelIfAbsent(channelName).getReference();
+        serverChannel.setDataCodec(new PointCodec());
+        final BlockingQueue<Object> serverData = new LinkedBlockingQueue<>();
+        serverChannel.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                serverData.offer(message.getData());
+                return true;
+            }
+        });
+
+        Map<String, Object> clientOptions = new HashMap<>();
+        clientOptions.put(ClientTransport.JSON_CONTEXT, jsonContextClientClassName);
+        BayeuxClient client = new BayeuxClient(cometdURL, new LongPollingTransport(clientOptions, httpClient));
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                subscribeLatch.countDown();
+            }
+        });
+
+        ClientSessionChannel channel = client.getChannel(channelName);
+        channel.setDataCodec(new PointCodec());
+        final BlockingQueue<Object> clientData = new LinkedBlockingQueue<>();
+        channel.subscribe(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                clientData.offer(message.getData());
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        channel.publish(new Point(1, 2));
+
+        Point point = (Point)serverData.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, point.x);
+        Assert.assertEquals(2, point.y);
+        point = (Point)clientData.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, point.x);
+        Assert.assertEquals(2, point.y);
+
+        // Publish from the server
+        serverChannel.publish(null, new Point(3, 4));
+        point = (Point)clientData.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(3, point.x);
+        Assert.assertEquals(4, point.y);
+
+        disconnectBayeuxClient(client);
+    }
+
+    private static class Point
+    {
+        private final int x;
+        private final int y;
+
+        private Point(int x, int y)
+        {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static class PointCodec implements DataCodec<Point>
+    {
+        public Class<Point> getDataClass()
+        {
+            return Point.class;
+        }
+
+        public String encode(Point data)
+        {
+            return "{\"x\":" + data.x + ",\"y\":" + data.y + "}";
+        }
+
+        public Point decode(Object data)
+        {
+            Map<?, ?> map = (Map<?, ?>)data;
+            return new Point(((Number)map.get("x")).intValue(), ((Number)map.get("y")).intValue());
+        }
+    }
+}
@@ -29,13 +29,16 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.common.FixedFieldsMessage;
 import org.cometd.common.HashMapMessage;
 import org.cometd.common.Jackson1JSONContextClient;
 import org.cometd.common.Jackson2JSONContextClient;
+import org.cometd.common.Jackson2StreamingJSONContextClient;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.AbstractService;
 import org.cometd.server.Jackson1JSONContextServer;
 import org.cometd.server.Jackson2JSONContextServer;
+import org.cometd.server.Jackson2StreamingJSONContextServer;
 import org.cometd.server.ServerMessageImpl;
 import org.junit.Assert;
 import org.junit.Test;
@@ -53,6 +56,7 @@ public class JacksonContextTest extends ClientServerTest
                  {
                      { Jackson2JSONContextServer.class, Jackson2JSONContextClient.class },
                      { Jackson1JSONContextServer.class, Jackson1JSONContextClient.class },
+                     { Jackson2StreamingJSONContextServer.class, Jackson2StreamingJSONContextClient.class },
                  }
          );
      }
@@ -91,6 +95,9 @@ public class JacksonContextTest extends ClientServerTest
         Field clientJSONContext = HashMapMessage.class.getDeclaredField("_jsonContext");
         clientJSONContext.setAccessible(true);
         clientJSONContext.set(null, null);
+        Field fixedFieldsJSONContext = FixedFieldsMessage.class.getDeclaredField("_jsonContext");
+        fixedFieldsJSONContext.setAccessible(true);
+        fixedFieldsJSONContext.set(null, null);
         Field serverJSONContext = ServerMessageImpl.class.getDeclaredField("_jsonContext");
         serverJSONContext.setAccessible(true);
         serverJSONContext.set(null, null);
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.transport.LoopbackTransport;
+import org.cometd.common.LoopbackConnector;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoopbackTransportTest
+{
+    private final long timeout = 1000;
+    private BayeuxServerImpl bayeux;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.setOption(AbstractServerTransport.TIMEOUT_OPTION, timeout);
+        bayeux.addTransport(new org.cometd.server.transport.LoopbackTransport(bayeux));
+        bayeux.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    private BayeuxClient newBayeuxClient()
+    {
+        LoopbackConnector connector = (LoopbackConnector)bayeux.getTransport(LoopbackTransport.NAME);
+        return new BayeuxClient("loopback://localhost/cometd", new LoopbackTransport(null, connector));
+    }
+
+    @Test
+    public void testHandshakeSubscribePublish() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertEquals(LoopbackTransport.NAME, client.getTransport().getName());
+
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        final CountDownLatch messageLatch = new CountDownLatch(1);
+        String channelName = "/foo";
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    subscribeLatch.countDown();
+            }
+        });
+        client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if ("data".equals(message.getData()))
+                    messageLatch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        client.getChannel(channelName).publish("data");
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+
+        client.disconnect();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+    }
+
+    @Test
+    public void testServerSideDeliveryWhileMetaConnectIsHeld() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        final CountDownLatch messageLatch = new CountDownLatch(1);
+        client.getChannel("/service/test").addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                messageLatch.countDown();
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Wait for the /meta/connect to be held, then deliver from the server
+        Thread.sleep(timeout / 2);
+        ServerSession session = bayeux.getSession(client.getId());
+        session.deliver(null, "/service/test", "data", null);
+        Assert.assertTrue(messageLatch.await(timeout / 2, TimeUnit.MILLISECONDS));
+
+        // The /meta/connect is held for the whole timeout and then renewed
+        Thread.sleep(2 * timeout);
+        Assert.assertTrue(client.isConnected());
+
+        client.disconnect(5000);
+    }
+
+    @Test
+    public void testServerShutdownFailsClient() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final CountDownLatch failureLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_CONNECT).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (!message.isSuccessful())
+                    failureLatch.countDown();
+            }
+        });
+
+        bayeux.stop();
+        Assert.assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+
+        client.abort();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import org.cometd.bayeux.server.ServerTransport;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.ServerSentEventsTransport;
+
+public class ServerSentEventsTransportTest extends StreamingTransportTest
+{
+    @Override
+    protected Class<? extends ServerTransport> getServerTransportClass()
+    {
+        return org.cometd.server.transport.ServerSentEventsTransport.class;
+    }
+
+    @Override
+    protected ClientTransport newClientTransport()
+    {
+        return new ServerSentEventsTransport(null, httpClient);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.bayeux.server.ServerTransport;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.StreamingTransport;
+import org.cometd.server.transport.JSONTransport;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingTransportTest extends ClientServerTest
+{
+    private final long timeout = 2000;
+
+    @Before
+    public void init() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("transports", getServerTransportClass().getName() + "," + JSONTransport.class.getName());
+        options.put("timeout", String.valueOf(timeout));
+        startServer(options);
+    }
+
+    protected Class<? extends ServerTransport> getServerTransportClass()
+    {
+        return org.cometd.server.transport.StreamingTransport.class;
+    }
+
+    protected ClientTransport newClientTransport()
+    {
+        return new StreamingTransport(null, httpClient);
+    }
+
+    @Override
+    protected BayeuxClient newBayeuxClient()
+    {
+        return new BayeuxClient(cometdURL, newClientTransport());
+    }
+
+    @Test
+    public void testHandshakeSubscribePublish() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertEquals(newClientTransport().getName(), client.getTransport().getName());
+
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        final CountDownLatch messageLatch = new CountDownLatch(1);
+        ClientSessionChannel channel = client.getChannel("/test");
+        channel.subscribe(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                messageLatch.countDown();
+            }
+        }, new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    subscribeLatch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch publishLatch = new CountDownLatch(1);
+        channel.publish("data", new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    publishLatch.countDown();
+            }
+        });
+        Assert.assertTrue(publishLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+
+        disconnectBayeuxClient(client);
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+    }
+
+    @Test
+    public void testServerSideDeliveryIsStreamed() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        final int count = 3;
+        final CountDownLatch messageLatch = new CountDownLatch(count);
+        client.getChannel("/service/test").addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                messageLatch.countDown();
+            }
+        });
+        final AtomicInteger connects = new AtomicInteger();
+        client.getChannel(Channel.META_CONNECT).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                connects.incrementAndGet();
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Wait for the heartbeat /meta/connect to be held
+        Thread.sleep(timeout / 4);
+        int connectsBefore = connects.get();
+
+        ServerSession session = bayeux.getSession(client.getId());
+        for (int i = 0; i < count; ++i)
+        {
+            session.deliver(null, "/service/test", "data" + i, null);
+            Thread.sleep(50);
+        }
+
+        // Messages arrive on the stream without waiting for /meta/connect replies
+        Assert.assertTrue(messageLatch.await(timeout / 2, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(connectsBefore, connects.get());
+
+        // Heartbeats keep the session connected across several timeouts
+        Thread.sleep(timeout * 2);
+        Assert.assertTrue(connects.get() > connectsBefore);
+        Assert.assertEquals(BayeuxClient.State.CONNECTED, client.getState());
+
+        disconnectBayeuxClient(client);
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+    }
+}
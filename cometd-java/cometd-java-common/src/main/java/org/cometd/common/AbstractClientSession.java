@@ -25,6 +25,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.DataCodec;
 import org.cometd.bayeux.MarkedReference;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSession;
@@ -224,6 +225,7 @@ public abstract class AbstractClientSession implements ClientSession
     {
         MarkedReference<AbstractSessionChannel> channelRef = getReleasableChannel(message.getChannel());
         AbstractSessionChannel channel = channelRef.getReference();
+        channel.decodeData(message);
         channel.notifyMessageListeners(message);
         if (channelRef.isMarked())
             channel.release();
@@ -285,6 +287,7 @@ public abstract class AbstractClientSession implements ClientSession
         private final AtomicInteger _subscriptionCount = new AtomicInteger();
         private final CopyOnWriteArrayList<ClientSessionChannelListener> _listeners = new CopyOnWriteArrayList<>();
         private volatile boolean _released;
+        private volatile DataCodec<?> _dataCodec;
 
         protected AbstractSessionChannel(ChannelId id)
         {
@@ -373,7 +376,7 @@ public abstract class AbstractClientSession implements ClientSession
             if (_released)
                 return false;
 
-            if (_subscriptions.isEmpty() && _listeners.isEmpty())
+            if (_subscriptions.isEmpty() && _listeners.isEmpty() && _dataCodec == null)
             {
                 boolean removed = _channels.remove(getId(), this);
                 _released = removed;
@@ -387,6 +390,47 @@ public abstract class AbstractClientSession implements ClientSession
             return _released;
         }
 
+        public void setDataCodec(DataCodec<?> codec)
+        {
+            throwIfReleased();
+            _dataCodec = codec;
+        }
+
+        public DataCodec<?> getDataCodec()
+        {
+            return _dataCodec;
+        }
+
+        /**
+         * <p>Encodes the given data with this channel's {@link DataCodec}, if the data is of the codec's data class.</p>
+         *
+         * @param data the data to encode
+         * @return a {@link JSONLiteral} containing the encoded data, or the data itself
+         */
+        @SuppressWarnings("unchecked")
+        protected Object encodeData(Object data)
+        {
+            DataCodec<Object> codec = (DataCodec<Object>)_dataCodec;
+            if (codec == null || !codec.getDataClass().isInstance(data))
+                return data;
+            return new JSONLiteral(codec.encode(data));
+        }
+
+        /**
+         * <p>Decodes the data of the given message with this channel's {@link DataCodec}.</p>
+         *
+         * @param message the message whose data is decoded
+         */
+        protected void decodeData(Message.Mutable message)
+        {
+            DataCodec<?> codec = _dataCodec;
+            if (codec == null)
+                return;
+            Object data = message.getData();
+            if (data != null && !codec.getDataClass().isInstance(data))
+                message.setData(codec.decode(data));
+        }
+
         protected void resetSubscriptions()
         {
             throwIfReleased();
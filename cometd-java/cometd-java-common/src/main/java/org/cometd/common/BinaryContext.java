@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.text.ParseException;
+import java.util.List;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>The binary counterpart of {@link JSONContext}, used to encode messages
+ * in a compact binary format instead of JSON text.</p>
+ * <p>The binary encoding is negotiated during the handshake: the client lists
+ * the encodings it supports in the {@value #ENCODINGS_FIELD} field of the
+ * {@code /meta/handshake} message, and the server replies with the encoding
+ * it selected in the {@value #ENCODING_FIELD} field of the handshake reply.
+ * Afterwards, peers reply in the same format of the messages they receive.</p>
+ */
+public interface BinaryContext
+{
+    public static final String ENCODINGS_FIELD = "encodings";
+    public static final String ENCODING_FIELD = "encoding";
+
+    public interface Client extends BinaryParserGenerator<Message.Mutable>
+    {
+    }
+
+    public interface Server extends BinaryParserGenerator<ServerMessage.Mutable>
+    {
+    }
+}
+
+interface BinaryParserGenerator<T extends Message.Mutable>
+{
+    /**
+     * @return the name of the encoding, as negotiated during the handshake
+     */
+    public String getEncoding();
+
+    /**
+     * @return the MIME type of the encoding, used for HTTP bodies
+     */
+    public String getContentType();
+
+    public T[] parse(byte[] bytes, int offset, int length) throws ParseException;
+
+    public byte[] generate(T message);
+
+    public byte[] generate(List<T> messages);
+
+    /**
+     * <p>Generates an array of messages that have already been encoded one by one,
+     * so that the encoding of each message can be cached and reused.</p>
+     *
+     * @param messages the encoded messages
+     * @return the encoded array of messages
+     */
+    public byte[] generateArray(List<byte[]> messages);
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>Encodes and decodes messages in the CBOR format (RFC 7049).</p>
+ * <p>Maps, collections, arrays, strings, numbers, booleans and byte arrays are
+ * encoded with their CBOR counterparts; other objects are encoded as strings.
+ * Integers are decoded as {@link Long}s (or {@link BigInteger}s when they do not
+ * fit a long) and floating point numbers as {@link Double}s, like the JSON parsers do.</p>
+ *
+ * @param <T> the type of the messages
+ */
+public abstract class CBORContext<T extends Message.Mutable>
+{
+    public static final String ENCODING = "cbor";
+    public static final String CONTENT_TYPE = "application/cbor";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_DEPTH = 128;
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1;
+    private static final int BYTES = 2;
+    private static final int TEXT = 3;
+    private static final int ARRAY = 4;
+    private static final int MAP = 5;
+    private static final int TAG = 6;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xFF;
+    private static final int POSITIVE_BIGNUM_TAG = 2;
+    private static final int NEGATIVE_BIGNUM_TAG = 3;
+
+    protected CBORContext()
+    {
+    }
+
+    protected abstract T newRoot();
+
+    protected abstract T[] newRootArray(int size);
+
+    public String getEncoding()
+    {
+        return ENCODING;
+    }
+
+    public String getContentType()
+    {
+        return CONTENT_TYPE;
+    }
+
+    public T[] parse(byte[] bytes, int offset, int length) throws ParseException
+    {
+        Decoder decoder = new Decoder(bytes, offset, length);
+        try
+        {
+            T[] result = decoder.decodeRoot();
+            if (decoder.position != decoder.end)
+                throw new ParseException("Unexpected trailing bytes", decoder.position - offset);
+            return result;
+        }
+        catch (ParseException x)
+        {
+            throw x;
+        }
+        catch (RuntimeException x)
+        {
+            throw (ParseException)new ParseException("Invalid CBOR", decoder.position - offset).initCause(x);
+        }
+    }
+
+    public byte[] generate(T message)
+    {
+        Encoder encoder = new Encoder();
+        encoder.encode(message);
+        return encoder.toByteArray();
+    }
+
+    public byte[] generate(List<T> messages)
+    {
+        Encoder encoder = new Encoder();
+        encoder.header(ARRAY, messages.size());
+        for (T message : messages)
+            encoder.encode(message);
+        return encoder.toByteArray();
+    }
+
+    public byte[] generateArray(List<byte[]> messages)
+    {
+        int length = 9;
+        for (byte[] message : messages)
+            length += message.length;
+        Encoder encoder = new Encoder(length);
+        encoder.header(ARRAY, messages.size());
+        for (byte[] message : messages)
+            encoder.write(message, 0, message.length);
+        return encoder.toByteArray();
+    }
+
+    private static class Encoder
+    {
+        private byte[] buffer;
+        private int count;
+
+        private Encoder()
+        {
+            this(256);
+        }
+
+        private Encoder(int capacity)
+        {
+            buffer = new byte[capacity];
+        }
+
+        private void encode(Object value)
+        {
+            if (value == null)
+                write(0xF6);
+            else if (value instanceof String)
+                text((String)value);
+            else if (value instanceof Boolean)
+                write((Boolean)value ? 0xF5 : 0xF4);
+            else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+                integer(((Number)value).longValue());
+            else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal)
+                floating(((Number)value).doubleValue());
+            else if (value instanceof BigInteger)
+                bigInteger((BigInteger)value);
+            else if (value instanceof Number)
+                integer(((Number)value).longValue());
+            else if (value instanceof Map)
+                map((Map<?, ?>)value);
+            else if (value instanceof Collection)
+                collection((Collection<?>)value);
+            else if (value instanceof byte[])
+                bytes((byte[])value);
+            else if (value.getClass().isArray())
+                array(value);
+            else if (value instanceof Enum)
+                text(((Enum<?>)value).name());
+            else if (value instanceof JSONLiteral)
+                encode(new JSON().fromJSON(((JSONLiteral)value).getJSON()));
+            else
+                text(value.toString());
+        }
+
+        private void text(String value)
+        {
+            byte[] bytes = value.getBytes(UTF8);
+            header(TEXT, bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        private void bytes(byte[] value)
+        {
+            header(BYTES, value.length);
+            write(value, 0, value.length);
+        }
+
+        private void integer(long value)
+        {
+            if (value >= 0)
+                header(UNSIGNED, value);
+            else
+                header(NEGATIVE, -1 - value);
+        }
+
+        private void bigInteger(BigInteger value)
+        {
+            if (value.bitLength() < 64)
+            {
+                integer(value.longValue());
+            }
+            else
+            {
+                boolean negative = value.signum() < 0;
+                header(TAG, negative ? NEGATIVE_BIGNUM_TAG : POSITIVE_BIGNUM_TAG);
+                byte[] magnitude = (negative ? value.negate().subtract(BigInteger.ONE) : value).toByteArray();
+                // Strip the sign byte
+                int offset = magnitude[0] == 0 ? 1 : 0;
+                header(BYTES, magnitude.length - offset);
+                write(magnitude, offset, magnitude.length - offset);
+            }
+        }
+
+        private void floating(double value)
+        {
+            float single = (float)value;
+            if (single == value || Double.isNaN(value))
+            {
+                write(0xFA);
+                int bits = Float.floatToIntBits(single);
+                for (int shift = 24; shift >= 0; shift -= 8)
+                    write(bits >>> shift);
+            }
+            else
+            {
+                write(0xFB);
+                long bits = Double.doubleToLongBits(value);
+                for (int shift = 56; shift >= 0; shift -= 8)
+                    write((int)(bits >>> shift));
+            }
+        }
+
+        private void map(Map<?, ?> map)
+        {
+            header(MAP, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                text(String.valueOf(entry.getKey()));
+                encode(entry.getValue());
+            }
+        }
+
+        private void collection(Collection<?> collection)
+        {
+            header(ARRAY, collection.size());
+            for (Object item : collection)
+                encode(item);
+        }
+
+        private void array(Object array)
+        {
+            int length = Array.getLength(array);
+            header(ARRAY, length);
+            for (int i = 0; i < length; ++i)
+                encode(Array.get(array, i));
+        }
+
+        private void header(int major, long argument)
+        {
+            int type = major << 5;
+            if (argument < 24)
+            {
+                write(type | (int)argument);
+            }
+            else if (argument < 0x100)
+            {
+                write(type | 24);
+                write((int)argument);
+            }
+            else if (argument < 0x10000)
+            {
+                write(type | 25);
+                write((int)(argument >>> 8));
+                write((int)argument);
+            }
+            else if (argument < 0x100000000L)
+            {
+                write(type | 26);
+                for (int shift = 24; shift >= 0; shift -= 8)
+                    write((int)(argument >>> shift));
+            }
+            else
+            {
+                write(type | 27);
+                for (int shift = 56; shift >= 0; shift -= 8)
+                    write((int)(argument >>> shift));
+            }
+        }
+
+        private void write(int value)
+        {
+            ensureCapacity(1);
+            buffer[count++] = (byte)value;
+        }
+
+        private void write(byte[] bytes, int offset, int length)
+        {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        private void ensureCapacity(int length)
+        {
+            int capacity = buffer.length;
+            if (count + length > capacity)
+            {
+                int newCapacity = Math.max(capacity << 1, count + length);
+                byte[] newBuffer = new byte[newCapacity];
+                System.arraycopy(buffer, 0, newBuffer, 0, count);
+                buffer = newBuffer;
+            }
+        }
+
+        private byte[] toByteArray()
+        {
+            if (count == buffer.length)
+                return buffer;
+            byte[] result = new byte[count];
+            System.arraycopy(buffer, 0, result, 0, count);
+            return result;
+        }
+    }
+
+    private class Decoder
+    {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        private Decoder(byte[] bytes, int offset, int length)
+        {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        private T[] decodeRoot() throws ParseException
+        {
+            int initial = read();
+            int major = initial >>> 5;
+            int info = initial & 0x1F;
+            if (major == MAP)
+            {
+                T[] result = newRootArray(1);
+                result[0] = newMessage(info);
+                return result;
+            }
+            if (major == ARRAY)
+            {
+                List<T> messages = new ArrayList<>();
+                if (info == INDEFINITE)
+                {
+                    while (!isBreak())
+                        messages.add(decodeMessage());
+                }
+                else
+                {
+                    long size = argument(info);
+                    checkSize(size);
+                    for (long i = 0; i < size; ++i)
+                        messages.add(decodeMessage());
+                }
+                return messages.toArray(newRootArray(messages.size()));
+            }
+            throw new ParseException("Expected message or array of messages", position);
+        }
+
+        private T decodeMessage() throws ParseException
+        {
+            int initial = read();
+            if (initial >>> 5 != MAP)
+                throw new ParseException("Expected message", position);
+            return newMessage(initial & 0x1F);
+        }
+
+        private T newMessage(int info) throws ParseException
+        {
+            T message = newRoot();
+            decodeMap(message, info, 1);
+            return message;
+        }
+
+        private Object decode(int depth) throws ParseException
+        {
+            if (depth > MAX_DEPTH)
+                throw new ParseException("Nesting too deep", position);
+
+            int initial = read();
+            int major = initial >>> 5;
+            int info = initial & 0x1F;
+            switch (major)
+            {
+                case UNSIGNED:
+                {
+                    long value = argument(info);
+                    if (value < 0)
+                        return unsigned(value);
+                    return value;
+                }
+                case NEGATIVE:
+                {
+                    long value = argument(info);
+                    if (value < 0)
+                        return BigInteger.ONE.negate().subtract(unsigned(value));
+                    return -1 - value;
+                }
+                case BYTES:
+                {
+                    return decodeBytes(info);
+                }
+                case TEXT:
+                {
+                    return new String(decodeBytes(info), UTF8);
+                }
+                case ARRAY:
+                {
+                    List<Object> list = new ArrayList<>();
+                    if (info == INDEFINITE)
+                    {
+                        while (!isBreak())
+                            list.add(decode(depth + 1));
+                    }
+                    else
+                    {
+                        long size = argument(info);
+                        checkSize(size);
+                        for (long i = 0; i < size; ++i)
+                            list.add(decode(depth + 1));
+                    }
+                    return list;
+                }
+                case MAP:
+                {
+                    Map<String, Object> map = new HashMap<>();
+                    decodeMap(map, info, depth);
+                    return map;
+                }
+                case TAG:
+                {
+                    long tag = argument(info);
+                    Object value = decode(depth + 1);
+                    if (value instanceof byte[] && (tag == POSITIVE_BIGNUM_TAG || tag == NEGATIVE_BIGNUM_TAG))
+                    {
+                        BigInteger magnitude = new BigInteger(1, (byte[])value);
+                        return tag == POSITIVE_BIGNUM_TAG ? magnitude : BigInteger.ONE.negate().subtract(magnitude);
+                    }
+                    // Other tags are ignored
+                    return value;
+                }
+                default:
+                {
+                    return decodeSimple(info);
+                }
+            }
+        }
+
+        private void decodeMap(Map<String, Object> map, int info, int depth) throws ParseException
+        {
+            if (info == INDEFINITE)
+            {
+                while (!isBreak())
+                    map.put(String.valueOf(decode(depth + 1)), decode(depth + 1));
+            }
+            else
+            {
+                long size = argument(info);
+                checkSize(size);
+                for (long i = 0; i < size; ++i)
+                    map.put(String.valueOf(decode(depth + 1)), decode(depth + 1));
+            }
+        }
+
+        private byte[] decodeBytes(int info) throws ParseException
+        {
+            if (info == INDEFINITE)
+            {
+                // Indefinite length strings are a sequence of definite length chunks
+                List<byte[]> chunks = new ArrayList<>();
+                int length = 0;
+                while (!isBreak())
+                {
+                    byte[] chunk = decodeBytes(read() & 0x1F);
+                    chunks.add(chunk);
+                    length += chunk.length;
+                }
+                byte[] result = new byte[length];
+                int offset = 0;
+                for (byte[] chunk : chunks)
+                {
+                    System.arraycopy(chunk, 0, result, offset, chunk.length);
+                    offset += chunk.length;
+                }
+                return result;
+            }
+
+            long length = argument(info);
+            checkSize(length);
+            byte[] result = new byte[(int)length];
+            System.arraycopy(bytes, position, result, 0, result.length);
+            position += result.length;
+            return result;
+        }
+
+        private Object decodeSimple(int info) throws ParseException
+        {
+            switch (info)
+            {
+                case 20:
+                    return Boolean.FALSE;
+                case 21:
+                    return Boolean.TRUE;
+                case 22:
+                case 23:
+                    return null;
+                case 25:
+                    return halfToDouble((int)argument(info));
+                case 26:
+                    return (double)Float.intBitsToFloat((int)argument(info));
+                case 27:
+                    return Double.longBitsToDouble(argument(info));
+                default:
+                    throw new ParseException("Unsupported simple value " + info, position);
+            }
+        }
+
+        private BigInteger unsigned(long value)
+        {
+            // The argument is a 64 bits unsigned integer that overflowed the long
+            return BigInteger.valueOf(value & Long.MAX_VALUE).setBit(63);
+        }
+
+        private double halfToDouble(int half)
+        {
+            int exponent = (half >>> 10) & 0x1F;
+            int mantissa = half & 0x3FF;
+            double value;
+            if (exponent == 0)
+                value = mantissa * Math.pow(2, -24);
+            else if (exponent == 0x1F)
+                value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+            else
+                value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+            return (half & 0x8000) == 0 ? value : -value;
+        }
+
+        private long argument(int info) throws ParseException
+        {
+            if (info < 24)
+                return info;
+            int length;
+            switch (info)
+            {
+                case 24:
+                    length = 1;
+                    break;
+                case 25:
+                    length = 2;
+                    break;
+                case 26:
+                    length = 4;
+                    break;
+                case 27:
+                    length = 8;
+                    break;
+                default:
+                    throw new ParseException("Invalid additional information " + info, position);
+            }
+            long result = 0;
+            for (int i = 0; i < length; ++i)
+                result = (result << 8) | read();
+            return result;
+        }
+
+        private boolean isBreak() throws ParseException
+        {
+            if (position >= end)
+                throw new ParseException("Unexpected end of input", position);
+            if ((bytes[position] & 0xFF) == BREAK)
+            {
+                ++position;
+                return true;
+            }
+            return false;
+        }
+
+        private void checkSize(long size) throws ParseException
+        {
+            // Each item takes at least one byte, so larger sizes are malformed
+            if (size < 0 || size > end - position)
+                throw new ParseException("Invalid length " + size, position);
+        }
+
+        private int read() throws ParseException
+        {
+            if (position >= end)
+                throw new ParseException("Unexpected end of input", position);
+            return bytes[position++] & 0xFF;
+        }
+    }
+}
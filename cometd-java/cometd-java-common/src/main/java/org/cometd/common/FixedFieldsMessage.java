@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Message;
+
+/**
+ * <p>A {@link Message.Mutable} that stores the well-known Bayeux fields in dedicated slots.</p>
+ * <p>Fields {@value #CHANNEL_FIELD}, {@value #ID_FIELD}, {@value #CLIENT_ID_FIELD},
+ * {@value #SUCCESSFUL_FIELD}, {@value #ADVICE_FIELD}, {@value #EXT_FIELD} and
+ * {@value #DATA_FIELD} do not require a hash table entry, and accessing them does not
+ * require a hash lookup; other fields are stored in an overflow map that is only
+ * allocated when needed.</p>
+ * <p>Entries are iterated in slot order, followed by the other fields.</p>
+ */
+public class FixedFieldsMessage extends AbstractMap<String, Object> implements Message.Mutable, Serializable
+{
+    private static final long serialVersionUID = -3165387513407372640L;
+    private static final String[] FIELDS = {CHANNEL_FIELD, ID_FIELD, CLIENT_ID_FIELD, SUCCESSFUL_FIELD, ADVICE_FIELD, EXT_FIELD, DATA_FIELD};
+    private static final int CHANNEL = 0;
+    private static final int ID = 1;
+    private static final int CLIENT_ID = 2;
+    private static final int SUCCESSFUL = 3;
+    private static final int ADVICE = 4;
+    private static final int EXT = 5;
+    private static final int DATA = 6;
+
+    private final Object[] _slots = new Object[FIELDS.length];
+    private int _present;
+    private Map<String, Object> _fields;
+    private transient Set<Map.Entry<String, Object>> _entrySet;
+
+    public FixedFieldsMessage()
+    {
+    }
+
+    public FixedFieldsMessage(Message message)
+    {
+        putAll(message);
+    }
+
+    private static int slot(Object key)
+    {
+        if (!(key instanceof String))
+            return -1;
+        switch ((String)key)
+        {
+            case CHANNEL_FIELD:
+                return CHANNEL;
+            case ID_FIELD:
+                return ID;
+            case CLIENT_ID_FIELD:
+                return CLIENT_ID;
+            case SUCCESSFUL_FIELD:
+                return SUCCESSFUL;
+            case ADVICE_FIELD:
+                return ADVICE;
+            case EXT_FIELD:
+                return EXT;
+            case DATA_FIELD:
+                return DATA;
+            default:
+                return -1;
+        }
+    }
+
+    private boolean isPresent(int slot)
+    {
+        return (_present & (1 << slot)) != 0;
+    }
+
+    private Object clearSlot(int slot)
+    {
+        Object result = _slots[slot];
+        _slots[slot] = null;
+        _present &= ~(1 << slot);
+        return result;
+    }
+
+    @Override
+    public int size()
+    {
+        Map<String, Object> fields = _fields;
+        return Integer.bitCount(_present) + (fields == null ? 0 : fields.size());
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        int slot = slot(key);
+        if (slot >= 0)
+            return isPresent(slot);
+        Map<String, Object> fields = _fields;
+        return fields != null && fields.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        int slot = slot(key);
+        if (slot >= 0)
+            return _slots[slot];
+        Map<String, Object> fields = _fields;
+        return fields == null ? null : fields.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value)
+    {
+        int slot = slot(key);
+        if (slot >= 0)
+        {
+            Object result = _slots[slot];
+            _slots[slot] = value;
+            _present |= 1 << slot;
+            return result;
+        }
+        if (_fields == null)
+            _fields = new HashMap<>(4);
+        return _fields.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key)
+    {
+        int slot = slot(key);
+        if (slot >= 0)
+            return clearSlot(slot);
+        Map<String, Object> fields = _fields;
+        return fields == null ? null : fields.remove(key);
+    }
+
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < _slots.length; ++i)
+            _slots[i] = null;
+        _present = 0;
+        _fields = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        Set<Map.Entry<String, Object>> result = _entrySet;
+        if (result == null)
+            _entrySet = result = new EntrySet();
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getAdvice()
+    {
+        return (Map<String, Object>)_slots[ADVICE];
+    }
+
+    public String getChannel()
+    {
+        return (String)_slots[CHANNEL];
+    }
+
+    public ChannelId getChannelId()
+    {
+        return ChannelId.from(getChannel());
+    }
+
+    public String getClientId()
+    {
+        return (String)_slots[CLIENT_ID];
+    }
+
+    public Object getData()
+    {
+        return data();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getDataAsMap()
+    {
+        return (Map<String, Object>)data();
+    }
+
+    private Object data()
+    {
+        Object data = _slots[DATA];
+        if (data instanceof JSONLiteral)
+            data = parseData((JSONLiteral)data);
+        return data;
+    }
+
+    /**
+     * <p>Parses data that is a {@link JSONLiteral} on first access.</p>
+     * <p>The parsed value replaces the literal, so that modifications
+     * to the parsed value are not lost when the message is generated.</p>
+     *
+     * @param literal the data literal
+     * @return the parsed data
+     */
+    protected Object parseData(JSONLiteral literal)
+    {
+        Object data = literal.getValue();
+        _slots[DATA] = data;
+        return data;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getExt()
+    {
+        return (Map<String, Object>)_slots[EXT];
+    }
+
+    public String getId()
+    {
+        // Support also old-style ids of type long
+        Object id = _slots[ID];
+        return id == null ? null : String.valueOf(id);
+    }
+
+    public String getJSON()
+    {
+        return _jsonContext.generate(this);
+    }
+
+    public Map<String, Object> getAdvice(boolean create)
+    {
+        Map<String, Object> advice = getAdvice();
+        if (create && advice == null)
+        {
+            advice = new HashMap<>(4);
+            put(ADVICE_FIELD, advice);
+        }
+        return advice;
+    }
+
+    public Map<String, Object> getDataAsMap(boolean create)
+    {
+        Map<String, Object> data = getDataAsMap();
+        if (create && data == null)
+        {
+            data = new HashMap<>();
+            put(DATA_FIELD, data);
+        }
+        return data;
+    }
+
+    public Map<String, Object> getExt(boolean create)
+    {
+        Map<String, Object> ext = getExt();
+        if (create && ext == null)
+        {
+            ext = new HashMap<>();
+            put(EXT_FIELD, ext);
+        }
+        return ext;
+    }
+
+    public boolean isMeta()
+    {
+        return ChannelId.isMeta(getChannel());
+    }
+
+    public boolean isPublishReply()
+    {
+        return !isMeta() && isPresent(SUCCESSFUL);
+    }
+
+    public boolean isSuccessful()
+    {
+        Boolean value = (Boolean)_slots[SUCCESSFUL];
+        return value != null && value;
+    }
+
+    public void setChannel(String channel)
+    {
+        if (channel == null)
+            remove(CHANNEL_FIELD);
+        else
+            put(CHANNEL_FIELD, channel);
+    }
+
+    public void setClientId(String clientId)
+    {
+        if (clientId == null)
+            remove(CLIENT_ID_FIELD);
+        else
+            put(CLIENT_ID_FIELD, clientId);
+    }
+
+    public void setData(Object data)
+    {
+        if (data == null)
+            remove(DATA_FIELD);
+        else
+            put(DATA_FIELD, data);
+    }
+
+    public void setId(String id)
+    {
+        if (id == null)
+            remove(ID_FIELD);
+        else
+            put(ID_FIELD, id);
+    }
+
+    public void setSuccessful(boolean successful)
+    {
+        put(SUCCESSFUL_FIELD, successful);
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>>
+    {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return FixedFieldsMessage.this.size();
+        }
+
+        @Override
+        public void clear()
+        {
+            FixedFieldsMessage.this.clear();
+        }
+    }
+
+    /**
+     * <p>Removals go through {@link #remove(Object)}, so that subclasses that override
+     * it also see the entries removed via {@link #remove()}.</p>
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>>
+    {
+        private int _next = nextSlot(0);
+        private int _last = -1;
+        private String _lastField;
+        private int _fieldsReturned;
+        private Iterator<Map.Entry<String, Object>> _fieldsIterator;
+
+        private int nextSlot(int from)
+        {
+            for (int slot = from; slot < FIELDS.length; ++slot)
+            {
+                if (isPresent(slot))
+                    return slot;
+            }
+            return FIELDS.length;
+        }
+
+        private Iterator<Map.Entry<String, Object>> fieldsIterator()
+        {
+            if (_fieldsIterator == null)
+            {
+                Map<String, Object> fields = _fields;
+                if (fields == null || fields.isEmpty())
+                    return null;
+                Iterator<Map.Entry<String, Object>> iterator = fields.entrySet().iterator();
+                // Resume after the fields already returned
+                for (int i = 0; i < _fieldsReturned && iterator.hasNext(); ++i)
+                    iterator.next();
+                _fieldsIterator = iterator;
+            }
+            return _fieldsIterator;
+        }
+
+        public boolean hasNext()
+        {
+            if (_next < FIELDS.length)
+                return true;
+            Iterator<Map.Entry<String, Object>> iterator = fieldsIterator();
+            return iterator != null && iterator.hasNext();
+        }
+
+        public Map.Entry<String, Object> next()
+        {
+            if (_next < FIELDS.length)
+            {
+                _last = _next;
+                _next = nextSlot(_next + 1);
+                return new Entry(FIELDS[_last]);
+            }
+            Iterator<Map.Entry<String, Object>> iterator = fieldsIterator();
+            if (iterator == null)
+                throw new NoSuchElementException();
+            _lastField = iterator.next().getKey();
+            ++_fieldsReturned;
+            _last = FIELDS.length;
+            return new Entry(_lastField);
+        }
+
+        public void remove()
+        {
+            if (_last < 0)
+                throw new IllegalStateException();
+            if (_last < FIELDS.length)
+            {
+                FixedFieldsMessage.this.remove(FIELDS[_last]);
+            }
+            else
+            {
+                FixedFieldsMessage.this.remove(_lastField);
+                // The removal invalidated the fields iterator
+                --_fieldsReturned;
+                _fieldsIterator = null;
+            }
+            _last = -1;
+        }
+    }
+
+    /**
+     * <p>Entries read and write through the message, so that subclasses that override
+     * {@link #put(String, Object)} also see the values set via {@link #setValue(Object)}.</p>
+     */
+    private class Entry implements Map.Entry<String, Object>
+    {
+        private final String _key;
+
+        private Entry(String key)
+        {
+            _key = key;
+        }
+
+        public String getKey()
+        {
+            return _key;
+        }
+
+        public Object getValue()
+        {
+            return get(_key);
+        }
+
+        public Object setValue(Object value)
+        {
+            return put(_key, value);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>)obj;
+            Object value = getValue();
+            return _key.equals(that.getKey()) && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            Object value = getValue();
+            return _key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString()
+        {
+            return _key + "=" + getValue();
+        }
+    }
+
+    // The code below is a relic of a mistake in the API, but it is kept for backward compatibility.
+
+    private static JSONContext.Client _jsonContext = new JettyJSONContextClient();
+}
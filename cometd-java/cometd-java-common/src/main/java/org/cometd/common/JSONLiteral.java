@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.text.ParseException;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>A JSON literal is a value that is already encoded in JSON,
+ * and that the {@link JSONContext}s embed verbatim when generating JSON.</p>
+ * <p>The JSON text is not validated, so it is responsibility of the creator
+ * of this object to provide valid JSON.</p>
+ * <p>A JSON literal can be used as message data, for example to relay messages
+ * that are already encoded in JSON without parsing and generating them again:</p>
+ * <pre>
+ * channel.publish(session, new JSONLiteral(json));
+ * </pre>
+ * <p>The JSON text is parsed only if {@link #getValue()} is called, which happens
+ * when message listeners call {@link org.cometd.bayeux.Message#getData()}.
+ * The JSON text is parsed with the {@link JSONContext.Parser} passed to the
+ * constructor, or with the Jetty JSON parser.</p>
+ */
+public class JSONLiteral implements JSON.Generator, Serializable
+{
+    private static final long serialVersionUID = -1372524316384529127L;
+
+    private static final Object UNPARSED = new Object();
+
+    private final String json;
+    private final transient JSONContext.Parser parser;
+    private transient volatile Object value = UNPARSED;
+
+    public JSONLiteral(String json)
+    {
+        this(json, null);
+    }
+
+    public JSONLiteral(String json, JSONContext.Parser parser)
+    {
+        if (json == null)
+            throw new NullPointerException();
+        this.json = json;
+        this.parser = parser;
+    }
+
+    /**
+     * @return the JSON text of this literal
+     */
+    public String getJSON()
+    {
+        return json;
+    }
+
+    /**
+     * <p>Returns the value of this literal, parsing the JSON text on first access.</p>
+     *
+     * @return the parsed value of this literal
+     * @throws IllegalArgumentException if the JSON text cannot be parsed
+     */
+    public Object getValue()
+    {
+        Object result = value;
+        if (result == UNPARSED)
+        {
+            // Concurrent parsers produce equal values, so the last one wins
+            result = parse();
+            value = result;
+        }
+        return result;
+    }
+
+    private Object parse()
+    {
+        if (parser == null)
+            return JSON.parse(json);
+        try
+        {
+            return parser.parse(new StringReader(json), Object.class);
+        }
+        catch (ParseException x)
+        {
+            throw new IllegalArgumentException("Invalid JSON literal " + json, x);
+        }
+    }
+
+    private Object readResolve()
+    {
+        // Restore the transient fields
+        return new JSONLiteral(json);
+    }
+
+    public void addJSON(Appendable buffer)
+    {
+        try
+        {
+            buffer.append(json);
+        }
+        catch (IOException x)
+        {
+            throw new RuntimeException(x);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return this == obj || obj instanceof JSONLiteral && json.equals(((JSONLiteral)obj).json);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return json.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return json;
+    }
+}
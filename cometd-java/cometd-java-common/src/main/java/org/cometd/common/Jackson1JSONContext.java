@@ -21,7 +21,13 @@ import java.io.Reader;
 import java.text.ParseException;
 import java.util.List;
 
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.JsonSerializer;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.TypeSerializer;
+import org.codehaus.jackson.map.module.SimpleModule;
 import org.codehaus.jackson.type.JavaType;
 import org.cometd.bayeux.Message;
 
@@ -35,6 +41,9 @@ public abstract class Jackson1JSONContext<T extends Message.Mutable, I extends T
     protected Jackson1JSONContext()
     {
         rootArrayType = objectMapper.constructType(rootArrayClass());
+        SimpleModule module = new SimpleModule("cometd", Version.unknownVersion());
+        module.addSerializer(JSONLiteral.class, new JSONLiteralSerializer());
+        objectMapper.registerModule(module);
     }
 
     public ObjectMapper getObjectMapper()
@@ -145,4 +154,20 @@ public abstract class Jackson1JSONContext<T extends Message.Mutable, I extends T
             }
         }
     }
+
+    private static class JSONLiteralSerializer extends JsonSerializer<JSONLiteral>
+    {
+        @Override
+        public void serialize(JSONLiteral value, JsonGenerator generator, SerializerProvider provider) throws IOException
+        {
+            generator.writeRawValue(value.getJSON());
+        }
+
+        @Override
+        public void serializeWithType(JSONLiteral value, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException
+        {
+            // Literals are embedded verbatim, without type information
+            serialize(value, generator, provider);
+        }
+    }
 }
@@ -17,11 +17,11 @@ package org.cometd.common;
 
 import org.cometd.bayeux.Message;
 
-public class Jackson1JSONContextClient extends Jackson1JSONContext<Message.Mutable, HashMapMessage> implements JSONContext.Client
+public class Jackson1JSONContextClient extends Jackson1JSONContext<Message.Mutable, FixedFieldsMessage> implements JSONContext.Client
 {
     @Override
-    protected Class<HashMapMessage[]> rootArrayClass()
+    protected Class<FixedFieldsMessage[]> rootArrayClass()
     {
-        return HashMapMessage[].class;
+        return FixedFieldsMessage[].class;
     }
 }
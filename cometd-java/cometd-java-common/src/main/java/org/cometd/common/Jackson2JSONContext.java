@@ -21,8 +21,13 @@ import java.io.Reader;
 import java.text.ParseException;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.cometd.bayeux.Message;
 
 public abstract class Jackson2JSONContext<T extends Message.Mutable, I extends T>
@@ -33,6 +38,9 @@ public abstract class Jackson2JSONContext<T extends Message.Mutable, I extends T
     protected Jackson2JSONContext()
     {
         rootArrayType = objectMapper.constructType(rootArrayClass());
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(JSONLiteral.class, new JSONLiteralSerializer());
+        objectMapper.registerModule(module);
     }
 
     public ObjectMapper getObjectMapper()
@@ -143,4 +151,20 @@ public abstract class Jackson2JSONContext<T extends Message.Mutable, I extends T
             }
         }
     }
+
+    private static class JSONLiteralSerializer extends JsonSerializer<JSONLiteral>
+    {
+        @Override
+        public void serialize(JSONLiteral value, JsonGenerator generator, SerializerProvider provider) throws IOException
+        {
+            generator.writeRawValue(value.getJSON());
+        }
+
+        @Override
+        public void serializeWithType(JSONLiteral value, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException
+        {
+            // Literals are embedded verbatim, without type information
+            serialize(value, generator, provider);
+        }
+    }
 }
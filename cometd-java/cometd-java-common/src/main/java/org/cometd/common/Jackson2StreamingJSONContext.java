@@ -0,0 +1,618 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.util.IO;
+
+/**
+ * <p>A JSON context that parses and generates messages with the Jackson 2 streaming API,
+ * without going through the {@link ObjectMapper} data binding.</p>
+ * <p>The well-known Bayeux fields are recognized while parsing and stored directly into
+ * the message; the values of the other fields, including {@code data} and {@code ext},
+ * are bound to {@link HashMap}s, {@link ArrayList}s, strings, numbers and booleans,
+ * like the {@link ObjectMapper} does by default.
+ * Objects that are not maps, collections, arrays or scalars are generated by the
+ * {@link #getObjectMapper() ObjectMapper}, so custom serializers still apply,
+ * but type information is never used while parsing messages.</p>
+ * <p>Messages can be generated as strings, or directly as UTF-8 bytes to an
+ * {@link OutputStream} via {@link #generate(Message.Mutable, OutputStream)}.
+ * The writer used to generate strings is reused by each thread, while the
+ * parser and generator buffers are recycled by Jackson.</p>
+ * <p>When {@link #setLazyData(boolean) lazy data} is enabled, the {@code data} objects
+ * and arrays are not parsed: they are skipped and kept as {@link JSONLiteral}s over the
+ * original JSON text, that are parsed only if the data is accessed, and that are
+ * otherwise embedded verbatim when the message is generated again.</p>
+ *
+ * @param <T> the type of the messages
+ */
+public abstract class Jackson2StreamingJSONContext<T extends Message.Mutable>
+{
+    private final ThreadLocal<StringBuilderWriter> writers = new ThreadLocal<StringBuilderWriter>()
+    {
+        @Override
+        protected StringBuilderWriter initialValue()
+        {
+            return new StringBuilderWriter();
+        }
+    };
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
+    private final JSONContext.Parser dataParser = new DataParser();
+    private volatile boolean lazyData;
+
+    protected Jackson2StreamingJSONContext()
+    {
+        jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jsonFactory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    }
+
+    public ObjectMapper getObjectMapper()
+    {
+        return objectMapper;
+    }
+
+    /**
+     * @return whether the {@code data} field is parsed lazily
+     * @see #setLazyData(boolean)
+     */
+    public boolean isLazyData()
+    {
+        return lazyData;
+    }
+
+    /**
+     * @param lazyData whether the {@code data} field is parsed lazily
+     * @see #isLazyData()
+     */
+    public void setLazyData(boolean lazyData)
+    {
+        this.lazyData = lazyData;
+    }
+
+    protected abstract T newRoot();
+
+    protected abstract T[] newRootArray(int size);
+
+    public T[] parse(InputStream stream) throws ParseException
+    {
+        if (isLazyData())
+            return parse(new InputStreamReader(stream, StandardCharsets.UTF_8));
+
+        try (JsonParser parser = jsonFactory.createParser(stream))
+        {
+            return parseMessages(parser, null);
+        }
+        catch (IOException | RuntimeException x)
+        {
+            throw (ParseException)new ParseException("", -1).initCause(x);
+        }
+    }
+
+    public T[] parse(Reader reader) throws ParseException
+    {
+        if (isLazyData())
+        {
+            // Lazy data slices the JSON text, so it must be read in full
+            try
+            {
+                return parse(IO.toString(reader));
+            }
+            catch (IOException x)
+            {
+                throw (ParseException)new ParseException("", -1).initCause(x);
+            }
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(reader))
+        {
+            return parseMessages(parser, null);
+        }
+        catch (IOException | RuntimeException x)
+        {
+            throw (ParseException)new ParseException("", -1).initCause(x);
+        }
+    }
+
+    public T[] parse(String json) throws ParseException
+    {
+        try (JsonParser parser = jsonFactory.createParser(json))
+        {
+            return parseMessages(parser, isLazyData() ? new StringSource(json) : null);
+        }
+        catch (IOException | RuntimeException x)
+        {
+            throw (ParseException)new ParseException(json, -1).initCause(x);
+        }
+    }
+
+    public T[] parse(byte[] bytes, int offset, int length) throws ParseException
+    {
+        try (JsonParser parser = jsonFactory.createParser(bytes, offset, length))
+        {
+            return parseMessages(parser, isLazyData() ? new BytesSource(bytes, offset, length) : null);
+        }
+        catch (IOException | RuntimeException x)
+        {
+            throw (ParseException)new ParseException("", -1).initCause(x);
+        }
+    }
+
+    public String generate(T message)
+    {
+        StringBuilderWriter writer = writers.get();
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer))
+        {
+            writeMessage(generator, message);
+        }
+        catch (IOException x)
+        {
+            writer.clear();
+            throw new RuntimeException(x);
+        }
+        return writer.clear();
+    }
+
+    public String generate(List<T> messages)
+    {
+        StringBuilderWriter writer = writers.get();
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer))
+        {
+            writeMessages(generator, messages);
+        }
+        catch (IOException x)
+        {
+            writer.clear();
+            throw new RuntimeException(x);
+        }
+        return writer.clear();
+    }
+
+    /**
+     * <p>Generates the given message as UTF-8 bytes, without an intermediate string.</p>
+     *
+     * @param message the message to generate
+     * @param output the stream to write to, which is not closed
+     * @throws IOException if the write fails
+     */
+    public void generate(T message, OutputStream output) throws IOException
+    {
+        try (JsonGenerator generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8))
+        {
+            writeMessage(generator, message);
+        }
+    }
+
+    /**
+     * <p>Generates the given messages as a JSON array of UTF-8 bytes, without an intermediate string.</p>
+     *
+     * @param messages the messages to generate
+     * @param output the stream to write to, which is not closed
+     * @throws IOException if the write fails
+     */
+    public void generate(List<T> messages, OutputStream output) throws IOException
+    {
+        try (JsonGenerator generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8))
+        {
+            writeMessages(generator, messages);
+        }
+    }
+
+    public JSONContext.Parser getParser()
+    {
+        return new ObjectMapperParser();
+    }
+
+    public JSONContext.Generator getGenerator()
+    {
+        return new ObjectMapperGenerator();
+    }
+
+    private T[] parseMessages(JsonParser parser, Source source) throws IOException
+    {
+        JsonToken token = parser.nextToken();
+        if (token == null)
+            return null;
+
+        T[] result;
+        if (token == JsonToken.START_OBJECT)
+        {
+            result = newRootArray(1);
+            result[0] = parseMessage(parser, source);
+        }
+        else if (token == JsonToken.START_ARRAY)
+        {
+            List<T> messages = new ArrayList<>();
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+            {
+                if (token != JsonToken.START_OBJECT)
+                    throw new IOException("Invalid message " + token + " at " + parser.getCurrentLocation());
+                messages.add(parseMessage(parser, source));
+            }
+            result = messages.toArray(newRootArray(messages.size()));
+        }
+        else
+        {
+            throw new IOException("Invalid messages " + token + " at " + parser.getCurrentLocation());
+        }
+
+        if (parser.nextToken() != null)
+            throw new IOException("Trailing content at " + parser.getCurrentLocation());
+        return result;
+    }
+
+    private T parseMessage(JsonParser parser, Source source) throws IOException
+    {
+        T message = newRoot();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (name)
+            {
+                case Message.CHANNEL_FIELD:
+                case Message.CLIENT_ID_FIELD:
+                    // Most frequent fields, always strings
+                    if (token == JsonToken.VALUE_STRING)
+                        message.put(name, parser.getText());
+                    else
+                        message.put(name, parseValue(parser, token));
+                    break;
+                case Message.SUCCESSFUL_FIELD:
+                    if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE)
+                        message.put(name, token == JsonToken.VALUE_TRUE);
+                    else
+                        message.put(name, parseValue(parser, token));
+                    break;
+                case Message.DATA_FIELD:
+                    if (source != null && (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY))
+                        message.put(name, parseLiteral(parser, token, source));
+                    else
+                        message.put(name, parseValue(parser, token));
+                    break;
+                default:
+                    message.put(name, parseValue(parser, token));
+                    break;
+            }
+        }
+        return message;
+    }
+
+    private Object parseLiteral(JsonParser parser, JsonToken token, Source source) throws IOException
+    {
+        // The token location of values in objects is that of their field name,
+        // so the start is computed from the location just after the bracket
+        int start = source.offset(parser.getCurrentLocation()) - 1;
+        if (!source.startsWith(start, token == JsonToken.START_OBJECT ? '{' : '['))
+            return parseValue(parser, token);
+        parser.skipChildren();
+        int end = source.offset(parser.getCurrentLocation());
+        return new JSONLiteral(source.slice(start, end), dataParser);
+    }
+
+    private Object parseValue(JsonParser parser, JsonToken token) throws IOException
+    {
+        switch (token)
+        {
+            case START_OBJECT:
+            {
+                Map<String, Object> map = new HashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String name = parser.getCurrentName();
+                    map.put(name, parseValue(parser, parser.nextToken()));
+                }
+                return map;
+            }
+            case START_ARRAY:
+            {
+                List<Object> list = new ArrayList<>();
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+                    list.add(parseValue(parser, token));
+                return list;
+            }
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            case VALUE_EMBEDDED_OBJECT:
+                return parser.getEmbeddedObject();
+            default:
+                throw new IOException("Unexpected " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    private void writeMessages(JsonGenerator generator, List<T> messages) throws IOException
+    {
+        generator.writeStartArray();
+        for (int i = 0; i < messages.size(); ++i)
+            writeMessage(generator, messages.get(i));
+        generator.writeEndArray();
+    }
+
+    private void writeMessage(JsonGenerator generator, T message) throws IOException
+    {
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> field : message.entrySet())
+        {
+            generator.writeFieldName(field.getKey());
+            writeValue(generator, field.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            generator.writeNull();
+        }
+        else if (value instanceof String)
+        {
+            generator.writeString((String)value);
+        }
+        else if (value instanceof JSONLiteral)
+        {
+            generator.writeRawValue(((JSONLiteral)value).getJSON());
+        }
+        else if (value instanceof Boolean)
+        {
+            generator.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Number)
+        {
+            writeNumber(generator, (Number)value);
+        }
+        else if (value instanceof Map)
+        {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet())
+            {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        }
+        else if (value instanceof Iterable)
+        {
+            generator.writeStartArray();
+            for (Object item : (Iterable<?>)value)
+                writeValue(generator, item);
+            generator.writeEndArray();
+        }
+        else if (value instanceof Object[] || (value.getClass().isArray() && !(value instanceof byte[]) && !(value instanceof char[])))
+        {
+            generator.writeStartArray();
+            for (int i = 0, length = Array.getLength(value); i < length; ++i)
+                writeValue(generator, Array.get(value, i));
+            generator.writeEndArray();
+        }
+        else
+        {
+            // Bytes, characters, enums and POJOs, using the ObjectMapper configuration
+            generator.writeObject(value);
+        }
+    }
+
+    private void writeNumber(JsonGenerator generator, Number number) throws IOException
+    {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte)
+            generator.writeNumber(number.longValue());
+        else if (number instanceof Double || number instanceof Float)
+            generator.writeNumber(number.doubleValue());
+        else if (number instanceof BigInteger)
+            generator.writeNumber((BigInteger)number);
+        else if (number instanceof BigDecimal)
+            generator.writeNumber((BigDecimal)number);
+        else
+            generator.writeObject(number);
+    }
+
+    /**
+     * <p>A {@link Writer} over a {@link StringBuilder} that can be reused after {@link #clear()}.</p>
+     */
+    private static class StringBuilderWriter extends Writer
+    {
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        private StringBuilder builder = new StringBuilder(512);
+
+        @Override
+        public void write(int c)
+        {
+            builder.append((char)c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length)
+        {
+            builder.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String string, int offset, int length)
+        {
+            builder.append(string, offset, offset + length);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        private String clear()
+        {
+            String result = builder.toString();
+            // Do not retain the memory of unusually large messages
+            if (builder.capacity() > MAX_RETAINED_CAPACITY)
+                builder = new StringBuilder(512);
+            else
+                builder.setLength(0);
+            return result;
+        }
+    }
+
+    /**
+     * <p>The JSON text being parsed, from which the lazy data is sliced.</p>
+     */
+    private interface Source
+    {
+        public int offset(JsonLocation location);
+
+        public boolean startsWith(int offset, char c);
+
+        public String slice(int start, int end);
+    }
+
+    private static class StringSource implements Source
+    {
+        private final String json;
+
+        private StringSource(String json)
+        {
+            this.json = json;
+        }
+
+        public int offset(JsonLocation location)
+        {
+            return (int)location.getCharOffset();
+        }
+
+        public boolean startsWith(int offset, char c)
+        {
+            return offset >= 0 && offset < json.length() && json.charAt(offset) == c;
+        }
+
+        public String slice(int start, int end)
+        {
+            return json.substring(start, end);
+        }
+    }
+
+    private static class BytesSource implements Source
+    {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        private BytesSource(byte[] bytes, int offset, int length)
+        {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int offset(JsonLocation location)
+        {
+            return (int)location.getByteOffset();
+        }
+
+        public boolean startsWith(int offset, char c)
+        {
+            return offset >= 0 && offset < length && bytes[this.offset + offset] == c;
+        }
+
+        public String slice(int start, int end)
+        {
+            return new String(bytes, offset + start, end - start, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * <p>Parses lazy data into the same structures used when parsing messages.</p>
+     */
+    private class DataParser implements JSONContext.Parser
+    {
+        @SuppressWarnings("unchecked")
+        public <R> R parse(Reader reader, Class<R> type) throws ParseException
+        {
+            try (JsonParser parser = jsonFactory.createParser(reader))
+            {
+                return (R)parseValue(parser, parser.nextToken());
+            }
+            catch (IOException | RuntimeException x)
+            {
+                throw (ParseException)new ParseException("", -1).initCause(x);
+            }
+        }
+    }
+
+    private class ObjectMapperParser implements JSONContext.Parser
+    {
+        public <T> T parse(Reader reader, Class<T> type) throws ParseException
+        {
+            try
+            {
+                return getObjectMapper().readValue(reader, type);
+            }
+            catch (IOException x)
+            {
+                throw (ParseException)new ParseException("", -1).initCause(x);
+            }
+        }
+    }
+
+    private class ObjectMapperGenerator implements JSONContext.Generator
+    {
+        public String generate(Object object)
+        {
+            try
+            {
+                return getObjectMapper().writeValueAsString(object);
+            }
+            catch (IOException x)
+            {
+                throw new RuntimeException(x);
+            }
+        }
+    }
+}
@@ -21,7 +21,7 @@ public class JettyJSONContextClient extends JettyJSONContext<Message.Mutable> im
 {
     protected Message.Mutable newRoot()
     {
-        return new HashMapMessage();
+        return new FixedFieldsMessage();
     }
 
     @Override
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Connects a client transport to a server transport living in the same JVM.</p>
+ * <p>The two sides of a connection exchange the same JSON content they would
+ * exchange on the network, but through in-memory queues rather than sockets,
+ * so that the costs of the network stack are taken out of the picture.</p>
+ */
+public interface LoopbackConnector
+{
+    /**
+     * @param client the client side of the connection
+     * @return the server side of the connection
+     */
+    public Endpoint connect(Endpoint client);
+
+    /**
+     * <p>One side of a loopback connection.</p>
+     */
+    public interface Endpoint
+    {
+        /**
+         * <p>Delivers content to this endpoint.</p>
+         * <p>Implementations must not block, and should not process the content
+         * in the calling thread, to avoid that the two sides call each other recursively.</p>
+         *
+         * @param content the JSON content to deliver
+         */
+        public void receive(String content);
+
+        /**
+         * <p>Closes this endpoint.</p>
+         *
+         * @param reason the reason of the close
+         */
+        public void close(String reason);
+    }
+
+    /**
+     * <p>An {@link Endpoint} that queues the content it receives and processes it in order,
+     * one content at a time, in a thread of the given executor.</p>
+     */
+    public abstract class QueuedEndpoint implements Endpoint
+    {
+        private final Queue<String> _queue = new ArrayDeque<>();
+        private final Executor _executor;
+        private final Runnable _drainer = new Runnable()
+        {
+            public void run()
+            {
+                drain();
+            }
+        };
+        private boolean _draining;
+        private final AtomicBoolean _closed = new AtomicBoolean();
+
+        protected QueuedEndpoint(Executor executor)
+        {
+            _executor = executor;
+        }
+
+        public void receive(String content)
+        {
+            if (_closed.get())
+                return;
+
+            boolean dispatch = false;
+            synchronized (_queue)
+            {
+                _queue.offer(content);
+                if (!_draining)
+                {
+                    _draining = true;
+                    dispatch = true;
+                }
+            }
+            if (dispatch)
+                _executor.execute(_drainer);
+        }
+
+        private void drain()
+        {
+            while (true)
+            {
+                String content;
+                synchronized (_queue)
+                {
+                    content = _queue.poll();
+                    if (content == null)
+                    {
+                        _draining = false;
+                        return;
+                    }
+                }
+                onContent(content);
+            }
+        }
+
+        public void close(String reason)
+        {
+            if (!_closed.compareAndSet(false, true))
+                return;
+            synchronized (_queue)
+            {
+                _queue.clear();
+            }
+            onClose(reason);
+        }
+
+        public boolean isClosed()
+        {
+            return _closed.get();
+        }
+
+        /**
+         * @param content the content received, processed in order
+         */
+        protected abstract void onContent(String content);
+
+        /**
+         * @param reason the reason of the close
+         */
+        protected abstract void onClose(String reason);
+    }
+}
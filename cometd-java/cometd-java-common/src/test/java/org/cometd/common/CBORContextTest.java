@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CBORContextTest
+{
+    private final CBORContextClient cbor = new CBORContextClient();
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        HashMapMessage message = new HashMapMessage();
+        message.setChannel("/foo");
+        message.setClientId("clientId");
+        message.setId("1");
+        message.setSuccessful(true);
+        Map<String, Object> data = message.getDataAsMap(true);
+        data.put("string", "è中");
+        data.put("int", 42);
+        data.put("negative", -1000000L);
+        data.put("long", Long.MAX_VALUE);
+        data.put("double", 1.1D);
+        data.put("float", 0.5F);
+        data.put("null", null);
+        data.put("false", false);
+        data.put("list", Arrays.asList(1, "2", null));
+        data.put("array", new int[]{1, 2});
+        data.put("bytes", new byte[]{1, 2, 3});
+        data.put("unsigned", new BigInteger("18446744073709551615"));
+        data.put("bignum", new BigInteger("-100000000000000000000"));
+
+        byte[] bytes = cbor.generate(message);
+        Message.Mutable[] messages = cbor.parse(bytes, 0, bytes.length);
+
+        Assert.assertEquals(1, messages.length);
+        Message.Mutable result = messages[0];
+        Assert.assertEquals("/foo", result.getChannel());
+        Assert.assertEquals("clientId", result.getClientId());
+        Assert.assertEquals("1", result.getId());
+        Assert.assertTrue(result.isSuccessful());
+        Map<String, Object> resultData = result.getDataAsMap();
+        Assert.assertEquals("è中", resultData.get("string"));
+        Assert.assertEquals(42L, resultData.get("int"));
+        Assert.assertEquals(-1000000L, resultData.get("negative"));
+        Assert.assertEquals(Long.MAX_VALUE, resultData.get("long"));
+        Assert.assertEquals(1.1D, resultData.get("double"));
+        Assert.assertEquals(0.5D, resultData.get("float"));
+        Assert.assertTrue(resultData.containsKey("null"));
+        Assert.assertNull(resultData.get("null"));
+        Assert.assertEquals(false, resultData.get("false"));
+        Assert.assertEquals(Arrays.<Object>asList(1L, "2", null), resultData.get("list"));
+        Assert.assertEquals(Arrays.<Object>asList(1L, 2L), resultData.get("array"));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[])resultData.get("bytes"));
+        Assert.assertEquals(new BigInteger("18446744073709551615"), resultData.get("unsigned"));
+        Assert.assertEquals(new BigInteger("-100000000000000000000"), resultData.get("bignum"));
+    }
+
+    @Test
+    public void testArrayOfMessages() throws Exception
+    {
+        List<Message.Mutable> messages = new ArrayList<>();
+        List<byte[]> encoded = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+        {
+            HashMapMessage message = new HashMapMessage();
+            message.setChannel("/foo/" + i);
+            messages.add(message);
+            encoded.add(cbor.generate(message));
+        }
+
+        byte[] bytes = cbor.generate(messages);
+        Assert.assertArrayEquals(bytes, cbor.generateArray(encoded));
+
+        // Parse from an offset
+        byte[] padded = new byte[bytes.length + 2];
+        System.arraycopy(bytes, 0, padded, 1, bytes.length);
+        Message.Mutable[] result = cbor.parse(padded, 1, bytes.length);
+        Assert.assertEquals(3, result.length);
+        for (int i = 0; i < result.length; ++i)
+            Assert.assertEquals("/foo/" + i, result[i].getChannel());
+    }
+
+    @Test
+    public void testIndefiniteLengths() throws Exception
+    {
+        byte[] bytes = new byte[]{
+                // Indefinite array containing an indefinite map
+                (byte)0x9F, (byte)0xBF,
+                // "channel": "/foo" as an indefinite text string of two chunks
+                0x67, 'c', 'h', 'a', 'n', 'n', 'e', 'l',
+                0x7F, 0x62, '/', 'f', 0x62, 'o', 'o', (byte)0xFF,
+                // "data": [half float 1.0, single float 2.0]
+                0x64, 'd', 'a', 't', 'a',
+                (byte)0x9F, (byte)0xF9, 0x3C, 0x00, (byte)0xFA, 0x40, 0x00, 0x00, 0x00, (byte)0xFF,
+                (byte)0xFF,
+                (byte)0xFF
+        };
+
+        Message.Mutable[] messages = cbor.parse(bytes, 0, bytes.length);
+        Assert.assertEquals(1, messages.length);
+        Assert.assertEquals("/foo", messages[0].getChannel());
+        Assert.assertEquals(Arrays.<Object>asList(1D, 2D), messages[0].getData());
+    }
+
+    @Test
+    public void testInvalidInput() throws Exception
+    {
+        HashMapMessage message = new HashMapMessage();
+        message.setChannel("/foo");
+        byte[] bytes = cbor.generate(message);
+
+        assertParseException(Arrays.copyOf(bytes, bytes.length - 1));
+        // Root must be a map or an array of maps
+        assertParseException(new byte[]{0x01});
+        assertParseException(new byte[]{(byte)0x81, 0x01});
+        // Length larger than the input
+        assertParseException(new byte[]{(byte)0xBB, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF});
+        // Trailing bytes
+        byte[] trailing = Arrays.copyOf(bytes, bytes.length + 1);
+        assertParseException(trailing);
+    }
+
+    private void assertParseException(byte[] bytes)
+    {
+        try
+        {
+            cbor.parse(bytes, 0, bytes.length);
+            Assert.fail();
+        }
+        catch (ParseException expected)
+        {
+        }
+    }
+}
@@ -199,4 +199,81 @@ public class ChannelIdTest
         Assert.assertEquals("/**",id.getWilds().get(3));
 
     }
+
+    @Test
+    public void testFrom()
+    {
+        ChannelId id = ChannelId.from("/foo/bar");
+        Assert.assertSame(id, ChannelId.from("/foo/bar"));
+        Assert.assertEquals(new ChannelId("/foo/bar"), id);
+        Assert.assertEquals(2, id.depth());
+        Assert.assertEquals(new ChannelId("/foo/bar").getWilds(), id.getWilds());
+        Assert.assertTrue(ChannelId.from("/foo/**").matches(id));
+
+        // Invalid channel ids fail like constructed ones
+        try
+        {
+            ChannelId.from("/");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+        ChannelId invalid = ChannelId.from("/foo//bar");
+        Assert.assertNotSame(invalid, ChannelId.from("/foo//bar"));
+        try
+        {
+            invalid.depth();
+            Assert.fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testFromIsBounded()
+    {
+        ChannelId id = ChannelId.from("/bounded");
+        for (int i = 0; i < 100000; ++i)
+            ChannelId.from("/bounded/" + i);
+        // The cache is bounded, so entries are evicted but remain valid
+        Assert.assertEquals(id, ChannelId.from("/bounded"));
+    }
+
+    @Test
+    public void testFromNull()
+    {
+        try
+        {
+            ChannelId.from(null);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testFromKeepsReferencedChannelIds()
+    {
+        int capacity = ChannelId.getCacheCapacity();
+        ChannelId.setCacheCapacity(16);
+        try
+        {
+            ChannelId hot = ChannelId.from("/hot");
+            for (int i = 0; i < 1000; ++i)
+            {
+                ChannelId.from("/cold/" + i);
+                Assert.assertSame(hot, ChannelId.from("/hot"));
+            }
+
+            ChannelId.setCacheCapacity(0);
+            Assert.assertNotSame(ChannelId.from("/hot"), ChannelId.from("/hot"));
+        }
+        finally
+        {
+            ChannelId.setCacheCapacity(capacity);
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FixedFieldsMessageTest
+{
+    @Test
+    public void testMapContract() throws Exception
+    {
+        FixedFieldsMessage message = new FixedFieldsMessage();
+        Assert.assertTrue(message.isEmpty());
+
+        message.setChannel("/foo");
+        message.setId("1");
+        message.put(Message.DATA_FIELD, null);
+        message.put("custom", "value");
+        Assert.assertEquals(4, message.size());
+        Assert.assertTrue(message.containsKey(Message.DATA_FIELD));
+        Assert.assertNull(message.getData());
+        Assert.assertFalse(message.containsKey(Message.EXT_FIELD));
+        Assert.assertEquals("value", message.get("custom"));
+
+        Map<String, Object> map = new HashMap<>(message);
+        Assert.assertEquals(map, message);
+        Assert.assertEquals(message, map);
+        Assert.assertEquals(map.hashCode(), message.hashCode());
+
+        Assert.assertEquals("/foo", message.remove(Message.CHANNEL_FIELD));
+        Assert.assertNull(message.getChannel());
+        Assert.assertEquals(3, message.size());
+
+        message.clear();
+        Assert.assertTrue(message.isEmpty());
+        Assert.assertNull(message.get("custom"));
+    }
+
+    @Test
+    public void testEntrySetWritesThrough() throws Exception
+    {
+        FixedFieldsMessage message = new FixedFieldsMessage();
+        message.setChannel("/foo");
+        message.setSuccessful(true);
+        message.put("custom", "value");
+
+        Iterator<Map.Entry<String, Object>> iterator = message.entrySet().iterator();
+        Map.Entry<String, Object> entry = iterator.next();
+        // Well-known fields come first, in slot order
+        Assert.assertEquals(Message.CHANNEL_FIELD, entry.getKey());
+        entry.setValue("/bar");
+        Assert.assertEquals("/bar", message.getChannel());
+
+        Assert.assertEquals(Message.SUCCESSFUL_FIELD, iterator.next().getKey());
+        iterator.remove();
+        Assert.assertFalse(message.containsKey(Message.SUCCESSFUL_FIELD));
+
+        entry = iterator.next();
+        Assert.assertEquals("custom", entry.getKey());
+        iterator.remove();
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertEquals(1, message.size());
+    }
+
+    @Test
+    public void testEntrySetRemovesOtherFields() throws Exception
+    {
+        FixedFieldsMessage message = new FixedFieldsMessage();
+        message.setChannel("/foo");
+        for (int i = 0; i < 8; ++i)
+            message.put("field" + i, i);
+
+        int visited = 0;
+        Iterator<Map.Entry<String, Object>> iterator = message.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Object value = iterator.next().getValue();
+            ++visited;
+            if (value instanceof Integer && (Integer)value % 2 == 0)
+                iterator.remove();
+        }
+
+        Assert.assertEquals(9, visited);
+        Assert.assertEquals(5, message.size());
+        for (int i = 0; i < 8; ++i)
+            Assert.assertEquals(i % 2 != 0, message.containsKey("field" + i));
+    }
+
+    @Test
+    public void testJSONRoundTrip() throws Exception
+    {
+        JettyJSONContextClient jsonContext = new JettyJSONContextClient();
+        Message.Mutable[] messages = jsonContext.parse("[{" +
+                "\"channel\":\"/foo\"," +
+                "\"id\":2," +
+                "\"successful\":true," +
+                "\"data\":{\"a\":1}," +
+                "\"custom\":\"value\"" +
+                "}]");
+        Message.Mutable message = messages[0];
+        Assert.assertTrue(message instanceof FixedFieldsMessage);
+        Assert.assertEquals("/foo", message.getChannel());
+        // Old-style numeric ids
+        Assert.assertEquals("2", message.getId());
+        Assert.assertTrue(message.isSuccessful());
+        Assert.assertEquals(1L, message.getDataAsMap().get("a"));
+        Assert.assertEquals("value", message.get("custom"));
+
+        Message.Mutable reparsed = jsonContext.parse(jsonContext.generate(message))[0];
+        Assert.assertEquals(message, reparsed);
+    }
+
+    @Test
+    public void testSerialization() throws Exception
+    {
+        FixedFieldsMessage message = new FixedFieldsMessage();
+        message.setChannel("/channel");
+        message.setClientId("clientId");
+        message.setId("id");
+        message.setSuccessful(true);
+        message.getDataAsMap(true).put("data1", "dataValue1");
+        message.getExt(true).put("ext1", "extValue1");
+        message.put("custom", "value");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(message);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        FixedFieldsMessage deserialized = (FixedFieldsMessage)ois.readObject();
+
+        Assert.assertEquals(message, deserialized);
+    }
+}
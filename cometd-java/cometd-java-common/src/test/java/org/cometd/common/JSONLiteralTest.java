@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JSONLiteralTest
+{
+    @Test
+    public void testJSONContextsEmbedLiteralVerbatim() throws Exception
+    {
+        String literal = "{\"a\":[1, 2],\"b\":\"\\u00e8\"}";
+        for (JSONContext.Client jsonContext : Arrays.asList(new JettyJSONContextClient(),
+                new Jackson1JSONContextClient(), new Jackson2JSONContextClient(), new Jackson2StreamingJSONContextClient()))
+        {
+            Message.Mutable message = new FixedFieldsMessage();
+            message.setChannel("/foo");
+            message.setData(new JSONLiteral(literal));
+
+            String json = jsonContext.generate(message);
+            Assert.assertTrue(jsonContext.getClass().getSimpleName(), json.contains("\"data\":" + literal));
+
+            Message.Mutable parsed = jsonContext.parse("[" + json + "]")[0];
+            Map<String, Object> data = parsed.getDataAsMap();
+            Assert.assertEquals("\u00e8", data.get("b"));
+        }
+    }
+
+    @Test
+    public void testBinaryContextParsesLiteral() throws Exception
+    {
+        CBORContextClient binaryContext = new CBORContextClient();
+        Message.Mutable message = new FixedFieldsMessage();
+        message.setChannel("/foo");
+        message.setData(new JSONLiteral("{\"a\":[1,2]}"));
+
+        byte[] bytes = binaryContext.generate(message);
+        Message.Mutable parsed = binaryContext.parse(bytes, 0, bytes.length)[0];
+        Assert.assertEquals(Arrays.asList(1L, 2L), parsed.getDataAsMap().get("a"));
+    }
+
+    @Test
+    public void testDataIsParsedLazily() throws Exception
+    {
+        final AtomicInteger parses = new AtomicInteger();
+        final JSONContext.Parser jsonParser = new JettyJSONContextClient().getParser();
+        JSONContext.Parser parser = new JSONContext.Parser()
+        {
+            public <T> T parse(Reader reader, Class<T> type) throws ParseException
+            {
+                parses.incrementAndGet();
+                return jsonParser.parse(reader, type);
+            }
+        };
+
+        Message.Mutable message = new FixedFieldsMessage();
+        message.setChannel("/foo");
+        message.setData(new JSONLiteral("{\"a\":1}", parser));
+
+        new JettyJSONContextClient().generate(message);
+        Assert.assertEquals(0, parses.get());
+
+        Map<String, Object> data = message.getDataAsMap();
+        Assert.assertEquals(1, parses.get());
+        Assert.assertEquals(1L, data.get("a"));
+
+        // The parsed data replaces the literal, so modifications are generated
+        data.put("b", 2L);
+        Assert.assertSame(data, message.getData());
+        Assert.assertTrue(new JettyJSONContextClient().generate(message).contains("\"b\":2"));
+        Assert.assertEquals(1, parses.get());
+    }
+
+    @Test
+    public void testSerialization() throws Exception
+    {
+        JSONLiteral literal = new JSONLiteral("[1,2]");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(literal);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        JSONLiteral deserialized = (JSONLiteral)ois.readObject();
+
+        Assert.assertEquals(literal, deserialized);
+        Assert.assertArrayEquals(new Object[]{1L, 2L}, (Object[])deserialized.getValue());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Jackson2StreamingJSONContextTest
+{
+    private final Jackson2StreamingJSONContextClient jsonContext = new Jackson2StreamingJSONContextClient();
+
+    @Test
+    public void testParseLikeObjectMapper() throws Exception
+    {
+        String json = "[{" +
+                "\"channel\":\"/foo\"," +
+                "\"id\":\"1\"," +
+                "\"clientId\":\"abc\"," +
+                "\"successful\":true," +
+                "\"advice\":{\"timeout\":0}," +
+                "\"data\":{\"int\":1,\"long\":12345678901,\"double\":1.5,\"null\":null,\"list\":[\"a\",false,{}]}," +
+                "\"ext\":{\"ack\":true}," +
+                "\"custom\":\"value\"" +
+                "},{" +
+                "\"channel\":\"/bar\"" +
+                "}]";
+
+        Message.Mutable[] expected = new Jackson2JSONContextClient().parse(json);
+        Message.Mutable[] messages = jsonContext.parse(json);
+
+        Assert.assertEquals(2, messages.length);
+        Assert.assertEquals(expected[0], messages[0]);
+        Assert.assertEquals(expected[1], messages[1]);
+        Assert.assertTrue(messages[0] instanceof FixedFieldsMessage);
+        Assert.assertTrue(messages[0].isSuccessful());
+        Assert.assertEquals("abc", messages[0].getClientId());
+    }
+
+    @Test
+    public void testParseSingleMessage() throws Exception
+    {
+        Message.Mutable[] messages = jsonContext.parse("{\"channel\":\"/foo\",\"id\":2}");
+        Assert.assertEquals(1, messages.length);
+        Assert.assertEquals("/foo", messages[0].getChannel());
+        // Old-style numeric ids
+        Assert.assertEquals("2", messages[0].getId());
+    }
+
+    @Test
+    public void testParseInvalid() throws Exception
+    {
+        for (String json : Arrays.asList("[{\"channel\":", "[1]", "\"foo\"", "[{}] {}"))
+        {
+            try
+            {
+                jsonContext.parse(json);
+                Assert.fail(json);
+            }
+            catch (ParseException expected)
+            {
+            }
+        }
+    }
+
+    @Test
+    public void testGenerate() throws Exception
+    {
+        FixedFieldsMessage message = new FixedFieldsMessage();
+        message.setChannel("/foo");
+        message.setId("1");
+        Map<String, Object> data = message.getDataAsMap(true);
+        data.put("text", "\"quoted\" è");
+        data.put("number", 42);
+        data.put("array", new int[]{1, 2});
+        data.put("list", Arrays.asList(1.5D, null, true));
+        message.put("custom", Thread.State.NEW);
+
+        String json = jsonContext.generate(message);
+        Message.Mutable parsed = new Jackson2JSONContextClient().parse("[" + json + "]")[0];
+        Assert.assertEquals("/foo", parsed.getChannel());
+        Assert.assertEquals("1", parsed.getId());
+        Map<String, Object> parsedData = parsed.getDataAsMap();
+        Assert.assertEquals("\"quoted\" è", parsedData.get("text"));
+        Assert.assertEquals(42, parsedData.get("number"));
+        Assert.assertEquals(Arrays.asList(1, 2), parsedData.get("array"));
+        Assert.assertEquals(Arrays.asList(1.5D, null, true), parsedData.get("list"));
+        Assert.assertEquals("NEW", parsed.get("custom"));
+
+        // Generating to a byte sink produces the same JSON
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        jsonContext.generate(message, output);
+        Assert.assertEquals(json, new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+        // The per-thread writer is reused
+        Assert.assertEquals(json, jsonContext.generate(message));
+    }
+
+    @Test
+    public void testGenerateList() throws Exception
+    {
+        Message.Mutable message1 = new FixedFieldsMessage();
+        message1.setChannel("/foo");
+        Message.Mutable message2 = new FixedFieldsMessage();
+        message2.setChannel("/bar");
+        message2.setData(new HashMap<>());
+
+        String json = jsonContext.generate(Arrays.asList(message1, message2));
+        Assert.assertEquals("[{\"channel\":\"/foo\"},{\"channel\":\"/bar\",\"data\":{}}]", json);
+
+        Message.Mutable[] messages = jsonContext.parse(json.getBytes(StandardCharsets.UTF_8), 0, json.length());
+        Assert.assertEquals(2, messages.length);
+        Assert.assertEquals("/bar", messages[1].getChannel());
+    }
+
+    @Test
+    public void testLazyData() throws Exception
+    {
+        String data = "{\"text\":\"è\",\"list\":[1,{\"a\":null}],\"double\":1.5}";
+        String json = "[{\"channel\":\"/foo\",\"data\":" + data + ",\"id\":\"1\",\"ext\":{\"ack\":true}}," +
+                "{\"channel\":\"/bar\",\"data\":[ 1 , 2 ]},{\"channel\":\"/baz\",\"data\":\"scalar\"}]";
+        Message.Mutable[] expected = jsonContext.parse(json);
+
+        Jackson2StreamingJSONContextClient lazyContext = new Jackson2StreamingJSONContextClient();
+        lazyContext.setLazyData(true);
+        byte[] bytes = ("  " + json).getBytes(StandardCharsets.UTF_8);
+        for (Message.Mutable[] messages : Arrays.asList(
+                lazyContext.parse(json),
+                lazyContext.parse(bytes, 2, bytes.length - 2),
+                lazyContext.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))))
+        {
+            Assert.assertEquals(3, messages.length);
+
+            // The envelope is parsed eagerly, the data is kept as a slice of the original JSON
+            Message.Mutable message = messages[0];
+            Assert.assertEquals("/foo", message.getChannel());
+            Assert.assertEquals("1", message.getId());
+            Assert.assertEquals(Boolean.TRUE, message.getExt().get("ack"));
+            Object literal = message.get(Message.DATA_FIELD);
+            Assert.assertTrue(literal instanceof JSONLiteral);
+            Assert.assertEquals(data, literal.toString());
+            Assert.assertTrue(lazyContext.generate(message).contains("\"data\":" + data));
+
+            // The data is parsed on first access, like it is parsed eagerly
+            Assert.assertEquals(expected[0].getDataAsMap(), message.getDataAsMap());
+            Assert.assertEquals(expected[0], message);
+            Assert.assertEquals("[ 1 , 2 ]", messages[1].get(Message.DATA_FIELD).toString());
+            Assert.assertEquals(expected[1].getData(), messages[1].getData());
+            Assert.assertEquals("scalar", messages[2].get(Message.DATA_FIELD));
+        }
+    }
+}
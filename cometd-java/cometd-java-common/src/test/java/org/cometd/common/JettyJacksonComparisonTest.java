@@ -37,6 +37,7 @@ public class JettyJacksonComparisonTest
                  {
                          {Jackson1JSONProvider.class},
                          {Jackson2JSONProvider.class},
+                         {Jackson2StreamingJSONProvider.class},
                          {JettyJSONProvider.class}
                  }
          );
@@ -97,6 +98,29 @@ public class JettyJacksonComparisonTest
         }
     }
 
+    public static class Jackson2StreamingJSONProvider implements JSONProvider
+    {
+        private final Jackson2StreamingJSONContextClient jackson2StreamingContextClient = new Jackson2StreamingJSONContextClient();
+
+        @Override
+        public String getName()
+        {
+            return "jackson2-streaming";
+        }
+
+        @Override
+        public Message.Mutable[] parse(String json) throws Exception
+        {
+            return jackson2StreamingContextClient.parse(json);
+        }
+
+        @Override
+        public String generate(Message.Mutable message) throws Exception
+        {
+            return jackson2StreamingContextClient.generate(message);
+        }
+    }
+
     public static final class JettyJSONProvider implements JSONProvider
     {
         private JettyJSONContextClient jettyJSONContextClient = new JettyJSONContextClient();
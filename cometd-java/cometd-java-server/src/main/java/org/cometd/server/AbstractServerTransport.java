@@ -18,11 +18,16 @@ package org.cometd.server;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
 import org.cometd.common.AbstractTransport;
+import org.cometd.common.BinaryContext;
 import org.cometd.common.JSONContext;
+import org.cometd.server.metrics.ServerMetrics;
 import org.eclipse.jetty.util.IO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +50,7 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
     public static final String META_CONNECT_DELIVERY_OPTION = "metaConnectDeliverOnly";
     public static final String MAX_QUEUE_OPTION = "maxQueue";
     public static final String JSON_CONTEXT_OPTION = "jsonContext";
+    public static final String BINARY_CONTEXT_OPTION = "binaryContext";
 
     protected final Logger _logger = LoggerFactory.getLogger(getClass().getName());
     private final BayeuxServerImpl _bayeux;
@@ -54,6 +60,7 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
     private long _maxLazyTimeout = 5000;
     private boolean _metaConnectDeliveryOnly = false;
     private JSONContext.Server jsonContext;
+    private BinaryContext.Server binaryContext;
     private Object _advice;
 
     /**
@@ -139,6 +146,7 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
         _maxLazyTimeout = getOption(MAX_LAZY_TIMEOUT_OPTION, _maxLazyTimeout);
         _metaConnectDeliveryOnly = getOption(META_CONNECT_DELIVERY_OPTION, _metaConnectDeliveryOnly);
         jsonContext = (JSONContext.Server)getOption(JSON_CONTEXT_OPTION);
+        binaryContext = (BinaryContext.Server)getOption(BINARY_CONTEXT_OPTION);
     }
 
     protected void destroy()
@@ -158,6 +166,109 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
         return jsonContext.parse(json);
     }
 
+    /**
+     * @return the binary context configured with the {@link #BINARY_CONTEXT_OPTION} option,
+     * or null if binary encodings are not enabled
+     */
+    public BinaryContext.Server getBinaryContext()
+    {
+        return binaryContext;
+    }
+
+    /**
+     * @return whether this transport can carry messages encoded with the {@link #getBinaryContext() binary context},
+     * and therefore whether a binary encoding can be negotiated by handshakes received by this transport
+     */
+    protected boolean isBinarySupported()
+    {
+        return false;
+    }
+
+    protected ServerMessage.Mutable[] parseMessages(byte[] bytes, int offset, int length) throws ParseException
+    {
+        return binaryContext.parse(bytes, offset, length);
+    }
+
+    /**
+     * <p>Encodes the given message with the {@link #getBinaryContext() binary context};
+     * the encoding of frozen messages is cached, so that it is performed once even if
+     * the message is delivered to many sessions.</p>
+     *
+     * @param message the message to encode
+     * @return the encoded message
+     */
+    protected byte[] generateBinary(ServerMessage message)
+    {
+        if (message instanceof ServerMessageImpl)
+            return ((ServerMessageImpl)message).getEncoded(binaryContext);
+        return binaryContext.generate((ServerMessage.Mutable)message);
+    }
+
+    /**
+     * @param messages the messages to encode in a single array
+     * @return the encoded array of messages
+     * @see #generateBinary(ServerMessage)
+     */
+    protected byte[] generateBinary(List<? extends ServerMessage> messages)
+    {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        for (ServerMessage message : messages)
+            encoded.add(generateBinary(message));
+        return binaryContext.generateArray(encoded);
+    }
+
+    /**
+     * <p>Records the size of a write to the {@link ServerMetrics}, if the server has any.</p>
+     *
+     * @param size the number of bytes written
+     */
+    protected void recordWrite(int size)
+    {
+        ServerMetrics metrics = _bayeux.getMetrics();
+        if (metrics != null)
+            metrics.onWrite(getName(), size);
+    }
+
+    /**
+     * <p>Records the size of a write to the {@link ServerMetrics}, if the server has any,
+     * and the write latency of the traced messages taken from the given session queue.</p>
+     *
+     * @param session the session the write is for, or null
+     * @param size the number of bytes written
+     */
+    protected void recordWrite(ServerSession session, int size)
+    {
+        recordWrite(size);
+        if (session instanceof ServerSessionImpl)
+            ((ServerSessionImpl)session).traceWrite(getName());
+    }
+
+    /**
+     * @param chars the characters to measure
+     * @return the number of bytes of the UTF-8 encoding of the given characters
+     */
+    protected static int utf8Length(CharSequence chars)
+    {
+        int length = 0;
+        for (int i = 0; i < chars.length(); ++i)
+            length += utf8Length(chars.charAt(i));
+        return length;
+    }
+
+    /**
+     * @param c the character to measure
+     * @return the number of bytes of the UTF-8 encoding of the given character;
+     * each half of a surrogate pair counts for half of its 4 bytes encoding
+     */
+    protected static int utf8Length(char c)
+    {
+        if (c < 0x80)
+            return 1;
+        if (c < 0x800 || Character.isSurrogate(c))
+            return 2;
+        return 3;
+    }
+
     /**
      * Get the bayeux.
      *
@@ -28,8 +28,8 @@ import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.metrics.MonitoredQueuedThreadPool;
 import org.eclipse.jetty.util.component.LifeCycle;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -94,7 +94,7 @@ public abstract class AbstractService
         _session = _bayeux.newLocalSession(name);
         _session.handshake();
         if (maxThreads > 0)
-            setThreadPool(new QueuedThreadPool(maxThreads));
+            setThreadPool(new MonitoredQueuedThreadPool(maxThreads));
         if (!Modifier.isPublic(getClass().getModifiers()))
             throw new IllegalArgumentException("Service class '" + getClass().getName() + "' must be public");
     }
@@ -139,6 +139,9 @@ public abstract class AbstractService
      * <p>Sets the thread pool associated to this CometD service.</p>
      * <p>If the {@link ThreadPool} is a {@link LifeCycle} instance,
      * and it is not already started, then it will started.</p>
+     * <p>If the {@link ThreadPool} is a {@link MonitoredQueuedThreadPool}, its metrics are
+     * registered in the {@link BayeuxServerImpl#getTaskMetrics() server task metrics}
+     * with name {@code service/<name>}.</p>
      *
      * @param pool The ThreadPool
      */
@@ -155,6 +158,10 @@ public abstract class AbstractService
             throw new IllegalStateException(e);
         }
         _threadPool = pool;
+        if (pool instanceof MonitoredQueuedThreadPool)
+            _bayeux.addTaskMetrics("service/" + _name, ((MonitoredQueuedThreadPool)pool).getTaskMetrics());
+        else
+            _bayeux.removeTaskMetrics("service/" + _name);
     }
 
     /**
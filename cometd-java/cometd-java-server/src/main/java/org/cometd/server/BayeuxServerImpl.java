@@ -16,7 +16,6 @@
 package org.cometd.server;
 
 import java.lang.reflect.Constructor;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -31,10 +30,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.DataCodec;
 import org.cometd.bayeux.MarkedReference;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.Authorizer;
@@ -50,7 +51,14 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
+import org.cometd.common.BinaryContext;
 import org.cometd.common.JSONContext;
+import org.cometd.common.JSONLiteral;
+import org.cometd.server.metrics.MessageTrace;
+import org.cometd.server.metrics.MessageTracer;
+import org.cometd.server.metrics.MonitoredScheduler;
+import org.cometd.server.metrics.ServerMetrics;
+import org.cometd.server.metrics.TaskMetrics;
 import org.cometd.server.transport.HttpTransport;
 import org.cometd.server.transport.JSONPTransport;
 import org.cometd.server.transport.JSONTransport;
@@ -59,7 +67,6 @@ import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
-import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
 import org.eclipse.jetty.util.thread.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,20 +77,34 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
     public static final String ALLOWED_TRANSPORTS_OPTION = "allowedTransports";
     public static final String SWEEP_PERIOD_OPTION = "sweepPeriod";
     public static final String TRANSPORTS_OPTION = "transports";
+    public static final String META_REPLY_TEMPLATES_OPTION = "metaReplyTemplates";
+    public static final String SESSION_ID_GENERATOR_OPTION = "sessionIdGenerator";
+    public static final String METRICS_OPTION = "metrics";
+    public static final String METRICS_REPORTER_OPTION = "metricsReporter";
+    public static final String METRICS_REPORT_PERIOD_OPTION = "metricsReportPeriod";
+    public static final String TRACE_SAMPLE_PERIOD_OPTION = "traceSamplePeriod";
 
     private final Logger _logger = LoggerFactory.getLogger(getClass().getName() + "." + Integer.toHexString(System.identityHashCode(this)));
-    private final SecureRandom _random = new SecureRandom();
+    private final DefaultSessionIdGenerator _random = new DefaultSessionIdGenerator();
+    private volatile SessionIdGenerator _sessionIdGenerator = _random;
+    private volatile ServerMetrics _metrics;
+    private volatile MessageTracer _tracer;
     private final List<BayeuxServerListener> _listeners = new CopyOnWriteArrayList<>();
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<String, ServerSessionImpl> _sessions = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ServerChannelImpl> _channels = new ConcurrentHashMap<>();
+    private final ChannelTree _channelTree = new ChannelTree();
+    private final AtomicInteger _wildBlockingListeners = new AtomicInteger();
     private final Map<String, ServerTransport> _transports = new LinkedHashMap<>(); // Order is important
     private final List<String> _allowedTransports = new ArrayList<>();
     private final ThreadLocal<AbstractServerTransport> _currentTransport = new ThreadLocal<>();
     private final Map<String, Object> _options = new TreeMap<>();
-    private final Scheduler _scheduler = new ScheduledExecutorScheduler("BayeuxServer" + hashCode() + " Scheduler", false);
+    private final MonitoredScheduler _scheduler = new MonitoredScheduler("BayeuxServer" + hashCode() + " Scheduler", false);
+    private final ConcurrentMap<String, TaskMetrics> _taskMetrics = new ConcurrentHashMap<>();
     private SecurityPolicy _policy = new DefaultSecurityPolicy();
     private JSONContext.Server _jsonContext;
+    private BinaryContext.Server _binaryContext;
+    private MetaReplyEncoder _metaReplyEncoder;
 
     @Override
     protected void doStart() throws Exception
@@ -92,6 +113,11 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
 
         initializeMetaChannels();
         initializeJSONContext();
+        initializeMetaReplyEncoder();
+        initializeSessionIdGenerator();
+        initializeMetrics();
+        initializeTracer();
+        initializeBinaryContext();
         initializeServerTransports();
 
         _scheduler.start();
@@ -110,6 +136,8 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
                 _scheduler.schedule(this, sweepPeriod, TimeUnit.MILLISECONDS);
             }
         }, sweepPeriod, TimeUnit.MILLISECONDS);
+
+        scheduleMetricsReports();
     }
 
     @Override
@@ -128,9 +156,12 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         _extensions.clear();
         _sessions.clear();
         _channels.clear();
+        _channelTree.clear();
+        _wildBlockingListeners.set(0);
         _transports.clear();
         _allowedTransports.clear();
         _options.clear();
+        _metaReplyEncoder = null;
         _scheduler.stop();
     }
 
@@ -172,6 +203,184 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         _options.put(AbstractServerTransport.JSON_CONTEXT_OPTION, _jsonContext);
     }
 
+    /**
+     * <p>Initializes the {@link SessionIdGenerator} configured with the
+     * {@link #SESSION_ID_GENERATOR_OPTION} option, either an instance or a class name,
+     * defaulting to {@link DefaultSessionIdGenerator}.</p>
+     *
+     * @throws Exception if the {@link SessionIdGenerator} cannot be created
+     */
+    protected void initializeSessionIdGenerator() throws Exception
+    {
+        Object option = getOption(SESSION_ID_GENERATOR_OPTION);
+        if (option == null)
+        {
+            _sessionIdGenerator = _random;
+        }
+        else
+        {
+            if (option instanceof String)
+            {
+                Class<?> generatorClass = Thread.currentThread().getContextClassLoader().loadClass((String)option);
+                if (SessionIdGenerator.class.isAssignableFrom(generatorClass))
+                    _sessionIdGenerator = (SessionIdGenerator)generatorClass.newInstance();
+                else
+                    throw new IllegalArgumentException("Invalid " + SessionIdGenerator.class.getName() + " implementation class");
+            }
+            else if (option instanceof SessionIdGenerator)
+            {
+                _sessionIdGenerator = (SessionIdGenerator)option;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid " + SessionIdGenerator.class.getName() + " implementation class");
+            }
+        }
+        _options.put(SESSION_ID_GENERATOR_OPTION, _sessionIdGenerator);
+    }
+
+    /**
+     * <p>Initializes the {@link ServerMetrics} configured with the {@link #METRICS_OPTION}
+     * option, either an instance or a class name; by default there are no metrics.</p>
+     *
+     * @throws Exception if the {@link ServerMetrics} cannot be created
+     */
+    protected void initializeMetrics() throws Exception
+    {
+        Object option = getOption(METRICS_OPTION);
+        if (option == null)
+        {
+            _metrics = null;
+        }
+        else
+        {
+            if (option instanceof String)
+            {
+                Class<?> metricsClass = Thread.currentThread().getContextClassLoader().loadClass((String)option);
+                if (ServerMetrics.class.isAssignableFrom(metricsClass))
+                    _metrics = (ServerMetrics)metricsClass.newInstance();
+                else
+                    throw new IllegalArgumentException("Invalid " + ServerMetrics.class.getName() + " implementation class");
+            }
+            else if (option instanceof ServerMetrics)
+            {
+                _metrics = (ServerMetrics)option;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid " + ServerMetrics.class.getName() + " implementation class");
+            }
+            _options.put(METRICS_OPTION, _metrics);
+        }
+    }
+
+    /**
+     * <p>Initializes the {@link MessageTracer} if the {@link #TRACE_SAMPLE_PERIOD_OPTION}
+     * option is positive; by default messages are not traced.</p>
+     */
+    protected void initializeTracer()
+    {
+        long samplePeriod = getOption(TRACE_SAMPLE_PERIOD_OPTION, 0L);
+        _tracer = samplePeriod > 0 ? new MessageTracer((int)Math.min(samplePeriod, Integer.MAX_VALUE)) : null;
+    }
+
+    private void scheduleMetricsReports() throws Exception
+    {
+        Object option = getOption(METRICS_REPORTER_OPTION);
+        if (option == null || _metrics == null)
+            return;
+
+        final ServerMetrics.Reporter reporter;
+        if (option instanceof String)
+            reporter = (ServerMetrics.Reporter)Thread.currentThread().getContextClassLoader().loadClass((String)option).newInstance();
+        else if (option instanceof ServerMetrics.Reporter)
+            reporter = (ServerMetrics.Reporter)option;
+        else
+            throw new IllegalArgumentException("Invalid " + ServerMetrics.Reporter.class.getName() + " implementation class");
+
+        final long period = getOption(METRICS_REPORT_PERIOD_OPTION, 60000L);
+        _scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ServerMetrics metrics = _metrics;
+                if (metrics == null)
+                    return;
+                try
+                {
+                    reporter.report(metrics.getStatistics());
+                }
+                catch (Exception x)
+                {
+                    _logger.info("Exception while invoking reporter " + reporter, x);
+                }
+                _scheduler.schedule(this, period, TimeUnit.MILLISECONDS);
+            }
+        }, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Initializes the {@link BinaryContext.Server} configured with the
+     * {@link AbstractServerTransport#BINARY_CONTEXT_OPTION} option;
+     * binary encodings are not negotiated if the option is not set.</p>
+     *
+     * @throws Exception if the binary context cannot be created
+     */
+    protected void initializeBinaryContext() throws Exception
+    {
+        Object option = getOption(AbstractServerTransport.BINARY_CONTEXT_OPTION);
+        if (option == null)
+        {
+            _binaryContext = null;
+        }
+        else
+        {
+            if (option instanceof String)
+            {
+                Class<?> binaryContextClass = Thread.currentThread().getContextClassLoader().loadClass((String)option);
+                if (BinaryContext.Server.class.isAssignableFrom(binaryContextClass))
+                    _binaryContext = (BinaryContext.Server)binaryContextClass.newInstance();
+                else
+                    throw new IllegalArgumentException("Invalid " + BinaryContext.Server.class.getName() + " implementation class");
+            }
+            else if (option instanceof BinaryContext.Server)
+            {
+                _binaryContext = (BinaryContext.Server)option;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid " + BinaryContext.Server.class.getName() + " implementation class");
+            }
+            _options.put(AbstractServerTransport.BINARY_CONTEXT_OPTION, _binaryContext);
+        }
+    }
+
+    /**
+     * <p>Initializes the encoder of meta replies from pre-encoded templates, as configured
+     * by the {@link #META_REPLY_TEMPLATES_OPTION} option.</p>
+     * <p>When the option is not set, templates are only used with the JSON contexts provided
+     * by CometD, since subclasses may customize how messages are generated.</p>
+     */
+    protected void initializeMetaReplyEncoder()
+    {
+        Object option = getOption(META_REPLY_TEMPLATES_OPTION);
+        boolean templates;
+        if (option == null)
+        {
+            Class<?> jsonContextClass = _jsonContext.getClass();
+            templates = jsonContextClass == JettyJSONContextServer.class ||
+                    jsonContextClass == Jackson1JSONContextServer.class ||
+                    jsonContextClass == Jackson2JSONContextServer.class ||
+                    jsonContextClass == Jackson2StreamingJSONContextServer.class;
+        }
+        else
+        {
+            templates = Boolean.parseBoolean(option.toString());
+        }
+        _metaReplyEncoder = templates ? new MetaReplyEncoder() : null;
+    }
+
     protected void initializeServerTransports()
     {
         if (_transports.isEmpty())
@@ -275,7 +484,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         ServerChannelImpl channel = _channels.get(id);
         if (channel != null)
             return channel.getChannelId();
-        return new ChannelId(id);
+        return ChannelId.from(id);
     }
 
     public Map<String, Object> getOptions()
@@ -323,7 +532,75 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
 
     public long randomLong()
     {
-        return _random.nextLong();
+        return _random.randomLong();
+    }
+
+    /**
+     * @return the {@link SessionIdGenerator} used to generate session ids
+     * @see #SESSION_ID_GENERATOR_OPTION
+     */
+    public SessionIdGenerator getSessionIdGenerator()
+    {
+        return _sessionIdGenerator;
+    }
+
+    /**
+     * <p>Registers the {@link TaskMetrics} of a thread pool used by this server,
+     * so that they are exposed along with the metrics of this server.</p>
+     *
+     * @param name the name of the thread pool
+     * @param metrics the metrics of the thread pool
+     * @see #getTaskMetrics()
+     */
+    public void addTaskMetrics(String name, TaskMetrics metrics)
+    {
+        _taskMetrics.put(name, metrics);
+    }
+
+    /**
+     * @param name the name of the thread pool
+     * @return the metrics of the thread pool that have been removed, or null
+     */
+    public TaskMetrics removeTaskMetrics(String name)
+    {
+        return _taskMetrics.remove(name);
+    }
+
+    /**
+     * <p>Returns the metrics of the thread pools used by this server, by name:
+     * the scheduler of this server, named {@code scheduler}, and the thread pools
+     * registered by transports and services.</p>
+     *
+     * @return the metrics of the thread pools used by this server
+     */
+    public Map<String, TaskMetrics> getTaskMetrics()
+    {
+        Map<String, TaskMetrics> result = new TreeMap<>(_taskMetrics);
+        result.put("scheduler", _scheduler.getTaskMetrics());
+        return result;
+    }
+
+    /**
+     * @return the {@link ServerMetrics} that records the activity of this server, or null
+     * @see #METRICS_OPTION
+     */
+    public ServerMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    /**
+     * @return the {@link MessageTracer} that records the latency of sampled messages, or null
+     * @see #TRACE_SAMPLE_PERIOD_OPTION
+     */
+    public MessageTracer getTracer()
+    {
+        return _tracer;
+    }
+
+    protected String newSessionId(String idHint)
+    {
+        return _sessionIdGenerator.newSessionId(idHint);
     }
 
     public void setCurrentTransport(AbstractServerTransport transport)
@@ -353,7 +630,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         ServerChannelImpl channel = _channels.get(channelName);
         if (channel == null)
         {
-            ChannelId channelId = new ChannelId(channelName);
+            ChannelId channelId = ChannelId.from(channelName);
             ServerChannelImpl candidate = new ServerChannelImpl(this, channelId);
             channel = _channels.putIfAbsent(channelName, candidate);
             if (channel == null)
@@ -361,6 +638,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
                 // My candidate channel was added to the map, so I'd better initialize it
 
                 channel = candidate;
+                _channelTree.add(channel);
                 _logger.debug("Added channel {}", channel);
 
                 try
@@ -394,8 +672,8 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
             // Double check if the sweeper removed this channel between the check at the top and here.
             // This is not 100% fool proof (e.g. this thread is preempted long enough for the sweeper
             // to remove the channel, but the alternative is to have a global lock)
-            _channels.putIfAbsent(channelName, channel);
-
+            if (_channels.putIfAbsent(channelName, channel) == null)
+                _channelTree.add(channel);
         }
         // Another thread may add this channel concurrently, so wait until it is initialized
         channel.waitForInitialized();
@@ -556,6 +834,46 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         return channel;
     }
 
+    /**
+     * <p>Returns whether publishing a message to the given channel may notify a
+     * {@link BlockingListener}, either of the channel itself or of the wild
+     * channels that match it.</p>
+     * <p>Wild channels are looked up only if some wild channel has blocking
+     * listeners, so that the common case costs a single map lookup.</p>
+     * <p>This method never waits for the channel initialization: if the channel
+     * is still being initialized, it returns {@code true} since its listeners
+     * are not known yet.</p>
+     *
+     * @param channelName the channel name
+     * @return whether the listeners of the channel may block
+     */
+    public boolean hasBlockingListeners(String channelName)
+    {
+        ServerChannelImpl channel = _channels.get(channelName);
+        if (channel != null)
+        {
+            // Do not wait for a channel being initialized, as this method may be
+            // called from a selector thread; be conservative and dispatch instead
+            if (!channel.isInitialized())
+                return true;
+            if (channel.hasBlockingListeners())
+                return true;
+        }
+        if (_wildBlockingListeners.get() == 0)
+            return false;
+        for (ServerChannelImpl wild : _channelTree.getWildChannels(ChannelId.from(channelName)))
+        {
+            if (wild != null && wild.hasBlockingListeners())
+                return true;
+        }
+        return false;
+    }
+
+    void updateWildBlockingListeners(int delta)
+    {
+        _wildBlockingListeners.addAndGet(delta);
+    }
+
     public List<ServerChannel> getChannels()
     {
         List<ServerChannel> result = new ArrayList<>();
@@ -567,6 +885,37 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         return result;
     }
 
+    /**
+     * <p>Returns the channels under the given channel, for example {@code /foo/bar}
+     * and {@code /foo/bar/baz} for the channel {@code /foo}, without scanning all
+     * the channels.</p>
+     *
+     * @param channelId the channel to start from
+     * @return the descendants of the given channel, not including the channel itself
+     * @see #getChannelCount(String)
+     */
+    public List<ServerChannel> getDescendantChannels(String channelId)
+    {
+        List<ServerChannel> result = new ArrayList<>();
+        for (ServerChannelImpl channel : _channelTree.getChannels(ChannelId.from(channelId), false))
+        {
+            channel.waitForInitialized();
+            result.add(channel);
+        }
+        return result;
+    }
+
+    /**
+     * @param channelId the channel to start from
+     * @return the number of channels made of the given channel and its descendants
+     * @see #getDescendantChannels(String)
+     */
+    @ManagedOperation(value = "The number of channels made of the given channel and its descendants", impact = "INFO")
+    public int getChannelCount(@Name("channelId") String channelId)
+    {
+        return _channelTree.getChannelCount(ChannelId.from(channelId));
+    }
+
     public void removeListener(BayeuxServerListener listener)
     {
         _listeners.remove(listener);
@@ -576,8 +925,17 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
     {
         _logger.debug(">  {} {}", message, session);
 
+        MessageTracer tracer = _tracer;
+        if (tracer != null && !message.isMeta() && message instanceof ServerMessageImpl)
+            ((ServerMessageImpl)message).setTrace(tracer.sample());
+
         Mutable reply = createReply(message);
-        if (!extendRecv(session, message) || session != null && !session.extendRecv(message))
+        ServerMetrics metrics = _metrics;
+        long begin = metrics == null ? 0 : System.nanoTime();
+        boolean extended = extendRecv(session, message) && (session == null || session.extendRecv(message));
+        if (metrics != null)
+            metrics.onExtensions(System.nanoTime() - begin);
+        if (!extended)
         {
             error(reply, "404::message deleted");
         }
@@ -687,15 +1045,14 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
             _logger.warn("{} denied Create@{} by {}", session, message.getChannel(), _policy);
             return Authorizer.Result.deny("denied_by_security_policy");
         }
-        return isOperationAuthorized(Authorizer.Operation.CREATE, session, message, new ChannelId(channel));
+        return isOperationAuthorized(Authorizer.Operation.CREATE, session, message, ChannelId.from(channel));
     }
 
     private Authorizer.Result isOperationAuthorized(Authorizer.Operation operation, ServerSession session, ServerMessage message, ChannelId channelId)
     {
         List<ServerChannel> channels = new ArrayList<>();
-        for (String wildName : channelId.getWilds())
+        for (ServerChannelImpl channel : _channelTree.getWildChannels(channelId))
         {
-            ServerChannelImpl channel = _channels.get(wildName);
             if (channel != null)
                 channels.add(channel);
         }
@@ -757,36 +1114,24 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         if (to.isLazy())
             mutable.setLazy(true);
 
-        final List<String> wildChannelNames = to.getChannelId().getWilds();
-        final ServerChannelImpl[] wildChannels = new ServerChannelImpl[wildChannelNames.size()];
-        for (int i = wildChannelNames.size(); i-- > 0; )
-            wildChannels[i] = _channels.get(wildChannelNames.get(i));
+        to.decodeData(mutable);
 
-        // Call the wild listeners
-        for (final ServerChannelImpl wildChannel : wildChannels)
-        {
-            if (wildChannel == null)
-                continue;
-            if (wildChannel.isLazy())
-                mutable.setLazy(true);
-            List<ServerChannelListener> listeners = wildChannel.listeners();
-            if (!listeners.isEmpty())
-            {
-                for (ServerChannelListener listener : listeners)
-                    if (listener instanceof MessageListener)
-                        if (!notifyOnMessage((MessageListener)listener, from, to, mutable))
-                            return;
-            }
-        }
+        final ServerChannelImpl[] wildChannels = _channelTree.getWildChannels(to.getChannelId());
 
-        // Call the leaf listeners
-        List<ServerChannelListener> listeners = to.listeners();
-        if (!listeners.isEmpty())
+        ServerMetrics metrics = _metrics;
+        long begin = metrics == null ? 0 : System.nanoTime();
+        boolean proceed = notifyListeners(from, to, wildChannels, mutable);
+        if (metrics != null)
+            metrics.onListeners(to, System.nanoTime() - begin);
+        if (!proceed)
+            return;
+
+        MessageTracer tracer = _tracer;
+        MessageTrace trace = tracer == null ? null : ((ServerMessageImpl)mutable).getTrace();
+        if (trace != null)
         {
-            for (ServerChannelListener listener : listeners)
-                if (listener instanceof MessageListener)
-                    if (!notifyOnMessage((MessageListener)listener, from, to, mutable))
-                        return;
+            trace.setListened(System.nanoTime());
+            tracer.record(MessageTracer.Stage.LISTENERS, to.getId(), null, trace.getListened() - trace.getReceived());
         }
 
         // Exactly at this point, we convert the message to JSON and therefore
@@ -801,6 +1146,14 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         // ((Map)serverMessage.getExt().get("map")).put().
         freeze(mutable);
 
+        if (trace != null)
+        {
+            trace.setFrozen(System.nanoTime());
+            tracer.record(MessageTracer.Stage.FREEZE, to.getId(), null, trace.getFrozen() - trace.getListened());
+        }
+
+        int delivered = 0;
+
         // Call the wild subscribers, which can only get broadcast messages.
         // We need a special treatment in case of subscription to /**, otherwise
         // we will deliver meta messages and service messages as if it could be
@@ -820,7 +1173,10 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
                         if (wildSubscribers == null)
                             wildSubscribers = new HashSet<>();
                         if (wildSubscribers.add(session.getId()))
+                        {
                             ((ServerSessionImpl)session).doDeliver(from, mutable);
+                            ++delivered;
+                        }
                     }
                 }
             }
@@ -833,14 +1189,20 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
             for (ServerSession session : subscribers)
             {
                 if (wildSubscribers == null || !wildSubscribers.contains(session.getId()))
+                {
                     ((ServerSessionImpl)session).doDeliver(from, mutable);
+                    ++delivered;
+                }
             }
         }
 
+        if (metrics != null)
+            metrics.onPublish(to, mutable, delivered);
+
         // Meta handlers
         if (to.isMeta())
         {
-            listeners = to.listeners();
+            List<ServerChannelListener> listeners = to.listeners();
             if (!listeners.isEmpty())
             {
                 for (ServerChannelListener listener : listeners)
@@ -850,13 +1212,71 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         }
     }
 
+    private boolean notifyListeners(ServerSessionImpl from, ServerChannelImpl to, ServerChannelImpl[] wildChannels, Mutable mutable)
+    {
+        // Call the wild listeners
+        for (final ServerChannelImpl wildChannel : wildChannels)
+        {
+            if (wildChannel == null)
+                continue;
+            if (wildChannel.isLazy())
+                mutable.setLazy(true);
+            List<ServerChannelListener> listeners = wildChannel.listeners();
+            if (!listeners.isEmpty())
+            {
+                for (ServerChannelListener listener : listeners)
+                    if (listener instanceof MessageListener)
+                        if (!notifyOnMessage((MessageListener)listener, from, to, mutable))
+                            return false;
+            }
+        }
+
+        // Call the leaf listeners
+        List<ServerChannelListener> listeners = to.listeners();
+        if (!listeners.isEmpty())
+        {
+            for (ServerChannelListener listener : listeners)
+                if (listener instanceof MessageListener)
+                    if (!notifyOnMessage((MessageListener)listener, from, to, mutable))
+                        return false;
+        }
+        return true;
+    }
+
     public void freeze(Mutable mutable)
     {
         ServerMessageImpl message = (ServerMessageImpl)mutable;
         if (message.isFrozen())
             return;
-        String json = _jsonContext.generate(message);
-        message.freeze(json);
+        String json = null;
+        // Common meta replies are spliced into pre-encoded templates
+        MetaReplyEncoder metaReplyEncoder = _metaReplyEncoder;
+        if (metaReplyEncoder != null && message.isMeta())
+            json = metaReplyEncoder.encode(message);
+        JSONLiteral encodedData = null;
+        if (json == null)
+        {
+            encodedData = encodeData(message);
+            // Generate a copy, so that the message keeps its typed data
+            json = _jsonContext.generate(encodedData == null ? message : message.copyWithData(encodedData));
+        }
+        message.freeze(json, encodedData);
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONLiteral encodeData(ServerMessageImpl message)
+    {
+        // Only typed data may have a codec; pre-encoded data must not be parsed
+        Object data = message.get(Message.DATA_FIELD);
+        String channelName = message.getChannel();
+        if (data != null && !(data instanceof Map) && channelName != null)
+        {
+            ServerChannelImpl channel = _channels.get(channelName);
+            DataCodec<Object> codec = channel == null ? null : (DataCodec<Object>)channel.getDataCodec();
+            if (codec != null && codec.getDataClass().isInstance(data))
+                return new JSONLiteral(codec.encode(data));
+        }
+        return null;
     }
 
     private boolean notifyOnMessage(MessageListener listener, ServerSession from, ServerChannel to, Mutable mutable)
@@ -1015,6 +1435,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
     {
         if (_channels.remove(channel.getId(), channel))
         {
+            _channelTree.remove(channel);
             _logger.debug("Removed channel {}", channel);
             for (BayeuxServerListener listener : _listeners)
             {
@@ -1165,6 +1586,19 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
             session.sweep(now);
     }
 
+    /**
+     * <p>Sweeps only the given channel and its descendants.</p>
+     *
+     * @param channelId the channel to start from
+     * @see #sweep()
+     */
+    @ManagedOperation(value = "Sweeps the given channel and its descendants", impact = "ACTION")
+    public void sweepChannels(@Name("channelId") String channelId)
+    {
+        for (ServerChannelImpl channel : _channelTree.getChannels(ChannelId.from(channelId), true))
+            channel.sweep();
+    }
+
     @ManagedOperation(value = "Dumps the BayeuxServer state", impact = "INFO")
     public String dump()
     {
@@ -1261,6 +1695,28 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
             reply.put(Message.VERSION_FIELD, "1.0");
             reply.put(Message.MIN_VERSION_FIELD, "1.0");
             reply.put(Message.SUPPORTED_CONNECTION_TYPES_FIELD, getAllowedTransports());
+
+            String encoding = negotiateEncoding(message.get(BinaryContext.ENCODINGS_FIELD));
+            if (encoding != null)
+                reply.put(BinaryContext.ENCODING_FIELD, encoding);
+        }
+
+        private String negotiateEncoding(Object field)
+        {
+            BinaryContext.Server binaryContext = _binaryContext;
+            if (binaryContext == null || field == null)
+                return null;
+            AbstractServerTransport transport = _currentTransport.get();
+            if (transport == null || !transport.isBinarySupported())
+                return null;
+            Object[] encodings = field instanceof List ? ((List)field).toArray() : field instanceof Object[] ? (Object[])field : new Object[]{field};
+            String encoding = binaryContext.getEncoding();
+            for (Object candidate : encodings)
+            {
+                if (encoding.equals(candidate))
+                    return encoding;
+            }
+            return null;
         }
     }
 
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+/**
+ * <p>Marker interface for channel listeners that may block, for example
+ * because they perform blocking I/O or wait for other resources.</p>
+ * <p>Transports that process incoming messages in the thread that reads
+ * them from the network dispatch to a thread pool the messages that
+ * would notify listeners implementing this interface.</p>
+ */
+public interface BlockingListener
+{
+}
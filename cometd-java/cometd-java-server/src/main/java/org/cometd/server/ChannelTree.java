@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.ChannelId;
+
+/**
+ * <p>A concurrent tree of {@link ServerChannelImpl}s, indexed by channel segment.</p>
+ * <p>The tree is kept alongside the map of channels of {@link BayeuxServerImpl} so that
+ * wild channels can be looked up walking the segments of a channel once, and so that
+ * the channels under a given channel can be enumerated and counted without scanning
+ * all the channels.</p>
+ * <p>Lookups do not lock; nodes are created and pruned locking the parent node and
+ * then the child node, so that a node that has been pruned never gains children.</p>
+ */
+class ChannelTree
+{
+    private volatile Node _root = new Node(null, null);
+
+    /**
+     * @param channel the channel to add to this tree
+     */
+    void add(ServerChannelImpl channel)
+    {
+        ChannelId channelId = channel.getChannelId();
+        while (true)
+        {
+            Node node = _root;
+            for (int i = 0; node != null && i < channelId.depth(); ++i)
+                node = node.child(channelId.getSegment(i));
+            if (node != null && node.setChannel(channel))
+                return;
+            // A node has been pruned concurrently, retry
+        }
+    }
+
+    /**
+     * @param channel the channel to remove from this tree
+     */
+    void remove(ServerChannelImpl channel)
+    {
+        Node node = find(channel.getChannelId());
+        if (node != null && node.clearChannel(channel))
+            node.prune();
+    }
+
+    void clear()
+    {
+        _root = new Node(null, null);
+    }
+
+    /**
+     * @param channelId the non wild channel id
+     * @return the wild channels matching the given channel id, in the order of {@link ChannelId#getWilds()},
+     * with null elements for the wild channels that do not exist
+     */
+    ServerChannelImpl[] getWildChannels(ChannelId channelId)
+    {
+        if (channelId.isWild())
+            return new ServerChannelImpl[0];
+
+        int depth = channelId.depth();
+        ServerChannelImpl[] result = new ServerChannelImpl[depth + 1];
+        Node node = _root;
+        for (int i = 0; node != null && i < depth; ++i)
+        {
+            result[depth - i] = node.channel(ChannelId.DEEPWILD);
+            if (i == depth - 1)
+                result[0] = node.channel(ChannelId.WILD);
+            node = node.children.get(channelId.getSegment(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param channelId the channel id to start from
+     * @param includeSelf whether to include the channel with the given channel id
+     * @return the channels under the given channel id
+     */
+    List<ServerChannelImpl> getChannels(ChannelId channelId, boolean includeSelf)
+    {
+        List<ServerChannelImpl> result = new ArrayList<>();
+        Node start = find(channelId);
+        if (start == null)
+            return result;
+
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.push(start);
+        while (!nodes.isEmpty())
+        {
+            Node node = nodes.pop();
+            ServerChannelImpl channel = node.channel;
+            if (channel != null && (includeSelf || node != start))
+                result.add(channel);
+            for (Node child : node.children.values())
+                nodes.push(child);
+        }
+        return result;
+    }
+
+    /**
+     * @param channelId the channel id to start from
+     * @return the number of channels under the given channel id, including the channel itself
+     */
+    int getChannelCount(ChannelId channelId)
+    {
+        Node node = find(channelId);
+        return node == null ? 0 : node.count.get();
+    }
+
+    private Node find(ChannelId channelId)
+    {
+        Node node = _root;
+        for (int i = 0; node != null && i < channelId.depth(); ++i)
+            node = node.children.get(channelId.getSegment(i));
+        return node;
+    }
+
+    private static class Node
+    {
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+        private final AtomicInteger count = new AtomicInteger();
+        private final Node parent;
+        private final String segment;
+        private volatile ServerChannelImpl channel;
+        private boolean pruned;
+
+        private Node(Node parent, String segment)
+        {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        private ServerChannelImpl channel(String segment)
+        {
+            Node child = children.get(segment);
+            return child == null ? null : child.channel;
+        }
+
+        private Node child(String segment)
+        {
+            Node child = children.get(segment);
+            if (child != null)
+                return child;
+            synchronized (this)
+            {
+                if (pruned)
+                    return null;
+                child = children.get(segment);
+                if (child == null)
+                {
+                    child = new Node(this, segment);
+                    children.put(segment, child);
+                }
+                return child;
+            }
+        }
+
+        private synchronized boolean setChannel(ServerChannelImpl channel)
+        {
+            if (pruned)
+                return false;
+            ServerChannelImpl existing = this.channel;
+            this.channel = channel;
+            if (existing == null)
+            {
+                for (Node node = this; node != null; node = node.parent)
+                    node.count.incrementAndGet();
+            }
+            return true;
+        }
+
+        private synchronized boolean clearChannel(ServerChannelImpl channel)
+        {
+            if (this.channel != channel)
+                return false;
+            this.channel = null;
+            for (Node node = this; node != null; node = node.parent)
+                node.count.decrementAndGet();
+            return true;
+        }
+
+        private void prune()
+        {
+            Node node = this;
+            while (node.parent != null)
+            {
+                Node parent = node.parent;
+                synchronized (parent)
+                {
+                    synchronized (node)
+                    {
+                        if (node.pruned || node.channel != null || !node.children.isEmpty())
+                            return;
+                        parent.children.remove(node.segment, node);
+                        node.pruned = true;
+                    }
+                }
+                node = parent;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The default {@link SessionIdGenerator}, that generates session ids made of
+ * the id hint, a counter and random characters.</p>
+ * <p>Random values are taken from per-thread {@link SecureRandom}s, that are seeded
+ * from a shared {@link SecureRandom} only once per thread, so that threads do not
+ * contend on a single generator nor block waiting for entropy.</p>
+ */
+public class DefaultSessionIdGenerator implements SessionIdGenerator
+{
+    private static final AtomicLong _idCount = new AtomicLong();
+
+    private final SecureRandom _seeder = new SecureRandom();
+    // A plain ThreadLocal, not a subclass, so that pooled threads do not pin the web application class loader
+    private final ThreadLocal<SecureRandom> _randoms = new ThreadLocal<>();
+
+    public String newSessionId(String idHint)
+    {
+        StringBuilder id = new StringBuilder(30);
+        int len = 20;
+        if (idHint != null)
+        {
+            len += idHint.length() + 1;
+            id.append(idHint);
+            id.append('_');
+        }
+        int index = id.length();
+
+        SecureRandom random = random();
+        while (id.length() < len)
+        {
+            long value = random.nextLong();
+            id.append(Long.toString(value < 0 ? -value : value, 36));
+        }
+
+        id.insert(index, Long.toString(_idCount.incrementAndGet(), 36));
+
+        return id.toString();
+    }
+
+    /**
+     * @return a random long from the current thread's {@link SecureRandom}
+     */
+    public long randomLong()
+    {
+        return random().nextLong();
+    }
+
+    private SecureRandom random()
+    {
+        SecureRandom random = _randoms.get();
+        if (random == null)
+        {
+            random = newSecureRandom();
+            _randoms.set(random);
+        }
+        return random;
+    }
+
+    /**
+     * <p>Creates the {@link SecureRandom} for the current thread.</p>
+     * <p>This implementation uses a {@code SHA1PRNG} generator, that does not
+     * synchronize on a global lock, explicitly seeded from a shared generator.</p>
+     *
+     * @return a new seeded {@link SecureRandom}
+     */
+    protected SecureRandom newSecureRandom()
+    {
+        byte[] seed = new byte[32];
+        synchronized (_seeder)
+        {
+            _seeder.nextBytes(seed);
+        }
+        try
+        {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            // Seeding before the first use replaces the self seeding, which may block
+            random.setSeed(seed);
+            return random;
+        }
+        catch (NoSuchAlgorithmException x)
+        {
+            return new SecureRandom(seed);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+
+/**
+ * <p>Encodes the common meta replies, such as {@code /meta/connect} replies, by splicing
+ * the {@code id} and {@code clientId} fields into pre-encoded JSON fragments.</p>
+ * <p>Only replies made of the {@code channel}, {@code successful}, {@code id},
+ * {@code clientId} and {@code advice} fields, with an advice made of scalar values,
+ * are encoded; for any other reply, for example when an extension adds an {@code ext}
+ * field, {@link #encode(ServerMessageImpl)} returns null and the reply must be
+ * generated by the {@link org.cometd.common.JSONContext}.</p>
+ */
+class MetaReplyEncoder
+{
+    private static final int MAX_ADVICES = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, String[]> _prefixes = new HashMap<>();
+    private final ConcurrentMap<Map<String, Object>, String> _advices = new ConcurrentHashMap<>();
+
+    MetaReplyEncoder()
+    {
+        for (String channel : new String[]{Channel.META_HANDSHAKE, Channel.META_CONNECT,
+                Channel.META_SUBSCRIBE, Channel.META_UNSUBSCRIBE, Channel.META_DISCONNECT})
+        {
+            String prefix = "{\"" + Message.CHANNEL_FIELD + "\":\"" + channel + "\",\"" + Message.SUCCESSFUL_FIELD + "\":";
+            _prefixes.put(channel, new String[]{prefix + "true", prefix + "false"});
+        }
+    }
+
+    /**
+     * @param message the meta reply to encode
+     * @return the JSON representation of the reply, or null if the reply cannot be encoded from templates
+     */
+    String encode(ServerMessageImpl message)
+    {
+        String channel = null;
+        Boolean successful = null;
+        String id = null;
+        String clientId = null;
+        Map<?, ?> advice = null;
+        for (Map.Entry<String, Object> entry : message.entrySet())
+        {
+            Object value = entry.getValue();
+            switch (entry.getKey())
+            {
+                case Message.CHANNEL_FIELD:
+                    if (!(value instanceof String))
+                        return null;
+                    channel = (String)value;
+                    break;
+                case Message.SUCCESSFUL_FIELD:
+                    if (!(value instanceof Boolean))
+                        return null;
+                    successful = (Boolean)value;
+                    break;
+                case Message.ID_FIELD:
+                    if (!(value instanceof String))
+                        return null;
+                    id = (String)value;
+                    break;
+                case Message.CLIENT_ID_FIELD:
+                    if (!(value instanceof String))
+                        return null;
+                    clientId = (String)value;
+                    break;
+                case Message.ADVICE_FIELD:
+                    if (!(value instanceof Map))
+                        return null;
+                    advice = (Map<?, ?>)value;
+                    break;
+                default:
+                    return null;
+            }
+        }
+
+        if (channel == null || successful == null)
+            return null;
+        String[] prefixes = _prefixes.get(channel);
+        if (prefixes == null)
+            return null;
+
+        String adviceJSON = null;
+        if (advice != null)
+        {
+            adviceJSON = encodeAdvice(advice);
+            if (adviceJSON == null)
+                return null;
+        }
+
+        StringBuilder builder = new StringBuilder(128);
+        builder.append(successful ? prefixes[0] : prefixes[1]);
+        if (id != null)
+        {
+            builder.append(",\"" + Message.ID_FIELD + "\":");
+            appendString(builder, id);
+        }
+        if (clientId != null)
+        {
+            builder.append(",\"" + Message.CLIENT_ID_FIELD + "\":");
+            appendString(builder, clientId);
+        }
+        if (adviceJSON != null)
+            builder.append(",\"" + Message.ADVICE_FIELD + "\":").append(adviceJSON);
+        return builder.append('}').toString();
+    }
+
+    private String encodeAdvice(Map<?, ?> advice)
+    {
+        String result = _advices.get(advice);
+        if (result != null)
+            return result;
+
+        Map<String, Object> copy = new HashMap<>(advice.size());
+        StringBuilder builder = new StringBuilder(64);
+        builder.append('{');
+        for (Map.Entry<?, ?> entry : advice.entrySet())
+        {
+            Object key = entry.getKey();
+            Object value = entry.getValue();
+            if (!(key instanceof String))
+                return null;
+            // Only values that have a unique JSON representation
+            if (!(value instanceof String || value instanceof Boolean ||
+                    value instanceof Long || value instanceof Integer))
+                return null;
+            if (builder.length() > 1)
+                builder.append(',');
+            appendString(builder, (String)key);
+            builder.append(':');
+            if (value instanceof String)
+                appendString(builder, (String)value);
+            else
+                builder.append(value);
+            copy.put((String)key, value);
+        }
+        result = builder.append('}').toString();
+
+        // Copy the key, since advice maps may be modified after having been sent
+        if (_advices.size() < MAX_ADVICES)
+            _advices.putIfAbsent(copy, result);
+        return result;
+    }
+
+    private void appendString(StringBuilder builder, String value)
+    {
+        builder.append('"');
+        for (int i = 0; i < value.length(); ++i)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    else
+                        builder.append(c);
+                    break;
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -25,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.DataCodec;
 import org.cometd.bayeux.Session;
 import org.cometd.bayeux.server.Authorizer;
 import org.cometd.bayeux.server.BayeuxServer;
@@ -47,9 +48,11 @@ public class ServerChannelImpl implements ServerChannel
     private final List<Authorizer> _authorizers = new CopyOnWriteArrayList<>();
     private final CountDownLatch _initialized = new CountDownLatch(1);
     private final AtomicInteger _sweeperPasses = new AtomicInteger();
+    private final AtomicInteger _blockingListeners = new AtomicInteger();
     private boolean _lazy;
     private long _lazyTimeout = -1;
     private boolean _persistent;
+    private volatile DataCodec<?> _dataCodec;
 
     protected ServerChannelImpl(BayeuxServerImpl bayeux, ChannelId id)
     {
@@ -77,6 +80,14 @@ public class ServerChannelImpl implements ServerChannel
         }
     }
 
+    /**
+     * @return whether this channel has been {@link #initialized() initialized}
+     */
+    boolean isInitialized()
+    {
+        return _initialized.getCount() == 0;
+    }
+
     /**
      * Marks this channel as initialized, notifying other threads that may
      * {@link #waitForInitialized() wait for initialization}.
@@ -264,11 +275,29 @@ public class ServerChannelImpl implements ServerChannel
     {
         resetSweeperPasses();
         _listeners.add(listener);
+        if (listener instanceof BlockingListener)
+            updateBlockingListeners(1);
     }
 
     public void removeListener(ServerChannelListener listener)
     {
-        _listeners.remove(listener);
+        if (_listeners.remove(listener) && listener instanceof BlockingListener)
+            updateBlockingListeners(-1);
+    }
+
+    /**
+     * @return whether this channel has listeners that implement {@link BlockingListener}
+     */
+    public boolean hasBlockingListeners()
+    {
+        return _blockingListeners.get() > 0;
+    }
+
+    private void updateBlockingListeners(int delta)
+    {
+        _blockingListeners.addAndGet(delta);
+        if (isWild())
+            _bayeux.updateWildBlockingListeners(delta);
     }
 
     public List<ServerChannelListener> getListeners()
@@ -351,6 +380,9 @@ public class ServerChannelImpl implements ServerChannel
         if (_authorizers.size() > 0)
             return;
 
+        if (_dataCodec != null)
+            return;
+
         for (ServerChannelListener listener : _listeners)
             if (!(listener instanceof ServerChannelListener.Weak))
                 return;
@@ -371,6 +403,9 @@ public class ServerChannelImpl implements ServerChannel
         }
 
         _listeners.clear();
+        int blockingListeners = _blockingListeners.getAndSet(0);
+        if (blockingListeners > 0 && isWild())
+            _bayeux.updateWildBlockingListeners(-blockingListeners);
     }
 
     public void setAttribute(String name, Object value)
@@ -435,6 +470,32 @@ public class ServerChannelImpl implements ServerChannel
         _authorizers.remove(authorizer);
     }
 
+    public void setDataCodec(DataCodec<?> codec)
+    {
+        resetSweeperPasses();
+        _dataCodec = codec;
+    }
+
+    public DataCodec<?> getDataCodec()
+    {
+        return _dataCodec;
+    }
+
+    /**
+     * <p>Decodes the data of the given message with this channel's {@link DataCodec}.</p>
+     *
+     * @param message the message whose data is decoded
+     */
+    protected void decodeData(ServerMessage.Mutable message)
+    {
+        DataCodec<?> codec = _dataCodec;
+        if (codec == null)
+            return;
+        Object data = message.getData();
+        if (data != null && !codec.getDataClass().isInstance(data))
+            message.setData(codec.decode(data));
+    }
+
     public List<Authorizer> getAuthorizers()
     {
         return Collections.unmodifiableList(authorizers());
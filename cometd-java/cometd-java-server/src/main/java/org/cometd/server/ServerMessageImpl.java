@@ -15,23 +15,27 @@
  */
 package org.cometd.server;
 
-import java.util.AbstractSet;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cometd.bayeux.server.ServerMessage;
-import org.cometd.common.HashMapMessage;
+import org.cometd.common.BinaryContext;
+import org.cometd.common.FixedFieldsMessage;
 import org.cometd.common.JSONContext;
+import org.cometd.common.JSONLiteral;
+import org.cometd.server.metrics.MessageTrace;
 
-public class ServerMessageImpl extends HashMapMessage implements ServerMessage.Mutable
+public class ServerMessageImpl extends FixedFieldsMessage implements ServerMessage.Mutable
 {
     private static final long serialVersionUID = 6412048662640296067L;
 
     private volatile transient ServerMessage.Mutable _associated;
     private volatile boolean _lazy = false;
     private volatile String _json;
+    private volatile Map<String, byte[]> _encoded;
+    private volatile transient JSONLiteral _encodedData;
+    private volatile transient MessageTrace _trace;
 
     public ServerMessage.Mutable getAssociated()
     {
@@ -53,12 +57,49 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         _lazy = lazy;
     }
 
+    /**
+     * @return the trace of this message if it has been sampled by the
+     * {@link org.cometd.server.metrics.MessageTracer}, null otherwise
+     */
+    public MessageTrace getTrace()
+    {
+        return _trace;
+    }
+
+    public void setTrace(MessageTrace trace)
+    {
+        _trace = trace;
+    }
+
     protected void freeze(String json)
+    {
+        freeze(json, null);
+    }
+
+    /**
+     * @param json the JSON encoding of this message
+     * @param encodedData the data of this message encoded by the channel
+     * {@link org.cometd.bayeux.DataCodec}, or null if the data has not been encoded
+     */
+    protected void freeze(String json, JSONLiteral encodedData)
     {
         assert _json == null;
+        _encodedData = encodedData;
         _json = json;
     }
 
+    /**
+     * @param data the data of the copy
+     * @return a copy of this message with the given data
+     */
+    protected ServerMessageImpl copyWithData(Object data)
+    {
+        ServerMessageImpl copy = new ServerMessageImpl();
+        copy.putAll(this);
+        copy.setData(data);
+        return copy;
+    }
+
     protected boolean isFrozen()
     {
         return _json != null;
@@ -72,15 +113,62 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         return _json;
     }
 
+    /**
+     * <p>Returns the binary encoding of this message.</p>
+     * <p>The encodings of a frozen message are cached, so that a message delivered
+     * to sessions that use different encodings is encoded once per encoding.</p>
+     * <p>Like its JSON encoding, the binary encodings of a frozen message carry the
+     * data encoded by the channel {@link org.cometd.bayeux.DataCodec}, if any.</p>
+     *
+     * @param context the binary context that encodes this message
+     * @return the encoded message
+     */
+    public byte[] getEncoded(BinaryContext.Server context)
+    {
+        if (!isFrozen())
+            return context.generate(this);
+
+        Map<String, byte[]> encoded = _encoded;
+        if (encoded == null)
+        {
+            synchronized (this)
+            {
+                encoded = _encoded;
+                if (encoded == null)
+                    _encoded = encoded = new ConcurrentHashMap<>(2);
+            }
+        }
+
+        String encoding = context.getEncoding();
+        byte[] bytes = encoded.get(encoding);
+        if (bytes == null)
+        {
+            // Concurrent encoders produce the same bytes, so the last one wins
+            JSONLiteral encodedData = _encodedData;
+            bytes = context.generate(encodedData == null ? this : copyWithData(encodedData));
+            encoded.put(encoding, bytes);
+        }
+        return bytes;
+    }
+
     @Override
     public Object getData()
     {
         Object data = super.getData();
         if (isFrozen() && data instanceof Map)
-            return Collections.unmodifiableMap((Map<String, Object>)data);
+            return Collections.unmodifiableMap((Map<?, ?>)data);
         return data;
     }
 
+    @Override
+    protected Object parseData(JSONLiteral literal)
+    {
+        // Frozen messages keep the literal, that is embedded verbatim when delivered
+        if (isFrozen())
+            return literal.getValue();
+        return super.parseData(literal);
+    }
+
     @Override
     public Object put(String key, Object value)
     {
@@ -90,11 +178,19 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
     }
 
     @Override
-    public Set<Map.Entry<String, Object>> entrySet()
+    public Object remove(Object key)
     {
         if (isFrozen())
-            return new ImmutableEntrySet(super.entrySet());
-        return super.entrySet();
+            throw new UnsupportedOperationException();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear()
+    {
+        if (isFrozen())
+            throw new UnsupportedOperationException();
+        super.clear();
     }
 
     @Override
@@ -124,78 +220,6 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         return advice;
     }
 
-    private static class ImmutableEntrySet extends AbstractSet<Map.Entry<String, Object>>
-    {
-        private final Set<Map.Entry<String, Object>> delegate;
-
-        private ImmutableEntrySet(Set<Map.Entry<String, Object>> delegate)
-        {
-            this.delegate = delegate;
-        }
-
-        @Override
-        public Iterator<Map.Entry<String, Object>> iterator()
-        {
-            return new ImmutableEntryIterator(delegate.iterator());
-        }
-
-        @Override
-        public int size()
-        {
-            return delegate.size();
-        }
-
-        private static class ImmutableEntryIterator implements Iterator<Map.Entry<String, Object>>
-        {
-            private final Iterator<Map.Entry<String, Object>> delegate;
-
-            private ImmutableEntryIterator(Iterator<Map.Entry<String, Object>> delegate)
-            {
-                this.delegate = delegate;
-            }
-
-            public boolean hasNext()
-            {
-                return delegate.hasNext();
-            }
-
-            public Map.Entry<String, Object> next()
-            {
-                return new ImmutableEntry(delegate.next());
-            }
-
-            public void remove()
-            {
-                throw new UnsupportedOperationException();
-            }
-
-            private static class ImmutableEntry implements Map.Entry<String, Object>
-            {
-                private final Map.Entry<String, Object> delegate;
-
-                private ImmutableEntry(Map.Entry<String, Object> delegate)
-                {
-                    this.delegate = delegate;
-                }
-
-                public String getKey()
-                {
-                    return delegate.getKey();
-                }
-
-                public Object getValue()
-                {
-                    return delegate.getValue();
-                }
-
-                public Object setValue(Object value)
-                {
-                    throw new UnsupportedOperationException();
-                }
-            }
-        }
-    }
-
     // The code below is a relic of a mistake in the API, but it is kept for backward compatibility
 
     private static JSONContext.Server _jsonContext = new JettyJSONContextServer();
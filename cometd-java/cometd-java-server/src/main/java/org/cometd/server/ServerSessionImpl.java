@@ -18,6 +18,8 @@ package org.cometd.server;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -26,7 +28,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
@@ -37,9 +38,12 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
-import org.cometd.common.HashMapMessage;
+import org.cometd.common.FixedFieldsMessage;
 import org.cometd.server.AbstractServerTransport.OneTimeScheduler;
 import org.cometd.server.AbstractServerTransport.Scheduler;
+import org.cometd.server.metrics.MessageTrace;
+import org.cometd.server.metrics.MessageTracer;
+import org.cometd.server.metrics.ServerMetrics;
 import org.eclipse.jetty.util.ArrayQueue;
 import org.eclipse.jetty.util.AttributesMap;
 import org.slf4j.Logger;
@@ -47,7 +51,6 @@ import org.slf4j.LoggerFactory;
 
 public class ServerSessionImpl implements ServerSession
 {
-    private static final AtomicLong _idCount = new AtomicLong();
 
     private static final Logger _logger = LoggerFactory.getLogger(ServerSession.class);
     private final BayeuxServerImpl _bayeux;
@@ -78,6 +81,8 @@ public class ServerSessionImpl implements ServerSession
     private long _connectTimestamp = -1;
     private long _intervalTimestamp;
     private boolean _nonLazyMessages;
+    // Enqueue and dequeue times of the traced messages, guarded by _queue
+    private Map<ServerMessage, long[]> _traces;
 
     protected ServerSessionImpl(BayeuxServerImpl bayeux)
     {
@@ -89,25 +94,7 @@ public class ServerSessionImpl implements ServerSession
         _bayeux = bayeux;
         _localSession = localSession;
 
-        StringBuilder id = new StringBuilder(30);
-        int len = 20;
-        if (idHint != null)
-        {
-            len += idHint.length() + 1;
-            id.append(idHint);
-            id.append('_');
-        }
-        int index = id.length();
-
-        while (id.length() < len)
-        {
-            long random = _bayeux.randomLong();
-            id.append(Long.toString(random < 0 ? -random : random, 36));
-        }
-
-        id.insert(index, Long.toString(_idCount.incrementAndGet(), 36));
-
-        _id = id.toString();
+        _id = bayeux.newSessionId(idHint);
 
         ServerTransport transport = _bayeux.getCurrentTransport();
         if (transport != null)
@@ -224,6 +211,9 @@ public class ServerSessionImpl implements ServerSession
 
     protected void doDeliver(ServerSession sender, ServerMessage.Mutable mutable)
     {
+        ServerMetrics metrics = _bayeux.getMetrics();
+        boolean timed = metrics != null && !_extensions.isEmpty();
+        long begin = timed ? System.nanoTime() : 0;
         ServerMessage message = null;
         if (mutable.isMeta())
         {
@@ -234,9 +224,19 @@ public class ServerSessionImpl implements ServerSession
         {
             message = extendSendMessage(mutable);
         }
+        if (timed)
+            metrics.onExtensions(System.nanoTime() - begin);
+
+        MessageTrace trace = mutable instanceof ServerMessageImpl ? ((ServerMessageImpl)mutable).getTrace() : null;
+        if (trace != null && message != mutable && message instanceof ServerMessageImpl)
+            ((ServerMessageImpl)message).setTrace(trace);
 
         if (message == null)
+        {
+            if (metrics != null)
+                metrics.onDrop(this, mutable);
             return;
+        }
 
         _bayeux.freeze((Mutable)message);
 
@@ -252,24 +252,38 @@ public class ServerSessionImpl implements ServerSession
                         if (maxQueueSize > 0 && _queue.size() > maxQueueSize)
                         {
                             if (!notifyQueueMaxed((MaxQueueListener)listener, this, _queue, sender, message))
+                            {
+                                if (metrics != null)
+                                    metrics.onDrop(this, message);
                                 return;
+                            }
                         }
                     }
                 }
                 if (listener instanceof MessageListener)
                 {
                     if (!notifyOnMessage((MessageListener)listener, sender, message))
+                    {
+                        if (metrics != null)
+                            metrics.onDrop(this, message);
                         return;
+                    }
                 }
             }
         }
 
         boolean wakeup;
+        int size;
         synchronized (_queue)
         {
             addMessage(message);
             wakeup = _batch == 0;
+            size = _queue.size();
+            if (trace != null)
+                traceEnqueue(message, trace);
         }
+        if (metrics != null)
+            metrics.onQueue(this, size);
 
         if (wakeup)
         {
@@ -280,6 +294,72 @@ public class ServerSessionImpl implements ServerSession
         }
     }
 
+    private void traceEnqueue(ServerMessage message, MessageTrace trace)
+    {
+        MessageTracer tracer = _bayeux.getTracer();
+        if (tracer == null)
+            return;
+        long now = System.nanoTime();
+        tracer.record(MessageTracer.Stage.ENQUEUE, message.getChannel(), null, now - trace.getFrozen());
+        if (_traces == null)
+            _traces = new IdentityHashMap<>();
+        _traces.put(message, new long[]{now, 0});
+    }
+
+    private void traceDequeue(List<ServerMessage> messages)
+    {
+        MessageTracer tracer = _bayeux.getTracer();
+        if (tracer == null)
+            return;
+        long now = System.nanoTime();
+        for (ServerMessage message : messages)
+        {
+            long[] times = _traces.get(message);
+            if (times != null && times[1] == 0)
+            {
+                times[1] = now;
+                tracer.record(MessageTracer.Stage.QUEUE, message.getChannel(), null, now - times[0]);
+            }
+        }
+        // Forget the traced messages that have been removed from the queue without being taken
+        for (Iterator<long[]> iterator = _traces.values().iterator(); iterator.hasNext();)
+        {
+            if (iterator.next()[1] == 0)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * <p>Records the write latency of the traced messages taken from the queue of this session.</p>
+     *
+     * @param transport the name of the transport that wrote the messages
+     */
+    void traceWrite(String transport)
+    {
+        synchronized (_queue)
+        {
+            if (_traces == null || _traces.isEmpty())
+                return;
+            MessageTracer tracer = _bayeux.getTracer();
+            long now = System.nanoTime();
+            for (Iterator<Map.Entry<ServerMessage, long[]>> iterator = _traces.entrySet().iterator(); iterator.hasNext();)
+            {
+                Map.Entry<ServerMessage, long[]> entry = iterator.next();
+                ServerMessage message = entry.getKey();
+                long taken = entry.getValue()[1];
+                if (taken == 0)
+                    continue;
+                iterator.remove();
+                MessageTrace trace = ((ServerMessageImpl)message).getTrace();
+                if (tracer != null && trace != null)
+                {
+                    tracer.record(MessageTracer.Stage.WRITE, message.getChannel(), transport, now - taken);
+                    tracer.record(MessageTracer.Stage.TOTAL, message.getChannel(), transport, now - trace.getReceived());
+                }
+            }
+        }
+    }
+
     private boolean notifyQueueMaxed(MaxQueueListener listener, ServerSession session, Queue<ServerMessage> queue, ServerSession sender, ServerMessage message)
     {
         try
@@ -447,6 +527,8 @@ public class ServerSessionImpl implements ServerSession
                     copy = new ArrayList<>(size);
                     copy.addAll(_queue);
                     clearQueue();
+                    if (_traces != null && !_traces.isEmpty())
+                        traceDequeue(copy);
                 }
             }
         }
@@ -533,7 +615,8 @@ public class ServerSessionImpl implements ServerSession
         if (_localSession != null && hasNonLazyMessages())
         {
             for (ServerMessage msg : takeQueue())
-                _localSession.receive(new HashMapMessage(msg));
+                _localSession.receive(new FixedFieldsMessage(msg));
+            traceWrite("local");
         }
     }
 
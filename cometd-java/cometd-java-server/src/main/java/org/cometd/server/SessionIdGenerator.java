@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+/**
+ * <p>Generates the ids of {@link ServerSessionImpl server sessions}.</p>
+ * <p>Session ids are sent to clients, that present them back in every message,
+ * so implementations must generate ids that are both unique and unguessable.</p>
+ * <p>Implementations are called concurrently by many threads, for example during
+ * storms of handshakes, and should therefore avoid contention.</p>
+ *
+ * @see BayeuxServerImpl#SESSION_ID_GENERATOR_OPTION
+ * @see DefaultSessionIdGenerator
+ */
+public interface SessionIdGenerator
+{
+    /**
+     * @param idHint the session id hint, or null
+     * @return a new session id
+     */
+    public String newSessionId(String idHint);
+}
@@ -15,11 +15,17 @@
  */
 package org.cometd.server.jmx;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.metrics.MessageTracer;
+import org.cometd.server.metrics.ServerMetrics;
+import org.cometd.server.metrics.TaskMetrics;
 import org.eclipse.jetty.jmx.ObjectMBean;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -57,6 +63,33 @@ public class BayeuxServerImplMBean extends ObjectMBean
         return new TreeSet<>(bayeux.getKnownTransportNames());
     }
 
+    @ManagedAttribute(value = "The metrics statistics of this server", readonly = true)
+    public Map<String, Object> getMetrics()
+    {
+        ServerMetrics metrics = bayeux.getMetrics();
+        if (metrics == null)
+            return Collections.emptyMap();
+        return metrics.getStatistics();
+    }
+
+    @ManagedAttribute(value = "The latency statistics of the messages sampled by this server", readonly = true)
+    public Map<String, Object> getTraces()
+    {
+        MessageTracer tracer = bayeux.getTracer();
+        if (tracer == null)
+            return Collections.emptyMap();
+        return tracer.getStatistics();
+    }
+
+    @ManagedAttribute(value = "The statistics of the thread pools of this server, by name", readonly = true)
+    public Map<String, Object> getTaskMetrics()
+    {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, TaskMetrics> entry : bayeux.getTaskMetrics().entrySet())
+            result.put(entry.getKey(), entry.getValue().getStatistics());
+        return result;
+    }
+
     // Replicated here because ConcurrentMap.KeySet is not serializable
     @ManagedAttribute(value = "The configuration option names", readonly = true)
     public Set<String> getOptionNames()
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * <p>The default {@link ServerMetrics}, based on {@link StripedCounter}s and {@link Histogram}s.</p>
+ * <p>Publish and delivery counts and sizes are recorded globally and per channel; the per
+ * channel statistics are kept for at most {@link #getMaxChannels()} channels, and the
+ * channels beyond that are accounted together under {@link #OTHER_CHANNELS}.</p>
+ * <p>Message sizes are the lengths of the JSON representation of the messages.</p>
+ */
+@ManagedObject("CometD server metrics")
+public class DefaultServerMetrics implements ServerMetrics
+{
+    public static final String OTHER_CHANNELS = "*";
+
+    private final ConcurrentMap<String, ChannelMetrics> _channels = new ConcurrentHashMap<>();
+    private final StripedCounter _publishes = new StripedCounter();
+    private final StripedCounter _deliveries = new StripedCounter();
+    private final StripedCounter _publishBytes = new StripedCounter();
+    private final StripedCounter _deliveryBytes = new StripedCounter();
+    private final StripedCounter _drops = new StripedCounter();
+    private final Histogram _fanOut = new Histogram();
+    private final Histogram _queueSize = new Histogram();
+    private final Histogram _extensionTime = new Histogram();
+    private final Histogram _listenerTime = new Histogram();
+    private final Histogram _writeSize = new Histogram();
+    private final int _maxChannels;
+
+    public DefaultServerMetrics()
+    {
+        this(1024);
+    }
+
+    /**
+     * @param maxChannels the max number of channels to keep statistics for
+     */
+    public DefaultServerMetrics(int maxChannels)
+    {
+        _maxChannels = maxChannels;
+    }
+
+    @ManagedAttribute(value = "The max number of channels to keep statistics for", readonly = true)
+    public int getMaxChannels()
+    {
+        return _maxChannels;
+    }
+
+    public void onPublish(ServerChannel channel, ServerMessage message, int subscribers)
+    {
+        int size = message.getJSON().length();
+        _publishes.increment();
+        _publishBytes.add(size);
+        _deliveries.add(subscribers);
+        _deliveryBytes.add((long)size * subscribers);
+        _fanOut.record(subscribers);
+        channelMetrics(channel.getId()).update(size, subscribers);
+    }
+
+    public void onQueue(ServerSession session, int size)
+    {
+        _queueSize.record(size);
+    }
+
+    public void onDrop(ServerSession session, ServerMessage message)
+    {
+        _drops.increment();
+    }
+
+    public void onExtensions(long nanos)
+    {
+        _extensionTime.record(nanos);
+    }
+
+    public void onListeners(ServerChannel channel, long nanos)
+    {
+        _listenerTime.record(nanos);
+    }
+
+    public void onWrite(String transport, int size)
+    {
+        _writeSize.record(size);
+    }
+
+    @ManagedAttribute(value = "The number of messages published", readonly = true)
+    public long getPublishCount()
+    {
+        return _publishes.get();
+    }
+
+    @ManagedAttribute(value = "The number of messages delivered to sessions", readonly = true)
+    public long getDeliveryCount()
+    {
+        return _deliveries.get();
+    }
+
+    @ManagedAttribute(value = "The size of the messages published", readonly = true)
+    public long getPublishBytes()
+    {
+        return _publishBytes.get();
+    }
+
+    @ManagedAttribute(value = "The size of the messages delivered to sessions", readonly = true)
+    public long getDeliveryBytes()
+    {
+        return _deliveryBytes.get();
+    }
+
+    @ManagedAttribute(value = "The number of messages dropped", readonly = true)
+    public long getDropCount()
+    {
+        return _drops.get();
+    }
+
+    public Histogram getFanOutHistogram()
+    {
+        return _fanOut;
+    }
+
+    public Histogram getQueueSizeHistogram()
+    {
+        return _queueSize;
+    }
+
+    public Histogram getExtensionTimeHistogram()
+    {
+        return _extensionTime;
+    }
+
+    public Histogram getListenerTimeHistogram()
+    {
+        return _listenerTime;
+    }
+
+    public Histogram getWriteSizeHistogram()
+    {
+        return _writeSize;
+    }
+
+    @ManagedAttribute(value = "The statistics", readonly = true)
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("publishes", getPublishCount());
+        result.put("publishBytes", getPublishBytes());
+        result.put("deliveries", getDeliveryCount());
+        result.put("deliveryBytes", getDeliveryBytes());
+        result.put("drops", getDropCount());
+        result.put("fanOut", _fanOut.getSummary());
+        result.put("queueSize", _queueSize.getSummary());
+        result.put("extensionNanos", _extensionTime.getSummary());
+        result.put("listenerNanos", _listenerTime.getSummary());
+        result.put("writeSize", _writeSize.getSummary());
+        Map<String, Object> channels = new TreeMap<>();
+        for (Map.Entry<String, ChannelMetrics> entry : _channels.entrySet())
+            channels.put(entry.getKey(), entry.getValue().getStatistics());
+        result.put("channels", channels);
+        return result;
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        _channels.clear();
+        _publishes.reset();
+        _deliveries.reset();
+        _publishBytes.reset();
+        _deliveryBytes.reset();
+        _drops.reset();
+        _fanOut.reset();
+        _queueSize.reset();
+        _extensionTime.reset();
+        _listenerTime.reset();
+        _writeSize.reset();
+    }
+
+    private ChannelMetrics channelMetrics(String channel)
+    {
+        ChannelMetrics result = _channels.get(channel);
+        if (result != null)
+            return result;
+        if (_channels.size() >= _maxChannels)
+            channel = OTHER_CHANNELS;
+        result = new ChannelMetrics();
+        ChannelMetrics existing = _channels.putIfAbsent(channel, result);
+        return existing == null ? result : existing;
+    }
+
+    private static class ChannelMetrics
+    {
+        // Plain atomics, since there may be many channels and less contention per channel
+        private final AtomicLong publishes = new AtomicLong();
+        private final AtomicLong publishBytes = new AtomicLong();
+        private final AtomicLong deliveries = new AtomicLong();
+        private final AtomicLong deliveryBytes = new AtomicLong();
+
+        private void update(int size, int subscribers)
+        {
+            publishes.incrementAndGet();
+            publishBytes.addAndGet(size);
+            deliveries.addAndGet(subscribers);
+            deliveryBytes.addAndGet((long)size * subscribers);
+        }
+
+        private Map<String, Object> getStatistics()
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("publishes", publishes.get());
+            result.put("publishBytes", publishBytes.get());
+            result.put("deliveries", deliveries.get());
+            result.put("deliveryBytes", deliveryBytes.get());
+            return result;
+        }
+    }
+}
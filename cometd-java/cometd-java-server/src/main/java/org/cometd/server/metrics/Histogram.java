@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A concurrent histogram of non negative long values with a bounded relative error,
+ * in the style of HDR histograms.</p>
+ * <p>Values up to {@code 127} are recorded exactly; larger values are recorded in buckets
+ * that keep their 7 most significant bits, so that the value reported for a percentile
+ * is at most about 1.6% larger than the recorded value.</p>
+ * <p>Recording does not lock and does not allocate.</p>
+ */
+public class Histogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong _max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param value the value to record, negative values are recorded as zero
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+        _counts.incrementAndGet(indexOf(value));
+
+        long min = _min.get();
+        while (value < min && !_min.compareAndSet(min, value))
+            min = _min.get();
+        long max = _max.get();
+        while (value > max && !_max.compareAndSet(max, value))
+            max = _max.get();
+    }
+
+    public long getCount()
+    {
+        long result = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+            result += _counts.get(i);
+        return result;
+    }
+
+    public long getMin()
+    {
+        long min = _min.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    public long getMax()
+    {
+        long max = _max.get();
+        return max == Long.MIN_VALUE ? 0 : max;
+    }
+
+    /**
+     * @return the mean of the recorded values, computed from the bucket midpoints
+     */
+    public double getMean()
+    {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            long bucketCount = _counts.get(i);
+            if (bucketCount > 0)
+            {
+                count += bucketCount;
+                total += bucketCount * ((double)lowestValueAt(i) + highestValueAt(i)) / 2;
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value equivalent to the value at the given percentile
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            counts[i] = _counts.get(i);
+            count += counts[i];
+        }
+        if (count == 0)
+            return 0;
+
+        long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            accumulated += counts[i];
+            if (accumulated >= target)
+                return Math.min(highestValueAt(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+            _counts.set(i, 0);
+        _min.set(Long.MAX_VALUE);
+        _max.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * @return a summary of this histogram with the count, min, max, mean and the
+     * 50th, 90th, 99th and 99.9th percentiles
+     */
+    public Map<String, Object> getSummary()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", getCount());
+        result.put("min", getMin());
+        result.put("max", getMax());
+        result.put("mean", getMean());
+        result.put("p50", getValueAtPercentile(50));
+        result.put("p90", getValueAtPercentile(90));
+        result.put("p99", getValueAtPercentile(99));
+        result.put("p999", getValueAtPercentile(99.9));
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x%s", getClass().getSimpleName(), hashCode(), getSummary());
+    }
+
+    private static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket - HALF_SUB_BUCKETS;
+    }
+
+    private static long lowestValueAt(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return subBucket << shift;
+    }
+
+    private static long highestValueAt(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
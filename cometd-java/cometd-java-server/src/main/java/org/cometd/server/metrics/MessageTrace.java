@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+/**
+ * <p>The timestamps, in nanoseconds, of a message sampled by a {@link MessageTracer}
+ * as it goes through the server.</p>
+ * <p>A message is stamped when it is received, after the channel listeners have been
+ * notified and after it has been frozen; the enqueue, dequeue and write times are
+ * specific to each session the message is delivered to, and are tracked by the sessions.</p>
+ */
+public class MessageTrace
+{
+    private final long _received;
+    private volatile long _listened;
+    private volatile long _frozen;
+
+    public MessageTrace(long received)
+    {
+        _received = received;
+    }
+
+    public long getReceived()
+    {
+        return _received;
+    }
+
+    public long getListened()
+    {
+        return _listened;
+    }
+
+    public void setListened(long listened)
+    {
+        _listened = listened;
+    }
+
+    public long getFrozen()
+    {
+        return _frozen;
+    }
+
+    public void setFrozen(long frozen)
+    {
+        _frozen = frozen;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[received=%d,listened=%d,frozen=%d]", getClass().getSimpleName(), hashCode(), _received, _listened, _frozen);
+    }
+}
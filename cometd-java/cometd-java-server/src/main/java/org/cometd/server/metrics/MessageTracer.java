@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * <p>Records the latency of the {@link Stage}s that sampled messages go through,
+ * from when they are received to when they are written by a transport.</p>
+ * <p>One message every {@link #getSamplePeriod()} messages, on average, is sampled;
+ * messages that are not sampled only cost a random number and a null check per stage.</p>
+ * <p>Latencies are aggregated in {@link Histogram}s per stage and channel, for at most
+ * {@link #getMaxChannels()} channels (the channels beyond that are accounted together
+ * under {@link #OTHER_CHANNELS}), and per stage and transport for the stages that
+ * happen in the transports.</p>
+ */
+@ManagedObject("CometD message latency tracer")
+public class MessageTracer
+{
+    public static final String OTHER_CHANNELS = "*";
+
+    /**
+     * <p>The stages of a message, each measured from the end of the previous stage.</p>
+     */
+    public enum Stage
+    {
+        /**
+         * <p>From when the message is received to when the channel listeners have been notified.</p>
+         */
+        LISTENERS("listeners"),
+        /**
+         * <p>The conversion of the message to JSON.</p>
+         */
+        FREEZE("freeze"),
+        /**
+         * <p>From when the message is frozen to when it is queued into a session, including session extensions and listeners.</p>
+         */
+        ENQUEUE("enqueue"),
+        /**
+         * <p>The time the message waits in the session queue, typically for a {@code /meta/connect}.</p>
+         */
+        QUEUE("queue"),
+        /**
+         * <p>From when the message is taken from the session queue to when a transport has written it.</p>
+         */
+        WRITE("write"),
+        /**
+         * <p>From when the message is received to when a transport has written it.</p>
+         */
+        TOTAL("total");
+
+        private final String name;
+
+        private Stage(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final ConcurrentMap<String, AtomicReferenceArray<Histogram>> _channels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicReferenceArray<Histogram>> _transports = new ConcurrentHashMap<>();
+    private final int _samplePeriod;
+    private final int _maxChannels;
+
+    /**
+     * @param samplePeriod the average number of messages per sampled message
+     */
+    public MessageTracer(int samplePeriod)
+    {
+        this(samplePeriod, 64);
+    }
+
+    /**
+     * @param samplePeriod the average number of messages per sampled message
+     * @param maxChannels the max number of channels to keep histograms for
+     */
+    public MessageTracer(int samplePeriod, int maxChannels)
+    {
+        if (samplePeriod <= 0)
+            throw new IllegalArgumentException("Invalid sample period " + samplePeriod);
+        _samplePeriod = samplePeriod;
+        _maxChannels = maxChannels;
+    }
+
+    @ManagedAttribute(value = "The average number of messages per sampled message", readonly = true)
+    public int getSamplePeriod()
+    {
+        return _samplePeriod;
+    }
+
+    @ManagedAttribute(value = "The max number of channels to keep histograms for", readonly = true)
+    public int getMaxChannels()
+    {
+        return _maxChannels;
+    }
+
+    /**
+     * @return a new {@link MessageTrace} stamped with the current time if the message
+     * being received is sampled, null otherwise
+     */
+    public MessageTrace sample()
+    {
+        if (_samplePeriod > 1 && ThreadLocalRandom.current().nextInt(_samplePeriod) != 0)
+            return null;
+        return new MessageTrace(System.nanoTime());
+    }
+
+    /**
+     * @param stage the stage to record
+     * @param channel the channel of the message
+     * @param transport the name of the transport that wrote the message, or null
+     * @param nanos the latency of the stage, in nanoseconds
+     */
+    public void record(Stage stage, String channel, String transport, long nanos)
+    {
+        histogram(histograms(_channels, channel, true), stage).record(nanos);
+        if (transport != null)
+            histogram(histograms(_transports, transport, false), stage).record(nanos);
+    }
+
+    /**
+     * @param stage the stage
+     * @param channel the channel
+     * @return the histogram of the given stage for the given channel, or null
+     */
+    public Histogram getChannelHistogram(Stage stage, String channel)
+    {
+        AtomicReferenceArray<Histogram> histograms = _channels.get(channel);
+        return histograms == null ? null : histograms.get(stage.ordinal());
+    }
+
+    /**
+     * @param stage the stage
+     * @param transport the transport name
+     * @return the histogram of the given stage for the given transport, or null
+     */
+    public Histogram getTransportHistogram(Stage stage, String transport)
+    {
+        AtomicReferenceArray<Histogram> histograms = _transports.get(transport);
+        return histograms == null ? null : histograms.get(stage.ordinal());
+    }
+
+    @ManagedAttribute(value = "The latency statistics per channel and per transport", readonly = true)
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("samplePeriod", getSamplePeriod());
+        result.put("channels", summarize(_channels));
+        result.put("transports", summarize(_transports));
+        return result;
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        _channels.clear();
+        _transports.clear();
+    }
+
+    private AtomicReferenceArray<Histogram> histograms(ConcurrentMap<String, AtomicReferenceArray<Histogram>> map, String key, boolean bounded)
+    {
+        AtomicReferenceArray<Histogram> result = map.get(key);
+        if (result != null)
+            return result;
+        if (bounded && map.size() >= _maxChannels)
+            key = OTHER_CHANNELS;
+        result = new AtomicReferenceArray<>(STAGES.length);
+        AtomicReferenceArray<Histogram> existing = map.putIfAbsent(key, result);
+        return existing == null ? result : existing;
+    }
+
+    private Histogram histogram(AtomicReferenceArray<Histogram> histograms, Stage stage)
+    {
+        // Histograms are created lazily, since not all stages apply to all keys
+        int index = stage.ordinal();
+        Histogram result = histograms.get(index);
+        if (result != null)
+            return result;
+        histograms.compareAndSet(index, null, new Histogram());
+        return histograms.get(index);
+    }
+
+    private Map<String, Object> summarize(ConcurrentMap<String, AtomicReferenceArray<Histogram>> map)
+    {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicReferenceArray<Histogram>> entry : map.entrySet())
+        {
+            Map<String, Object> stages = new LinkedHashMap<>();
+            AtomicReferenceArray<Histogram> histograms = entry.getValue();
+            for (Stage stage : STAGES)
+            {
+                Histogram histogram = histograms.get(stage.ordinal());
+                if (histogram != null)
+                    stages.put(stage.getName(), histogram.getSummary());
+            }
+            result.put(entry.getKey(), stages);
+        }
+        return result;
+    }
+}
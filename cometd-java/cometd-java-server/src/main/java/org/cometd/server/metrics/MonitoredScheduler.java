@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+/**
+ * <p>A {@link ScheduledExecutorScheduler} that records its activity in {@link TaskMetrics};
+ * the wait time of a task is the delay with which it runs after it is due.</p>
+ */
+public class MonitoredScheduler extends ScheduledExecutorScheduler
+{
+    private final TaskMetrics _metrics = new TaskMetrics();
+
+    public MonitoredScheduler(String name, boolean daemon)
+    {
+        super(name, daemon);
+    }
+
+    public TaskMetrics getTaskMetrics()
+    {
+        return _metrics;
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        try
+        {
+            return super.schedule(_metrics.wrap(task, unit.toNanos(delay)), delay, unit);
+        }
+        catch (RejectedExecutionException x)
+        {
+            _metrics.onRejected();
+            throw x;
+        }
+    }
+}
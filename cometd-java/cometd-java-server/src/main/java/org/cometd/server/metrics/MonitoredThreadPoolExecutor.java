@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A fixed size {@link ThreadPoolExecutor} that records its activity in {@link TaskMetrics}.</p>
+ */
+public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor
+{
+    private final TaskMetrics _metrics = new TaskMetrics();
+
+    public MonitoredThreadPoolExecutor(int threads)
+    {
+        super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    public TaskMetrics getTaskMetrics()
+    {
+        return _metrics;
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        try
+        {
+            super.execute(_metrics.wrap(task, 0));
+        }
+        catch (RejectedExecutionException x)
+        {
+            _metrics.onRejected();
+            throw x;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.Map;
+
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+
+/**
+ * <p>Records metrics about the activity of a {@link org.cometd.server.BayeuxServerImpl}.</p>
+ * <p>The server calls the methods of this interface on the hot path, concurrently from
+ * many threads, so implementations must be thread safe and cheap; when no metrics are
+ * configured, the server does not measure anything.</p>
+ *
+ * @see org.cometd.server.BayeuxServerImpl#METRICS_OPTION
+ * @see DefaultServerMetrics
+ */
+public interface ServerMetrics
+{
+    /**
+     * <p>Callback invoked when a message has been published to a channel and delivered to its subscribers.</p>
+     *
+     * @param channel the channel the message has been published to
+     * @param message the frozen message
+     * @param subscribers the number of sessions the message has been delivered to
+     */
+    public void onPublish(ServerChannel channel, ServerMessage message, int subscribers);
+
+    /**
+     * <p>Callback invoked when a message has been added to the queue of a session.</p>
+     *
+     * @param session the session
+     * @param size the size of the queue after the message has been added
+     */
+    public void onQueue(ServerSession session, int size);
+
+    /**
+     * <p>Callback invoked when a message has not been delivered to a session, for example
+     * because the session queue was full or because an extension deleted the message.</p>
+     *
+     * @param session the session
+     * @param message the dropped message
+     */
+    public void onDrop(ServerSession session, ServerMessage message);
+
+    /**
+     * @param nanos the time spent invoking the extensions for a message, in nanoseconds
+     */
+    public void onExtensions(long nanos);
+
+    /**
+     * @param channel the channel the message has been published to
+     * @param nanos the time spent invoking the channel listeners for a message, in nanoseconds
+     */
+    public void onListeners(ServerChannel channel, long nanos);
+
+    /**
+     * @param transport the name of the transport
+     * @param size the number of bytes written
+     */
+    public void onWrite(String transport, int size);
+
+    /**
+     * @return a snapshot of the statistics, made of numbers, strings and nested maps
+     */
+    public Map<String, Object> getStatistics();
+
+    /**
+     * <p>Reports the {@link ServerMetrics#getStatistics() statistics} periodically.</p>
+     *
+     * @see org.cometd.server.BayeuxServerImpl#METRICS_REPORTER_OPTION
+     */
+    public interface Reporter
+    {
+        /**
+         * @param statistics the statistics to report
+         */
+        public void report(Map<String, Object> statistics);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A counter that spreads concurrent updates over multiple cells, so that threads
+ * incrementing it concurrently do not contend on a single memory location.</p>
+ * <p>Cells are padded to avoid false sharing; the value of the counter is the sum
+ * of the cells, and is only approximate while updates are in progress.</p>
+ */
+public class StripedCounter
+{
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray _cells;
+    private final int _mask;
+
+    public StripedCounter()
+    {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors())
+            stripes <<= 1;
+        _mask = stripes - 1;
+        _cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public void increment()
+    {
+        add(1);
+    }
+
+    public void add(long delta)
+    {
+        int stripe = (int)Thread.currentThread().getId() & _mask;
+        _cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    public long get()
+    {
+        long result = 0;
+        for (int i = 0; i < _cells.length(); i += PADDING)
+            result += _cells.get(i);
+        return result;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < _cells.length(); i += PADDING)
+            _cells.set(i, 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.valueOf(get());
+    }
+}
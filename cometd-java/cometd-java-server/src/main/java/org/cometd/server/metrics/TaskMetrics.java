@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * <p>Records the activity of a thread pool or of a scheduler: the tasks run, the time
+ * tasks wait before running, the number of tasks running concurrently and the number
+ * of tasks rejected.</p>
+ * <p>A queued task waits from when it is submitted; a scheduled task waits from when
+ * it is due, so that its wait time is the delay with which it runs.
+ * When the wait times grow and the active tasks reach the number of threads, the
+ * thread pool is saturated.</p>
+ *
+ * @see MonitoredThreadPoolExecutor
+ * @see MonitoredQueuedThreadPool
+ * @see MonitoredScheduler
+ */
+@ManagedObject("Thread pool metrics")
+public class TaskMetrics
+{
+    private final StripedCounter _tasks = new StripedCounter();
+    private final StripedCounter _rejections = new StripedCounter();
+    private final AtomicInteger _active = new AtomicInteger();
+    private final AtomicInteger _maxActive = new AtomicInteger();
+    private final Histogram _waitTime = new Histogram();
+
+    /**
+     * @param task the task to run
+     * @param delay the delay after which the task is due, in nanoseconds
+     * @return a task that runs the given task recording its wait time and its execution
+     */
+    public Runnable wrap(final Runnable task, long delay)
+    {
+        final long due = System.nanoTime() + delay;
+        return new Runnable()
+        {
+            public void run()
+            {
+                _waitTime.record(System.nanoTime() - due);
+                _tasks.increment();
+                int active = _active.incrementAndGet();
+                while (true)
+                {
+                    int maxActive = _maxActive.get();
+                    if (active <= maxActive || _maxActive.compareAndSet(maxActive, active))
+                        break;
+                }
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    _active.decrementAndGet();
+                }
+            }
+
+            @Override
+            public String toString()
+            {
+                return task.toString();
+            }
+        };
+    }
+
+    /**
+     * <p>Records that a task has been rejected.</p>
+     */
+    public void onRejected()
+    {
+        _rejections.increment();
+    }
+
+    @ManagedAttribute(value = "The number of tasks run", readonly = true)
+    public long getTaskCount()
+    {
+        return _tasks.get();
+    }
+
+    @ManagedAttribute(value = "The number of tasks rejected", readonly = true)
+    public long getRejectedCount()
+    {
+        return _rejections.get();
+    }
+
+    @ManagedAttribute(value = "The number of tasks running", readonly = true)
+    public int getActiveCount()
+    {
+        return _active.get();
+    }
+
+    @ManagedAttribute(value = "The max number of tasks running concurrently", readonly = true)
+    public int getMaxActiveCount()
+    {
+        return _maxActive.get();
+    }
+
+    /**
+     * @return the histogram of the times tasks waited before running, in nanoseconds
+     */
+    public Histogram getWaitTime()
+    {
+        return _waitTime;
+    }
+
+    @ManagedAttribute(value = "The max time a task waited before running, in milliseconds", readonly = true)
+    public long getMaxWaitTime()
+    {
+        return _waitTime.getCount() == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(_waitTime.getMax());
+    }
+
+    /**
+     * @return a snapshot of the statistics, made of numbers and nested maps
+     */
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("tasks", getTaskCount());
+        result.put("rejections", getRejectedCount());
+        result.put("active", getActiveCount());
+        result.put("maxActive", getMaxActiveCount());
+        result.put("waitNanos", _waitTime.getSummary());
+        return result;
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        _tasks.reset();
+        _rejections.reset();
+        _maxActive.set(_active.get());
+        _waitTime.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x%s", getClass().getSimpleName(), hashCode(), getStatistics());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+
+/**
+ * <p>Asynchronous version of {@link JSONPTransport}.</p>
+ * <p>Callback-polling requests are GETs that carry the messages in request
+ * parameters, so there is no request content to read; the messages are
+ * processed as in {@link AsyncJSONTransport} and the responses, wrapped
+ * in the callback function call, are written asynchronously.</p>
+ */
+public class AsyncJSONPTransport extends AsyncJSONTransport
+{
+    public final static String PREFIX = "long-polling.jsonp";
+    public final static String NAME = "callback-polling";
+    public final static String MIME_TYPE_OPTION = "mimeType";
+    public final static String CALLBACK_PARAMETER_OPTION = "callbackParameter";
+
+    private String _mimeType = "text/javascript;charset=UTF-8";
+    private String _callbackParam = "jsonp";
+
+    public AsyncJSONPTransport(BayeuxServerImpl bayeux)
+    {
+        super(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    protected void init()
+    {
+        super.init();
+        _callbackParam = getOption(CALLBACK_PARAMETER_OPTION, _callbackParam);
+        _mimeType = getOption(MIME_TYPE_OPTION, _mimeType);
+        // This transport must deliver only via /meta/connect
+        setMetaConnectDeliveryOnly(true);
+    }
+
+    @Override
+    protected boolean isBinarySupported()
+    {
+        // JSONP responses are JavaScript
+        return false;
+    }
+
+    @Override
+    public boolean accept(HttpServletRequest request)
+    {
+        return "GET".equals(request.getMethod()) && request.getParameter(getCallbackParameter()) != null;
+    }
+
+    public String getCallbackParameter()
+    {
+        return _callbackParam;
+    }
+
+    @Override
+    public void handle(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        String[] batches = request.getParameterValues(MESSAGE_PARAM);
+        ServerMessage.Mutable[] messages;
+        try
+        {
+            messages = parseMessages(batches);
+            _logger.debug("Parsed {} messages", messages.length);
+        }
+        catch (ParseException x)
+        {
+            handleJSONParseException(request, response, Arrays.toString(batches), x);
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        // Explicitly disable the timeout, we are handling it ourselves
+        asyncContext.setTimeout(0);
+
+        getBayeux().setCurrentTransport(this);
+        setCurrentRequest(request);
+        try
+        {
+            processMessages(asyncContext, messages);
+        }
+        finally
+        {
+            setCurrentRequest(null);
+            getBayeux().setCurrentTransport(null);
+        }
+    }
+
+    @Override
+    protected String getResponseContentType()
+    {
+        return _mimeType;
+    }
+
+    @Override
+    protected void beginResponse(AsyncContext asyncContext, StringBuilder buffer)
+    {
+        String callback = asyncContext.getRequest().getParameter(_callbackParam);
+        buffer.append(callback).append("([");
+    }
+
+    @Override
+    protected void endResponse(AsyncContext asyncContext, StringBuilder buffer)
+    {
+        buffer.append("])");
+    }
+}
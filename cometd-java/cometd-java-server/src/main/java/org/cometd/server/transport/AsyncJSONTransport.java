@@ -15,12 +15,18 @@
  */
 package org.cometd.server.transport;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
@@ -28,7 +34,6 @@ import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
-import javax.servlet.ServletResponse;
 import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,30 +41,110 @@ import javax.servlet.http.HttpServletResponse;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.BinaryContext;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.ServerSessionImpl;
 import org.eclipse.jetty.util.Utf8StringBuilder;
 
+/**
+ * <p>Long-polling transport that uses Servlet 3.1 asynchronous I/O.</p>
+ * <p>Responses are compressed with gzip when the {@link #GZIP_OPTION gzip option}
+ * is enabled, the client accepts the gzip encoding and the response is larger
+ * than the {@link #COMPRESSION_THRESHOLD_OPTION compression threshold}.
+ * {@link Deflater}s are pooled and reused across responses.</p>
+ * <p>Requests whose content type is the one of the {@link #getBinaryContext() binary context}
+ * are parsed with the binary context, and their responses are encoded with it.</p>
+ */
 public class AsyncJSONTransport extends HttpTransport
 {
     private final static String PREFIX = "long-polling.json";
     private final static String NAME = "long-polling";
+    public final static String GZIP_OPTION = "gzip";
+    public final static String COMPRESSION_THRESHOLD_OPTION = "compressionThreshold";
+    public final static String COMPRESSION_LEVEL_OPTION = "compressionLevel";
+    private final static byte[] GZIP_HEADER = new byte[]{(byte)0x1F, (byte)0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final BlockingQueue<Deflater> _deflaters = new ArrayBlockingQueue<>(64);
+    private boolean _gzip;
+    private int _compressionThreshold;
+    private int _compressionLevel;
 
     public AsyncJSONTransport(BayeuxServerImpl bayeux)
     {
-        super(bayeux, NAME);
+        this(bayeux, NAME);
         setOptionPrefix(PREFIX);
     }
 
+    protected AsyncJSONTransport(BayeuxServerImpl bayeux, String name)
+    {
+        super(bayeux, name);
+    }
+
+    @Override
+    protected void init()
+    {
+        super.init();
+        _gzip = getOption(GZIP_OPTION, false);
+        _compressionThreshold = getOption(COMPRESSION_THRESHOLD_OPTION, 256);
+        _compressionLevel = getOption(COMPRESSION_LEVEL_OPTION, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    protected void destroy()
+    {
+        Deflater deflater;
+        while ((deflater = _deflaters.poll()) != null)
+            deflater.end();
+        super.destroy();
+    }
+
     @Override
     public boolean accept(HttpServletRequest request)
     {
         return "POST".equalsIgnoreCase(request.getMethod());
     }
 
+    public boolean isGzip()
+    {
+        return _gzip;
+    }
+
+    public int getCompressionThreshold()
+    {
+        return _compressionThreshold;
+    }
+
+    @Override
+    protected boolean isBinarySupported()
+    {
+        return true;
+    }
+
+    /**
+     * @param request the current request
+     * @return whether the request content is encoded with the binary context,
+     * in which case the response is encoded with the binary context as well
+     */
+    protected boolean isBinaryRequest(HttpServletRequest request)
+    {
+        BinaryContext.Server binaryContext = getBinaryContext();
+        if (binaryContext == null || !isBinarySupported())
+            return false;
+        String contentType = request.getContentType();
+        return contentType != null && contentType.startsWith(binaryContext.getContentType());
+    }
+
     @Override
     public void handle(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
     {
+        if (isBinaryRequest(request))
+        {
+            AsyncContext asyncContext = request.startAsync(request, response);
+            asyncContext.setTimeout(0);
+            request.getInputStream().setReadListener(new BinaryReader(asyncContext));
+            return;
+        }
+
         String encoding = request.getCharacterEncoding();
         if (encoding == null)
             encoding = "UTF-8";
@@ -271,10 +356,17 @@ public class AsyncJSONTransport extends HttpTransport
             }
 
             // Always write asynchronously
-            ServletResponse response = asyncContext.getResponse();
-            response.setContentType("application/json;charset=UTF-8");
+            HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
+            boolean binary = isBinaryRequest((HttpServletRequest)asyncContext.getRequest());
+            response.setContentType(binary ? getBinaryContext().getContentType() : getResponseContentType());
+            boolean compress = isCompressible(asyncContext, messages, replies);
+            if (compress)
+                response.setHeader("Content-Encoding", "gzip");
             ServletOutputStream output = response.getOutputStream();
-            output.setWriteListener(new Writer(asyncContext, session, startInterval, messages, replies));
+            if (binary)
+                output.setWriteListener(new BinaryWriter(asyncContext, session, startInterval, messages, replies, compress));
+            else
+                output.setWriteListener(new Writer(asyncContext, session, startInterval, messages, replies, compress));
         }
         catch (IOException x)
         {
@@ -282,7 +374,143 @@ public class AsyncJSONTransport extends HttpTransport
         }
     }
 
-    private void error(AsyncContext asyncContext, int responseCode)
+    /**
+     * @param asyncContext the context of the current request
+     * @param messages the queued messages to write
+     * @param replies the replies to write
+     * @return whether the response should be compressed with gzip
+     */
+    protected boolean isCompressible(AsyncContext asyncContext, List<ServerMessage> messages, ServerMessage.Mutable[] replies)
+    {
+        if (!isGzip() || !acceptsGzip((HttpServletRequest)asyncContext.getRequest()))
+            return false;
+
+        // The JSON is already generated, so its length is a cheap estimate of the response size
+        int threshold = getCompressionThreshold();
+        int size = 0;
+        for (ServerMessage message : messages)
+        {
+            size += message.getJSON().length();
+            if (size >= threshold)
+                return true;
+        }
+        for (ServerMessage.Mutable reply : replies)
+        {
+            if (reply == null)
+                continue;
+            size += reply.getJSON().length();
+            if (size >= threshold)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean acceptsGzip(HttpServletRequest request)
+    {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null)
+            return false;
+        for (String encoding : acceptEncoding.split(","))
+        {
+            String[] parts = encoding.split(";");
+            if (!"gzip".equalsIgnoreCase(parts[0].trim()))
+                continue;
+            for (int i = 1; i < parts.length; ++i)
+            {
+                String param = parts[i].trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        return Float.parseFloat(param.substring(2)) > 0;
+                    }
+                    catch (NumberFormatException x)
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * <p>Compresses the given content in the gzip format, using a pooled {@link Deflater}.</p>
+     *
+     * @param content the content to compress
+     * @return the compressed content
+     */
+    protected byte[] gzip(byte[] content)
+    {
+        Deflater deflater = _deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(_compressionLevel, true);
+        try
+        {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(GZIP_HEADER.length + content.length / 2 + 8);
+            output.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] chunk = new byte[Math.min(Math.max(content.length, 64), 8192)];
+            while (!deflater.finished())
+            {
+                int length = deflater.deflate(chunk);
+                output.write(chunk, 0, length);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length);
+            writeIntLE(output, (int)crc.getValue());
+            writeIntLE(output, content.length);
+            return output.toByteArray();
+        }
+        finally
+        {
+            deflater.reset();
+            if (!_deflaters.offer(deflater))
+                deflater.end();
+        }
+    }
+
+    private void writeIntLE(ByteArrayOutputStream output, int value)
+    {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+        output.write((value >>> 16) & 0xFF);
+        output.write((value >>> 24) & 0xFF);
+    }
+
+    /**
+     * @return the content type of the responses written by {@link Writer}
+     */
+    protected String getResponseContentType()
+    {
+        return "application/json;charset=UTF-8";
+    }
+
+    /**
+     * <p>Appends to the given buffer the content that precedes the messages in a response.</p>
+     *
+     * @param asyncContext the context of the current request
+     * @param buffer the buffer to append to
+     */
+    protected void beginResponse(AsyncContext asyncContext, StringBuilder buffer)
+    {
+        buffer.append("[");
+    }
+
+    /**
+     * <p>Appends to the given buffer the content that follows the messages in a response.</p>
+     *
+     * @param asyncContext the context of the current request
+     * @param buffer the buffer to append to
+     */
+    protected void endResponse(AsyncContext asyncContext, StringBuilder buffer)
+    {
+        buffer.append("]");
+    }
+
+    protected void error(AsyncContext asyncContext, int responseCode)
     {
         try
         {
@@ -438,6 +666,132 @@ public class AsyncJSONTransport extends HttpTransport
         }
     }
 
+    /**
+     * <p>Reads request content encoded with the {@link #getBinaryContext() binary context}.</p>
+     */
+    protected class BinaryReader implements ReadListener
+    {
+        private final byte[] buffer = new byte[512];
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream(512);
+        private final AsyncContext asyncContext;
+
+        protected BinaryReader(AsyncContext asyncContext)
+        {
+            this.asyncContext = asyncContext;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException
+        {
+            ServletInputStream input = asyncContext.getRequest().getInputStream();
+            while (input.isReady())
+            {
+                int read = input.read(buffer);
+                _logger.debug("Asynchronous read {} bytes from {}", read, input);
+                if (read > 0)
+                    content.write(buffer, 0, read);
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException
+        {
+            byte[] bytes = content.toByteArray();
+            _logger.debug("Asynchronous read end, {} bytes", bytes.length);
+            getBayeux().setCurrentTransport(AsyncJSONTransport.this);
+            setCurrentRequest((HttpServletRequest)asyncContext.getRequest());
+            try
+            {
+                ServerMessage.Mutable[] messages = parseMessages(bytes, 0, bytes.length);
+                _logger.debug("Parsed {} messages", messages.length);
+                processMessages(asyncContext, messages);
+            }
+            catch (ParseException x)
+            {
+                handleJSONParseException((HttpServletRequest)asyncContext.getRequest(),
+                        (HttpServletResponse)asyncContext.getResponse(), bytes.length + " bytes of " + getBinaryContext().getEncoding(), x);
+                asyncContext.complete();
+            }
+            finally
+            {
+                setCurrentRequest(null);
+                getBayeux().setCurrentTransport(null);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * <p>Writes responses encoded with the {@link #getBinaryContext() binary context}.</p>
+     * <p>The messages and replies are encoded in a single array, reusing
+     * the cached encoding of frozen messages, and written at once.</p>
+     */
+    protected class BinaryWriter implements WriteListener
+    {
+        private final AsyncContext asyncContext;
+        private final ServerSessionImpl session;
+        private final boolean startInterval;
+        private final List<ServerMessage> messages;
+        private final ServerMessage.Mutable[] replies;
+        private final boolean compress;
+        private boolean written;
+
+        public BinaryWriter(AsyncContext asyncContext, ServerSessionImpl session, boolean startInterval, List<ServerMessage> messages, ServerMessage.Mutable[] replies, boolean compress)
+        {
+            this.asyncContext = asyncContext;
+            this.session = session;
+            this.startInterval = startInterval;
+            this.messages = messages;
+            this.replies = replies;
+            this.compress = compress;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException
+        {
+            if (!written)
+            {
+                written = true;
+
+                _logger.debug("Messages to write for session {}: {}", session, messages.size());
+                List<ServerMessage> content = new ArrayList<>(messages.size() + replies.length);
+                content.addAll(messages);
+
+                if (startInterval && session != null && session.isConnected())
+                    session.startIntervalTimeout(getInterval());
+
+                _logger.debug("Replies to write for session {}: {}", session, replies.length);
+                for (ServerMessage.Mutable reply : replies)
+                {
+                    if (reply != null)
+                        content.add(reply);
+                }
+
+                byte[] bytes = generateBinary(content);
+                if (compress)
+                    bytes = gzip(bytes);
+                recordWrite(session, bytes.length);
+                ServletOutputStream output = asyncContext.getResponse().getOutputStream();
+                output.write(bytes);
+                if (!output.isReady())
+                    return;
+            }
+
+            asyncContext.complete();
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
     protected class Writer implements WriteListener
     {
         private final StringBuilder buffer = new StringBuilder(512);
@@ -446,16 +800,25 @@ public class AsyncJSONTransport extends HttpTransport
         private final boolean startInterval;
         private final List<ServerMessage> messages;
         private final ServerMessage.Mutable[] replies;
+        private final boolean compress;
         private int messageIndex = -1;
         private int replyIndex;
+        private boolean ended;
+        private int written;
 
         public Writer(AsyncContext asyncContext, ServerSessionImpl session, boolean startInterval, List<ServerMessage> messages, ServerMessage.Mutable[] replies)
+        {
+            this(asyncContext, session, startInterval, messages, replies, false);
+        }
+
+        public Writer(AsyncContext asyncContext, ServerSessionImpl session, boolean startInterval, List<ServerMessage> messages, ServerMessage.Mutable[] replies, boolean compress)
         {
             this.asyncContext = asyncContext;
             this.session = session;
             this.startInterval = startInterval;
             this.messages = messages;
             this.replies = replies;
+            this.compress = compress;
         }
 
         @Override
@@ -465,7 +828,7 @@ public class AsyncJSONTransport extends HttpTransport
             if (messageIndex < 0)
             {
                 messageIndex = 0;
-                buffer.append("[");
+                beginResponse(asyncContext, buffer);
             }
 
             _logger.debug("Messages to write for session {}: {}", session, messages.size());
@@ -475,9 +838,7 @@ public class AsyncJSONTransport extends HttpTransport
                     buffer.append(",");
 
                 buffer.append(messages.get(messageIndex++).getJSON());
-                output.write(buffer.toString().getBytes("UTF-8"));
-                buffer.setLength(0);
-                if (!output.isReady())
+                if (!write(output))
                     return;
             }
 
@@ -499,17 +860,52 @@ public class AsyncJSONTransport extends HttpTransport
                 buffer.append(reply.getJSON());
 
                 if (replyIndex == replies.length)
-                    buffer.append("]");
+                {
+                    ended = true;
+                    endResponse(asyncContext, buffer);
+                }
 
-                output.write(buffer.toString().getBytes("UTF-8"));
+                if (!write(output))
+                    return;
+            }
+
+            if (!ended)
+            {
+                // The last reply was null, or there were no replies
+                ended = true;
+                endResponse(asyncContext, buffer);
+                if (!write(output))
+                    return;
+            }
+
+            if (compress && buffer.length() > 0)
+            {
+                // The whole response has been buffered, compress and write it
+                byte[] content = gzip(buffer.toString().getBytes("UTF-8"));
                 buffer.setLength(0);
+                written += content.length;
+                output.write(content);
                 if (!output.isReady())
                     return;
             }
 
+            // Record the whole response as a single write
+            recordWrite(session, written);
             asyncContext.complete();
         }
 
+        private boolean write(ServletOutputStream output) throws IOException
+        {
+            // Compressed responses are buffered and written at the end
+            if (compress)
+                return true;
+            byte[] content = buffer.toString().getBytes("UTF-8");
+            buffer.setLength(0);
+            written += content.length;
+            output.write(content);
+            return output.isReady();
+        }
+
         @Override
         public void onError(Throwable throwable)
         {
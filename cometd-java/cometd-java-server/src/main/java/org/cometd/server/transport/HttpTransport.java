@@ -18,6 +18,8 @@ package org.cometd.server.transport;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.Principal;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -221,6 +223,24 @@ public abstract class HttpTransport extends AbstractServerTransport
         }
     }
 
+    protected ServerMessage.Mutable[] parseMessages(String[] requestParameters) throws IOException, ParseException
+    {
+        if (requestParameters == null || requestParameters.length == 0)
+            throw new IOException("Missing '" + MESSAGE_PARAM + "' request parameter");
+
+        if (requestParameters.length == 1)
+            return parseMessages(requestParameters[0]);
+
+        List<ServerMessage.Mutable> messages = new ArrayList<>();
+        for (String batch : requestParameters)
+        {
+            if (batch == null)
+                continue;
+            messages.addAll(Arrays.asList(parseMessages(batch)));
+        }
+        return messages.toArray(new ServerMessage.Mutable[messages.size()]);
+    }
+
     protected ServerMessage.Mutable bayeuxServerHandle(ServerSessionImpl session, ServerMessage.Mutable message)
     {
         return getBayeux().handle(session, message);
@@ -88,7 +88,7 @@ public class JSONPTransport extends LongPollingTransport
             response.setContentType(_mimeType);
 
             String callback = request.getParameter(_callbackParam);
-            writer = response.getWriter();
+            writer = new CountingWriter(response.getWriter());
             writer.append(callback);
             writer.append("([");
         }
@@ -103,5 +103,6 @@ public class JSONPTransport extends LongPollingTransport
     {
         writer.append("])");
         writer.close();
+        recordWrite(session, writer);
     }
 }
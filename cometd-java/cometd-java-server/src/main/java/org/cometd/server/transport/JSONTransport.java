@@ -81,7 +81,7 @@ public class JSONTransport extends LongPollingTransport
         if (writer == null)
         {
             response.setContentType(_mimeType);
-            writer = response.getWriter();
+            writer = new CountingWriter(response.getWriter());
             writer.append('[');
         }
         else
@@ -97,5 +97,6 @@ public class JSONTransport extends LongPollingTransport
     {
         writer.append("]");
         writer.close();
+        recordWrite(session, writer);
     }
 }
@@ -17,9 +17,8 @@ package org.cometd.server.transport;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import javax.servlet.AsyncContext;
@@ -334,24 +333,6 @@ public abstract class LongPollingTransport extends HttpTransport
         return writer;
     }
 
-    protected ServerMessage.Mutable[] parseMessages(String[] requestParameters) throws IOException, ParseException
-    {
-        if (requestParameters == null || requestParameters.length == 0)
-            throw new IOException("Missing '" + MESSAGE_PARAM + "' request parameter");
-
-        if (requestParameters.length == 1)
-            return parseMessages(requestParameters[0]);
-
-        List<ServerMessage.Mutable> messages = new ArrayList<>();
-        for (String batch : requestParameters)
-        {
-            if (batch == null)
-                continue;
-            messages.addAll(Arrays.asList(parseMessages(batch)));
-        }
-        return messages.toArray(new ServerMessage.Mutable[messages.size()]);
-    }
-
     protected abstract ServerMessage.Mutable[] parseMessages(HttpServletRequest request) throws IOException, ParseException;
 
     /**
@@ -363,6 +344,61 @@ public abstract class LongPollingTransport extends HttpTransport
 
     protected abstract void finishWrite(PrintWriter writer, ServerSessionImpl session) throws IOException;
 
+    /**
+     * <p>Records the size of a complete response, if it has been written with a {@link CountingWriter}.</p>
+     *
+     * @param session the session the response is for, or null
+     * @param writer the writer of the response
+     */
+    protected void recordWrite(ServerSessionImpl session, PrintWriter writer)
+    {
+        if (writer instanceof CountingWriter)
+            recordWrite(session, ((CountingWriter)writer).getCount());
+    }
+
+    /**
+     * <p>A {@link PrintWriter} that counts the UTF-8 bytes of the characters written, so that
+     * the size of a response made of several messages can be recorded once when the response
+     * is complete.</p>
+     */
+    protected static class CountingWriter extends PrintWriter
+    {
+        private int _count;
+
+        public CountingWriter(Writer writer)
+        {
+            super(writer);
+        }
+
+        public int getCount()
+        {
+            return _count;
+        }
+
+        @Override
+        public void write(int c)
+        {
+            _count += utf8Length((char)c);
+            super.write(c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length)
+        {
+            for (int i = 0; i < length; ++i)
+                _count += utf8Length(chars[offset + i]);
+            super.write(chars, offset, length);
+        }
+
+        @Override
+        public void write(String string, int offset, int length)
+        {
+            for (int i = 0; i < length; ++i)
+                _count += utf8Length(string.charAt(offset + i));
+            super.write(string, offset, length);
+        }
+    }
+
     protected class LongPollScheduler implements AbstractServerTransport.OneTimeScheduler, AsyncListener
     {
         private static final String ATTRIBUTE = "org.cometd.scheduler";
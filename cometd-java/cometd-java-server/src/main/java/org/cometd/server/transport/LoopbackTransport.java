@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.BayeuxContext;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.LoopbackConnector;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>A server transport for clients living in the same JVM.</p>
+ * <p>Clients {@link #connect(LoopbackConnector.Endpoint) connect} to this transport
+ * and exchange JSON content through in-memory queues, with no sockets involved.
+ * Apart from that, messages are processed like they are by the WebSocket transport:
+ * {@code /meta/connect} messages are held, and the session queue is flushed by a
+ * {@link AbstractServerTransport.Scheduler} when messages are delivered to the session,
+ * so that the costs of CometD itself can be measured and profiled in isolation.</p>
+ * <p>Incoming content is processed in order by a thread of the {@link #getExecutor() executor},
+ * and outgoing content is written by a thread of the executor.</p>
+ */
+public class LoopbackTransport extends AbstractServerTransport implements LoopbackConnector
+{
+    public static final String PREFIX = "loopback";
+    public static final String NAME = "loopback";
+    public static final String THREAD_POOL_MAX_SIZE_OPTION = "threadPoolMaxSize";
+
+    private final Set<LoopbackScheduler> _connections = Collections.newSetFromMap(new ConcurrentHashMap<LoopbackScheduler, Boolean>());
+    private Executor _executor;
+    private ScheduledExecutorService _scheduler;
+    private volatile boolean _active;
+
+    public LoopbackTransport(BayeuxServerImpl bayeux)
+    {
+        super(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    protected void init()
+    {
+        super.init();
+        _executor = newExecutor();
+        _scheduler = newScheduledExecutor();
+        _active = true;
+    }
+
+    @Override
+    protected void destroy()
+    {
+        _active = false;
+        for (LoopbackScheduler connection : new ArrayList<>(_connections))
+            connection.close("Shutdown");
+
+        _scheduler.shutdownNow();
+
+        Executor executor = _executor;
+        if (executor instanceof ExecutorService)
+            ((ExecutorService)executor).shutdown();
+
+        super.destroy();
+    }
+
+    protected Executor newExecutor()
+    {
+        int size = getOption(THREAD_POOL_MAX_SIZE_OPTION, Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(size);
+    }
+
+    protected ScheduledExecutorService newScheduledExecutor()
+    {
+        return Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public Executor getExecutor()
+    {
+        return _executor;
+    }
+
+    public ScheduledExecutorService getScheduler()
+    {
+        return _scheduler;
+    }
+
+    /**
+     * @return null, since loopback clients carry no request context
+     */
+    public BayeuxContext getContext()
+    {
+        return null;
+    }
+
+    public Endpoint connect(Endpoint client)
+    {
+        if (!_active)
+            throw new IllegalStateException("Transport " + getName() + " is not active");
+        LoopbackScheduler connection = new LoopbackScheduler(client);
+        _connections.add(connection);
+        return connection;
+    }
+
+    protected void handleException(ServerSessionImpl session, Throwable failure)
+    {
+        _logger.warn("", failure);
+    }
+
+    private void write(Endpoint client, ServerSessionImpl session, String content)
+    {
+        client.receive(content);
+        recordWrite(session, utf8Length(content));
+    }
+
+    private class LoopbackScheduler extends QueuedEndpoint implements AbstractServerTransport.Scheduler, Runnable
+    {
+        private final AtomicBoolean _scheduling = new AtomicBoolean();
+        private final Endpoint _client;
+        private volatile ServerSessionImpl _session;
+        private ServerMessage.Mutable _connectReply;
+        private ScheduledFuture<?> _connectTask;
+
+        private LoopbackScheduler(Endpoint client)
+        {
+            super(_executor);
+            _client = client;
+        }
+
+        @Override
+        protected void onContent(String content)
+        {
+            ServerMessage.Mutable[] messages;
+            try
+            {
+                messages = parseMessages(content);
+            }
+            catch (ParseException x)
+            {
+                _logger.warn("Error parsing JSON: " + content, x);
+                return;
+            }
+
+            getBayeux().setCurrentTransport(LoopbackTransport.this);
+            try
+            {
+                for (ServerMessage.Mutable message : messages)
+                    onMessage(message);
+            }
+            catch (Exception x)
+            {
+                handleException(_session, x);
+            }
+            finally
+            {
+                getBayeux().setCurrentTransport(null);
+            }
+        }
+
+        private void onMessage(ServerMessage.Mutable message)
+        {
+            boolean connect = Channel.META_CONNECT.equals(message.getChannel());
+
+            ServerSessionImpl session = _session;
+            String clientId = message.getClientId();
+            if (session == null || !session.getId().equals(clientId))
+                _session = session = (ServerSessionImpl)getBayeux().getSession(clientId);
+
+            // Session expired concurrently ?
+            if (session != null && !session.isHandshook())
+                _session = session = null;
+
+            boolean wasConnected = session != null && session.isConnected();
+
+            ServerMessage.Mutable reply = getBayeux().handle(session, message);
+            if (reply == null)
+                return;
+
+            if (session == null)
+            {
+                session = (ServerSessionImpl)getBayeux().getSession(reply.getClientId());
+                if (session != null)
+                    session.setScheduler(this);
+            }
+
+            List<ServerMessage> queue = null;
+            if (connect && reply.isSuccessful() && session != null && session.isConnected())
+            {
+                session.setScheduler(this);
+
+                boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly();
+                if (session.hasNonLazyMessages() && metaConnectDelivery)
+                {
+                    queue = session.takeQueue();
+                }
+                else
+                {
+                    long timeout = session.calculateTimeout(getTimeout());
+                    if (timeout > 0 && wasConnected)
+                    {
+                        // Decide atomically whether to hold the meta connect,
+                        // since schedule() decides atomically whether to reply to it
+                        synchronized (session.getLock())
+                        {
+                            if (!session.hasNonLazyMessages())
+                            {
+                                cancelMetaConnectTask(session);
+                                _connectReply = reply;
+                                _connectTask = _scheduler.schedule(new MetaConnectReplyTask(reply), timeout, TimeUnit.MILLISECONDS);
+                                reply = null;
+                            }
+                        }
+                        if (reply != null)
+                            queue = session.takeQueue();
+                    }
+                }
+            }
+
+            if (reply != null)
+            {
+                try
+                {
+                    if (queue != null)
+                        send(session, queue);
+                }
+                finally
+                {
+                    if (connect && session != null)
+                    {
+                        if (session.isConnected())
+                            session.startIntervalTimeout(getInterval());
+                        else if (session.isDisconnected())
+                            reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+                    }
+                }
+
+                reply = getBayeux().extendReply(session, session, reply);
+                if (reply != null)
+                {
+                    getBayeux().freeze(reply);
+                    write(_client, session, "[" + reply.getJSON() + "]");
+                }
+            }
+        }
+
+        private void send(ServerSessionImpl session, List<ServerMessage> messages)
+        {
+            if (messages.isEmpty())
+                return;
+
+            StringBuilder builder = new StringBuilder(messages.size() * 4 * 32);
+            builder.append("[");
+            for (int i = 0; i < messages.size(); ++i)
+            {
+                if (i > 0)
+                    builder.append(",");
+                builder.append(messages.get(i).getJSON());
+            }
+            builder.append("]");
+            write(_client, session, builder.toString());
+        }
+
+        private boolean cancelMetaConnectTask(ServerSessionImpl session)
+        {
+            ScheduledFuture<?> connectTask;
+            synchronized (session.getLock())
+            {
+                connectTask = _connectTask;
+                _connectTask = null;
+            }
+            if (connectTask == null)
+                return false;
+            connectTask.cancel(false);
+            return true;
+        }
+
+        @Override
+        protected void onClose(String reason)
+        {
+            _connections.remove(this);
+            ServerSessionImpl session = _session;
+            if (session != null)
+            {
+                _session = null;
+                session.startIntervalTimeout(getInterval());
+                cancelMetaConnectTask(session);
+            }
+            _client.close(reason);
+        }
+
+        public void cancel()
+        {
+            ServerSessionImpl session = _session;
+            if (session != null)
+            {
+                if (cancelMetaConnectTask(session))
+                    close("Cancel");
+            }
+        }
+
+        public void schedule()
+        {
+            if (_scheduling.compareAndSet(false, true))
+                _executor.execute(this);
+        }
+
+        public void run()
+        {
+            flush(false, null);
+        }
+
+        private void flush(boolean timeout, ServerMessage.Mutable expiredConnectReply)
+        {
+            // This method may be executed concurrently by a thread triggered by
+            // schedule() and by the thread that expires the meta connect.
+
+            boolean reschedule = false;
+            ServerSessionImpl session = _session;
+            try
+            {
+                if (session == null)
+                    return;
+
+                // Decide atomically whether to reply to the meta connect, so that
+                // only one thread replies to it and messages are not reordered
+                boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly();
+                boolean reply = false;
+                ServerMessage.Mutable connectReply;
+                synchronized (session.getLock())
+                {
+                    connectReply = _connectReply;
+
+                    // A new meta connect arrived while expiring the previous one
+                    if (timeout && connectReply != expiredConnectReply)
+                        return;
+
+                    if (connectReply == null)
+                    {
+                        if (metaConnectDelivery)
+                            return;
+                    }
+                    else if (timeout || metaConnectDelivery || !session.isConnected())
+                    {
+                        cancelMetaConnectTask(session);
+                        _connectReply = null;
+                        reply = true;
+                    }
+                }
+
+                reschedule = true;
+                List<ServerMessage> queue = session.takeQueue();
+                try
+                {
+                    send(session, queue);
+                }
+                finally
+                {
+                    if (reply)
+                    {
+                        if (session.isConnected())
+                            session.startIntervalTimeout(getInterval());
+                        else if (session.isDisconnected())
+                            connectReply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+                    }
+                }
+
+                if (reply)
+                {
+                    connectReply = getBayeux().extendReply(session, session, connectReply);
+                    if (connectReply != null)
+                    {
+                        getBayeux().freeze(connectReply);
+                        write(_client, session, "[" + connectReply.getJSON() + "]");
+                    }
+                }
+            }
+            catch (Exception x)
+            {
+                handleException(session, x);
+            }
+            finally
+            {
+                if (!timeout)
+                    _scheduling.compareAndSet(true, false);
+
+                if (reschedule && session.hasNonLazyMessages())
+                    schedule();
+            }
+        }
+
+        private class MetaConnectReplyTask implements Runnable
+        {
+            private final ServerMessage.Mutable _reply;
+
+            private MetaConnectReplyTask(ServerMessage.Mutable reply)
+            {
+                _reply = reply;
+            }
+
+            public void run()
+            {
+                flush(true, _reply);
+            }
+        }
+    }
+}
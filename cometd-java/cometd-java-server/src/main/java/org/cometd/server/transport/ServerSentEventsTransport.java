@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>Server-Sent Events transport.</p>
+ * <p>Messages are sent upstream with POST requests, while the response of the
+ * first {@code /meta/connect} is a {@code text/event-stream} that delivers
+ * messages downstream, see {@link StreamingTransport}.</p>
+ * <p>Every event written to the stream has an id that is the sequence number
+ * of the event within the session. The last events written are retained, so that
+ * when the stream is reopened with a {@code Last-Event-ID} header the events that
+ * the client did not receive are written again before any new message.</p>
+ */
+public class ServerSentEventsTransport extends StreamingTransport
+{
+    public final static String PREFIX = "long-polling.sse";
+    public final static String NAME = "server-sent-events";
+    public final static String MIME_TYPE = "text/event-stream";
+    public final static String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+    public final static String MAX_EVENTS_OPTION = "maxEvents";
+
+    private final ConcurrentMap<String, EventLog> _eventLogs = new ConcurrentHashMap<>();
+    private int _maxEvents;
+
+    public ServerSentEventsTransport(BayeuxServerImpl bayeux)
+    {
+        super(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    protected void init()
+    {
+        super.init();
+        _maxEvents = getOption(MAX_EVENTS_OPTION, 64);
+    }
+
+    @Override
+    protected void destroy()
+    {
+        super.destroy();
+        _eventLogs.clear();
+    }
+
+    @Override
+    public boolean accept(HttpServletRequest request)
+    {
+        if (!"POST".equalsIgnoreCase(request.getMethod()))
+            return false;
+        String accept = request.getHeader("Accept");
+        return accept != null && accept.contains(MIME_TYPE);
+    }
+
+    @Override
+    protected String getContentType()
+    {
+        return MIME_TYPE + ";charset=UTF-8";
+    }
+
+    @Override
+    protected FrameWriter newFrameWriter(AsyncContext asyncContext) throws IOException
+    {
+        return new EventWriter(asyncContext);
+    }
+
+    @Override
+    protected StreamingScheduler newStreamingScheduler(AsyncContext asyncContext, ServerSessionImpl session) throws IOException
+    {
+        return new EventScheduler(asyncContext, session, getEventLog(session));
+    }
+
+    private EventLog getEventLog(ServerSessionImpl session)
+    {
+        EventLog eventLog = _eventLogs.get(session.getId());
+        if (eventLog == null)
+        {
+            eventLog = new EventLog(_maxEvents);
+            EventLog existing = _eventLogs.putIfAbsent(session.getId(), eventLog);
+            if (existing != null)
+                return existing;
+            session.addListener(new ServerSession.RemoveListener()
+            {
+                public void removed(ServerSession session, boolean timeout)
+                {
+                    _eventLogs.remove(session.getId());
+                }
+            });
+        }
+        return eventLog;
+    }
+
+    private static String toEvent(long id, StringBuilder messages)
+    {
+        StringBuilder event = new StringBuilder(messages.length() + 32);
+        if (id > 0)
+            event.append("id: ").append(id).append("\n");
+        // Generated JSON does not normally contain new lines,
+        // but if it does they must be split into data lines
+        int start = 0;
+        while (true)
+        {
+            int newLine = messages.indexOf("\n", start);
+            event.append("data: ");
+            if (newLine < 0)
+            {
+                event.append(messages, start, messages.length()).append("\n");
+                break;
+            }
+            event.append(messages, start, newLine).append("\n");
+            start = newLine + 1;
+        }
+        return event.append("\n").toString();
+    }
+
+    /**
+     * <p>Writes replies that are not written to the stream as events without id.</p>
+     */
+    protected class EventWriter extends FrameWriter
+    {
+        protected EventWriter(AsyncContext asyncContext) throws IOException
+        {
+            super(asyncContext);
+        }
+
+        @Override
+        protected String toFrame(StringBuilder messages)
+        {
+            return toEvent(0, messages);
+        }
+    }
+
+    /**
+     * <p>Writes events with ids to the stream and records them in the session event log.</p>
+     */
+    protected class EventScheduler extends StreamingScheduler
+    {
+        private final EventLog _eventLog;
+
+        protected EventScheduler(AsyncContext asyncContext, ServerSessionImpl session, EventLog eventLog) throws IOException
+        {
+            super(asyncContext, session);
+            _eventLog = eventLog;
+        }
+
+        @Override
+        protected void opened()
+        {
+            HttpServletRequest request = (HttpServletRequest)getAsyncContext().getRequest();
+            String lastEventId = request.getHeader(LAST_EVENT_ID_HEADER);
+            if (lastEventId == null)
+                return;
+
+            try
+            {
+                List<String> events = _eventLog.since(Long.parseLong(lastEventId.trim()));
+                _logger.debug("Resuming stream for session {} after event {}, replaying {} events", getSession(), lastEventId, events.size());
+                for (String event : events)
+                    offerFrame(event);
+            }
+            catch (NumberFormatException x)
+            {
+                _logger.debug("Invalid {} header {}", LAST_EVENT_ID_HEADER, lastEventId);
+            }
+        }
+
+        @Override
+        protected String toFrame(StringBuilder messages)
+        {
+            return _eventLog.append(messages);
+        }
+    }
+
+    /**
+     * <p>The last events written to the streams of a session, indexed by event id.</p>
+     */
+    protected static class EventLog
+    {
+        private final Queue<Event> _events = new ArrayDeque<>();
+        private final int _maxEvents;
+        private long _sequence;
+
+        protected EventLog(int maxEvents)
+        {
+            _maxEvents = maxEvents;
+        }
+
+        public synchronized String append(StringBuilder messages)
+        {
+            long id = ++_sequence;
+            String event = toEvent(id, messages);
+            if (_maxEvents > 0)
+            {
+                if (_events.size() == _maxEvents)
+                    _events.poll();
+                _events.offer(new Event(id, event));
+            }
+            return event;
+        }
+
+        /**
+         * @param lastEventId the id of the last event received by the client
+         * @return the retained events following the given event id
+         */
+        public synchronized List<String> since(long lastEventId)
+        {
+            List<String> result = new ArrayList<>();
+            // An id from the future is not from this session
+            if (lastEventId > _sequence)
+                return result;
+            for (Event event : _events)
+            {
+                if (event.id > lastEventId)
+                    result.add(event.content);
+            }
+            return result;
+        }
+    }
+
+    private static class Event
+    {
+        private final long id;
+        private final String content;
+
+        private Event(long id, String content)
+        {
+            this.id = id;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,692 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>HTTP streaming transport that keeps one response open per session and
+ * writes message batches to it as soon as they are available.</p>
+ * <p>Requests for this transport are POSTs that accept {@link #MIME_TYPE} content.
+ * Responses are made of frames, each frame being a JSON array of messages terminated
+ * by a newline; responses to messages other than {@code /meta/connect} contain a
+ * single frame and are completed as in long-polling.</p>
+ * <p>The first {@code /meta/connect} of a session opens the stream: the reply is
+ * written as the first frame and the response is kept open.
+ * Messages queued for the session are written to the stream as they arrive,
+ * without waiting for a {@code /meta/connect}.
+ * Subsequent {@code /meta/connect} messages act as heartbeats: their responses
+ * complete immediately with no frames, while their replies are held and written
+ * to the stream when the timeout expires.</p>
+ */
+public class StreamingTransport extends AsyncJSONTransport
+{
+    public final static String PREFIX = "long-polling.streaming";
+    public final static String NAME = "streaming";
+    public final static String MIME_TYPE = "application/x-ndjson";
+    public final static String STREAM_HEADER = "X-Stream";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ConcurrentMap<String, StreamingScheduler> _streams = new ConcurrentHashMap<>();
+
+    public StreamingTransport(BayeuxServerImpl bayeux)
+    {
+        this(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    protected StreamingTransport(BayeuxServerImpl bayeux, String name)
+    {
+        super(bayeux, name);
+    }
+
+    @Override
+    protected boolean isBinarySupported()
+    {
+        // Frames are always written as text
+        return false;
+    }
+
+    @Override
+    public boolean accept(HttpServletRequest request)
+    {
+        if (!"POST".equalsIgnoreCase(request.getMethod()))
+            return false;
+        String accept = request.getHeader("Accept");
+        return accept != null && accept.contains(MIME_TYPE);
+    }
+
+    @Override
+    protected void destroy()
+    {
+        for (StreamingScheduler stream : _streams.values())
+            stream.close();
+        super.destroy();
+    }
+
+    @Override
+    protected void processMessages(AsyncContext asyncContext, ServerMessage.Mutable[] messages) throws IOException
+    {
+        boolean autoBatch = isAutoBatch();
+        ServerSessionImpl session = null;
+        StreamingScheduler stream = null;
+        boolean batch = false;
+        boolean disconnected = false;
+        try
+        {
+            for (int i = 0; i < messages.length; ++i)
+            {
+                ServerMessage.Mutable message = messages[i];
+                _logger.debug("Processing message {}", message);
+
+                if (session == null && !disconnected)
+                    session = (ServerSessionImpl)getBayeux().getSession(message.getClientId());
+
+                if (session != null)
+                {
+                    disconnected = !session.isHandshook();
+                    if (disconnected)
+                    {
+                        if (batch)
+                        {
+                            batch = false;
+                            session.endBatch();
+                        }
+                        session = null;
+                    }
+                    else
+                    {
+                        if (autoBatch && !batch)
+                        {
+                            batch = true;
+                            session.startBatch();
+                        }
+                    }
+                }
+
+                switch (message.getChannel())
+                {
+                    case Channel.META_HANDSHAKE:
+                    {
+                        ServerMessage.Mutable reply = messages[i] = processReply(session, bayeuxServerHandle(session, message));
+                        if (reply != null)
+                            session = (ServerSessionImpl)getBayeux().getSession(reply.getClientId());
+                        break;
+                    }
+                    case Channel.META_CONNECT:
+                    {
+                        ServerMessage.Mutable reply = bayeuxServerHandle(session, message);
+                        if (session != null && reply != null && reply.isSuccessful())
+                        {
+                            // The reply is written to the stream
+                            messages[i] = null;
+                            StreamingScheduler opened = connectStream(asyncContext, session, reply);
+                            if (opened != null)
+                                stream = opened;
+                        }
+                        else
+                        {
+                            messages[i] = processReply(session, reply);
+                        }
+                        break;
+                    }
+                    default:
+                    {
+                        ServerMessage.Mutable reply = bayeuxServerHandle(session, message);
+                        messages[i] = processReply(session, reply);
+                        break;
+                    }
+                }
+            }
+
+            if (stream == null)
+            {
+                FrameWriter writer = newFrameWriter(asyncContext);
+                writer.offer(messages);
+                writer.close();
+            }
+            else
+            {
+                stream.offer(messages);
+            }
+        }
+        finally
+        {
+            if (batch)
+                session.endBatch();
+        }
+    }
+
+    /**
+     * @param asyncContext the context of the current request
+     * @param session the session sending the {@code /meta/connect}
+     * @param reply the successful {@code /meta/connect} reply
+     * @return the stream opened on the current response, or null if the session already had a stream
+     * @throws IOException if the stream cannot be opened
+     */
+    protected StreamingScheduler connectStream(AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply) throws IOException
+    {
+        StreamingScheduler stream = _streams.get(session.getId());
+        if (stream == null || stream.isClosed() || isStreamRequest(asyncContext))
+        {
+            stream = newStreamingScheduler(asyncContext, session);
+            _streams.put(session.getId(), stream);
+            _logger.debug("Opened stream for session {}", session);
+            stream.opened();
+            stream.deliver(reply);
+            // Setting the scheduler replaces any previous stream and delivers
+            // the messages that may have been queued in the meantime
+            session.setScheduler(stream);
+            return stream;
+        }
+        else
+        {
+            stream.hold(reply, session.calculateTimeout(getTimeout()));
+            return null;
+        }
+    }
+
+    /**
+     * <p>Clients mark the request that opens the stream with the {@link #STREAM_HEADER} header,
+     * so that a stream can be reopened even if the server did not notice that the previous
+     * stream was broken.</p>
+     *
+     * @param asyncContext the context of the current request
+     * @return whether the current request asks to open a new stream
+     */
+    protected boolean isStreamRequest(AsyncContext asyncContext)
+    {
+        HttpServletRequest request = (HttpServletRequest)asyncContext.getRequest();
+        return request.getHeader(STREAM_HEADER) != null;
+    }
+
+    protected FrameWriter newFrameWriter(AsyncContext asyncContext) throws IOException
+    {
+        return new FrameWriter(asyncContext);
+    }
+
+    protected StreamingScheduler newStreamingScheduler(AsyncContext asyncContext, ServerSessionImpl session) throws IOException
+    {
+        return new StreamingScheduler(asyncContext, session);
+    }
+
+    /**
+     * @return the content type of the responses of this transport
+     */
+    protected String getContentType()
+    {
+        return MIME_TYPE + ";charset=UTF-8";
+    }
+
+    /**
+     * <p>Writes frames to a response using asynchronous writes.</p>
+     * <p>Frames may be offered concurrently; they are written in the order they
+     * were offered, and the response is completed after the last frame is
+     * written if the writer has been {@link #close() closed}.</p>
+     */
+    protected class FrameWriter implements WriteListener, AsyncListener
+    {
+        private final Queue<byte[]> _frames = new ArrayDeque<>();
+        private final AsyncContext _asyncContext;
+        private final ServletOutputStream _output;
+        private boolean _flushing;
+        private boolean _dirty;
+        private boolean _closing;
+        private boolean _closed;
+
+        protected FrameWriter(AsyncContext asyncContext) throws IOException
+        {
+            _asyncContext = asyncContext;
+            asyncContext.addListener(this);
+            ServletResponse response = asyncContext.getResponse();
+            response.setContentType(getContentType());
+            _output = response.getOutputStream();
+            _output.setWriteListener(this);
+        }
+
+        public AsyncContext getAsyncContext()
+        {
+            return _asyncContext;
+        }
+
+        /**
+         * @return the session the frames are written for, or null if not known
+         */
+        public ServerSessionImpl getSession()
+        {
+            return null;
+        }
+
+        public boolean isClosed()
+        {
+            synchronized (this)
+            {
+                return _closing;
+            }
+        }
+
+        /**
+         * @param messages the messages to write in a single frame, null elements are skipped
+         */
+        public void offer(ServerMessage... messages)
+        {
+            StringBuilder builder = null;
+            for (ServerMessage message : messages)
+            {
+                if (message == null)
+                    continue;
+                builder = append(builder, message);
+            }
+            if (builder != null)
+                offer(builder);
+        }
+
+        protected StringBuilder append(StringBuilder builder, ServerMessage message)
+        {
+            if (builder == null)
+                builder = new StringBuilder(512).append("[");
+            else
+                builder.append(",");
+            return builder.append(message.getJSON());
+        }
+
+        protected boolean offer(StringBuilder messages)
+        {
+            synchronized (this)
+            {
+                if (_closing)
+                    return false;
+                _frames.offer(toFrame(messages.append("]")).getBytes(UTF8));
+            }
+            flush();
+            return true;
+        }
+
+        /**
+         * <p>Offers a frame that has already been formatted, for example
+         * because it is written again to a new response.</p>
+         *
+         * @param frame the formatted frame
+         * @return whether the frame has been offered
+         */
+        protected boolean offerFrame(String frame)
+        {
+            synchronized (this)
+            {
+                if (_closing)
+                    return false;
+                _frames.offer(frame.getBytes(UTF8));
+            }
+            flush();
+            return true;
+        }
+
+        /**
+         * <p>Formats the given JSON array of messages as a frame.</p>
+         * <p>This method is called with the writer lock held, so frames
+         * are formatted in the same order they are written.</p>
+         *
+         * @param messages the JSON array of messages
+         * @return the formatted frame
+         */
+        protected String toFrame(StringBuilder messages)
+        {
+            return messages.append("\n").toString();
+        }
+
+        public void close()
+        {
+            synchronized (this)
+            {
+                if (_closing)
+                    return;
+                _closing = true;
+            }
+            flush();
+        }
+
+        private void flush()
+        {
+            synchronized (this)
+            {
+                if (_flushing || _closed)
+                    return;
+                _flushing = true;
+            }
+
+            try
+            {
+                while (true)
+                {
+                    byte[] frame;
+                    boolean complete = false;
+                    synchronized (this)
+                    {
+                        if (!_output.isReady())
+                        {
+                            _flushing = false;
+                            return;
+                        }
+
+                        frame = _frames.poll();
+                        if (frame == null)
+                        {
+                            if (_dirty)
+                            {
+                                _dirty = false;
+                            }
+                            else if (_closing)
+                            {
+                                _flushing = false;
+                                _closed = true;
+                                complete = true;
+                            }
+                            else
+                            {
+                                _flushing = false;
+                                return;
+                            }
+                        }
+                        else
+                        {
+                            _dirty = true;
+                        }
+                    }
+
+                    if (complete)
+                    {
+                        _asyncContext.complete();
+                        return;
+                    }
+
+                    if (frame == null)
+                        _output.flush();
+                    else
+                    {
+                        recordWrite(getSession(), frame.length);
+                        _output.write(frame);
+                    }
+                }
+            }
+            catch (Throwable x)
+            {
+                failed(x);
+            }
+        }
+
+        protected void failed(Throwable failure)
+        {
+            _logger.debug("Stream failure", failure);
+            synchronized (this)
+            {
+                _flushing = false;
+                _closing = true;
+                _closed = true;
+                _frames.clear();
+            }
+            error(_asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        protected void closed()
+        {
+        }
+
+        @Override
+        public void onWritePossible() throws IOException
+        {
+            flush();
+        }
+
+        @Override
+        public void onError(Throwable failure)
+        {
+            failed(failure);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException
+        {
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException
+        {
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException
+        {
+            synchronized (this)
+            {
+                _closing = true;
+                _closed = true;
+                _frames.clear();
+            }
+            closed();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException
+        {
+            failed(event.getThrowable());
+        }
+    }
+
+    /**
+     * <p>The scheduler associated to a session that owns an open stream.</p>
+     * <p>Unlike long-polling schedulers, this scheduler stays associated to the
+     * session for the lifetime of the stream, and every {@link #schedule()} writes
+     * the session queue to the stream as a new frame.</p>
+     */
+    protected class StreamingScheduler extends FrameWriter implements AbstractServerTransport.Scheduler
+    {
+        private final ServerSessionImpl _session;
+        private ServerMessage.Mutable _connectReply;
+        private org.eclipse.jetty.util.thread.Scheduler.Task _connectTask;
+
+        protected StreamingScheduler(AsyncContext asyncContext, ServerSessionImpl session) throws IOException
+        {
+            super(asyncContext);
+            _session = session;
+        }
+
+        @Override
+        public ServerSessionImpl getSession()
+        {
+            return _session;
+        }
+
+        /**
+         * <p>Callback invoked when this stream is opened, before the
+         * first {@code /meta/connect} reply is written.</p>
+         */
+        protected void opened()
+        {
+        }
+
+        @Override
+        public void schedule()
+        {
+            ServerMessage.Mutable connectReply = null;
+            if (isMetaConnectDeliveryOnly() || _session.isMetaConnectDeliveryOnly())
+            {
+                // Messages can only be delivered along with a /meta/connect reply
+                connectReply = takeConnectReply(null);
+                if (connectReply == null)
+                    return;
+            }
+            deliver(connectReply);
+        }
+
+        @Override
+        public void cancel()
+        {
+            _logger.debug("Cancelling stream for session {}", _session);
+            close();
+        }
+
+        /**
+         * <p>Writes the session queue followed by the given {@code /meta/connect}
+         * reply, if any, as a single frame to the stream.</p>
+         *
+         * @param connectReply the {@code /meta/connect} reply to write, or null
+         */
+        protected void deliver(ServerMessage.Mutable connectReply)
+        {
+            if (connectReply != null)
+                connectReply = processConnectReply(connectReply);
+
+            synchronized (this)
+            {
+                if (isClosed())
+                    return;
+
+                // Taking the queue and offering the frame must be atomic,
+                // otherwise concurrent schedules may reorder messages
+                StringBuilder frame = null;
+                List<ServerMessage> queue = _session.takeQueue();
+                for (ServerMessage message : queue)
+                    frame = append(frame, message);
+                if (connectReply != null)
+                    frame = append(frame, connectReply);
+                if (frame != null)
+                    offer(frame);
+            }
+
+            // The session has been removed, for example by a /meta/disconnect
+            if (!_session.isHandshook())
+                close();
+        }
+
+        private ServerMessage.Mutable processConnectReply(ServerMessage.Mutable reply)
+        {
+            // Start the interval timeout before writing the reply,
+            // see LongPollingTransport.writeQueueForMetaConnect()
+            if (_session.isConnected())
+                _session.startIntervalTimeout(getInterval());
+            Map<String, Object> advice = _session.takeAdvice(StreamingTransport.this);
+            if (advice != null)
+                reply.put(Message.ADVICE_FIELD, advice);
+            if (_session.isDisconnected())
+                reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+            return processReply(_session, reply);
+        }
+
+        /**
+         * <p>Holds the given heartbeat {@code /meta/connect} reply until the given timeout expires.</p>
+         *
+         * @param reply the {@code /meta/connect} reply to hold
+         * @param timeout the time to hold the reply, in milliseconds
+         */
+        protected void hold(final ServerMessage.Mutable reply, long timeout)
+        {
+            boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || _session.isMetaConnectDeliveryOnly();
+            if (timeout <= 0 || metaConnectDelivery && _session.hasNonLazyMessages())
+            {
+                deliver(reply);
+                return;
+            }
+
+            org.eclipse.jetty.util.thread.Scheduler.Task oldTask;
+            synchronized (this)
+            {
+                oldTask = _connectTask;
+                if (_connectReply != null)
+                    _logger.debug("Cancelled unresponded /meta/connect {}", _connectReply);
+                _connectReply = reply;
+                _connectTask = getBayeux().schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ServerMessage.Mutable connectReply = takeConnectReply(reply);
+                        if (connectReply != null)
+                        {
+                            _logger.debug("Resuming /meta/connect after timeout");
+                            deliver(connectReply);
+                        }
+                    }
+                }, timeout);
+            }
+            if (oldTask != null)
+                oldTask.cancel();
+        }
+
+        private ServerMessage.Mutable takeConnectReply(ServerMessage.Mutable expected)
+        {
+            org.eclipse.jetty.util.thread.Scheduler.Task task;
+            ServerMessage.Mutable reply;
+            synchronized (this)
+            {
+                reply = _connectReply;
+                if (reply == null || expected != null && reply != expected)
+                    return null;
+                task = _connectTask;
+                _connectReply = null;
+                _connectTask = null;
+            }
+            if (expected == null && task != null)
+                task.cancel();
+            return reply;
+        }
+
+        @Override
+        protected void closed()
+        {
+            org.eclipse.jetty.util.thread.Scheduler.Task task;
+            synchronized (this)
+            {
+                task = _connectTask;
+                _connectTask = null;
+                _connectReply = null;
+            }
+            if (task != null)
+                task.cancel();
+
+            _logger.debug("Closed stream for session {}", _session);
+
+            // The stream may have been closed by the network, start the
+            // interval timeout so that the session is swept if the client
+            // does not come back, as it happens when a WebSocket is closed.
+            // Streams replaced by a newer stream must not start it.
+            if (_streams.remove(_session.getId(), this) && _session.isConnected())
+                _session.startIntervalTimeout(getInterval());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelTreeTest
+{
+    private BayeuxServerImpl _bayeux;
+
+    @Before
+    public void init() throws Exception
+    {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testWildChannels() throws Exception
+    {
+        ChannelTree tree = new ChannelTree();
+        for (String name : Arrays.asList("/**", "/a/**", "/a/b/**", "/a/b/*", "/a/*", "/a/b/c/*"))
+            tree.add(new ServerChannelImpl(_bayeux, ChannelId.from(name)));
+
+        ChannelId channelId = ChannelId.from("/a/b/c");
+        ServerChannelImpl[] wilds = tree.getWildChannels(channelId);
+        List<String> names = new ArrayList<>();
+        for (ServerChannelImpl wild : wilds)
+            names.add(wild == null ? null : wild.getId());
+        // Same order as ChannelId.getWilds()
+        Assert.assertEquals(channelId.getWilds(), names);
+
+        Assert.assertEquals(0, tree.getWildChannels(ChannelId.from("/a/*")).length);
+        Assert.assertArrayEquals(new ServerChannelImpl[2], new ChannelTree().getWildChannels(ChannelId.from("/x")));
+    }
+
+    @Test
+    public void testDescendantsAndCount() throws Exception
+    {
+        for (String name : Arrays.asList("/foo", "/foo/bar", "/foo/bar/baz", "/foo/qux", "/other"))
+            _bayeux.createChannelIfAbsent(name);
+
+        Set<String> names = new HashSet<>();
+        for (ServerChannel channel : _bayeux.getDescendantChannels("/foo"))
+            names.add(channel.getId());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("/foo/bar", "/foo/bar/baz", "/foo/qux")), names);
+        Assert.assertEquals(4, _bayeux.getChannelCount("/foo"));
+        Assert.assertEquals(2, _bayeux.getChannelCount("/foo/bar"));
+        Assert.assertEquals(0, _bayeux.getChannelCount("/missing"));
+
+        _bayeux.getChannel("/foo/bar").remove();
+        Assert.assertEquals(3, _bayeux.getChannelCount("/foo"));
+        Assert.assertEquals(1, _bayeux.getChannelCount("/foo/bar"));
+
+        _bayeux.getChannel("/foo/bar/baz").remove();
+        Assert.assertEquals(0, _bayeux.getChannelCount("/foo/bar"));
+        Assert.assertTrue(_bayeux.getDescendantChannels("/foo/bar").isEmpty());
+
+        // Channels can be created again after their nodes have been pruned
+        _bayeux.createChannelIfAbsent("/foo/bar/baz");
+        Assert.assertEquals(1, _bayeux.getChannelCount("/foo/bar"));
+    }
+
+    @Test
+    public void testSweepSubtree() throws Exception
+    {
+        _bayeux.createChannelIfAbsent("/foo/bar");
+        _bayeux.createChannelIfAbsent("/other");
+
+        // Channels are removed after some sweeper passes
+        for (int i = 0; i < 3; ++i)
+            _bayeux.sweepChannels("/foo");
+
+        Assert.assertNull(_bayeux.getChannel("/foo/bar"));
+        Assert.assertNotNull(_bayeux.getChannel("/other"));
+        Assert.assertEquals(0, _bayeux.getChannelCount("/foo"));
+    }
+
+    @Test
+    public void testWildListenersAfterChannelRecreation() throws Exception
+    {
+        final AtomicInteger messages = new AtomicInteger();
+        ServerChannel wild = _bayeux.createChannelIfAbsent("/foo/**").getReference();
+        wild.setPersistent(true);
+        wild.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                messages.incrementAndGet();
+                return true;
+            }
+        });
+
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        channel.publish(null, "data");
+        channel.remove();
+        _bayeux.createChannelIfAbsent("/foo/bar").getReference().publish(null, "data");
+
+        Assert.assertEquals(2, messages.get());
+    }
+
+    @Test
+    public void testConcurrentAddRemove() throws Exception
+    {
+        final ChannelTree tree = new ChannelTree();
+        final int threads = 8;
+        final int iterations = 2000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t)
+        {
+            final int index = t;
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < iterations; ++i)
+                    {
+                        ServerChannelImpl channel = new ServerChannelImpl(_bayeux, ChannelId.from("/a/" + (i % 4) + "/" + index));
+                        tree.add(channel);
+                        tree.remove(channel);
+                    }
+                    tree.add(new ServerChannelImpl(_bayeux, ChannelId.from("/a/" + index)));
+                    latch.countDown();
+                }
+            }.start();
+        }
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(threads, tree.getChannelCount(ChannelId.from("/a")));
+        Assert.assertEquals(threads, tree.getChannels(ChannelId.from("/a"), true).size());
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.DataCodec;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataCodecTest
+{
+    private BayeuxServerImpl _bayeux;
+
+    @Before
+    public void init() throws Exception
+    {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testFreezeEncodesWithCodec() throws Exception
+    {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/point").getReference();
+        channel.setDataCodec(new PointCodec());
+        final AtomicReference<ServerMessage> messageRef = new AtomicReference<>();
+        channel.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                messageRef.set(message);
+                return true;
+            }
+        });
+        LocalSession session = _bayeux.newLocalSession("test");
+        session.handshake();
+        // Subscribe so that the message is frozen for delivery
+        channel.subscribe(session.getServerSession());
+
+        channel.publish(session, new Point(1, 2));
+
+        ServerMessageImpl message = (ServerMessageImpl)messageRef.get();
+        Assert.assertTrue(message.isFrozen());
+        Assert.assertTrue(message.getJSON().contains("\"data\":{\"x\":1,\"y\":2}"));
+        // The message keeps the typed data
+        Assert.assertTrue(message.getData() instanceof Point);
+    }
+
+    @Test
+    public void testBinaryEncodingUsesCodec() throws Exception
+    {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/point").getReference();
+        channel.setDataCodec(new PointCodec());
+        final AtomicReference<ServerMessage> messageRef = new AtomicReference<>();
+        channel.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                messageRef.set(message);
+                return true;
+            }
+        });
+        LocalSession session = _bayeux.newLocalSession("test");
+        session.handshake();
+        channel.subscribe(session.getServerSession());
+
+        channel.publish(session, new Point(1, 2));
+
+        // Encode the message as it is delivered to a CBOR subscriber
+        CBORContextServer context = new CBORContextServer();
+        ServerMessageImpl message = (ServerMessageImpl)messageRef.get();
+        byte[] bytes = message.getEncoded(context);
+
+        ServerMessage.Mutable[] parsed = context.parse(bytes, 0, bytes.length);
+        Assert.assertEquals(1, parsed.length);
+        Map<String, Object> data = parsed[0].getDataAsMap();
+        Assert.assertNotNull(data);
+        Assert.assertEquals(1, ((Number)data.get("x")).intValue());
+        Assert.assertEquals(2, ((Number)data.get("y")).intValue());
+        // The message keeps the typed data
+        Assert.assertTrue(message.getData() instanceof Point);
+    }
+
+    @Test
+    public void testReceivedDataIsDecoded() throws Exception
+    {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/point").getReference();
+        channel.setDataCodec(new PointCodec());
+        final AtomicReference<Object> dataRef = new AtomicReference<>();
+        channel.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                dataRef.set(message.getData());
+                return true;
+            }
+        });
+        LocalSession session = _bayeux.newLocalSession("test");
+        session.handshake();
+
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setChannel(channel.getId());
+        Map<String, Object> data = new HashMap<>();
+        data.put("x", 3L);
+        data.put("y", 4L);
+        message.setData(data);
+        channel.publish(session, message);
+
+        Point point = (Point)dataRef.get();
+        Assert.assertEquals(3, point.x);
+        Assert.assertEquals(4, point.y);
+    }
+
+    @Test
+    public void testChannelWithCodecIsNotSwept() throws Exception
+    {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/point").getReference();
+        channel.setDataCodec(new PointCodec());
+        for (int i = 0; i < 5; ++i)
+            channel.sweep();
+        Assert.assertNotNull(_bayeux.getChannel("/point"));
+
+        channel.setDataCodec(null);
+        for (int i = 0; i < 5; ++i)
+            channel.sweep();
+        Assert.assertNull(_bayeux.getChannel("/point"));
+    }
+
+    private static class Point
+    {
+        private final int x;
+        private final int y;
+
+        private Point(int x, int y)
+        {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static class PointCodec implements DataCodec<Point>
+    {
+        public Class<Point> getDataClass()
+        {
+            return Point.class;
+        }
+
+        public String encode(Point data)
+        {
+            return "{\"x\":" + data.x + ",\"y\":" + data.y + "}";
+        }
+
+        public Point decode(Object data)
+        {
+            Map<?, ?> map = (Map<?, ?>)data;
+            return new Point(((Number)map.get("x")).intValue(), ((Number)map.get("y")).intValue());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.common.JSONContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetaReplyEncoderTest
+{
+    private final MetaReplyEncoder encoder = new MetaReplyEncoder();
+    private final JSONContext.Server jsonContext = new JettyJSONContextServer();
+
+    @Test
+    public void testConnectReply() throws Exception
+    {
+        ServerMessageImpl reply = newConnectReply();
+        String json = encoder.encode(reply);
+        Assert.assertNotNull(json);
+        Assert.assertEquals(reply, jsonContext.parse("[" + json + "]")[0]);
+    }
+
+    @Test
+    public void testConnectReplyWithAdvice() throws Exception
+    {
+        ServerMessageImpl reply = newConnectReply();
+        Map<String, Object> advice = reply.getAdvice(true);
+        advice.put(Message.RECONNECT_FIELD, Message.RECONNECT_RETRY_VALUE);
+        advice.put(Message.INTERVAL_FIELD, 0L);
+        advice.put(Message.TIMEOUT_FIELD, 30000L);
+        String json = encoder.encode(reply);
+        Assert.assertNotNull(json);
+        Assert.assertEquals(reply, jsonContext.parse("[" + json + "]")[0]);
+
+        // The cached advice must not be affected by later modifications
+        advice.put(Message.TIMEOUT_FIELD, 0L);
+        json = encoder.encode(reply);
+        Assert.assertEquals(reply, jsonContext.parse("[" + json + "]")[0]);
+    }
+
+    @Test
+    public void testEscaping() throws Exception
+    {
+        ServerMessageImpl reply = newConnectReply();
+        reply.setId("\"quoted\"\\\n\u0001");
+        String json = encoder.encode(reply);
+        Assert.assertEquals(reply, jsonContext.parse("[" + json + "]")[0]);
+    }
+
+    @Test
+    public void testFallback() throws Exception
+    {
+        ServerMessageImpl reply = newConnectReply();
+        reply.getExt(true).put("ack", 1L);
+        Assert.assertNull(encoder.encode(reply));
+
+        reply = newConnectReply();
+        reply.put(Message.ERROR_FIELD, "402::Unknown client");
+        Assert.assertNull(encoder.encode(reply));
+
+        reply = newConnectReply();
+        reply.getAdvice(true).put("hosts", new String[]{"host"});
+        Assert.assertNull(encoder.encode(reply));
+
+        reply = newConnectReply();
+        reply.setChannel("/foo");
+        Assert.assertNull(encoder.encode(reply));
+    }
+
+    @Test
+    public void testFreezeUsesTemplates() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        try
+        {
+            ServerMessageImpl reply = newConnectReply();
+            bayeux.freeze(reply);
+            Assert.assertEquals(encoder.encode(newConnectReply()), reply.getJSON());
+
+            reply = newConnectReply();
+            reply.getExt(true).put("ack", 1L);
+            bayeux.freeze(reply);
+            Assert.assertEquals(reply, jsonContext.parse("[" + reply.getJSON() + "]")[0]);
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testTemplatesDisabled() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.META_REPLY_TEMPLATES_OPTION, "false");
+        bayeux.start();
+        try
+        {
+            ServerMessageImpl reply = newConnectReply();
+            bayeux.freeze(reply);
+            Assert.assertEquals(jsonContext.generate(newConnectReply()), reply.getJSON());
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testTemplatesDisabledForCustomJSONContext() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(AbstractServerTransport.JSON_CONTEXT_OPTION, new JettyJSONContextServer()
+        {
+        });
+        bayeux.start();
+        try
+        {
+            ServerMessageImpl reply = newConnectReply();
+            bayeux.freeze(reply);
+            Assert.assertEquals(jsonContext.generate(newConnectReply()), reply.getJSON());
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    private ServerMessageImpl newConnectReply()
+    {
+        ServerMessageImpl reply = new ServerMessageImpl();
+        reply.setChannel(Channel.META_CONNECT);
+        reply.setId("42");
+        reply.setClientId("2fp3h3hn9ys0lgfhqvyrw6oe9a");
+        reply.setSuccessful(true);
+        return reply;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.JSONContext;
+import org.cometd.common.JSONLiteral;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreEncodedDataTest
+{
+    private BayeuxServerImpl _bayeux;
+
+    @Before
+    public void init() throws Exception
+    {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testPreEncodedDataIsEmbeddedVerbatim() throws Exception
+    {
+        String json = "{\"price\":1.25,\"symbol\":\"ABC\"}";
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/relay").getReference();
+        final AtomicReference<ServerMessage> messageRef = new AtomicReference<>();
+        channel.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                messageRef.set(message);
+                return true;
+            }
+        });
+        LocalSession session = _bayeux.newLocalSession("test");
+        session.handshake();
+        channel.subscribe(session.getServerSession());
+
+        channel.publish(session, new JSONLiteral(json));
+
+        ServerMessageImpl message = (ServerMessageImpl)messageRef.get();
+        Assert.assertTrue(message.getJSON().contains("\"data\":" + json));
+        // The data is still the literal, since nobody looked at it
+        Assert.assertTrue(message.get(Message.DATA_FIELD) instanceof JSONLiteral);
+
+        // Frozen messages return the parsed data, but keep the literal
+        Map<String, Object> data = message.getDataAsMap();
+        Assert.assertEquals("ABC", data.get("symbol"));
+        Assert.assertTrue(message.get(Message.DATA_FIELD) instanceof JSONLiteral);
+    }
+
+    @Test
+    public void testListenerModifiesPreEncodedData() throws Exception
+    {
+        JSONContext.Server jsonContext = (JSONContext.Server)_bayeux.getOption(AbstractServerTransport.JSON_CONTEXT_OPTION);
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/relay").getReference();
+        final AtomicReference<ServerMessage> messageRef = new AtomicReference<>();
+        channel.addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                message.getDataAsMap().put("relayed", true);
+                messageRef.set(message);
+                return true;
+            }
+        });
+        LocalSession session = _bayeux.newLocalSession("test");
+        session.handshake();
+        channel.subscribe(session.getServerSession());
+
+        // Publish from the local session, parsing with the server JSON context
+        session.getChannel(channel.getId()).publish(new JSONLiteral("{\"symbol\":\"ABC\"}", jsonContext.getParser()));
+
+        ServerMessageImpl message = (ServerMessageImpl)messageRef.get();
+        Assert.assertTrue(message.getJSON().contains("\"relayed\":true"));
+        Assert.assertTrue(message.getJSON().contains("\"symbol\":\"ABC\""));
+    }
+
+    @Test
+    public void testLazyDataIsEmbeddedVerbatim() throws Exception
+    {
+        Jackson2StreamingJSONContextServer jsonContext = new Jackson2StreamingJSONContextServer();
+        jsonContext.setLazyData(true);
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(AbstractServerTransport.JSON_CONTEXT_OPTION, jsonContext);
+        bayeux.start();
+        try
+        {
+            ServerChannel channel = bayeux.createChannelIfAbsent("/relay").getReference();
+            final AtomicReference<ServerMessage> messageRef = new AtomicReference<>();
+            channel.addListener(new ServerChannel.MessageListener()
+            {
+                public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+                {
+                    messageRef.set(message);
+                    return true;
+                }
+            });
+            LocalSession session = bayeux.newLocalSession("test");
+            session.handshake();
+            ServerSessionImpl serverSession = (ServerSessionImpl)session.getServerSession();
+            channel.subscribe(serverSession);
+
+            String data = "{ \"symbol\" : \"ABC\", \"price\" : 1.25 }";
+            String json = "[{\"channel\":\"/relay\",\"clientId\":\"" + serverSession.getId() + "\",\"data\":" + data + "}]";
+            ServerMessage.Mutable[] messages = jsonContext.parse(json);
+            Assert.assertEquals("/relay", messages[0].getChannel());
+            bayeux.handle(serverSession, messages[0]);
+
+            // The data has never been parsed and is delivered verbatim
+            ServerMessageImpl message = (ServerMessageImpl)messageRef.get();
+            Assert.assertTrue(message.get(Message.DATA_FIELD) instanceof JSONLiteral);
+            Assert.assertTrue(message.getJSON().contains("\"data\":" + data));
+            Assert.assertEquals("ABC", message.getDataAsMap().get("symbol"));
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+}
@@ -516,6 +516,29 @@ public class ServerChannelTest
         Assert.assertEquals(-1, channel.getLazyTimeout());
     }
 
+    @Test
+    public void testBlockingListeners() throws Exception
+    {
+        String channelName = "/foo/bar";
+        ServerChannel channel = _bayeux.createChannelIfAbsent(channelName).getReference();
+        Assert.assertFalse(_bayeux.hasBlockingListeners(channelName));
+
+        ServerChannel.MessageListener listener = new BlockingMessageListener();
+        channel.addListener(listener);
+        Assert.assertTrue(_bayeux.hasBlockingListeners(channelName));
+        channel.removeListener(listener);
+        Assert.assertFalse(_bayeux.hasBlockingListeners(channelName));
+
+        ServerChannel wild = _bayeux.createChannelIfAbsent("/foo/**").getReference();
+        wild.addListener(listener);
+        Assert.assertTrue(_bayeux.hasBlockingListeners(channelName));
+        Assert.assertTrue(_bayeux.hasBlockingListeners("/foo/baz/qux"));
+        Assert.assertFalse(_bayeux.hasBlockingListeners("/bar"));
+
+        wild.remove();
+        Assert.assertFalse(_bayeux.hasBlockingListeners(channelName));
+    }
+
     private void sweep()
     {
         // 12 is a big enough number that will make sure channel will be swept
@@ -532,6 +555,14 @@ public class ServerChannelTest
         return session;
     }
 
+    static class BlockingMessageListener implements ServerChannel.MessageListener, BlockingListener
+    {
+        public boolean onMessage(ServerSession from, ServerChannel channel, Mutable message)
+        {
+            return true;
+        }
+    }
+
     static class BayeuxSubscriptionListener implements BayeuxServer.SubscriptionListener
     {
         public String _method;
@@ -19,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.cometd.bayeux.Message;
@@ -222,6 +223,60 @@ public class ServerMessageImplTest
         }
     }
 
+    @Test
+    public void testFrozenMessageCannotBeRemovedFrom() throws Exception
+    {
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setChannel("/channel");
+        message.put("custom", "value");
+        message.freeze(new JettyJSONContextServer().generate(message));
+
+        try
+        {
+            message.remove(Message.CHANNEL_FIELD);
+            fail();
+        }
+        catch (UnsupportedOperationException expected)
+        {
+        }
+
+        Iterator<Map.Entry<String, Object>> iterator = message.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            iterator.next();
+            try
+            {
+                iterator.remove();
+                fail();
+            }
+            catch (UnsupportedOperationException expected)
+            {
+            }
+        }
+
+        try
+        {
+            message.entrySet().clear();
+            fail();
+        }
+        catch (UnsupportedOperationException expected)
+        {
+        }
+
+        try
+        {
+            message.keySet().remove("custom");
+            fail();
+        }
+        catch (UnsupportedOperationException expected)
+        {
+        }
+
+        assertEquals(2, message.size());
+        assertEquals("/channel", message.getChannel());
+        assertEquals("value", message.get("custom"));
+    }
+
     @Test
     public void testNullValue() throws Exception
     {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.server.LocalSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionIdGeneratorTest
+{
+    @Test
+    public void testDefaultSessionIds() throws Exception
+    {
+        SessionIdGenerator generator = new DefaultSessionIdGenerator();
+        String id = generator.newSessionId(null);
+        Assert.assertTrue(id.length() >= 20);
+        Assert.assertTrue(id.matches("[0-9a-z]+"));
+        Assert.assertTrue(generator.newSessionId("hint").startsWith("hint_"));
+        Assert.assertNotEquals(id, generator.newSessionId(null));
+    }
+
+    @Test
+    public void testDefaultSessionIdsAreUniqueAcrossThreads() throws Exception
+    {
+        final SessionIdGenerator generator = new DefaultSessionIdGenerator();
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final int threads = 8;
+        final int count = 5000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < count; ++j)
+                        ids.add(generator.newSessionId(null));
+                    latch.countDown();
+                }
+            }.start();
+        }
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(threads * count, ids.size());
+
+        // The random parts must differ, not only the counters
+        Set<String> tails = new HashSet<>();
+        for (String id : ids)
+            tails.add(id.substring(id.length() - 10));
+        Assert.assertEquals(ids.size(), tails.size());
+    }
+
+    @Test
+    public void testCustomSessionIdGenerator() throws Exception
+    {
+        final AtomicInteger counter = new AtomicInteger();
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.SESSION_ID_GENERATOR_OPTION, new SessionIdGenerator()
+        {
+            public String newSessionId(String idHint)
+            {
+                return "custom" + counter.incrementAndGet();
+            }
+        });
+        bayeux.start();
+        try
+        {
+            LocalSession session = bayeux.newLocalSession("test");
+            session.handshake();
+            Assert.assertEquals("custom1", session.getId());
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testSessionIdGeneratorClassName() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.SESSION_ID_GENERATOR_OPTION, DefaultSessionIdGenerator.class.getName());
+        bayeux.start();
+        try
+        {
+            Assert.assertTrue(bayeux.getSessionIdGenerator() instanceof DefaultSessionIdGenerator);
+            LocalSession session = bayeux.newLocalSession("test");
+            session.handshake();
+            Assert.assertTrue(session.getId().startsWith("test_"));
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageTracerTest
+{
+    @Test
+    public void testSampling() throws Exception
+    {
+        Assert.assertNotNull(new MessageTracer(1).sample());
+
+        MessageTracer tracer = new MessageTracer(100);
+        int sampled = 0;
+        for (int i = 0; i < 100000; ++i)
+        {
+            if (tracer.sample() != null)
+                ++sampled;
+        }
+        Assert.assertTrue(sampled > 500);
+        Assert.assertTrue(sampled < 1500);
+    }
+
+    @Test
+    public void testTracingDisabledByDefault() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        try
+        {
+            Assert.assertNull(bayeux.getTracer());
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testStages() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.TRACE_SAMPLE_PERIOD_OPTION, 1);
+        bayeux.start();
+        try
+        {
+            MessageTracer tracer = bayeux.getTracer();
+            Assert.assertNotNull(tracer);
+
+            final String channelName = "/trace";
+            LocalSession subscriber = bayeux.newLocalSession("subscriber");
+            subscriber.handshake();
+            final CountDownLatch latch = new CountDownLatch(1);
+            subscriber.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    latch.countDown();
+                }
+            });
+
+            LocalSession publisher = bayeux.newLocalSession("publisher");
+            publisher.handshake();
+            publisher.getChannel(channelName).publish("data");
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            for (MessageTracer.Stage stage : MessageTracer.Stage.values())
+            {
+                Histogram histogram = tracer.getChannelHistogram(stage, channelName);
+                Assert.assertNotNull(stage.toString(), histogram);
+                Assert.assertEquals(stage.toString(), 1, histogram.getCount());
+            }
+            // Meta messages are not traced
+            Assert.assertNull(tracer.getChannelHistogram(MessageTracer.Stage.LISTENERS, "/meta/subscribe"));
+            // Only the stages in the transports are aggregated per transport
+            Assert.assertNull(tracer.getTransportHistogram(MessageTracer.Stage.QUEUE, "local"));
+            Assert.assertEquals(1, tracer.getTransportHistogram(MessageTracer.Stage.WRITE, "local").getCount());
+            Histogram total = tracer.getTransportHistogram(MessageTracer.Stage.TOTAL, "local");
+            Assert.assertTrue(total.getMax() >= tracer.getChannelHistogram(MessageTracer.Stage.LISTENERS, channelName).getMax());
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> channels = (Map<String, Object>)tracer.getStatistics().get("channels");
+            Assert.assertTrue(channels.containsKey(channelName));
+
+            tracer.reset();
+            Assert.assertNull(tracer.getChannelHistogram(MessageTracer.Stage.TOTAL, channelName));
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testMaxChannels() throws Exception
+    {
+        MessageTracer tracer = new MessageTracer(1, 2);
+        tracer.record(MessageTracer.Stage.FREEZE, "/a", null, 1);
+        tracer.record(MessageTracer.Stage.FREEZE, "/b", null, 1);
+        tracer.record(MessageTracer.Stage.FREEZE, "/c", null, 1);
+        tracer.record(MessageTracer.Stage.FREEZE, "/d", null, 1);
+        Assert.assertNull(tracer.getChannelHistogram(MessageTracer.Stage.FREEZE, "/c"));
+        Assert.assertEquals(2, tracer.getChannelHistogram(MessageTracer.Stage.FREEZE, MessageTracer.OTHER_CHANNELS).getCount());
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerMetricsTest
+{
+    @Test
+    public void testHistogram() throws Exception
+    {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+
+        for (int i = 1; i <= 1000; ++i)
+            histogram.record(i);
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1, histogram.getMin());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5, histogram.getMean(), 5);
+        assertClose(500, histogram.getValueAtPercentile(50));
+        assertClose(990, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(100));
+
+        // Small values are exact, large values are within the relative error
+        histogram.reset();
+        histogram.record(42);
+        Assert.assertEquals(42, histogram.getValueAtPercentile(50));
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        histogram.record(123456789L);
+        histogram.record(123456789L * 2);
+        assertClose(123456789L, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testStripedCounter() throws Exception
+    {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final int increments = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < increments; ++j)
+                        counter.increment();
+                    latch.countDown();
+                }
+            }.start();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(threads * increments, counter.get());
+    }
+
+    @Test
+    public void testServerMetrics() throws Exception
+    {
+        DefaultServerMetrics metrics = new DefaultServerMetrics(2);
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.METRICS_OPTION, metrics);
+        bayeux.start();
+        try
+        {
+            Assert.assertSame(metrics, bayeux.getMetrics());
+
+            String channelName = "/metrics";
+            LocalSession session1 = bayeux.newLocalSession("s1");
+            session1.handshake();
+            LocalSession session2 = bayeux.newLocalSession("s2");
+            session2.handshake();
+            ServerChannel channel = bayeux.createChannelIfAbsent(channelName).getReference();
+            channel.subscribe(session1.getServerSession());
+            channel.subscribe(session2.getServerSession());
+            metrics.reset();
+
+            channel.publish(null, "data");
+
+            Assert.assertEquals(1, metrics.getPublishCount());
+            Assert.assertEquals(2, metrics.getDeliveryCount());
+            Assert.assertTrue(metrics.getPublishBytes() > 0);
+            Assert.assertEquals(2 * metrics.getPublishBytes(), metrics.getDeliveryBytes());
+            Assert.assertEquals(2, metrics.getFanOutHistogram().getMax());
+            Assert.assertEquals(2, metrics.getQueueSizeHistogram().getCount());
+            Assert.assertEquals(1, metrics.getListenerTimeHistogram().getCount());
+            // Extensions are only timed when there are extensions
+            Assert.assertEquals(0, metrics.getExtensionTimeHistogram().getCount());
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> channels = (Map<String, Object>)metrics.getStatistics().get("channels");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> channelStatistics = (Map<String, Object>)channels.get(channelName);
+            Assert.assertEquals(1L, channelStatistics.get("publishes"));
+            Assert.assertEquals(2L, channelStatistics.get("deliveries"));
+
+            // Channels beyond the max are accounted together
+            bayeux.createChannelIfAbsent("/a").getReference().publish(null, "data");
+            bayeux.createChannelIfAbsent("/b").getReference().publish(null, "data");
+            channels = (Map<String, Object>)metrics.getStatistics().get("channels");
+            Assert.assertEquals(3, channels.size());
+            Assert.assertTrue(channels.containsKey(DefaultServerMetrics.OTHER_CHANNELS));
+
+            // Messages deleted by extensions are dropped
+            session1.getServerSession().addExtension(new ServerSession.Extension.Adapter()
+            {
+                @Override
+                public ServerMessage send(ServerSession session, ServerMessage message)
+                {
+                    return null;
+                }
+            });
+            channel.publish(null, "data");
+            Assert.assertEquals(1, metrics.getDropCount());
+            Assert.assertEquals(1, metrics.getExtensionTimeHistogram().getCount());
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testReporter() throws Exception
+    {
+        final AtomicReference<Map<String, Object>> report = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.METRICS_OPTION, DefaultServerMetrics.class.getName());
+        bayeux.setOption(BayeuxServerImpl.METRICS_REPORT_PERIOD_OPTION, 100L);
+        bayeux.setOption(BayeuxServerImpl.METRICS_REPORTER_OPTION, new ServerMetrics.Reporter()
+        {
+            public void report(Map<String, Object> statistics)
+            {
+                report.set(statistics);
+                latch.countDown();
+            }
+        });
+        bayeux.start();
+        try
+        {
+            Assert.assertTrue(bayeux.getMetrics() instanceof DefaultServerMetrics);
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(report.get().containsKey("publishes"));
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testNoMetricsByDefault() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        try
+        {
+            Assert.assertNull(bayeux.getMetrics());
+            bayeux.createChannelIfAbsent("/foo").getReference().publish(null, "data");
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    private void assertClose(long expected, long actual)
+    {
+        Assert.assertTrue(expected + " vs " + actual, Math.abs(actual - expected) <= expected / 50 + 1);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.server.AbstractService;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TaskMetricsTest
+{
+    @Test
+    public void testThreadPoolExecutor() throws Exception
+    {
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor(2);
+        try
+        {
+            final CountDownLatch blocked = new CountDownLatch(2);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(3);
+            for (int i = 0; i < 3; ++i)
+            {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            blocked.countDown();
+                            release.await(5, TimeUnit.SECONDS);
+                            done.countDown();
+                        }
+                        catch (InterruptedException x)
+                        {
+                            throw new RuntimeException(x);
+                        }
+                    }
+                });
+            }
+            Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            TaskMetrics metrics = executor.getTaskMetrics();
+            Assert.assertEquals(2, metrics.getActiveCount());
+
+            // The third task waits in the queue until the others complete
+            TimeUnit.MILLISECONDS.sleep(100);
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            Assert.assertEquals(3, metrics.getTaskCount());
+            Assert.assertEquals(2, metrics.getMaxActiveCount());
+            Assert.assertTrue(metrics.getMaxWaitTime() >= 100);
+
+            executor.shutdown();
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                    }
+                });
+                Assert.fail();
+            }
+            catch (RejectedExecutionException expected)
+            {
+            }
+            Assert.assertEquals(1, metrics.getRejectedCount());
+
+            metrics.reset();
+            Assert.assertEquals(0, metrics.getTaskCount());
+            Assert.assertEquals(0, metrics.getMaxWaitTime());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSchedulerWaitTimeIsLateness() throws Exception
+    {
+        MonitoredScheduler scheduler = new MonitoredScheduler("test", true);
+        scheduler.start();
+        try
+        {
+            final CountDownLatch latch = new CountDownLatch(1);
+            scheduler.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    latch.countDown();
+                }
+            }, 500, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            TaskMetrics metrics = scheduler.getTaskMetrics();
+            Assert.assertEquals(1, metrics.getTaskCount());
+            // The delay of the task does not count as wait time
+            Assert.assertTrue(metrics.getMaxWaitTime() < 250);
+        }
+        finally
+        {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testServerTaskMetrics() throws Exception
+    {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        try
+        {
+            Assert.assertNotNull(bayeux.getTaskMetrics().get("scheduler"));
+
+            new PooledService(bayeux);
+            Assert.assertNotNull(bayeux.getTaskMetrics().get("service/pooled"));
+        }
+        finally
+        {
+            bayeux.stop();
+        }
+    }
+
+    public static class PooledService extends AbstractService
+    {
+        public PooledService(BayeuxServer bayeux)
+        {
+            super(bayeux, "pooled", 2);
+        }
+    }
+}
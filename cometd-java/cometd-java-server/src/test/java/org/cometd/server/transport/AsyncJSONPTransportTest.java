@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.server.AbstractBayeuxClientServerTest;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncJSONPTransportTest extends AbstractBayeuxClientServerTest
+{
+    @Before
+    public void prepare() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("transports", AsyncJSONPTransport.class.getName());
+        startServer(options);
+    }
+
+    @Test
+    public void testCallbackPolling() throws Exception
+    {
+        ContentResponse response = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"callback-polling\"]" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getHeaders().get(HttpHeader.CONTENT_TYPE).startsWith("text/javascript"));
+        String content = response.getContentAsString();
+        Assert.assertTrue(content.startsWith("callback(["));
+        Assert.assertTrue(content.endsWith("])"));
+        String clientId = extractClientId(response);
+
+        response = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"callback-polling\"" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+
+        response = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/subscribe\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"subscription\": \"/foo\"" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+
+        response = newJSONPRequest("[{" +
+                "\"channel\": \"/foo\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"data\": \"test\"" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+        // Messages are only delivered with /meta/connect replies
+        Assert.assertFalse(response.getContentAsString().contains("\"test\""));
+
+        response = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"callback-polling\"" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+        content = response.getContentAsString();
+        Assert.assertTrue(content.startsWith("callback(["));
+        Assert.assertTrue(content.contains("\"test\""));
+        Assert.assertTrue(content.contains("/meta/connect"));
+        Assert.assertTrue(content.endsWith("])"));
+    }
+
+    @Test
+    public void testMetaConnectIsHeld() throws Exception
+    {
+        ContentResponse response = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"callback-polling\"]" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+        String clientId = extractClientId(response);
+
+        response = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"callback-polling\"" +
+                "}]").send();
+        Assert.assertEquals(200, response.getStatus());
+
+        Request connect = newJSONPRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"callback-polling\"" +
+                "}]");
+        connect.timeout(timeout * 2, TimeUnit.MILLISECONDS);
+        long begin = System.nanoTime();
+        response = connect.send();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(elapsed >= timeout - timeout / 10);
+        Assert.assertTrue(response.getContentAsString().endsWith("])"));
+    }
+
+    private Request newJSONPRequest(String messages)
+    {
+        Request request = httpClient.newRequest(cometdURL);
+        request.method(HttpMethod.GET);
+        request.timeout(5, TimeUnit.SECONDS);
+        request.param("jsonp", "callback");
+        request.param(HttpTransport.MESSAGE_PARAM, messages);
+        return request;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.cometd.server.AbstractBayeuxClientServerTest;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncJSONTransportGzipTest extends AbstractBayeuxClientServerTest
+{
+    private final int threshold = 512;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("transports", AsyncJSONTransport.class.getName());
+        options.put("long-polling.json." + AsyncJSONTransport.GZIP_OPTION, "true");
+        options.put("long-polling.json." + AsyncJSONTransport.COMPRESSION_THRESHOLD_OPTION, String.valueOf(threshold));
+        startServer(options);
+        // Inspect the raw response content
+        httpClient.getContentDecoderFactories().clear();
+    }
+
+    @Test
+    public void testSmallResponseIsNotCompressed() throws Exception
+    {
+        ContentResponse response = handshake("gzip");
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertNull(response.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+        Assert.assertTrue(response.getContentAsString().startsWith("["));
+    }
+
+    @Test
+    public void testLargeResponseIsCompressed() throws Exception
+    {
+        ContentResponse response = handshake("gzip");
+        String clientId = extractClientId(response);
+
+        subscribe(clientId);
+
+        String data = largeData();
+        response = publish(clientId, data, "gzip, deflate");
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("gzip", response.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+        byte[] content = response.getContent();
+        Assert.assertTrue(content.length < data.length());
+        String json = gunzip(content);
+        Assert.assertTrue(json.startsWith("["));
+        Assert.assertTrue(json.endsWith("]"));
+        Assert.assertTrue(json.contains(data));
+
+        // Deflaters are reused, make sure the compressed content is still correct
+        response = publish(clientId, data, "gzip");
+        Assert.assertEquals("gzip", response.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+        Assert.assertTrue(gunzip(response.getContent()).contains(data));
+    }
+
+    @Test
+    public void testLargeResponseIsNotCompressedIfNotAccepted() throws Exception
+    {
+        ContentResponse response = handshake(null);
+        String clientId = extractClientId(response);
+
+        subscribe(clientId);
+
+        String data = largeData();
+        response = publish(clientId, data, "gzip;q=0");
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertNull(response.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+        Assert.assertTrue(response.getContentAsString().contains(data));
+    }
+
+    private ContentResponse handshake(String acceptEncoding) throws Exception
+    {
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        if (acceptEncoding != null)
+            handshake.header(HttpHeader.ACCEPT_ENCODING, acceptEncoding);
+        return handshake.send();
+    }
+
+    private void subscribe(String clientId) throws Exception
+    {
+        Request connect = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"long-polling\"" +
+                "}]");
+        Assert.assertEquals(200, connect.send().getStatus());
+
+        Request subscribe = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/subscribe\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"subscription\": \"/foo\"" +
+                "}]");
+        Assert.assertEquals(200, subscribe.send().getStatus());
+    }
+
+    private ContentResponse publish(String clientId, String data, String acceptEncoding) throws Exception
+    {
+        // The published message is delivered back in the response
+        Request publish = newBayeuxRequest("[{" +
+                "\"channel\": \"/foo\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"data\": \"" + data + "\"" +
+                "}]");
+        publish.header(HttpHeader.ACCEPT_ENCODING, acceptEncoding);
+        return publish.send();
+    }
+
+    private String largeData()
+    {
+        char[] chars = new char[threshold * 2];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    private String gunzip(byte[] content) throws Exception
+    {
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(content)))
+        {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0)
+                output.write(buffer, 0, read);
+            return output.toString("UTF-8");
+        }
+    }
+}
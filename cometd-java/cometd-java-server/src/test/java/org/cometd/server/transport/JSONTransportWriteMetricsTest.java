@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.common.JettyJSONContextClient;
+import org.cometd.server.AbstractBayeuxClientServerTest;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.metrics.DefaultServerMetrics;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JSONTransportWriteMetricsTest extends AbstractBayeuxClientServerTest
+{
+    @Test
+    public void testWriteIsRecordedOncePerResponse() throws Exception
+    {
+        testWriteIsRecordedOncePerResponse(new HashMap<String, String>());
+    }
+
+    @Test
+    public void testAsyncWriteIsRecordedOncePerResponse() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put(BayeuxServerImpl.TRANSPORTS_OPTION, AsyncJSONTransport.class.getName());
+        testWriteIsRecordedOncePerResponse(options);
+    }
+
+    private void testWriteIsRecordedOncePerResponse(Map<String, String> options) throws Exception
+    {
+        options.put(BayeuxServerImpl.METRICS_OPTION, DefaultServerMetrics.class.getName());
+        startServer(options);
+        DefaultServerMetrics metrics = (DefaultServerMetrics)bayeux.getMetrics();
+
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assert.assertEquals(200, response.getStatus());
+        String clientId = extractClientId(response);
+
+        // Writes are recorded after the response is complete, so they may race with the client
+        waitForWrites(metrics);
+        metrics.reset();
+
+        // A request with several messages has a response with several replies
+        String channel = "/foo";
+        Request batch = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/subscribe\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"subscription\": \"" + channel + "\"" +
+                "}, {" +
+                "\"channel\": \"" + channel + "\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"data\": {\"price\": \"\u20ac1\"}" +
+                "}]");
+        response = batch.send();
+        Assert.assertEquals(200, response.getStatus());
+
+        String content = response.getContentAsString();
+        Assert.assertTrue(new JettyJSONContextClient().parse(content).length > 1);
+        waitForWrites(metrics);
+        Assert.assertEquals(1, metrics.getWriteSizeHistogram().getCount());
+        Assert.assertEquals(content.getBytes("UTF-8").length, metrics.getWriteSizeHistogram().getMax());
+    }
+
+    private void waitForWrites(DefaultServerMetrics metrics) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (metrics.getWriteSizeHistogram().getCount() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.AbstractBayeuxClientServerTest;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerSentEventsTransportTest extends AbstractBayeuxClientServerTest
+{
+    @Before
+    public void prepare() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("transports", ServerSentEventsTransport.class.getName());
+        startServer(options);
+    }
+
+    @Test
+    public void testEventsHaveIds() throws Exception
+    {
+        Request handshake = newEventsRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"server-sent-events\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getHeaders().get(HttpHeader.CONTENT_TYPE).startsWith(ServerSentEventsTransport.MIME_TYPE));
+        // Replies not written to the stream have no event id
+        Assert.assertTrue(response.getContentAsString().startsWith("data: ["));
+        String clientId = extractClientId(response);
+
+        StreamListener stream = openStream(clientId, null);
+        Assert.assertTrue(stream.await("id: 1\n", 5000));
+
+        ServerSession session = bayeux.getSession(clientId);
+        session.deliver(null, "/test", "data1", null);
+        Assert.assertTrue(stream.await("id: 2\n", 5000));
+        Assert.assertTrue(stream.content().contains("data1"));
+
+        stream.request.abort(new Exception("explicitly aborted"));
+    }
+
+    @Test
+    public void testReopenedStreamReplaysMissedEvents() throws Exception
+    {
+        Request handshake = newEventsRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"server-sent-events\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assert.assertEquals(200, response.getStatus());
+        String clientId = extractClientId(response);
+
+        StreamListener stream1 = openStream(clientId, null);
+        Assert.assertTrue(stream1.await("id: 1\n", 5000));
+
+        ServerSession session = bayeux.getSession(clientId);
+        // Wait for each event, otherwise the messages may be written in a single event
+        session.deliver(null, "/test", "data2", null);
+        Assert.assertTrue(stream1.await("id: 2\n", 5000));
+        session.deliver(null, "/test", "data3", null);
+        Assert.assertTrue(stream1.await("id: 3\n", 5000));
+
+        // The client pretends it only received the first event
+        StreamListener stream2 = openStream(clientId, "1");
+        Assert.assertTrue(stream2.await("id: 4\n", 5000));
+        String content = stream2.content();
+        int data2 = content.indexOf("data2");
+        int data3 = content.indexOf("data3");
+        int connect = content.indexOf("id: 4\n");
+        Assert.assertTrue(data2 > 0);
+        Assert.assertTrue(data3 > data2);
+        Assert.assertTrue(connect > data3);
+
+        // The first stream has been replaced by the second
+        Assert.assertTrue(stream1.awaitComplete(5000));
+
+        stream2.request.abort(new Exception("explicitly aborted"));
+    }
+
+    private StreamListener openStream(String clientId, String lastEventId) throws Exception
+    {
+        Request connect = newEventsRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"server-sent-events\"" +
+                "}]");
+        connect.header(StreamingTransport.STREAM_HEADER, "open");
+        if (lastEventId != null)
+            connect.header(ServerSentEventsTransport.LAST_EVENT_ID_HEADER, lastEventId);
+        connect.timeout(0, TimeUnit.MILLISECONDS);
+        StreamListener listener = new StreamListener(connect);
+        connect.send(listener);
+        return listener;
+    }
+
+    private Request newEventsRequest(String content) throws Exception
+    {
+        Request request = newBayeuxRequest(content);
+        request.header(HttpHeader.ACCEPT.asString(), ServerSentEventsTransport.MIME_TYPE);
+        return request;
+    }
+
+    private static class StreamListener extends Response.Listener.Adapter
+    {
+        private final StringBuilder content = new StringBuilder();
+        private final Request request;
+        private boolean complete;
+
+        private StreamListener(Request request)
+        {
+            this.request = request;
+        }
+
+        @Override
+        public synchronized void onContent(Response response, ByteBuffer buffer)
+        {
+            content.append(StandardCharsets.UTF_8.decode(buffer));
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onComplete(Result result)
+        {
+            complete = true;
+            notifyAll();
+        }
+
+        private synchronized String content()
+        {
+            return content.toString();
+        }
+
+        private synchronized boolean await(String text, long timeout) throws InterruptedException
+        {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (content.indexOf(text) < 0)
+            {
+                long wait = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (wait <= 0)
+                    return false;
+                wait(wait);
+            }
+            return true;
+        }
+
+        private synchronized boolean awaitComplete(long timeout) throws InterruptedException
+        {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!complete)
+            {
+                long wait = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (wait <= 0)
+                    return false;
+                wait(wait);
+            }
+            return true;
+        }
+    }
+}
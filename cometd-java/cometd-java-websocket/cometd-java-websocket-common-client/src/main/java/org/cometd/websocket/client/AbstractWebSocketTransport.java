@@ -42,6 +42,8 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
     public final static String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public final static String MAX_MESSAGE_SIZE_OPTION = "maxMessageSize";
     public final static String STICKY_RECONNECT_OPTION = "stickyReconnect";
+    public final static String PERMESSAGE_DEFLATE_OPTION = "perMessageDeflate";
+    public final static String PERMESSAGE_DEFLATE_EXTENSION = "permessage-deflate";
 
     private final Map<String, WebSocketExchange> _exchanges = new ConcurrentHashMap<>();
     private volatile ScheduledExecutorService _scheduler;
@@ -51,6 +53,7 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
     private volatile long _connectTimeout;
     private volatile long _idleTimeout;
     private volatile boolean _stickyReconnect;
+    private volatile boolean _perMessageDeflate;
     private volatile boolean _connected;
     private volatile boolean _disconnected;
     private volatile boolean _aborted;
@@ -97,6 +100,7 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
         _connectTimeout = getOption(CONNECT_TIMEOUT_OPTION, 30000L);
         _idleTimeout = getOption(IDLE_TIMEOUT_OPTION, 60000L);
         _stickyReconnect = getOption(STICKY_RECONNECT_OPTION, true);
+        _perMessageDeflate = getOption(PERMESSAGE_DEFLATE_OPTION, false);
     }
 
     public String getProtocol()
@@ -124,6 +128,15 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
         return _stickyReconnect;
     }
 
+    /**
+     * @return whether the {@value #PERMESSAGE_DEFLATE_EXTENSION} extension is requested
+     * when opening the WebSocket connection
+     */
+    public boolean isPerMessageDeflate()
+    {
+        return _perMessageDeflate;
+    }
+
     @Override
     public void abort()
     {
@@ -157,6 +170,12 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
 
     protected abstract void disconnect(String reason);
 
+    @Override
+    protected boolean isBinarySupported()
+    {
+        return true;
+    }
+
     @Override
     public void send(TransportListener listener, List<Mutable> messages)
     {
@@ -173,6 +192,15 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
         for (Message.Mutable message : messages)
             registerMessage(message, listener);
 
+        if (isBinary())
+        {
+            byte[] content = generateBinary(messages);
+            logger.debug("Sending {} messages in {} bytes", messages.size(), content.length);
+            listener.onSending(messages);
+            send(session, content, listener, messages);
+            return;
+        }
+
         String content = generateJSON(messages);
 
         // The onSending() callback must be invoked before the actual send
@@ -188,6 +216,8 @@ public abstract class AbstractWebSocketTransport<S> extends HttpClientTransport
 
     protected abstract void send(S session, String content, TransportListener listener, List<Mutable> messages);
 
+    protected abstract void send(S session, byte[] content, TransportListener listener, List<Mutable> messages);
+
     @SuppressWarnings("ForLoopReplaceableByForEach")
     protected void complete(List<Mutable> messages)
     {
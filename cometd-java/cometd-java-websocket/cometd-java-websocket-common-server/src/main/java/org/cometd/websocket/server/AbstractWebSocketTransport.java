@@ -17,7 +17,10 @@ package org.cometd.websocket.server;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -25,6 +28,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
@@ -33,10 +37,33 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.BlockingListener;
 import org.cometd.server.ServerSessionImpl;
+import org.cometd.server.metrics.MonitoredThreadPoolExecutor;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * <p>Base class for WebSocket transports.</p>
+ * <p>With the default {@link #DISPATCH_STRATEGY dispatch} execution strategy,
+ * incoming messages are processed in the thread that reads them, while
+ * outgoing messages are always written by a thread of the {@link #getExecutor() executor}.</p>
+ * <p>With the {@link #ADAPTIVE_STRATEGY adaptive} execution strategy, small batches
+ * of messages are processed and written in the thread that produced them, avoiding
+ * thread hand-offs; incoming batches larger than {@link #getInlineBatchSize()} or that
+ * notify a {@link BlockingListener} are dispatched to the executor, and so are outgoing
+ * queues larger than {@link #getInlineBatchSize()} or when {@link #isAsyncSend() writes block}.</p>
+ * <p>Outgoing messages are compressed when clients request the {@value #PERMESSAGE_DEFLATE_EXTENSION}
+ * extension, unless it is {@link #isPerMessageDeflate() disabled}; implementations that control
+ * the extension skip the compression of messages smaller than {@link #getCompressionThreshold()}
+ * and honor the {@link #isDeflateContextTakeover() context takeover} setting.</p>
+ * <p>Messages received in binary frames are parsed with the {@link #getBinaryContext() binary context},
+ * and the messages sent on the same connection are then encoded with it in binary frames.</p>
+ */
+@ManagedObject("CometD WebSocket transport")
 public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransport
 {
     public static final String PREFIX = "ws";
@@ -48,12 +75,29 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
     public static final String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public static final String THREAD_POOL_MAX_SIZE = "threadPoolMaxSize";
     public static final String COMETD_URL_MAPPING = "cometdURLMapping";
+    public static final String EXECUTION_STRATEGY_OPTION = "executionStrategy";
+    public static final String INLINE_BATCH_SIZE_OPTION = "inlineBatchSize";
+    public static final String DISPATCH_STRATEGY = "dispatch";
+    public static final String ADAPTIVE_STRATEGY = "adaptive";
+    public static final String PERMESSAGE_DEFLATE_OPTION = "perMessageDeflate";
+    public static final String DEFLATE_CONTEXT_TAKEOVER_OPTION = "deflateContextTakeover";
+    public static final String COMPRESSION_THRESHOLD_OPTION = "compressionThreshold";
+    public static final String PERMESSAGE_DEFLATE_EXTENSION = "permessage-deflate";
 
     private final ThreadLocal<BayeuxContext> _bayeuxContext = new ThreadLocal<>();
     private Executor _executor;
     private ScheduledExecutorService _scheduler;
     private String _protocol;
     private int _messagesPerFrame;
+    private boolean _adaptive;
+    private int _inlineBatchSize;
+    private boolean _perMessageDeflate;
+    private boolean _deflateContextTakeover;
+    private int _compressionThreshold;
+    private final AtomicLong _inlineInbound = new AtomicLong();
+    private final AtomicLong _dispatchedInbound = new AtomicLong();
+    private final AtomicLong _inlineOutbound = new AtomicLong();
+    private final AtomicLong _dispatchedOutbound = new AtomicLong();
 
     protected AbstractWebSocketTransport(BayeuxServerImpl bayeux)
     {
@@ -66,9 +110,22 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
     {
         super.init();
         _executor = newExecutor();
+        if (_executor instanceof MonitoredThreadPoolExecutor)
+            getBayeux().addTaskMetrics(getTaskMetricsName(), ((MonitoredThreadPoolExecutor)_executor).getTaskMetrics());
         _scheduler = newScheduledExecutor();
         _protocol = getOption(PROTOCOL_OPTION, null);
         _messagesPerFrame = getOption(MESSAGES_PER_FRAME_OPTION, 1);
+        String strategy = getOption(EXECUTION_STRATEGY_OPTION, DISPATCH_STRATEGY);
+        if (ADAPTIVE_STRATEGY.equals(strategy))
+            _adaptive = true;
+        else if (DISPATCH_STRATEGY.equals(strategy))
+            _adaptive = false;
+        else
+            throw new IllegalArgumentException("Invalid " + EXECUTION_STRATEGY_OPTION + ": " + strategy);
+        _inlineBatchSize = getOption(INLINE_BATCH_SIZE_OPTION, 8);
+        _perMessageDeflate = getOption(PERMESSAGE_DEFLATE_OPTION, true);
+        _deflateContextTakeover = getOption(DEFLATE_CONTEXT_TAKEOVER_OPTION, true);
+        _compressionThreshold = getOption(COMPRESSION_THRESHOLD_OPTION, 256);
     }
 
     @Override
@@ -76,6 +133,7 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
     {
         _scheduler.shutdownNow();
 
+        getBayeux().removeTaskMetrics(getTaskMetricsName());
         Executor threadPool = _executor;
         if (threadPool instanceof ExecutorService)
             ((ExecutorService)threadPool).shutdown();
@@ -83,10 +141,22 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
         super.destroy();
     }
 
+    /**
+     * <p>Creates the executor that writes outgoing messages and processes dispatched incoming messages.</p>
+     * <p>The default executor is a {@link MonitoredThreadPoolExecutor}, whose metrics are registered
+     * in the {@link BayeuxServerImpl#getTaskMetrics() server task metrics}.</p>
+     *
+     * @return a new executor
+     */
     protected Executor newExecutor()
     {
         int size = getOption(THREAD_POOL_MAX_SIZE, 64);
-        return Executors.newFixedThreadPool(size);
+        return new MonitoredThreadPoolExecutor(size);
+    }
+
+    private String getTaskMetricsName()
+    {
+        return "transport/" + getName();
     }
 
     protected ScheduledExecutorService newScheduledExecutor()
@@ -114,6 +184,112 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
         return _messagesPerFrame;
     }
 
+    @ManagedAttribute(value = "The execution strategy", readonly = true)
+    public String getExecutionStrategy()
+    {
+        return _adaptive ? ADAPTIVE_STRATEGY : DISPATCH_STRATEGY;
+    }
+
+    @ManagedAttribute(value = "The max number of messages processed by the producing thread", readonly = true)
+    public int getInlineBatchSize()
+    {
+        return _inlineBatchSize;
+    }
+
+    /**
+     * @return whether the {@value #PERMESSAGE_DEFLATE_EXTENSION} extension is negotiated
+     * when requested by clients
+     */
+    @ManagedAttribute(value = "Whether the permessage-deflate extension is negotiated", readonly = true)
+    public boolean isPerMessageDeflate()
+    {
+        return _perMessageDeflate;
+    }
+
+    /**
+     * @return whether the compression context is kept across messages of the same connection,
+     * trading memory for a better compression ratio
+     */
+    @ManagedAttribute(value = "Whether the compression context is reused across messages", readonly = true)
+    public boolean isDeflateContextTakeover()
+    {
+        return _deflateContextTakeover;
+    }
+
+    /**
+     * @return the size in bytes below which outgoing messages are not compressed
+     */
+    @ManagedAttribute(value = "The size in bytes below which messages are not compressed", readonly = true)
+    public int getCompressionThreshold()
+    {
+        return _compressionThreshold;
+    }
+
+    @Override
+    protected boolean isBinarySupported()
+    {
+        return true;
+    }
+
+    /**
+     * @return whether {@link #send(Object, ServerSession, String)} does not block,
+     * so that it is safe to write messages in the thread that produced them
+     */
+    protected boolean isAsyncSend()
+    {
+        return false;
+    }
+
+    @ManagedAttribute(value = "The number of incoming message batches processed by the reading thread", readonly = true)
+    public long getInlineInboundCount()
+    {
+        return _inlineInbound.get();
+    }
+
+    @ManagedAttribute(value = "The number of incoming message batches dispatched to the executor", readonly = true)
+    public long getDispatchedInboundCount()
+    {
+        return _dispatchedInbound.get();
+    }
+
+    @ManagedAttribute(value = "The number of outgoing flushes performed by the producing thread", readonly = true)
+    public long getInlineOutboundCount()
+    {
+        return _inlineOutbound.get();
+    }
+
+    @ManagedAttribute(value = "The number of outgoing flushes dispatched to the executor", readonly = true)
+    public long getDispatchedOutboundCount()
+    {
+        return _dispatchedOutbound.get();
+    }
+
+    @ManagedOperation(value = "Resets the execution strategy statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _inlineInbound.set(0);
+        _dispatchedInbound.set(0);
+        _inlineOutbound.set(0);
+        _dispatchedOutbound.set(0);
+    }
+
+    /**
+     * @param messages the incoming messages
+     * @return whether the given messages must be processed by a thread of the executor
+     */
+    protected boolean isDispatchRequired(ServerMessage.Mutable[] messages)
+    {
+        if (messages.length > _inlineBatchSize)
+            return true;
+        for (ServerMessage.Mutable message : messages)
+        {
+            String channelName = message.getChannel();
+            if (channelName != null && getBayeux().hasBlockingListeners(channelName))
+                return true;
+        }
+        return false;
+    }
+
     protected boolean checkProtocol(List<String> serverProtocols, List<String> clientProtocols)
     {
         if (serverProtocols.isEmpty())
@@ -145,6 +321,20 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
 
     protected abstract void send(S wsSession, ServerSession session, String data) throws IOException;
 
+    protected abstract void send(S wsSession, ServerSession session, byte[] data) throws IOException;
+
+    private void write(S wsSession, ServerSession session, String data) throws IOException
+    {
+        send(wsSession, session, data);
+        recordWrite(session, utf8Length(data));
+    }
+
+    private void write(S wsSession, ServerSession session, byte[] data) throws IOException
+    {
+        send(wsSession, session, data);
+        recordWrite(session, data.length);
+    }
+
     protected void onClose(int code, String reason)
     {
     }
@@ -157,6 +347,9 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
         private volatile ServerSessionImpl _session;
         private ServerMessage.Mutable _connectReply;
         private ScheduledFuture<?> _connectTask;
+        private final Queue<ServerMessage.Mutable[]> _inbound = new ArrayDeque<>();
+        private boolean _dispatching;
+        private volatile boolean _binary;
 
         protected AbstractWebSocketScheduler(BayeuxContext context)
         {
@@ -175,6 +368,17 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             int count = messages.size();
             int messagesPerFrame = getMessagesPerFrame();
             int batchSize = messagesPerFrame > 0 ? Math.min(messagesPerFrame, count) : count;
+
+            if (_binary)
+            {
+                for (int index = 0; index < count; index += batchSize)
+                {
+                    List<ServerMessage> batch = messages.subList(index, Math.min(index + batchSize, count));
+                    write(wsSession, _session, generateBinary(batch));
+                }
+                return;
+            }
+
             // Assume 4 fields of 32 chars per message
             int capacity = batchSize * 4 * 32;
             StringBuilder builder = new StringBuilder(capacity);
@@ -194,15 +398,21 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                 }
                 builder.append("]");
                 index += batch;
-                AbstractWebSocketTransport.this.send(wsSession, _session, builder.toString());
+                write(wsSession, _session, builder.toString());
             }
         }
 
         protected void send(S wsSession, ServerMessage message) throws IOException
         {
+            if (_binary)
+            {
+                write(wsSession, _session, generateBinary(Collections.singletonList(message)));
+                return;
+            }
+
             StringBuilder builder = new StringBuilder(message.size() * 32);
             builder.append("[").append(message.getJSON()).append("]");
-            AbstractWebSocketTransport.this.send(wsSession, _session, builder.toString());
+            write(wsSession, _session, builder.toString());
         }
 
         protected void onClose(int code, String reason)
@@ -241,20 +451,134 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             return true;
         }
 
-        protected void onMessage(S wsSession, String data)
+        protected void onMessage(final S wsSession, String data)
         {
-            _bayeuxContext.set(_context);
-            getBayeux().setCurrentTransport(AbstractWebSocketTransport.this);
+            ServerMessage.Mutable[] messages;
             try
             {
-                ServerMessage.Mutable[] messages = parseMessages(data);
+                messages = parseMessages(data);
                 _logger.debug("Received messages {}", data);
-                for (ServerMessage.Mutable message : messages)
-                    onMessage(wsSession, message);
             }
             catch (ParseException x)
             {
                 handleJSONParseException(wsSession, _session, data, x);
+                return;
+            }
+            catch (Exception x)
+            {
+                handleException(wsSession, _session, x);
+                return;
+            }
+
+            // Reply in the same format of the messages received
+            _binary = false;
+            process(wsSession, messages);
+        }
+
+        protected void onMessage(final S wsSession, byte[] data, int offset, int length)
+        {
+            ServerMessage.Mutable[] messages;
+            try
+            {
+                if (getBinaryContext() == null)
+                    throw new ParseException("Binary messages not supported", 0);
+                messages = parseMessages(data, offset, length);
+                _logger.debug("Received {} binary messages", messages.length);
+            }
+            catch (ParseException x)
+            {
+                handleJSONParseException(wsSession, _session, length + " bytes", x);
+                return;
+            }
+            catch (Exception x)
+            {
+                handleException(wsSession, _session, x);
+                return;
+            }
+
+            _binary = true;
+            process(wsSession, messages);
+        }
+
+        private void process(final S wsSession, ServerMessage.Mutable[] messages)
+        {
+            if (_adaptive)
+            {
+                // Batches are processed in order: once a batch is dispatched,
+                // the following batches are queued behind it and processed
+                // by the dispatched thread, until it drains them all
+                boolean inline = false;
+                boolean dispatch = false;
+                synchronized (_inbound)
+                {
+                    if (_dispatching)
+                    {
+                        _inbound.offer(messages);
+                    }
+                    else if (isDispatchRequired(messages))
+                    {
+                        _inbound.offer(messages);
+                        _dispatching = true;
+                        dispatch = true;
+                    }
+                    else
+                    {
+                        inline = true;
+                    }
+                }
+
+                if (inline)
+                {
+                    _inlineInbound.incrementAndGet();
+                    onMessages(wsSession, messages);
+                }
+                else
+                {
+                    _dispatchedInbound.incrementAndGet();
+                    if (dispatch)
+                    {
+                        _executor.execute(new Runnable()
+                        {
+                            public void run()
+                            {
+                                drain(wsSession);
+                            }
+                        });
+                    }
+                }
+            }
+            else
+            {
+                onMessages(wsSession, messages);
+            }
+        }
+
+        private void drain(S wsSession)
+        {
+            while (true)
+            {
+                ServerMessage.Mutable[] messages;
+                synchronized (_inbound)
+                {
+                    messages = _inbound.poll();
+                    if (messages == null)
+                    {
+                        _dispatching = false;
+                        return;
+                    }
+                }
+                onMessages(wsSession, messages);
+            }
+        }
+
+        protected void onMessages(S wsSession, ServerMessage.Mutable[] messages)
+        {
+            _bayeuxContext.set(_context);
+            getBayeux().setCurrentTransport(AbstractWebSocketTransport.this);
+            try
+            {
+                for (ServerMessage.Mutable message : messages)
+                    onMessage(wsSession, message);
             }
             catch (Exception x)
             {
@@ -400,8 +724,30 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             // However, the CAS operation introduces a window where a schedule()
             // is skipped and the queue may remain full; to avoid this situation,
             // we reschedule at the end of schedule(boolean, ServerMessage.Mutable).
+            schedule(_adaptive);
+        }
+
+        private void schedule(boolean inline)
+        {
             if (_scheduling.compareAndSet(false, true))
-                _executor.execute(this);
+            {
+                if (inline && isAsyncSend() && isInlineFlushAllowed())
+                {
+                    _inlineOutbound.incrementAndGet();
+                    run();
+                }
+                else
+                {
+                    _dispatchedOutbound.incrementAndGet();
+                    _executor.execute(this);
+                }
+            }
+        }
+
+        private boolean isInlineFlushAllowed()
+        {
+            ServerSessionImpl session = _session;
+            return session != null && session.getQueue().size() <= _inlineBatchSize;
         }
 
         public void run()
@@ -509,8 +855,9 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                 if (!timeout)
                     _scheduling.compareAndSet(true, false);
 
+                // Always dispatch when rescheduling, to avoid unbounded recursion
                 if (reschedule && session.hasNonLazyMessages())
-                    schedule();
+                    schedule(false);
             }
         }
 
@@ -21,8 +21,10 @@ import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +34,7 @@ import javax.websocket.CloseReason;
 import javax.websocket.DeploymentException;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
 import javax.websocket.HandshakeResponse;
 import javax.websocket.MessageHandler;
 import javax.websocket.SendHandler;
@@ -76,6 +79,7 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         _webSocketContainer.setDefaultMaxSessionIdleTimeout(getIdleTimeout());
         int maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, _webSocketContainer.getDefaultMaxTextMessageBufferSize());
         _webSocketContainer.setDefaultMaxTextMessageBufferSize(maxMessageSize);
+        _webSocketContainer.setDefaultMaxBinaryMessageBufferSize(maxMessageSize);
     }
 
     protected void disconnect(String reason)
@@ -136,6 +140,7 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
             String protocol = getProtocol();
             ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
                     .preferredSubprotocols(protocol == null ? null : Collections.singletonList(protocol))
+                    .extensions(getRequestedExtensions())
                     .configurator(configurator).build();
             return _webSocketContainer.connectToServer(_target, config, new URI(uri));
         }
@@ -145,6 +150,20 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         }
     }
 
+    protected List<Extension> getRequestedExtensions()
+    {
+        List<Extension> result = new ArrayList<>();
+        if (isPerMessageDeflate())
+        {
+            for (Extension extension : _webSocketContainer.getInstalledExtensions())
+            {
+                if (PERMESSAGE_DEFLATE_EXTENSION.equals(extension.getName()))
+                    result.add(extension);
+            }
+        }
+        return result;
+    }
+
     @Override
     protected void send(Session session, String content, final TransportListener listener, final List<Mutable> messages)
     {
@@ -164,6 +183,25 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         });
     }
 
+    @Override
+    protected void send(Session session, byte[] content, final TransportListener listener, final List<Mutable> messages)
+    {
+        session.getAsyncRemote().sendBinary(ByteBuffer.wrap(content), new SendHandler()
+        {
+            @Override
+            public void onResult(SendResult result)
+            {
+                Throwable failure = result.getException();
+                if (failure != null)
+                {
+                    complete(messages);
+                    disconnect("Exception");
+                    listener.onFailure(failure, messages);
+                }
+            }
+        });
+    }
+
     private class CometDWebSocket extends Endpoint implements MessageHandler.Whole<String>
     {
         @Override
@@ -171,6 +209,24 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         {
             _wsSession = session;
             _wsSession.addMessageHandler(this);
+            _wsSession.addMessageHandler(new MessageHandler.Whole<byte[]>()
+            {
+                @Override
+                public void onMessage(byte[] data)
+                {
+                    try
+                    {
+                        List<Mutable> messages = parseMessages(data, 0, data.length);
+                        logger.debug("Received {} binary messages", messages.size());
+                        onMessages(messages);
+                    }
+                    catch (ParseException x)
+                    {
+                        failMessages(x);
+                        disconnect("Exception");
+                    }
+                }
+            });
             logger.debug("Opened websocket session {}", session);
         }
 
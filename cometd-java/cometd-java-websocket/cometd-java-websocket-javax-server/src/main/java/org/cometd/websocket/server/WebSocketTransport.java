@@ -17,7 +17,9 @@ package org.cometd.websocket.server;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -69,6 +71,7 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         // JSR 356 does not support a input buffer size option
         int maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, container.getDefaultMaxTextMessageBufferSize());
         container.setDefaultMaxTextMessageBufferSize(maxMessageSize);
+        container.setDefaultMaxBinaryMessageBufferSize(maxMessageSize);
         long idleTimeout = getOption(IDLE_TIMEOUT_OPTION, container.getDefaultMaxSessionIdleTimeout());
         container.setDefaultMaxSessionIdleTimeout(idleTimeout);
 
@@ -117,11 +120,26 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         // The WebSocket specification makes no guarantees that async writes may be
         // invoked concurrently, so we must stay conservative and rely on blocking writes,
         // in case different implementation do not support async concurrent invocations.
+        // Blocking writes cannot be invoked concurrently either, so they are serialized.
 
         _logger.debug("Sending {}", data);
 
         // Blocking write.
-        wsSession.getBasicRemote().sendText(data);
+        synchronized (wsSession)
+        {
+            wsSession.getBasicRemote().sendText(data);
+        }
+    }
+
+    protected void send(final Session wsSession, final ServerSession session, byte[] data) throws IOException
+    {
+        _logger.debug("Sending {} bytes", data.length);
+
+        // Blocking write, see above.
+        synchronized (wsSession)
+        {
+            wsSession.getBasicRemote().sendBinary(ByteBuffer.wrap(data));
+        }
     }
 
     private class WebSocketScheduler extends Endpoint implements AbstractServerTransport.Scheduler, Runnable, MessageHandler.Whole<String>
@@ -159,6 +177,15 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         {
             _wsSession = wsSession;
             wsSession.addMessageHandler(this);
+            wsSession.addMessageHandler(new MessageHandler.Whole<byte[]>()
+            {
+                @Override
+                public void onMessage(byte[] data)
+                {
+                    _logger.debug("WebSocket Binary message on {}/{}", WebSocketTransport.this.hashCode(), WebSocketScheduler.this.hashCode());
+                    delegate.onMessage(_wsSession, data, 0, data.length);
+                }
+            });
         }
 
         @Override
@@ -367,7 +394,16 @@ public class WebSocketTransport extends AbstractWebSocketTransport<Session>
         @Override
         public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested)
         {
-            return super.getNegotiatedExtensions(installed, requested);
+            List<Extension> negotiated = new ArrayList<>();
+            for (Extension extension : super.getNegotiatedExtensions(installed, requested))
+            {
+                // JSR 356 does not allow to control the compression threshold
+                // and the compression context, only whether to compress or not
+                if (PERMESSAGE_DEFLATE_EXTENSION.equals(extension.getName()) && !isPerMessageDeflate())
+                    continue;
+                negotiated.add(extension);
+            }
+            return negotiated;
         }
 
         @Override
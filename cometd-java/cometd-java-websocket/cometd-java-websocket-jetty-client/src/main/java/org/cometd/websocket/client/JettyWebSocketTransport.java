@@ -21,6 +21,7 @@ import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.text.ParseException;
 import java.util.HashMap;
@@ -72,6 +73,7 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         _webSocketClient.getPolicy().setIdleTimeout(getIdleTimeout());
         int maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, _webSocketClient.getPolicy().getMaxTextMessageSize());
         _webSocketClient.getPolicy().setMaxTextMessageSize(maxMessageSize);
+        _webSocketClient.getPolicy().setMaxBinaryMessageSize(maxMessageSize);
         _webSocketClient.setCookieStore(getCookieStore());
     }
 
@@ -103,6 +105,23 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         }
     }
 
+    @Override
+    protected void send(Session session, byte[] content, TransportListener listener, List<Mutable> messages)
+    {
+        try
+        {
+            session.getRemote().sendBytesByFuture(ByteBuffer.wrap(content)).get();
+        }
+        catch (Throwable x)
+        {
+            if (x instanceof ExecutionException)
+                x = x.getCause();
+            complete(messages);
+            disconnect("Exception");
+            listener.onFailure(x, messages);
+        }
+    }
+
     protected Session connect(String uri, TransportListener listener, List<Mutable> messages)
     {
         Session session = _wsSession;
@@ -151,6 +170,8 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
             String protocol = getProtocol();
             if (protocol != null)
                 request.setSubProtocols(protocol);
+            if (isPerMessageDeflate())
+                request.addExtensions(PERMESSAGE_DEFLATE_EXTENSION);
             return _webSocketClient.connect(_target, new URI(uri), request).get();
         }
         catch (ExecutionException x)
@@ -204,6 +225,17 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         @Override
         public void onWebSocketBinary(byte[] payload, int offset, int len)
         {
+            try
+            {
+                List<Mutable> messages = parseMessages(payload, offset, len);
+                logger.debug("Received {} binary messages", messages.size());
+                onMessages(messages);
+            }
+            catch (ParseException x)
+            {
+                failMessages(x);
+                disconnect("Exception");
+            }
         }
 
         @Override
@@ -18,7 +18,9 @@ package org.cometd.websocket.server;
 import java.io.IOException;
 import java.net.HttpCookie;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import javax.servlet.ServletContext;
@@ -33,6 +35,7 @@ import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
 import org.eclipse.jetty.websocket.api.WebSocketPolicy;
 import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.server.WebSocketUpgradeFilter;
 import org.eclipse.jetty.websocket.server.pathmap.ServletPathSpec;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
@@ -79,6 +82,7 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
                     List<String> allowedTransports = getBayeux().getAllowedTransports();
                     if (allowedTransports.contains(getName()))
                     {
+                        negotiateExtensions(request, response);
                         WebSocketContext handshake = new WebSocketContext(context, request);
                         return new WebSocketScheduler(handshake);
                     }
@@ -100,8 +104,31 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         policy.setInputBufferSize(bufferSize);
         int maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, policy.getMaxTextMessageSize());
         policy.setMaxTextMessageSize(maxMessageSize);
+        policy.setMaxBinaryMessageSize(maxMessageSize);
         long idleTimeout = getOption(IDLE_TIMEOUT_OPTION, policy.getIdleTimeout());
         policy.setIdleTimeout((int)idleTimeout);
+
+        if (isPerMessageDeflate())
+            wsFilter.getFactory().getExtensionFactory().register(PERMESSAGE_DEFLATE_EXTENSION, ThresholdPerMessageDeflateExtension.class);
+    }
+
+    protected void negotiateExtensions(ServletUpgradeRequest request, ServletUpgradeResponse response)
+    {
+        List<ExtensionConfig> extensions = new ArrayList<>();
+        for (ExtensionConfig extension : request.getExtensions())
+        {
+            if (PERMESSAGE_DEFLATE_EXTENSION.equals(extension.getName()))
+            {
+                if (!isPerMessageDeflate())
+                    continue;
+                extension = new ExtensionConfig(extension);
+                if (!isDeflateContextTakeover())
+                    extension.setParameter("server_no_context_takeover");
+                extension.setParameter(ThresholdPerMessageDeflateExtension.THRESHOLD_PARAMETER, getCompressionThreshold());
+            }
+            extensions.add(extension);
+        }
+        response.setExtensions(extensions);
     }
 
     @Override
@@ -127,6 +154,13 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         return true;
     }
 
+    @Override
+    protected boolean isAsyncSend()
+    {
+        return true;
+    }
+
+    @Override
     protected void send(final Session wsSession, final ServerSession session, String data) throws IOException
     {
         _logger.debug("Sending {}", data);
@@ -172,6 +206,26 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         });
     }
 
+    @Override
+    protected void send(final Session wsSession, final ServerSession session, byte[] data) throws IOException
+    {
+        _logger.debug("Sending {} bytes", data.length);
+
+        wsSession.getRemote().sendBytes(ByteBuffer.wrap(data), new WriteCallback()
+        {
+            @Override
+            public void writeSuccess()
+            {
+            }
+
+            @Override
+            public void writeFailed(Throwable x)
+            {
+                handleException(wsSession, session, x);
+            }
+        });
+    }
+
     private class WebSocketScheduler extends AbstractWebSocketScheduler implements WebSocketListener
     {
         private volatile Session _wsSession;
@@ -189,6 +243,7 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport<Session>
         @Override
         public void onWebSocketBinary(byte[] payload, int offset, int len)
         {
+            onMessage(_wsSession, payload, offset, len);
         }
 
         public void onWebSocketText(String data)
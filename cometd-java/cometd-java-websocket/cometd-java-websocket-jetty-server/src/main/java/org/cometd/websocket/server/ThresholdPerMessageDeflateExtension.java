@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.websocket.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+import org.eclipse.jetty.websocket.common.frames.DataFrame;
+
+/**
+ * <p>A server-side {@code permessage-deflate} extension that does not compress
+ * messages whose size is below a threshold.</p>
+ * <p>Small messages such as {@code /meta/connect} replies do not shrink much when
+ * compressed, so they are sent uncompressed, which the {@code permessage-deflate}
+ * specification allows on a message by message basis.</p>
+ * <p>Incoming messages are decompressed by the parent class, while outgoing messages
+ * are compressed by this class, that honors the {@code server_no_context_takeover}
+ * parameter by resetting the compression context after each message.</p>
+ * <p>The threshold is passed by {@link JettyWebSocketTransport} as the
+ * {@value #THRESHOLD_PARAMETER} parameter of the extension configuration,
+ * which is not sent back to the client.</p>
+ */
+public class ThresholdPerMessageDeflateExtension extends PerMessageDeflateExtension
+{
+    public static final String THRESHOLD_PARAMETER = "x-cometd-threshold";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER_PARAMETER = "server_no_context_takeover";
+    private static final int TAIL_LENGTH = 4;
+
+    private Deflater _deflater;
+    private int _threshold;
+    private boolean _contextTakeover;
+    private boolean _compressing;
+    private boolean _continuation;
+
+    @Override
+    public void setConfig(ExtensionConfig config)
+    {
+        _threshold = config.getParameter(THRESHOLD_PARAMETER, 0);
+        _contextTakeover = !config.getParameters().containsKey(SERVER_NO_CONTEXT_TAKEOVER_PARAMETER);
+        super.setConfig(config);
+    }
+
+    public int getThreshold()
+    {
+        return _threshold;
+    }
+
+    @Override
+    public synchronized void outgoingFrame(Frame frame, WriteCallback callback)
+    {
+        if (frame.getType().isControl())
+        {
+            nextOutgoingFrame(frame, callback);
+            return;
+        }
+
+        if (!_continuation)
+        {
+            // First frame of a message: decide whether to compress the whole message
+            _compressing = !frame.isFin() || frame.getPayloadLength() >= _threshold;
+        }
+        _continuation = !frame.isFin();
+
+        if (_compressing)
+            nextOutgoingFrame(compress(frame), callback);
+        else
+            nextOutgoingFrame(frame, callback);
+    }
+
+    private Frame compress(Frame frame)
+    {
+        if (_deflater == null)
+            _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        byte[] input = frame.hasPayload() ? BufferUtil.toArray(frame.getPayload()) : new byte[0];
+        _deflater.setInput(input);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+        byte[] chunk = new byte[Math.max(64, Math.min(input.length, 8192))];
+        while (true)
+        {
+            int length = _deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            output.write(chunk, 0, length);
+            if (length < chunk.length)
+                break;
+        }
+        byte[] compressed = output.toByteArray();
+        int length = compressed.length;
+        if (frame.isFin())
+        {
+            // The sync flush marker is removed from the last frame of a message
+            length -= TAIL_LENGTH;
+            if (!_contextTakeover)
+                _deflater.reset();
+        }
+
+        boolean continuation = frame.getType() == Frame.Type.CONTINUATION;
+        DataFrame result = new DataFrame(frame, continuation);
+        result.setRsv1(!continuation);
+        result.setFin(frame.isFin());
+        result.setPayload(ByteBuffer.wrap(compressed, 0, length));
+        return result;
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized (this)
+        {
+            if (_deflater != null)
+                _deflater.end();
+            _deflater = null;
+        }
+        super.doStop();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.websocket.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.common.BinaryContext;
+import org.cometd.common.CBORContext;
+import org.cometd.common.CBORContextClient;
+import org.cometd.server.CBORContextServer;
+import org.cometd.websocket.ClientServerWebSocketTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryWebSocketTest extends ClientServerWebSocketTest
+{
+    public BinaryWebSocketTest(String implementation)
+    {
+        super(implementation);
+    }
+
+    @Test
+    public void testBinaryMessages() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("binaryContext", CBORContextServer.class.getName());
+        prepareAndStart(options);
+
+        Map<String, Object> clientOptions = new HashMap<>();
+        clientOptions.put(ClientTransport.BINARY_CONTEXT, CBORContextClient.class.getName());
+        BayeuxClient client = new BayeuxClient(cometdURL, newWebSocketTransport(clientOptions));
+
+        final AtomicReference<Object> encoding = new AtomicReference<>();
+        client.getChannel(Channel.META_HANDSHAKE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                encoding.set(message.get(BinaryContext.ENCODING_FIELD));
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertEquals(CBORContext.ENCODING, encoding.get());
+
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                subscribeLatch.countDown();
+            }
+        });
+
+        final int count = 10;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<Object> received = new ArrayList<>();
+        ClientSessionChannel channel = client.getChannel("/foo");
+        channel.subscribe(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                received.add(message.getData());
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Publish in a batch so that the server replies with several messages
+        client.startBatch();
+        for (int i = 0; i < count; ++i)
+        {
+            Map<String, Object> data = new HashMap<>();
+            data.put("index", (long)i);
+            data.put("bytes", new byte[]{(byte)i});
+            channel.publish(data);
+        }
+        client.endBatch();
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; ++i)
+        {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> data = (Map<String, Object>)received.get(i);
+            Assert.assertEquals((long)i, data.get("index"));
+            Assert.assertArrayEquals(new byte[]{(byte)i}, (byte[])data.get("bytes"));
+        }
+
+        disconnectBayeuxClient(client);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.websocket.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.server.BlockingListener;
+import org.cometd.websocket.ClientServerWebSocketTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExecutionStrategyTest extends ClientServerWebSocketTest
+{
+    public ExecutionStrategyTest(String implementation)
+    {
+        super(implementation);
+    }
+
+    private void startAdaptive() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.EXECUTION_STRATEGY_OPTION, AbstractWebSocketTransport.ADAPTIVE_STRATEGY);
+        prepareAndStart(options);
+    }
+
+    private AbstractWebSocketTransport<?> getWebSocketTransport()
+    {
+        return (AbstractWebSocketTransport<?>)bayeux.getTransport(AbstractWebSocketTransport.NAME);
+    }
+
+    @Test
+    public void testDefaultStrategyIsDispatch() throws Exception
+    {
+        prepareAndStart(null);
+
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        AbstractWebSocketTransport<?> transport = getWebSocketTransport();
+        Assert.assertEquals(AbstractWebSocketTransport.DISPATCH_STRATEGY, transport.getExecutionStrategy());
+        Assert.assertEquals(0, transport.getInlineInboundCount());
+        Assert.assertEquals(0, transport.getDispatchedInboundCount());
+        Assert.assertEquals(0, transport.getInlineOutboundCount());
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testSmallBatchesAreProcessedInline() throws Exception
+    {
+        startAdaptive();
+
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.getChannel("/inline").publish("data", new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        AbstractWebSocketTransport<?> transport = getWebSocketTransport();
+        Assert.assertTrue(transport.getInlineInboundCount() > 0);
+        Assert.assertEquals(0, transport.getDispatchedInboundCount());
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testBlockingListenerDispatchesInOrder() throws Exception
+    {
+        startAdaptive();
+
+        final String channelName = "/blocking";
+        final List<Object> received = new ArrayList<>();
+        bayeux.createChannelIfAbsent(channelName).getReference().addListener(new BlockingMessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                synchronized (received)
+                {
+                    received.add(message.getData());
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        int count = 10;
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; ++i)
+        {
+            client.getChannel(channelName).publish(i, new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    latch.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        synchronized (received)
+        {
+            Assert.assertEquals(count, received.size());
+            for (int i = 0; i < count; ++i)
+                Assert.assertEquals(i, ((Number)received.get(i)).intValue());
+        }
+
+        AbstractWebSocketTransport<?> transport = getWebSocketTransport();
+        Assert.assertTrue(transport.getDispatchedInboundCount() >= count);
+
+        disconnectBayeuxClient(client);
+    }
+
+    private interface BlockingMessageListener extends ServerChannel.MessageListener, BlockingListener
+    {
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.websocket.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+import org.cometd.websocket.ClientServerWebSocketTest;
+import org.eclipse.jetty.util.B64Code;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class PerMessageDeflateTest extends ClientServerWebSocketTest
+{
+    private static final String HANDSHAKE = "[{" +
+            "\"channel\":\"/meta/handshake\"," +
+            "\"version\":\"1.0\"," +
+            "\"supportedConnectionTypes\":[\"websocket\"]" +
+            "}]";
+
+    private Socket socket;
+
+    public PerMessageDeflateTest(String implementation)
+    {
+        super(implementation);
+    }
+
+    @After
+    public void closeSocket() throws Exception
+    {
+        if (socket != null)
+            socket.close();
+    }
+
+    @Test
+    public void testReplyIsCompressed() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.COMPRESSION_THRESHOLD_OPTION, "0");
+        prepareAndStart(options);
+
+        String extensions = upgrade();
+        Assert.assertTrue(extensions.contains(AbstractWebSocketTransport.PERMESSAGE_DEFLATE_EXTENSION));
+
+        sendText(HANDSHAKE);
+        Frame frame = readFrame();
+        Assert.assertTrue(frame.rsv1);
+        String reply = inflate(frame.payload);
+        Assert.assertTrue(reply.contains("/meta/handshake"));
+        Assert.assertTrue(reply.contains("\"successful\":true"));
+    }
+
+    @Test
+    public void testSmallReplyIsNotCompressed() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.COMPRESSION_THRESHOLD_OPTION, "1024");
+        prepareAndStart(options);
+        // JSR 356 does not allow to control the compression threshold
+        Assume.assumeTrue(WEBSOCKET_JETTY.equals(implementation));
+
+        String extensions = upgrade();
+        Assert.assertTrue(extensions.contains(AbstractWebSocketTransport.PERMESSAGE_DEFLATE_EXTENSION));
+        Assert.assertFalse(extensions.contains(ThresholdPerMessageDeflateExtension.THRESHOLD_PARAMETER));
+
+        sendText(HANDSHAKE);
+        Frame frame = readFrame();
+        Assert.assertFalse(frame.rsv1);
+        Assert.assertTrue(new String(frame.payload, StandardCharsets.UTF_8).contains("/meta/handshake"));
+    }
+
+    @Test
+    public void testPerMessageDeflateDisabled() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.PERMESSAGE_DEFLATE_OPTION, "false");
+        options.put("ws." + AbstractWebSocketTransport.COMPRESSION_THRESHOLD_OPTION, "0");
+        prepareAndStart(options);
+
+        String extensions = upgrade();
+        Assert.assertFalse(extensions.contains(AbstractWebSocketTransport.PERMESSAGE_DEFLATE_EXTENSION));
+
+        sendText(HANDSHAKE);
+        Frame frame = readFrame();
+        Assert.assertFalse(frame.rsv1);
+        Assert.assertTrue(new String(frame.payload, StandardCharsets.UTF_8).contains("/meta/handshake"));
+    }
+
+    @Test
+    public void testNoContextTakeover() throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        options.put("ws." + AbstractWebSocketTransport.DEFLATE_CONTEXT_TAKEOVER_OPTION, "false");
+        options.put("ws." + AbstractWebSocketTransport.COMPRESSION_THRESHOLD_OPTION, "0");
+        prepareAndStart(options);
+        // JSR 356 does not allow to control the compression context
+        Assume.assumeTrue(WEBSOCKET_JETTY.equals(implementation));
+
+        String extensions = upgrade();
+        Assert.assertTrue(extensions.contains("server_no_context_takeover"));
+
+        // Without context takeover, each message can be inflated independently
+        for (int i = 0; i < 2; ++i)
+        {
+            sendText(HANDSHAKE);
+            Frame frame = readFrame();
+            Assert.assertTrue(frame.rsv1);
+            Assert.assertTrue(inflate(frame.payload).contains("/meta/handshake"));
+        }
+    }
+
+    private String upgrade() throws IOException
+    {
+        socket = new Socket("localhost", connector.getLocalPort());
+        socket.setSoTimeout(5000);
+        byte[] key = new byte[16];
+        String request = "" +
+                "GET " + cometdServletPath + " HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + new String(B64Code.encode(key)) + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n" +
+                "Sec-WebSocket-Extensions: " + AbstractWebSocketTransport.PERMESSAGE_DEFLATE_EXTENSION + "\r\n" +
+                "\r\n";
+        OutputStream output = socket.getOutputStream();
+        output.write(request.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+
+        // Read the response headers byte by byte, to not consume frame bytes
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        while (true)
+        {
+            headers.write(input.readByte());
+            byte[] bytes = headers.toByteArray();
+            int length = bytes.length;
+            if (length >= 4 && bytes[length - 4] == '\r' && bytes[length - 3] == '\n' && bytes[length - 2] == '\r' && bytes[length - 1] == '\n')
+                break;
+        }
+        String response = new String(headers.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(response, response.startsWith("HTTP/1.1 101"));
+        for (String line : response.split("\r\n"))
+        {
+            if (line.toLowerCase().startsWith("sec-websocket-extensions:"))
+                return line.substring(line.indexOf(':') + 1).trim();
+        }
+        return "";
+    }
+
+    private void sendText(String text) throws IOException
+    {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        // FIN + TEXT
+        frame.write(0x81);
+        if (payload.length < 126)
+        {
+            frame.write(0x80 | payload.length);
+        }
+        else
+        {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length & 0xFF);
+        }
+        // A zero mask leaves the payload unchanged
+        frame.write(new byte[4]);
+        frame.write(payload);
+        OutputStream output = socket.getOutputStream();
+        output.write(frame.toByteArray());
+        output.flush();
+    }
+
+    private Frame readFrame() throws IOException
+    {
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        int b0 = input.readUnsignedByte();
+        int length = input.readUnsignedByte() & 0x7F;
+        if (length == 126)
+            length = input.readUnsignedShort();
+        else if (length == 127)
+            length = (int)input.readLong();
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        Frame frame = new Frame();
+        frame.rsv1 = (b0 & 0x40) != 0;
+        frame.payload = payload;
+        return frame;
+    }
+
+    private String inflate(byte[] payload) throws Exception
+    {
+        Inflater inflater = new Inflater(true);
+        // Append the tail removed by the permessage-deflate compressor
+        byte[] input = new byte[payload.length + 4];
+        System.arraycopy(payload, 0, input, 0, payload.length);
+        input[payload.length + 2] = (byte)0xFF;
+        input[payload.length + 3] = (byte)0xFF;
+        inflater.setInput(input);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!inflater.needsInput())
+        {
+            int read = inflater.inflate(buffer);
+            if (read == 0)
+                break;
+            output.write(buffer, 0, read);
+        }
+        inflater.end();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class Frame
+    {
+        private boolean rsv1;
+        private byte[] payload;
+    }
+}